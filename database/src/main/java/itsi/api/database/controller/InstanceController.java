@@ -5,6 +5,7 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import itsi.api.database.entity.Instance;
 import itsi.api.database.service.InstanceService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -55,6 +56,29 @@ public class InstanceController {
         return ResponseEntity.ok(instanceService.findByUserId(userId));
     }
 
+    @GetMapping("/user/{userId}/image/{imageId}")
+    @Operation(summary = "Instance eines Benutzers für ein Image abrufen")
+    public ResponseEntity<Instance> getInstanceByUserIdAndImageId(@PathVariable Integer userId, @PathVariable Integer imageId) {
+        return instanceService.findByUserIdAndImageId(userId, imageId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PutMapping("/user/{userId}/image/{imageId}")
+    @Operation(summary = "Instance eines Benutzers für ein Image abrufen oder anlegen",
+               description = "Gibt die bestehende Instance zurück oder legt sie atomar mit der übergebenen Container-ID an")
+    public ResponseEntity<Instance> findOrCreateInstance(@PathVariable Integer userId, @PathVariable Integer imageId,
+                                                         @RequestParam String containerId) {
+        try {
+            return instanceService.findOrCreate(userId, imageId, containerId)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (DataIntegrityViolationException e) {
+            // z.B. container_id gehört schon einer anderen Instance
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
     @GetMapping("/image/{imageId}")
     @Operation(summary = "Alle Instances eines Images abrufen")
     public ResponseEntity<List<Instance>> getInstancesByImageId(@PathVariable Integer imageId) {
@@ -94,8 +118,16 @@ public class InstanceController {
         return ResponseEntity.noContent().build();
     }
 
+    @PostMapping("/container-ids")
+    @Operation(summary = "Container-Nummern reservieren",
+               description = "Reserviert atomar einen Block eindeutiger Container-Nummern aus einer Datenbank-Sequenz (max. "
+                       + InstanceService.MAX_CONTAINER_ID_BLOCK + " pro Aufruf)")
+    public ResponseEntity<List<Long>> allocateContainerIds(@RequestParam(defaultValue = "1") int count) {
+        return ResponseEntity.ok(instanceService.allocateContainerIds(count));
+    }
+
     @GetMapping("/max-container-id")
-    @Operation(summary = "Größte Container-ID abrufen")
+    @Operation(summary = "Größte Container-ID abrufen (lexikographisch, für neue IDs /container-ids verwenden)")
     public ResponseEntity<String> getMaxContainerId() {
         return instanceService.findMaxContainerId()
                 .map(ResponseEntity::ok)
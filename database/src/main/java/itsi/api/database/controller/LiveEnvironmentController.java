@@ -26,6 +26,11 @@ public class LiveEnvironmentController {
         return env.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
     }
 
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<LiveEnvironment> getByUserId(@PathVariable Long userId) {
+        return service.findByUserId(userId).map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     @PostMapping
     public LiveEnvironment create(@RequestBody LiveEnvironment env) {
         return service.save(env);
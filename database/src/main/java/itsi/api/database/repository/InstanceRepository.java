@@ -1,8 +1,14 @@
 package itsi.api.database.repository;
 
 import itsi.api.database.entity.Instance;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -15,6 +21,33 @@ public interface InstanceRepository extends JpaRepository<Instance, Integer> {
     List<Instance> findByImageId(Integer imageId);
     List<Instance> findByStatus(String status);
 
+    // Instance eines Benutzers für ein Image (Index idx_instances_user_image), User und Image im selben Select laden
+    @EntityGraph(attributePaths = {"user", "image"})
+    Optional<Instance> findFirstByUserIdAndImageIdOrderByIdAsc(Integer userId, Integer imageId);
+
     // Größte Container-ID (lexikographisch) ermitteln
     Optional<Instance> findTopByOrderByContainerIdDesc();
+
+    // Nächste Container-Nummern aus der Sequenz container_id_seq ziehen (jeder Wert wird genau einmal vergeben)
+    @Query(value = "SELECT NEXT VALUE FOR container_id_seq FROM SYSTEM_RANGE(1, :count)", nativeQuery = true)
+    List<Long> nextContainerIds(@Param("count") int count);
+
+    // Instance für (user_id, image_id) in einem Statement anlegen, falls noch keine existiert (Name: <image>_<user>).
+    // Gibt 0 zurück, wenn sie schon existiert oder User/Image fehlen. Eigene Transaktion: ein Unique-Konflikt
+    // markiert sonst die Transaktion des Aufrufers (InstanceService.findOrCreate) als rollback-only.
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = """
+            MERGE INTO instances i
+            USING (SELECT u.id AS user_id, img.id AS image_id, CONCAT(img.name, '_', u.name) AS name
+                   FROM users u, images img
+                   WHERE u.id = :userId AND img.id = :imageId) s
+            ON i.user_id = s.user_id AND i.image_id = s.image_id
+            WHEN NOT MATCHED THEN
+                INSERT (container_id, name, image_id, user_id, status)
+                VALUES (:containerId, s.name, s.image_id, s.user_id, 'created')
+            """, nativeQuery = true)
+    int insertIfAbsent(@Param("userId") Integer userId,
+                       @Param("imageId") Integer imageId,
+                       @Param("containerId") String containerId);
 }
@@ -4,7 +4,11 @@ import itsi.api.database.entity.LiveEnvironment;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Optional;
+
 public interface LiveEnvironmentRepository extends JpaRepository<LiveEnvironment, Long> {
+    Optional<LiveEnvironment> findByUserId(Long userId);
+
     @Query("SELECT MAX(le.vncPort) FROM LiveEnvironment le")
     Integer findMaxVncPort();
 }
@@ -3,15 +3,24 @@ package itsi.api.database.service;
 import itsi.api.database.entity.Instance;
 import itsi.api.database.repository.InstanceRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
 public class InstanceService {
 
+    // Obergrenze für einen reservierten Block an Container-Nummern
+    public static final int MAX_CONTAINER_ID_BLOCK = 1000;
+
+    // Eindeutiger Index auf (user_id, image_id) aus schema.sql
+    static final String USER_IMAGE_INDEX = "idx_instances_user_image";
+
     private final InstanceRepository instanceRepository;
 
     public List<Instance> findAll() {
@@ -34,6 +43,39 @@ public class InstanceService {
         return instanceRepository.findByUserId(userId);
     }
 
+    public Optional<Instance> findByUserIdAndImageId(Integer userId, Integer imageId) {
+        return instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(userId, imageId);
+    }
+
+    // Bestehende Instance zurückgeben oder mit der übergebenen Container-ID anlegen (MERGE auf user_id, image_id).
+    // Leer, wenn User oder Image nicht existieren; andere Konflikte (z.B. vergebene container_id) werden weitergeworfen.
+    @Transactional
+    public Optional<Instance> findOrCreate(Integer userId, Integer imageId, String containerId) {
+        Optional<Instance> existing = findByUserIdAndImageId(userId, imageId);
+        if (existing.isPresent()) {
+            return existing;
+        }
+        try {
+            instanceRepository.insertIfAbsent(userId, imageId, containerId);
+        } catch (DataIntegrityViolationException e) {
+            if (!violatesIndex(e, USER_IMAGE_INDEX)) {
+                throw e;
+            }
+            // Gleichzeitige Anfrage hat die Instance zuerst angelegt, unten neu lesen
+        }
+        return findByUserIdAndImageId(userId, imageId);
+    }
+
+    // Nennt die Datenbank in der Fehlermeldung den Index? (H2 schreibt ihn in Großbuchstaben)
+    private static boolean violatesIndex(Throwable e, String index) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().toLowerCase(Locale.ROOT).contains(index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public List<Instance> findByImageId(Integer imageId) {
         return instanceRepository.findByImageId(imageId);
     }
@@ -55,4 +97,10 @@ public class InstanceService {
         return instanceRepository.findTopByOrderByContainerIdDesc()
                 .map(Instance::getContainerId);
     }
+
+    // Block eindeutiger Container-Nummern reservieren (1 bis MAX_CONTAINER_ID_BLOCK)
+    public List<Long> allocateContainerIds(int count) {
+        int blockSize = Math.max(1, Math.min(count, MAX_CONTAINER_ID_BLOCK));
+        return instanceRepository.nextContainerIds(blockSize);
+    }
 }
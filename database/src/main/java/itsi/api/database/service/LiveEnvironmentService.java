@@ -21,6 +21,10 @@ public class LiveEnvironmentService {
         return repository.findById(id);
     }
 
+    public Optional<LiveEnvironment> findByUserId(Long userId) {
+        return repository.findByUserId(userId);
+    }
+
     public LiveEnvironment save(LiveEnvironment env) {
         return repository.save(env);
     }
@@ -49,6 +49,9 @@ VALUES ('cont_7', 'nginx-proxy', 2, 1, 'running');
 INSERT INTO instances (container_id, name, image_id, user_id, status)
 VALUES ('cont_8', 'dev-database', 3, 4, 'stopped');
 
+-- Sequenz hinter die Beispiel-Container setzen
+ALTER SEQUENCE container_id_seq RESTART WITH 9;
+
 
 
 INSERT INTO live_environments (user_id, vnc_port, vnc_password, status)
@@ -28,6 +28,12 @@ CREATE TABLE IF NOT EXISTS instances ( -- Finish Container Instances Table which
     FOREIGN KEY(user_id) REFERENCES users(id)
 );
 
+-- Vergabe der Container-Nummern (cont_<n>), ersetzt MAX(container_id) + 1
+CREATE SEQUENCE IF NOT EXISTS container_id_seq START WITH 1;
+
+-- Eine Instance pro (user_id, image_id), Lookup als Index-Seek
+CREATE UNIQUE INDEX IF NOT EXISTS idx_instances_user_image ON instances(user_id, image_id);
+
 
 
 CREATE TABLE IF NOT EXISTS live_environments (
@@ -0,0 +1,78 @@
+package itsi.api.database.repository;
+
+import itsi.api.database.entity.Instance;
+import itsi.api.database.service.InstanceService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Gegen H2 mit schema.sql und data.sql; ohne Testtransaktion, weil insertIfAbsent in einer eigenen committet
+@DataJpaTest
+@Import(InstanceService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InstanceRepositoryTest {
+
+    @Autowired
+    private InstanceRepository instanceRepository;
+
+    @Autowired
+    private InstanceService instanceService;
+
+    @AfterEach
+    void tearDown() {
+        instanceRepository.findByContainerId("cont_100").ifPresent(instanceRepository::delete);
+    }
+
+    @Test
+    void insertIfAbsent_shouldInsertMissingInstance() {
+        assertEquals(1, instanceRepository.insertIfAbsent(2, 1, "cont_100"));
+
+        Instance created = instanceRepository.findByContainerId("cont_100").orElseThrow();
+        assertEquals("ubuntu-latest_john_doe", created.getName());
+        assertEquals(2, created.getUser().getId());
+        assertEquals(1, created.getImage().getId());
+        assertEquals("created", created.getStatus());
+    }
+
+    @Test
+    void insertIfAbsent_shouldKeepExistingInstance() {
+        assertEquals(0, instanceRepository.insertIfAbsent(2, 2, "cont_100"));
+
+        assertTrue(instanceRepository.findByContainerId("cont_100").isEmpty());
+        assertEquals("cont_1", instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 2)
+                .map(Instance::getContainerId).orElseThrow());
+    }
+
+    @Test
+    void insertIfAbsent_shouldSkipMissingUserOrImage() {
+        assertEquals(0, instanceRepository.insertIfAbsent(99, 1, "cont_100"));
+        assertEquals(0, instanceRepository.insertIfAbsent(2, 99, "cont_100"));
+    }
+
+    @Test
+    void insertIfAbsent_shouldRejectTakenContainerId() {
+        assertThrows(DataIntegrityViolationException.class, () -> instanceRepository.insertIfAbsent(2, 1, "cont_1"));
+        // Kein 404 aus findOrCreate, der Konflikt wird weitergeworfen
+        assertThrows(DataIntegrityViolationException.class, () -> instanceService.findOrCreate(2, 1, "cont_1"));
+    }
+
+    @Test
+    void save_shouldRejectSecondInstanceForUserAndImage() {
+        Instance existing = instanceRepository.findByContainerId("cont_1").orElseThrow();
+        Instance duplicate = new Instance(null, "cont_100", "duplicate", existing.getImage(), existing.getUser(), "created");
+
+        DataIntegrityViolationException e = assertThrows(DataIntegrityViolationException.class,
+                () -> instanceRepository.save(duplicate));
+        // findOrCreate erkennt den Konflikt am Indexnamen
+        assertTrue(e.getMostSpecificCause().getMessage().toLowerCase(Locale.ROOT).contains("idx_instances_user_image"));
+    }
+}
@@ -0,0 +1,147 @@
+package itsi.api.database.service;
+
+import itsi.api.database.entity.Image;
+import itsi.api.database.entity.Instance;
+import itsi.api.database.entity.User;
+import itsi.api.database.repository.InstanceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InstanceServiceTest {
+
+    @Mock
+    private InstanceRepository instanceRepository;
+
+    @InjectMocks
+    private InstanceService instanceService;
+
+    private Instance testInstance;
+
+    @BeforeEach
+    void setUp() {
+        User user = new User();
+        user.setId(2);
+        user.setName("john_doe");
+
+        Image image = new Image();
+        image.setId(3);
+        image.setName("postgres-14");
+
+        testInstance = new Instance();
+        testInstance.setId(1);
+        testInstance.setContainerId("cont_1");
+        testInstance.setName("postgres-14_john_doe");
+        testInstance.setUser(user);
+        testInstance.setImage(image);
+        testInstance.setStatus("running");
+    }
+
+    @Test
+    void findByUserIdAndImageId_shouldReturnInstanceWhenExists() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 3)).thenReturn(Optional.of(testInstance));
+
+        Optional<Instance> result = instanceService.findByUserIdAndImageId(2, 3);
+
+        assertTrue(result.isPresent());
+        assertEquals(testInstance, result.get());
+        verify(instanceRepository, times(1)).findFirstByUserIdAndImageIdOrderByIdAsc(2, 3);
+        verify(instanceRepository, never()).findByUserId(anyInt());
+    }
+
+    @Test
+    void findByUserIdAndImageId_shouldReturnEmptyWhenNotExists() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 99)).thenReturn(Optional.empty());
+
+        Optional<Instance> result = instanceService.findByUserIdAndImageId(2, 99);
+
+        assertFalse(result.isPresent());
+        verify(instanceRepository, times(1)).findFirstByUserIdAndImageIdOrderByIdAsc(2, 99);
+    }
+
+    @Test
+    void allocateContainerIds_shouldReturnRequestedBlock() {
+        when(instanceRepository.nextContainerIds(3)).thenReturn(List.of(9L, 10L, 11L));
+
+        List<Long> result = instanceService.allocateContainerIds(3);
+
+        assertEquals(List.of(9L, 10L, 11L), result);
+        verify(instanceRepository, times(1)).nextContainerIds(3);
+    }
+
+    @Test
+    void allocateContainerIds_shouldClampBlockSize() {
+        when(instanceRepository.nextContainerIds(anyInt())).thenReturn(List.of());
+
+        instanceService.allocateContainerIds(0);
+        instanceService.allocateContainerIds(100_000);
+
+        verify(instanceRepository, times(1)).nextContainerIds(1);
+        verify(instanceRepository, times(1)).nextContainerIds(InstanceService.MAX_CONTAINER_ID_BLOCK);
+    }
+
+    @Test
+    void findOrCreate_shouldReturnExistingWithoutInsert() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 3)).thenReturn(Optional.of(testInstance));
+
+        Optional<Instance> result = instanceService.findOrCreate(2, 3, "cont_9");
+
+        assertEquals(Optional.of(testInstance), result);
+        verify(instanceRepository, never()).insertIfAbsent(anyInt(), anyInt(), anyString());
+    }
+
+    @Test
+    void findOrCreate_shouldInsertAndReturnNewInstance() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 3))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(testInstance));
+        when(instanceRepository.insertIfAbsent(2, 3, "cont_9")).thenReturn(1);
+
+        Optional<Instance> result = instanceService.findOrCreate(2, 3, "cont_9");
+
+        assertEquals(Optional.of(testInstance), result);
+        verify(instanceRepository, times(1)).insertIfAbsent(2, 3, "cont_9");
+    }
+
+    @Test
+    void findOrCreate_shouldReturnConcurrentlyCreatedInstance() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 3))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(testInstance));
+        when(instanceRepository.insertIfAbsent(2, 3, "cont_9"))
+                .thenThrow(new DataIntegrityViolationException("Unique index idx_instances_user_image"));
+
+        Optional<Instance> result = instanceService.findOrCreate(2, 3, "cont_9");
+
+        assertEquals(Optional.of(testInstance), result);
+    }
+
+    @Test
+    void findOrCreate_shouldRethrowOtherConflicts() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 3)).thenReturn(Optional.empty());
+        when(instanceRepository.insertIfAbsent(2, 3, "cont_1"))
+                .thenThrow(new DataIntegrityViolationException("Unique index CONSTRAINT_INDEX_E ON instances(container_id)"));
+
+        assertThrows(DataIntegrityViolationException.class, () -> instanceService.findOrCreate(2, 3, "cont_1"));
+        verify(instanceRepository, times(1)).findFirstByUserIdAndImageIdOrderByIdAsc(2, 3);
+    }
+
+    @Test
+    void findOrCreate_shouldReturnEmptyWhenUserOrImageMissing() {
+        when(instanceRepository.findFirstByUserIdAndImageIdOrderByIdAsc(2, 99)).thenReturn(Optional.empty());
+        when(instanceRepository.insertIfAbsent(2, 99, "cont_9")).thenReturn(0);
+
+        assertFalse(instanceService.findOrCreate(2, 99, "cont_9").isPresent());
+    }
+}
@@ -0,0 +1,40 @@
+package itsi.api.steuerung.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import itsi.api.steuerung.websocket.live.InstanceStatusFeed;
+import itsi.api.steuerung.websocket.live.LiveUpdateLog;
+import itsi.api.steuerung.websocket.live.LiveUpdateRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import tools.jackson.databind.json.JsonMapper;
+
+@Configuration
+public class LiveUpdateConfig {
+
+    @Value("${liveenv.ws.send-time-limit:5000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${liveenv.ws.buffer-limit:524288}")
+    private int bufferLimit;
+
+    // Sitzungen von /ws/live-environment/{userId}
+    @Bean
+    @Primary
+    public LiveUpdateRegistry<Long> liveUpdateRegistry(JsonMapper jsonMapper, MeterRegistry meterRegistry) {
+        return new LiveUpdateRegistry<>(LiveUpdateLog.CHANNEL, jsonMapper, meterRegistry, sendTimeLimitMillis, bufferLimit);
+    }
+
+    // Sitzungen von /ws/instances/{userId}
+    @Bean
+    public LiveUpdateRegistry<Long> instanceUpdateRegistry(JsonMapper jsonMapper, MeterRegistry meterRegistry) {
+        return new LiveUpdateRegistry<>(InstanceStatusFeed.CHANNEL, jsonMapper, meterRegistry, sendTimeLimitMillis, bufferLimit);
+    }
+
+    // Sitzungen von /ws/topics, je Klasse oder Image
+    @Bean
+    public LiveUpdateRegistry<String> topicUpdateRegistry(JsonMapper jsonMapper, MeterRegistry meterRegistry) {
+        return new LiveUpdateRegistry<>("topics", jsonMapper, meterRegistry, sendTimeLimitMillis, bufferLimit);
+    }
+}
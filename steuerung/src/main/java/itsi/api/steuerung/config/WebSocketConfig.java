@@ -1,8 +1,18 @@
 package itsi.api.steuerung.config;
 
+import itsi.api.steuerung.websocket.InstanceStatusWebSocketHandler;
+import itsi.api.steuerung.websocket.NoVncHandshakeInterceptor;
+import itsi.api.steuerung.websocket.NoVncReplayHandler;
+import itsi.api.steuerung.websocket.NoVncSpectatorHandler;
+import itsi.api.steuerung.websocket.NoVncThumbnailHandler;
 import itsi.api.steuerung.websocket.NoVncWebSocketHandler;
+import itsi.api.steuerung.websocket.TopicWebSocketHandler;
 import itsi.api.steuerung.websocket.LiveEnvironmentWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
+import jakarta.servlet.ServletContext;
+import jakarta.websocket.server.ServerContainer;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.ServletContextAware;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
@@ -10,23 +20,81 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 @Configuration
 @EnableWebSocket
-public class WebSocketConfig implements WebSocketConfigurer {
+public class WebSocketConfig implements WebSocketConfigurer, ServletContextAware {
 
     private final NoVncWebSocketHandler noVncWebSocketHandler;
+    private final NoVncHandshakeInterceptor noVncHandshakeInterceptor;
+    private final NoVncSpectatorHandler noVncSpectatorHandler;
+    private final NoVncReplayHandler noVncReplayHandler;
+    private final NoVncThumbnailHandler noVncThumbnailHandler;
     private final LiveEnvironmentWebSocketHandler liveEnvironmentWebSocketHandler;
+    private final InstanceStatusWebSocketHandler instanceStatusWebSocketHandler;
+    private final TopicWebSocketHandler topicWebSocketHandler;
+    private final int maxTextMessageBufferSize;
+    private final int maxBinaryMessageBufferSize;
 
     @Autowired
-    public WebSocketConfig(NoVncWebSocketHandler noVncWebSocketHandler, LiveEnvironmentWebSocketHandler liveEnvironmentWebSocketHandler) {
+    public WebSocketConfig(NoVncWebSocketHandler noVncWebSocketHandler, NoVncHandshakeInterceptor noVncHandshakeInterceptor,
+                           NoVncSpectatorHandler noVncSpectatorHandler, NoVncReplayHandler noVncReplayHandler,
+                           NoVncThumbnailHandler noVncThumbnailHandler,
+                           LiveEnvironmentWebSocketHandler liveEnvironmentWebSocketHandler,
+                           InstanceStatusWebSocketHandler instanceStatusWebSocketHandler,
+                           TopicWebSocketHandler topicWebSocketHandler,
+                           @Value("${ws.container.max-text-message-buffer-size:1024}") int maxTextMessageBufferSize,
+                           @Value("${ws.container.max-binary-message-buffer-size:8192}") int maxBinaryMessageBufferSize) {
         this.noVncWebSocketHandler = noVncWebSocketHandler;
+        this.noVncHandshakeInterceptor = noVncHandshakeInterceptor;
+        this.noVncSpectatorHandler = noVncSpectatorHandler;
+        this.noVncReplayHandler = noVncReplayHandler;
+        this.noVncThumbnailHandler = noVncThumbnailHandler;
         this.liveEnvironmentWebSocketHandler = liveEnvironmentWebSocketHandler;
+        this.instanceStatusWebSocketHandler = instanceStatusWebSocketHandler;
+        this.topicWebSocketHandler = topicWebSocketHandler;
+        this.maxTextMessageBufferSize = maxTextMessageBufferSize;
+        this.maxBinaryMessageBufferSize = maxBinaryMessageBufferSize;
+    }
+
+    /**
+     * Per-session buffers of the servlet container. Tomcat allocates both message buffers for every
+     * session up front, the text buffer as chars (2 bytes each). Browsers only send short text messages to
+     * the live endpoints and binary RFB messages to noVNC, so a small text buffer saves most of the memory
+     * of an idle session; larger messages close the session with 1009 (message too big).
+     */
+    @Override
+    public void setServletContext(ServletContext servletContext) {
+        // The mock servlet context of the tests has no WebSocket container
+        if (servletContext.getAttribute(ServerContainer.class.getName()) instanceof ServerContainer container) {
+            container.setDefaultMaxTextMessageBufferSize(maxTextMessageBufferSize);
+            container.setDefaultMaxBinaryMessageBufferSize(maxBinaryMessageBufferSize);
+        }
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        // WebSocket endpoint used by noVNC: ws://host:6081/ws/novnc
+        // WebSocket endpoint used by noVNC: ws://host:9090/ws/novnc?token=<jwt> (or ?userId=)
         registry.addHandler(noVncWebSocketHandler, "/ws/novnc")
+                .addInterceptors(noVncHandshakeInterceptor)
+                .setAllowedOrigins("*");
+        // Read-only viewers sharing one VNC connection: ws://host:9090/ws/novnc/spectate?watch=<userId>&token=<jwt>
+        registry.addHandler(noVncSpectatorHandler, "/ws/novnc/spectate")
+                .addInterceptors(noVncHandshakeInterceptor)
+                .setAllowedOrigins("*");
+        // Playback of a recorded session: ws://host:9090/ws/novnc/replay?recording=<id>&from=<ms>&speed=<x>&token=<jwt>
+        registry.addHandler(noVncReplayHandler, "/ws/novnc/replay")
+                .addInterceptors(noVncHandshakeInterceptor)
+                .setAllowedOrigins("*");
+        // Thumbnails of several screens over one stream: ws://host:9090/ws/novnc/thumbnails?users=<id>,<id>,...&token=<jwt>
+        registry.addHandler(noVncThumbnailHandler, "/ws/novnc/thumbnails")
+                .addInterceptors(noVncHandshakeInterceptor)
                 .setAllowedOrigins("*");
         registry.addHandler(liveEnvironmentWebSocketHandler, "/ws/live-environment/{userId}")
                 .setAllowedOrigins("*");
+        // Status changes of a user's container instances: ws://host:9090/ws/instances/{userId}
+        registry.addHandler(instanceStatusWebSocketHandler, "/ws/instances/{userId}")
+                .setAllowedOrigins("*");
+        // Updates of every student of a class or every instance of an image: ws://host:9090/ws/topics?class=<name>&image=<id>&token=<jwt>
+        registry.addHandler(topicWebSocketHandler, "/ws/topics")
+                .addInterceptors(noVncHandshakeInterceptor)
+                .setAllowedOrigins("*");
     }
 }
\ No newline at end of file
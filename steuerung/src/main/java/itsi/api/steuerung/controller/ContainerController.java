@@ -28,101 +28,86 @@ public class ContainerController {
     private final ContainerService containerService;
     private final WebClient backendWebClient;
 
-    public ContainerController(ContainerService containerService, @Qualifier("backendWebClient") WebClient backendWebClient) {
+    public ContainerController(ContainerService containerService,
+                               @Qualifier("backendWebClient") WebClient backendWebClient) {
         this.containerService = containerService;
         this.backendWebClient = backendWebClient;
     }
 
     @PostMapping("/start")
     @Operation(summary = "Start Container", description = "Starts a container and updates the database")
-    public ResponseEntity<ContainerOperationResponse> startContainer(
+    public Mono<ResponseEntity<ContainerOperationResponse>> startContainer(
             @RequestBody ContainerOperationRequest request) {
         log.info("Received start request: {}", request);
-        ContainerOperationResponse response = containerService.startContainer(request);
-        return response.isSuccess() ? 
-                ResponseEntity.ok(response) : 
-                ResponseEntity.badRequest().body(response);
+        return containerService.startContainer(request)
+                .map(response -> response.isSuccess() ?
+                        ResponseEntity.ok(response) :
+                        ResponseEntity.badRequest().body(response));
     }
 
     @PostMapping("/stop")
     @Operation(summary = "Stop Container", description = "Stops a container and updates the database")
-    public ResponseEntity<ContainerOperationResponse> stopContainer(
+    public Mono<ResponseEntity<ContainerOperationResponse>> stopContainer(
             @RequestBody ContainerOperationRequest request) {
         log.info("Received stop request: {}", request);
-        ContainerOperationResponse response = containerService.stopContainer(request);
-        return response.isSuccess() ? 
-                ResponseEntity.ok(response) : 
-                ResponseEntity.badRequest().body(response);
+        return containerService.stopContainer(request)
+                .map(response -> response.isSuccess() ?
+                        ResponseEntity.ok(response) :
+                        ResponseEntity.badRequest().body(response));
     }
 
     @PostMapping("/reset")
     @Operation(summary = "Reset Container", description = "Resets a container (stops and starts fresh) and updates the database")
-    public ResponseEntity<ContainerOperationResponse> resetContainer(
+    public Mono<ResponseEntity<ContainerOperationResponse>> resetContainer(
             @RequestBody ContainerOperationRequest request) {
         log.info("Received reset request: {}", request);
-        ContainerOperationResponse response = containerService.resetContainer(request);
-        return response.isSuccess() ? 
-                ResponseEntity.ok(response) : 
-                ResponseEntity.badRequest().body(response);
+        return containerService.resetContainer(request)
+                .map(response -> response.isSuccess() ?
+                        ResponseEntity.ok(response) :
+                        ResponseEntity.badRequest().body(response));
     }
 
     @PostMapping("/upload")
     @Operation(summary = "Upload File to Container", description = "Uploads a file for a container and forwards it to the backend or stores it.")
-    public ResponseEntity<String> uploadFile(
+    public Mono<ResponseEntity<String>> uploadFile(
             @RequestParam("file") MultipartFile file,
-            @RequestParam("userId") String userId,
-            @RequestParam("imageId") String imageId,
+            @RequestParam("userId") Integer userId,
+            @RequestParam("imageId") Integer imageId,
             @RequestParam Map<String, String> allParams) {
         log.info("Received file upload: {} ({} bytes) for userId={} imageId={}", file.getOriginalFilename(), file.getSize(), userId, imageId);
         if (file.isEmpty()) {
-            return ResponseEntity.badRequest().body("File is empty");
-        }
-        try {
-            // Prüfe, ob Instanz für userId und imageId existiert
-            String instanceCheckUrl = String.format("/api/instances/user/%s/image/%s", userId, imageId);
-            Map<String, Object> instance = backendWebClient.get()
-                    .uri(instanceCheckUrl)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-            if (instance == null || instance.get("id") == null) {
-                // Instanz existiert nicht, also erstellen
-                Map<String, Object> newInstance = Map.of(
-                        "userId", userId,
-                        "imageId", imageId
-                );
-                instance = backendWebClient.post()
-                        .uri("/api/instances")
-                        .bodyValue(newInstance)
-                        .retrieve()
-                        .bodyToMono(Map.class)
-                        .block();
-                log.info("Neue Instanz erstellt: {}", instance);
-            }
-            // Instanzdaten ggf. an den Upload anhängen
-            MultipartBodyBuilder builder = new MultipartBodyBuilder();
-            builder.part("file", file.getResource());
-            builder.part("userId", userId);
-            builder.part("imageId", imageId);
-            builder.part("instanceId", instance.get("id").toString());
-            // Alle weiteren Parameter anhängen (außer file, userId, imageId, instanceId)
-            for (Map.Entry<String, String> entry : allParams.entrySet()) {
-                if (!"file".equals(entry.getKey()) && !"userId".equals(entry.getKey()) && !"imageId".equals(entry.getKey()) && !"instanceId".equals(entry.getKey())) {
-                    builder.part(entry.getKey(), entry.getValue());
-                }
-            }
-            @SuppressWarnings("unchecked")
-            MultiValueMap<String, Object> multipartData = (MultiValueMap<String, Object>) (MultiValueMap<?, ?>) builder.build();
-            String backendResponse = backendWebClient.post()
-                    .uri("/containers/upload")
-                    .body(BodyInserters.fromMultipartData(multipartData))
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            return ResponseEntity.ok("Backend response: " + backendResponse);
-        } catch (Exception e) {
-            log.error("File upload failed", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("File upload failed: " + e.getMessage());
+            return Mono.just(ResponseEntity.badRequest().body("File is empty"));
         }
+        // Instanz für userId und imageId suchen bzw. erstellen
+        return containerService.findOrCreateInstance(userId, imageId)
+                .switchIfEmpty(Mono.error(new IllegalStateException(
+                        "No instance for userId " + userId + " and imageId " + imageId)))
+                .flatMap(instance -> {
+                    // Instanzdaten ggf. an den Upload anhängen
+                    MultipartBodyBuilder builder = new MultipartBodyBuilder();
+                    builder.part("file", file.getResource());
+                    builder.part("userId", userId.toString());
+                    builder.part("imageId", imageId.toString());
+                    builder.part("instanceId", instance.getId().toString());
+                    // Alle weiteren Parameter anhängen (außer file, userId, imageId, instanceId)
+                    for (Map.Entry<String, String> entry : allParams.entrySet()) {
+                        if (!"file".equals(entry.getKey()) && !"userId".equals(entry.getKey()) && !"imageId".equals(entry.getKey()) && !"instanceId".equals(entry.getKey())) {
+                            builder.part(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    @SuppressWarnings("unchecked")
+                    MultiValueMap<String, Object> multipartData = (MultiValueMap<String, Object>) (MultiValueMap<?, ?>) builder.build();
+                    return backendWebClient.post()
+                            .uri("/containers/upload")
+                            .body(BodyInserters.fromMultipartData(multipartData))
+                            .retrieve()
+                            .bodyToMono(String.class)
+                            .defaultIfEmpty("");
+                })
+                .map(backendResponse -> ResponseEntity.ok("Backend response: " + backendResponse))
+                .onErrorResume(e -> {
+                    log.error("File upload failed", e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("File upload failed: " + e.getMessage()));
+                });
     }
 }
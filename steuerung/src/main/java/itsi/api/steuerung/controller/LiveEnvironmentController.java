@@ -2,229 +2,323 @@ package itsi.api.steuerung.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.WebSocketSession;
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.ScreenAccess;
+import itsi.api.steuerung.service.VncPortPool;
+import itsi.api.steuerung.service.VncTargetResolver;
 import itsi.api.steuerung.websocket.LiveEnvironmentWebSocketHandler;
+import itsi.api.steuerung.websocket.novnc.SessionRecorder;
+import itsi.api.steuerung.websocket.novnc.WarmUpstreamPool;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.HashMap;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/live-environment")
 @Slf4j
 public class LiveEnvironmentController {
-    private final WebClient databaseWebClient;
+    private final DatabaseService databaseService;
+    private final VncPortPool vncPortPool;
     private final WebClient backendWebClient;
     private final LiveEnvironmentWebSocketHandler liveEnvironmentWebSocketHandler;
+    private final VncTargetResolver vncTargetResolver;
+    private final WarmUpstreamPool warmUpstreamPool;
+    private final SessionRecorder sessionRecorder;
+    private final ScreenAccess screenAccess;
+    private final Duration backendTimeout;
+    private final long retryAfterSeconds;
 
     @Autowired
-    public LiveEnvironmentController(@Qualifier("databaseWebClient") WebClient databaseWebClient,
+    public LiveEnvironmentController(DatabaseService databaseService,
+                                    VncPortPool vncPortPool,
                                     @Qualifier("backendWebClient") WebClient backendWebClient,
-                                    LiveEnvironmentWebSocketHandler liveEnvironmentWebSocketHandler) {
-        this.databaseWebClient = databaseWebClient;
+                                    LiveEnvironmentWebSocketHandler liveEnvironmentWebSocketHandler,
+                                    VncTargetResolver vncTargetResolver,
+                                    WarmUpstreamPool warmUpstreamPool,
+                                    SessionRecorder sessionRecorder,
+                                    ScreenAccess screenAccess,
+                                    @Value("${backend.api.timeout:60000}") long backendTimeoutMillis,
+                                    @Value("${liveenv.ports.retry-after-seconds:30}") long retryAfterSeconds) {
+        this.databaseService = databaseService;
+        this.vncPortPool = vncPortPool;
         this.backendWebClient = backendWebClient;
         this.liveEnvironmentWebSocketHandler = liveEnvironmentWebSocketHandler;
+        this.vncTargetResolver = vncTargetResolver;
+        this.warmUpstreamPool = warmUpstreamPool;
+        this.sessionRecorder = sessionRecorder;
+        this.screenAccess = screenAccess;
+        this.backendTimeout = Duration.ofMillis(backendTimeoutMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
     }
 
     @PostMapping("/start/{userId}")
-    public ResponseEntity<?> startLiveEnvironment(@PathVariable Long userId) {
-        try {
-            // Prüfe, ob Live-Environment existiert
-            Map<String, Object> liveEnv = databaseWebClient.get()
-                    .uri("/api/live-environments/" + userId)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            if (liveEnv == null || liveEnv.get("id") == null) {
-                // Neues Live-Environment anlegen
-                Integer maxVncPort = databaseWebClient.get()
-                        .uri("/api/live-environments/max-vnc-port")
-                        .retrieve()
-                        .bodyToMono(Integer.class)
-                        .block();
-                int newVncPort = (maxVncPort != null ? maxVncPort : 5900) + 1;
-                Map<String, Object> newEnv = new HashMap<>();
-                newEnv.put("userId", userId);
-                newEnv.put("status", "running");
-                newEnv.put("vncHost", "localhost");
-                newEnv.put("vncPassword", "password123");
-                newEnv.put("vncPort", newVncPort);
-
-                // Erstelle in Datenbank
-                liveEnv = databaseWebClient.post()
-                        .uri("/api/live-environments")
-                        .bodyValue(newEnv)
-                        .retrieve()
-                        .bodyToMono(Map.class)
-                        .block();
-            }
-
-            // Sende START an Backend
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/live/start")
-                    .bodyValue(liveEnv)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            // Update Status in Datenbank
-            liveEnv.put("status", "running");
-            liveEnv = databaseWebClient.put()
-                    .uri("/api/live-environments/" + liveEnv.get("id"))
-                    .bodyValue(liveEnv)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            // WebSocket: noVNC-Port setzen und senden
-            int vncPort = (int) liveEnv.get("vncPort");
-            int noVncPort = 6000 + (vncPort % 100);
-            liveEnv.put("noVncPort", noVncPort);
-            liveEnvironmentWebSocketHandler.sendToUser(userId, liveEnv);
-
-            log.info("Live environment started for user {}: {}", userId, liveEnv);
-            return ResponseEntity.ok(liveEnv);
-        } catch (Exception e) {
-            log.error("Failed to start live environment for user {}", userId, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", e.getMessage()));
-        }
+    public Mono<ResponseEntity<?>> startLiveEnvironment(@PathVariable Long userId) {
+        return afterAdoption(() -> start(userId));
+    }
+
+    private Mono<ResponseEntity<?>> start(Long userId) {
+        boolean hadLease = vncPortPool.leaseOf(userId).isPresent();
+        // Prüfe, ob Live-Environment existiert, sonst neues anlegen
+        return databaseService.getLiveEnvironmentByUserId(userId)
+                .filter(liveEnv -> liveEnv.get("id") != null)
+                .map(liveEnv -> {
+                    // Port-Paar leasen, bisheriger VNC-Port wird wenn möglich beibehalten
+                    VncPortPool.Lease lease = vncPortPool.lease(userId, (Integer) liveEnv.get("vncPort"));
+                    liveEnv.put("vncPort", lease.vncPort());
+                    return liveEnv;
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    VncPortPool.Lease lease = vncPortPool.lease(userId, null);
+                    Map<String, Object> newEnv = new HashMap<>();
+                    newEnv.put("userId", userId);
+                    newEnv.put("status", "running");
+                    newEnv.put("vncHost", "localhost");
+                    newEnv.put("vncPassword", "password123");
+                    newEnv.put("vncPort", lease.vncPort());
+
+                    // Erstelle in Datenbank
+                    return databaseService.createLiveEnvironment(newEnv);
+                }))
+                // Sende START an Backend, danach Status in Datenbank setzen
+                .flatMap(liveEnv -> sendToBackend("/live/start", liveEnv)
+                        .then(Mono.defer(() -> {
+                            liveEnv.put("status", "running");
+                            return databaseService.updateLiveEnvironment(id(liveEnv), liveEnv);
+                        })))
+                .<ResponseEntity<?>>map(liveEnv -> {
+                    // WebSocket: noVNC-Port setzen und senden
+                    int vncPort = (int) liveEnv.get("vncPort");
+                    liveEnv.put("noVncPort", vncPortPool.noVncPortFor(vncPort));
+                    liveEnvironmentWebSocketHandler.sendToUser(userId, liveEnv);
+                    // VNC-Verbindung vorab öffnen, damit der Bildschirm sofort erscheint
+                    prewarm(userId, liveEnv);
+
+                    log.info("Live environment started for user {}: {}", userId, liveEnv);
+                    return ResponseEntity.ok(liveEnv);
+                })
+                .onErrorResume(e -> {
+                    if (!hadLease) {
+                        vncPortPool.release(userId);
+                    }
+                    if (e instanceof VncPortPool.ExhaustedException exhausted) {
+                        log.warn("Cannot start live environment for user {}: {}", userId, exhausted.getMessage());
+                        return Mono.just(poolExhausted(exhausted));
+                    }
+                    log.error("Failed to start live environment for user {}", userId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(Map.of("error", String.valueOf(e.getMessage()))));
+                });
     }
 
     @PostMapping("/stop/{userId}")
-    public ResponseEntity<?> stopLiveEnvironment(@PathVariable Long userId) {
-        try {
-            Map<String, Object> liveEnv = databaseWebClient.get()
-                    .uri("/api/live-environments/" + userId)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            if (liveEnv == null || liveEnv.get("id") == null) {
-                return ResponseEntity.badRequest().body("No live environment found for user " + userId);
-            }
-
-            // Sende STOP an Backend
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/live/stop")
-                    .bodyValue(liveEnv)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            // Update Status in Datenbank
-            liveEnv.put("status", "stopped");
-            liveEnv = databaseWebClient.put()
-                    .uri("/api/live-environments/" + liveEnv.get("id"))
-                    .bodyValue(liveEnv)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            // WebSocket: Status senden
-            liveEnvironmentWebSocketHandler.sendToUser(userId, liveEnv);
-
-            log.info("Live environment stopped for user {}: {}", userId, liveEnv);
-            return ResponseEntity.ok(liveEnv);
-        } catch (Exception e) {
-            log.error("Failed to stop live environment for user {}", userId, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", e.getMessage()));
-        }
+    public Mono<ResponseEntity<?>> stopLiveEnvironment(@PathVariable Long userId) {
+        return databaseService.getLiveEnvironmentByUserId(userId)
+                .filter(liveEnv -> liveEnv.get("id") != null)
+                // Sende STOP an Backend, danach Status in Datenbank setzen
+                .flatMap(liveEnv -> sendToBackend("/live/stop", liveEnv)
+                        .then(Mono.defer(() -> {
+                            liveEnv.put("status", "stopped");
+                            return databaseService.updateLiveEnvironment(id(liveEnv), liveEnv);
+                        })))
+                .<ResponseEntity<?>>map(liveEnv -> {
+                    // Ports und vorab geöffnete VNC-Verbindung wieder freigeben
+                    vncPortPool.release(userId);
+                    warmUpstreamPool.discard(userId);
+
+                    // WebSocket: Status senden
+                    liveEnvironmentWebSocketHandler.sendToUser(userId, liveEnv);
+
+                    log.info("Live environment stopped for user {}: {}", userId, liveEnv);
+                    return ResponseEntity.ok(liveEnv);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        ResponseEntity.badRequest().body("No live environment found for user " + userId)))
+                .onErrorResume(e -> {
+                    log.error("Failed to stop live environment for user {}", userId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(Map.of("error", String.valueOf(e.getMessage()))));
+                });
     }
 
     @PostMapping("/reset/{userId}")
-    public ResponseEntity<?> resetLiveEnvironment(@PathVariable Long userId) {
-        try {
-            Map<String, Object> liveEnv = databaseWebClient.get()
-                    .uri("/api/live-environments/" + userId)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            if (liveEnv == null || liveEnv.get("id") == null) {
-                return ResponseEntity.badRequest().body("No live environment found for user " + userId);
-            }
-
-            // Sende RESET an Backend
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/live/reset")
-                    .bodyValue(liveEnv)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            // Update Status in Datenbank
-            liveEnv.put("status", "running");
-            liveEnv = databaseWebClient.put()
-                    .uri("/api/live-environments/" + liveEnv.get("id"))
-                    .bodyValue(liveEnv)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .block();
-
-            // WebSocket: Status senden
-            int vncPort = (int) liveEnv.get("vncPort");
-            int noVncPort = 6000 + (vncPort % 100);
-            liveEnv.put("noVncPort", noVncPort);
-            liveEnvironmentWebSocketHandler.sendToUser(userId, liveEnv);
-
-            log.info("Live environment reset for user {}: {}", userId, liveEnv);
-            return ResponseEntity.ok(liveEnv);
-        } catch (Exception e) {
-            log.error("Failed to reset live environment for user {}", userId, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(Map.of("error", e.getMessage()));
-        }
+    public Mono<ResponseEntity<?>> resetLiveEnvironment(@PathVariable Long userId) {
+        return databaseService.getLiveEnvironmentByUserId(userId)
+                .filter(liveEnv -> liveEnv.get("id") != null)
+                // Sende RESET an Backend, danach Status in Datenbank setzen
+                .flatMap(liveEnv -> sendToBackend("/live/reset", liveEnv)
+                        .then(Mono.defer(() -> {
+                            liveEnv.put("status", "running");
+                            return databaseService.updateLiveEnvironment(id(liveEnv), liveEnv);
+                        })))
+                .<ResponseEntity<?>>map(liveEnv -> {
+                    // WebSocket: Status senden
+                    int vncPort = (int) liveEnv.get("vncPort");
+                    liveEnv.put("noVncPort", vncPortPool.noVncPortFor(vncPort));
+                    liveEnvironmentWebSocketHandler.sendToUser(userId, liveEnv);
+                    prewarm(userId, liveEnv);
+
+                    log.info("Live environment reset for user {}: {}", userId, liveEnv);
+                    return ResponseEntity.ok(liveEnv);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        ResponseEntity.badRequest().body("No live environment found for user " + userId)))
+                .onErrorResume(e -> {
+                    log.error("Failed to reset live environment for user {}", userId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(Map.of("error", String.valueOf(e.getMessage()))));
+                });
     }
 
     @PostMapping("/create")
-    public ResponseEntity<?> createLiveEnvironment(@RequestBody Map<String, Object> newEnv) {
-        // Hole den aktuellen max VNC-Port
-        Integer maxVncPort = databaseWebClient.get()
-                .uri("/api/live-environments/max-vnc-port")
-                .retrieve()
-                .bodyToMono(Integer.class)
-                .block();
-        int newVncPort = (maxVncPort != null ? maxVncPort : 5900) + 1;
-        newEnv.put("vncPort", newVncPort);
-        newEnv.putIfAbsent("vncHost", "localhost");
+    public Mono<ResponseEntity<?>> createLiveEnvironment(@RequestBody Map<String, Object> newEnv) {
         // Passwort MUSS gesetzt werden, sonst Fehler
         if (!newEnv.containsKey("vncPassword") || newEnv.get("vncPassword") == null || newEnv.get("vncPassword").toString().isEmpty()) {
-            return ResponseEntity.badRequest().body("vncPassword muss angegeben werden!");
+            return Mono.just(ResponseEntity.badRequest().body("vncPassword muss angegeben werden!"));
+        }
+        if (!(newEnv.get("userId") instanceof Number)) {
+            return Mono.just(ResponseEntity.badRequest().body("userId muss angegeben werden!"));
+        }
+        long userId = ((Number) newEnv.get("userId")).longValue();
+        return afterAdoption(() -> create(userId, newEnv));
+    }
+
+    private Mono<ResponseEntity<?>> create(long userId, Map<String, Object> newEnv) {
+        boolean hadLease = vncPortPool.leaseOf(userId).isPresent();
+
+        // VNC-/noVNC-Port-Paar aus dem Pool
+        VncPortPool.Lease lease;
+        try {
+            lease = vncPortPool.lease(userId, null);
+        } catch (VncPortPool.ExhaustedException e) {
+            log.warn("Cannot create live environment for user {}: {}", userId, e.getMessage());
+            return Mono.just(poolExhausted(e));
         }
+        newEnv.put("vncPort", lease.vncPort());
+        newEnv.putIfAbsent("vncHost", "localhost");
         newEnv.putIfAbsent("status", "stopped");
         // Backend erstellt ID
-        Map<String, Object> createdEnv = databaseWebClient.post()
-                .uri("/api/live-environments")
-                .bodyValue(newEnv)
-                .retrieve()
-                .bodyToMono(Map.class)
-                .block();
-        return ResponseEntity.ok(createdEnv);
+        return databaseService.createLiveEnvironment(newEnv)
+                .<ResponseEntity<?>>map(created -> {
+                    // Gestoppt hält es wie nach stop keinen Lease, start nimmt den Port wenn möglich wieder
+                    if (!hadLease && "stopped".equals(newEnv.get("status"))) {
+                        vncPortPool.release(userId);
+                    }
+                    return ResponseEntity.ok(created);
+                })
+                .doOnError(e -> {
+                    if (!hadLease) {
+                        vncPortPool.release(userId);
+                    }
+                });
+    }
+
+    @DeleteMapping("/{userId}")
+    public Mono<ResponseEntity<?>> deleteLiveEnvironment(@PathVariable Long userId) {
+        return databaseService.getLiveEnvironmentByUserId(userId)
+                .filter(liveEnv -> liveEnv.get("id") != null)
+                .<ResponseEntity<?>>flatMap(liveEnv -> databaseService.deleteLiveEnvironment(id(liveEnv))
+                        .then(Mono.fromSupplier(() -> {
+                            // Ports wieder freigeben
+                            vncPortPool.release(userId);
+                            warmUpstreamPool.discard(userId);
+                            log.info("Live environment deleted for user {}", userId);
+                            return ResponseEntity.noContent().build();
+                        })))
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        ResponseEntity.badRequest().body("No live environment found for user " + userId)))
+                .onErrorResume(e -> {
+                    log.error("Failed to delete live environment for user {}", userId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(Map.of("error", String.valueOf(e.getMessage()))));
+                });
     }
 
     @GetMapping("/vnc-port/{userId}")
-    public ResponseEntity<?> getVncPortByUserId(@PathVariable Long userId) {
+    public Mono<ResponseEntity<?>> getVncPortByUserId(@PathVariable Long userId) {
         // Hole das Live-Environment für den User
-        Map<String, Object> liveEnv = databaseWebClient.get()
-                .uri("/api/live-environments/" + userId)
+        return databaseService.getLiveEnvironmentByUserId(userId)
+                .filter(liveEnv -> liveEnv.get("vncPort") != null)
+                .<ResponseEntity<?>>map(liveEnv -> {
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("vncPort", liveEnv.get("vncPort"));
+                    if (liveEnv.get("vncPassword") != null) {
+                        result.put("vncPassword", liveEnv.get("vncPassword"));
+                    }
+                    return ResponseEntity.ok(result);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        ResponseEntity.status(HttpStatus.NOT_FOUND).body("Kein VNC-Port für diesen User gefunden!")));
+    }
+
+    @GetMapping("/recordings/{userId}")
+    public ResponseEntity<List<Map<String, Object>>> getRecordings(@PathVariable Long userId,
+                                                                   @RequestHeader(value = "Authorization", required = false) String authorization) {
+        // Nur eigene Aufzeichnungen, fremde nur für Lehrer und Admins
+        Optional<ScreenAccess.Viewer> viewer = screenAccess.fromAuthorization(authorization);
+        if (viewer.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (!ScreenAccess.maySee(viewer.get().userId(), viewer.get().role(), userId)) {
+            log.warn("User {} ({}) may not list the recordings of user {}", viewer.get().userId(), viewer.get().role(), userId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        // Aufzeichnungen der noVNC-Sitzungen, abspielbar über /ws/novnc/replay?recording=<id>
+        return ResponseEntity.ok(sessionRecorder.list(userId));
+    }
+
+    // 503 mit Retry-After, damit Clients später erneut versuchen statt sofort
+    // Erst nach der Übernahme der Ports laufender Live-Environments leasen; schlägt sie fehl, 503 und später erneut
+    private Mono<ResponseEntity<?>> afterAdoption(Supplier<Mono<ResponseEntity<?>>> action) {
+        return vncPortPool.adopted()
+                .thenReturn(true)
+                .onErrorResume(e -> {
+                    log.warn("Could not adopt the VNC ports of running live environments", e);
+                    return Mono.just(false);
+                })
+                .flatMap(adopted -> adopted ? action.get()
+                        : Mono.just(serviceUnavailable("VNC ports of running live environments not adopted yet")));
+    }
+
+    private ResponseEntity<?> poolExhausted(VncPortPool.ExhaustedException e) {
+        return serviceUnavailable(e.getMessage());
+    }
+
+    private ResponseEntity<?> serviceUnavailable(String error) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(Map.of("error", error));
+    }
+
+    private Mono<Void> sendToBackend(String uri, Map<String, Object> liveEnv) {
+        return backendWebClient.post()
+                .uri(uri)
+                .bodyValue(liveEnv)
                 .retrieve()
                 .bodyToMono(Map.class)
-                .block();
-        if (liveEnv == null || liveEnv.get("vncPort") == null) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Kein VNC-Port für diesen User gefunden!");
-        }
-        Map<String, Object> result = new HashMap<>();
-        result.put("vncPort", liveEnv.get("vncPort"));
-        if (liveEnv.get("vncPassword") != null) {
-            result.put("vncPassword", liveEnv.get("vncPassword"));
+                .timeout(backendTimeout)
+                .then();
+    }
+
+    private void prewarm(Long userId, Map<String, Object> liveEnv) {
+        VncTargetResolver.VncTarget target = vncTargetResolver.targetOf(liveEnv);
+        if (target != null) {
+            warmUpstreamPool.warm(userId, target.host(), target.port());
         }
-        return ResponseEntity.ok(result);
+    }
+
+    private static Integer id(Map<String, Object> liveEnv) {
+        return ((Number) liveEnv.get("id")).intValue();
     }
 }
@@ -0,0 +1,68 @@
+package itsi.api.steuerung.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import itsi.api.steuerung.service.ReferenceDataCache;
+import itsi.api.steuerung.service.SingleFlight;
+import itsi.api.steuerung.service.VncTargetResolver;
+import itsi.api.steuerung.websocket.live.LiveSnapshotCache;
+import itsi.api.steuerung.websocket.novnc.BandwidthShaper;
+import itsi.api.steuerung.websocket.novnc.NoVncSendPath;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/stats")
+@Tag(name = "Statistics", description = "Runtime statistics of the middleware")
+public class StatsController {
+
+    private final ReferenceDataCache referenceDataCache;
+    private final SingleFlight singleFlight;
+    private final NoVncSendPath noVncSendPath;
+    private final VncTargetResolver vncTargetResolver;
+    private final BandwidthShaper bandwidthShaper;
+    private final LiveSnapshotCache liveSnapshotCache;
+
+    public StatsController(ReferenceDataCache referenceDataCache, SingleFlight singleFlight,
+                           NoVncSendPath noVncSendPath, VncTargetResolver vncTargetResolver,
+                           BandwidthShaper bandwidthShaper, LiveSnapshotCache liveSnapshotCache) {
+        this.referenceDataCache = referenceDataCache;
+        this.singleFlight = singleFlight;
+        this.noVncSendPath = noVncSendPath;
+        this.vncTargetResolver = vncTargetResolver;
+        this.bandwidthShaper = bandwidthShaper;
+        this.liveSnapshotCache = liveSnapshotCache;
+    }
+
+    @GetMapping("/cache")
+    @Operation(summary = "Cache Statistics", description = "Size, hits, misses and evictions of the reference data caches")
+    public ResponseEntity<Map<String, Map<String, Object>>> getCacheStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>(referenceDataCache.stats());
+        stats.put("vncTargets", vncTargetResolver.stats());
+        stats.put("liveSnapshots", liveSnapshotCache.stats());
+        return ResponseEntity.ok(stats);
+    }
+
+    @GetMapping("/coalescing")
+    @Operation(summary = "Request Coalescing", description = "How many database API reads were collapsed into a shared call")
+    public ResponseEntity<Map<String, Object>> getCoalescingStats() {
+        return ResponseEntity.ok(singleFlight.stats());
+    }
+
+    @GetMapping("/novnc")
+    @Operation(summary = "noVNC Traffic", description = "Bytes, frames, send latency and connect timings per noVNC session, busiest first")
+    public ResponseEntity<Map<String, Object>> getNoVncStats() {
+        return ResponseEntity.ok(noVncSendPath.stats());
+    }
+
+    @GetMapping("/novnc/shaping")
+    @Operation(summary = "noVNC Bandwidth Shaping", description = "Rate limits, waiting sessions and the current bandwidth share of every noVNC session")
+    public ResponseEntity<Map<String, Object>> getNoVncShapingStats() {
+        return ResponseEntity.ok(bandwidthShaper.stats());
+    }
+}
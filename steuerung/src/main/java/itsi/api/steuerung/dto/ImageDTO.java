@@ -11,4 +11,8 @@ public class ImageDTO {
     private Integer id;
     private String name;
     private String imageRef;
+
+    public ImageDTO copy() {
+        return new ImageDTO(id, name, imageRef);
+    }
 }
@@ -39,4 +39,11 @@ public class InstanceDTO {
         }
         this.user.setId(userId);
     }
+
+    public InstanceDTO copy() {
+        return new InstanceDTO(id, containerId, name,
+                image != null ? image.copy() : null,
+                user != null ? user.copy() : null,
+                status);
+    }
 }
@@ -17,4 +17,8 @@ public class UserDTO {
     private String role;
     private Timestamp createdAt;
     private Timestamp expiredAt;
+
+    public UserDTO copy() {
+        return new UserDTO(id, name, email, className, role, createdAt, expiredAt);
+    }
 }
@@ -0,0 +1,100 @@
+package itsi.api.steuerung.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out container IDs of the form "cont_&lt;n&gt;".
+ *
+ * The numbers come from the database sequence {@code container_id_seq}, reserved in blocks via
+ * {@code POST /api/instances/container-ids}. IDs are served from the local block without a network
+ * hop; a new block is fetched in the background once fewer than {@code container.id.refill-threshold}
+ * IDs remain. Concurrent refills are collapsed into one request. Numbers left over when the
+ * application stops are simply never used.
+ */
+@Component
+@Slf4j
+public class ContainerIdAllocator {
+
+    public static final String CONTAINER_ID_PREFIX = "cont_";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final DatabaseService databaseService;
+    private final int blockSize;
+    private final int refillThreshold;
+
+    private final ConcurrentLinkedQueue<Long> reserved = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger available = new AtomicInteger();
+    private Mono<Void> pendingRefill;
+
+    public ContainerIdAllocator(DatabaseService databaseService,
+                                @Value("${container.id.block-size:100}") int blockSize,
+                                @Value("${container.id.refill-threshold:20}") int refillThreshold) {
+        this.databaseService = databaseService;
+        this.blockSize = blockSize;
+        this.refillThreshold = refillThreshold;
+    }
+
+    public Mono<String> nextContainerId() {
+        return nextContainerId(1);
+    }
+
+    /**
+     * Gibt eine nicht verwendete ID zurück, z.B. wenn eine andere Anfrage die Instanz bereits angelegt hat.
+     */
+    public void release(String containerId) {
+        if (containerId == null || !containerId.startsWith(CONTAINER_ID_PREFIX)) {
+            return;
+        }
+        try {
+            reserved.add(Long.parseLong(containerId.substring(CONTAINER_ID_PREFIX.length())));
+            available.incrementAndGet();
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring foreign container ID {}", containerId);
+        }
+    }
+
+    private Mono<String> nextContainerId(int attempt) {
+        return Mono.defer(() -> {
+            Long next = reserved.poll();
+            if (next != null) {
+                if (available.decrementAndGet() < refillThreshold) {
+                    refill().subscribe(null, e -> log.warn("Background refill of container IDs failed", e));
+                }
+                return Mono.just(CONTAINER_ID_PREFIX + next);
+            }
+            if (attempt >= MAX_ATTEMPTS) {
+                return Mono.error(new IllegalStateException("No container IDs available from the database"));
+            }
+            return refill().then(nextContainerId(attempt + 1));
+        });
+    }
+
+    private synchronized Mono<Void> refill() {
+        if (pendingRefill == null) {
+            pendingRefill = databaseService.reserveContainerIds(blockSize)
+                    .doOnNext(this::addBlock)
+                    .then()
+                    .doFinally(signal -> clearPendingRefill())
+                    .cache();
+        }
+        return pendingRefill;
+    }
+
+    private void addBlock(List<Long> ids) {
+        reserved.addAll(ids);
+        available.addAndGet(ids.size());
+        log.debug("Reserved {} container IDs ({} available)", ids.size(), available.get());
+    }
+
+    private synchronized void clearPendingRefill() {
+        pendingRefill = null;
+    }
+}
@@ -2,12 +2,13 @@ package itsi.api.steuerung.service;
 
 import itsi.api.steuerung.dto.ContainerOperationRequest;
 import itsi.api.steuerung.dto.ContainerOperationResponse;
-import itsi.api.steuerung.dto.ImageDTO;
 import itsi.api.steuerung.dto.InstanceDTO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
 import java.util.HashMap;
@@ -19,283 +20,276 @@ public class ContainerService {
 
     private final WebClient backendWebClient;
     private final DatabaseService databaseService;
+    private final ContainerIdAllocator containerIdAllocator;
+    private final Duration backendTimeout;
 
     public ContainerService(
             @Qualifier("backendWebClient") WebClient backendWebClient,
-            DatabaseService databaseService) {
+            DatabaseService databaseService,
+            ContainerIdAllocator containerIdAllocator,
+            @Value("${backend.api.timeout:60000}") long backendTimeoutMillis) {
         this.backendWebClient = backendWebClient;
         this.databaseService = databaseService;
+        this.containerIdAllocator = containerIdAllocator;
+        this.backendTimeout = Duration.ofMillis(backendTimeoutMillis);
     }
 
-    public ContainerOperationResponse startContainer(ContainerOperationRequest request) {
+    public Mono<ContainerOperationResponse> startContainer(ContainerOperationRequest request) {
         log.info("Starting container for userId: {}, imageId: {}", request.getUserId(), request.getImageId());
 
-        try {
-            // Find or create instance for this user and image
-            InstanceDTO instance = databaseService.findOrCreateInstance(request.getUserId(), request.getImageId());
-            log.info("Using instance: {} (id: {})", instance.getName(), instance.getId());
-
-            // If instance has no containerId, create and start it (this sets containerId)
-            if (instance.getContainerId() == null || instance.getContainerId().isEmpty()) {
-                InstanceDTO created = createAndStartContainerIfMissing(request.getUserId(), request.getImageId());
-                if (created == null) {
-                    return new ContainerOperationResponse(false, "Failed to create/start container", null, null, null);
-                }
-                return new ContainerOperationResponse(
-                        true,
-                        "Container created and started successfully",
-                        created.getContainerId(),
-                        created.getStatus(),
-                        created
-                );
-            }
-
-            // Send start request to backend with FULL instance data from database
-            Map<String, Object> backendRequest = new HashMap<>();
-            backendRequest.put("containerId", instance.getContainerId());
-            backendRequest.put("name", instance.getName());
-            backendRequest.put("userId", instance.getUserId());
-            backendRequest.put("imageId", instance.getImageId());
-
-            // Add image information if available
-            if (instance.getImage() != null) {
-                backendRequest.put("imageRef", instance.getImage().getImageRef());
-                backendRequest.put("imageName", instance.getImage().getName());
-            }
-
-            // Add user information if available
-            if (instance.getUser() != null) {
-                backendRequest.put("userName", instance.getUser().getName());
-            }
-
-            log.info("Sending full instance data to backend: {}", backendRequest);
-
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/instances/start")
-                    .bodyValue(backendRequest)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .timeout(Duration.ofSeconds(60))
-                    .block();
-
-            // Update instance status in database
-            instance.setStatus("running");
-            InstanceDTO updatedInstance = databaseService.updateInstance(instance.getId(), instance);
-
-            return new ContainerOperationResponse(
-                    true,
-                    "Container started successfully",
-                    instance.getContainerId(),
-                    "running",
-                    updatedInstance
-            );
-
-        } catch (Exception e) {
-            log.error("Error starting container", e);
-            return new ContainerOperationResponse(
-                    false,
-                    "Error: " + e.getMessage(),
-                    null,
-                    null,
-                    null
-            );
-        }
+        // Find or create instance for this user and image
+        return findOrCreateInstance(request.getUserId(), request.getImageId())
+                .switchIfEmpty(Mono.error(new IllegalStateException(
+                        "Unable to find or create instance for userId " + request.getUserId()
+                                + " and imageId " + request.getImageId())))
+                .flatMap(instance -> {
+                    log.info("Using instance: {} (id: {})", instance.getName(), instance.getId());
+
+                    // If the container was never created (new instance or no containerId), create and start it
+                    if (needsContainer(instance)) {
+                        return createAndStartContainer(instance, request.getUserId())
+                                .map(created -> new ContainerOperationResponse(
+                                        true,
+                                        "Container created and started successfully",
+                                        created.getContainerId(),
+                                        created.getStatus(),
+                                        created
+                                ))
+                                .defaultIfEmpty(new ContainerOperationResponse(false, "Failed to create/start container", null, null, null));
+                    }
+
+                    // Send start request to backend with FULL instance data from database
+                    Map<String, Object> backendRequest = new HashMap<>();
+                    backendRequest.put("containerId", instance.getContainerId());
+                    backendRequest.put("name", instance.getName());
+                    backendRequest.put("userId", instance.getUserId());
+                    backendRequest.put("imageId", instance.getImageId());
+
+                    // Add image information if available
+                    if (instance.getImage() != null) {
+                        backendRequest.put("imageRef", instance.getImage().getImageRef());
+                        backendRequest.put("imageName", instance.getImage().getName());
+                    }
+
+                    // Add user information if available
+                    if (instance.getUser() != null) {
+                        backendRequest.put("userName", instance.getUser().getName());
+                    }
+
+                    log.info("Sending full instance data to backend: {}", backendRequest);
+
+                    return postToBackend("/instances/start", backendRequest)
+                            .then(Mono.defer(() -> {
+                                // Update instance status in database
+                                instance.setStatus("running");
+                                return databaseService.updateInstance(instance.getId(), instance);
+                            }))
+                            .map(updatedInstance -> new ContainerOperationResponse(
+                                    true,
+                                    "Container started successfully",
+                                    instance.getContainerId(),
+                                    "running",
+                                    updatedInstance
+                            ));
+                })
+                .onErrorResume(e -> {
+                    log.error("Error starting container", e);
+                    return Mono.just(errorResponse(e));
+                });
     }
 
-    public ContainerOperationResponse stopContainer(ContainerOperationRequest request) {
+    public Mono<ContainerOperationResponse> stopContainer(ContainerOperationRequest request) {
         log.info("Stopping container for userId: {}, imageId: {}", request.getUserId(), request.getImageId());
 
-        try {
-            // Find instance for this user and image
-            InstanceDTO[] instances = databaseService.getInstancesByUserAndImage(request.getUserId(), request.getImageId());
-            
-            if (instances == null || instances.length == 0) {
-                return new ContainerOperationResponse(
-                        false,
-                        "No instance found for this user and image",
-                        null,
-                        null,
-                        null
-                );
-            }
-
-            InstanceDTO instance = instances[0];
-            log.info("Stopping instance: {} (id: {})", instance.getName(), instance.getId());
-
-            // Send stop request to backend controller (only containerId)
-            Map<String, Object> backendRequest = new HashMap<>();
-            backendRequest.put("containerId", instance.getContainerId());
-
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/instances/stop")
-                    .bodyValue(backendRequest)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .timeout(Duration.ofSeconds(60))
-                    .block();
-
-            // Update instance status in database
-            instance.setStatus("stopped");
-            InstanceDTO updatedInstance = databaseService.updateInstance(instance.getId(), instance);
-
-            return new ContainerOperationResponse(
-                    true,
-                    "Container stopped successfully",
-                    instance.getContainerId(),
-                    "stopped",
-                    updatedInstance
-            );
-
-        } catch (Exception e) {
-            log.error("Error stopping container", e);
-            return new ContainerOperationResponse(
-                    false,
-                    "Error: " + e.getMessage(),
-                    null,
-                    null,
-                    null
-            );
-        }
+        // Find instance for this user and image
+        return databaseService.getInstanceByUserAndImage(request.getUserId(), request.getImageId())
+                .flatMap(instance -> {
+                    log.info("Stopping instance: {} (id: {})", instance.getName(), instance.getId());
+
+                    // Send stop request to backend controller (only containerId)
+                    Map<String, Object> backendRequest = new HashMap<>();
+                    backendRequest.put("containerId", instance.getContainerId());
+
+                    return postToBackend("/instances/stop", backendRequest)
+                            .then(Mono.defer(() -> {
+                                // Update instance status in database
+                                instance.setStatus("stopped");
+                                return databaseService.updateInstance(instance.getId(), instance);
+                            }))
+                            .map(updatedInstance -> new ContainerOperationResponse(
+                                    true,
+                                    "Container stopped successfully",
+                                    instance.getContainerId(),
+                                    "stopped",
+                                    updatedInstance
+                            ));
+                })
+                .switchIfEmpty(Mono.fromSupplier(this::noInstanceResponse))
+                .onErrorResume(e -> {
+                    log.error("Error stopping container", e);
+                    return Mono.just(errorResponse(e));
+                });
     }
 
-    public ContainerOperationResponse resetContainer(ContainerOperationRequest request) {
+    public Mono<ContainerOperationResponse> resetContainer(ContainerOperationRequest request) {
         log.info("Resetting container for userId: {}, imageId: {}", request.getUserId(), request.getImageId());
 
-        try {
-            // Find instance for this user and image
-            InstanceDTO[] instances = databaseService.getInstancesByUserAndImage(request.getUserId(), request.getImageId());
-            
-            if (instances == null || instances.length == 0) {
-                return new ContainerOperationResponse(
-                        false,
-                        "No instance found for this user and image",
-                        null,
-                        null,
-                        null
-                );
-            }
-
-            InstanceDTO instance = instances[0];
-            log.info("Resetting instance: {} (id: {})", instance.getName(), instance.getId());
-
-            // Send reset request to backend controller (only containerId)
-            Map<String, Object> backendRequest = new HashMap<>();
-            backendRequest.put("containerId", instance.getContainerId());
-
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/instances/reset")
-                    .bodyValue(backendRequest)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .timeout(Duration.ofSeconds(60))
-                    .block();
-
-            // Update instance status in database
-            instance.setStatus("running");
-            InstanceDTO updatedInstance = databaseService.updateInstance(instance.getId(), instance);
-
-            return new ContainerOperationResponse(
-                    true,
-                    "Container reset successfully",
-                    instance.getContainerId(),
-                    "running",
-                    updatedInstance
-            );
-
-        } catch (Exception e) {
-            log.error("Error resetting container", e);
-            return new ContainerOperationResponse(
-                    false,
-                    "Error: " + e.getMessage(),
-                    null,
-                    null,
-                    null
-            );
-        }
+        // Find instance for this user and image
+        return databaseService.getInstanceByUserAndImage(request.getUserId(), request.getImageId())
+                .flatMap(instance -> {
+                    log.info("Resetting instance: {} (id: {})", instance.getName(), instance.getId());
+
+                    // Send reset request to backend controller (only containerId)
+                    Map<String, Object> backendRequest = new HashMap<>();
+                    backendRequest.put("containerId", instance.getContainerId());
+
+                    return postToBackend("/instances/reset", backendRequest)
+                            .then(Mono.defer(() -> {
+                                // Update instance status in database
+                                instance.setStatus("running");
+                                return databaseService.updateInstance(instance.getId(), instance);
+                            }))
+                            .map(updatedInstance -> new ContainerOperationResponse(
+                                    true,
+                                    "Container reset successfully",
+                                    instance.getContainerId(),
+                                    "running",
+                                    updatedInstance
+                            ));
+                })
+                .switchIfEmpty(Mono.fromSupplier(this::noInstanceResponse))
+                .onErrorResume(e -> {
+                    log.error("Error resetting container", e);
+                    return Mono.just(errorResponse(e));
+                });
     }
 
     /**
-     * Ensure there is an instance with a containerId for the given userId and imageId.
-     * If the instance exists but has no containerId, create a new containerId of the form "cont_<n>"
-     * where n is (max existing number) + 1 obtained from the database API, set the instance name to
+     * Ensure there is a started container for the given userId and imageId.
+     * If the instance is new (status "created") or has no containerId, take a containerId of the form "cont_<n>"
+     * from the {@link ContainerIdAllocator} (backed by a database sequence) if needed, set the instance name to
      * "<imageName>_<userName>", call the backend to create/start the container and update the instance in DB.
      *
-     * Returns the updated InstanceDTO (with containerId and updated status) or the existing instance if already had containerId.
+     * Emits the updated InstanceDTO (with containerId and updated status) or the existing instance if already had containerId.
+     * Completes empty if the container could not be created.
      */
-    public InstanceDTO createAndStartContainerIfMissing(Integer userId, Integer imageId) {
+    public Mono<InstanceDTO> createAndStartContainerIfMissing(Integer userId, Integer imageId) {
         log.info("Ensure container for userId: {}, imageId: {}", userId, imageId);
 
-        try {
-            // Get or create instance record
-            InstanceDTO instance = databaseService.findOrCreateInstance(userId, imageId);
-            if (instance == null) {
-                log.error("Unable to find or create instance for userId {} imageId {}", userId, imageId);
-                return null;
-            }
-
-            // If containerId already present, nothing to do
-            if (instance.getContainerId() != null && !instance.getContainerId().isEmpty()) {
-                log.info("Instance already has containerId {}", instance.getContainerId());
-                return instance;
-            }
-
-            // Determine next container id from DB
-            String maxContainerId = databaseService.getMaxContainerId();
-            int next = 1;
-            if (maxContainerId != null && !maxContainerId.isEmpty()) {
-                try {
-                    String numericPart = maxContainerId.replaceAll("^cont_", "");
-                    next = Integer.parseInt(numericPart) + 1;
-                } catch (NumberFormatException ex) {
-                    log.warn("Could not parse maxContainerId='{}'. Defaulting to 1", maxContainerId);
-                    next = 1;
-                }
-            }
-            String newContainerId = "cont_" + next;
-            instance.setContainerId(newContainerId);
-
-            // Ensure proper name format: imageName_userName
-            String imageName = "img";
-            if (instance.getImage() != null && instance.getImage().getName() != null) {
-                imageName = instance.getImage().getName();
-            }
-            String userName = "user";
-            if (instance.getUser() != null && instance.getUser().getName() != null) {
-                userName = instance.getUser().getName();
-            }
-            instance.setName(imageName + "_" + userName);
-
-            // Call backend to create/start the container
-            Map<String, Object> backendRequest = new HashMap<>();
-            backendRequest.put("containerId", instance.getContainerId());
-            backendRequest.put("imageRef", instance.getImage() != null ? instance.getImage().getImageRef() : null);
-            backendRequest.put("name", instance.getName());
-            backendRequest.put("userId", userId);
-
-            Map<String, Object> backendResponse = backendWebClient.post()
-                    .uri("/instances/start")
-                    .bodyValue(backendRequest)
-                    .retrieve()
-                    .bodyToMono(Map.class)
-                    .timeout(Duration.ofSeconds(60))
-                    .block();
-
-            log.info("Backend response when creating container: {}", backendResponse);
-
-            // Update instance status and persist
-            instance.setStatus("running");
-            InstanceDTO updated;
-            if (instance.getId() != null) {
-                updated = databaseService.updateInstance(instance.getId(), instance);
-            } else {
-                updated = databaseService.createInstance(instance);
-            }
-
-            return updated;
-
-        } catch (Exception e) {
-            log.error("Failed to create/start container for userId {} imageId {}", userId, imageId, e);
-            return null;
-        }
+        // Get or create instance record
+        return findOrCreateInstance(userId, imageId)
+                .switchIfEmpty(Mono.defer(() -> {
+                    log.error("Unable to find or create instance for userId {} imageId {}", userId, imageId);
+                    return Mono.empty();
+                }))
+                .flatMap(instance -> {
+                    // If containerId already present and the container was started before, nothing to do
+                    if (!needsContainer(instance)) {
+                        log.info("Instance already has containerId {}", instance.getContainerId());
+                        return Mono.just(instance);
+                    }
+                    return createAndStartContainer(instance, userId);
+                })
+                .onErrorResume(e -> {
+                    log.error("Failed to create/start container for userId {} imageId {}", userId, imageId, e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Instance for userId and imageId; a missing one is created by the database API in one call with a
+     * container id from the locally reserved block. The id goes back to the block if it was not used.
+     */
+    public Mono<InstanceDTO> findOrCreateInstance(Integer userId, Integer imageId) {
+        return databaseService.getInstanceByUserAndImage(userId, imageId)
+                .doOnNext(existing -> log.info("Found existing instance: {}", existing.getId()))
+                .switchIfEmpty(Mono.defer(() -> containerIdAllocator.nextContainerId()
+                        .flatMap(containerId -> databaseService.findOrCreateInstance(userId, imageId, containerId)
+                                .doOnNext(instance -> {
+                                    if (!containerId.equals(instance.getContainerId())) {
+                                        // Andere Anfrage hat die Instanz zuerst angelegt
+                                        containerIdAllocator.release(containerId);
+                                    }
+                                })
+                                .switchIfEmpty(Mono.fromRunnable(() -> containerIdAllocator.release(containerId))))));
+    }
+
+    private Mono<InstanceDTO> createAndStartContainer(InstanceDTO instance, Integer userId) {
+        // Keep the containerId of the instance, otherwise the next one from the locally reserved block
+        Mono<String> containerId = hasContainerId(instance)
+                ? Mono.just(instance.getContainerId())
+                : containerIdAllocator.nextContainerId();
+        return containerId
+                .flatMap(newContainerId -> {
+                    instance.setContainerId(newContainerId);
+
+                    // Ensure proper name format: imageName_userName
+                    String imageName = "img";
+                    if (instance.getImage() != null && instance.getImage().getName() != null) {
+                        imageName = instance.getImage().getName();
+                    }
+                    String userName = "user";
+                    if (instance.getUser() != null && instance.getUser().getName() != null) {
+                        userName = instance.getUser().getName();
+                    }
+                    instance.setName(imageName + "_" + userName);
+
+                    // Call backend to create/start the container
+                    Map<String, Object> backendRequest = new HashMap<>();
+                    backendRequest.put("containerId", instance.getContainerId());
+                    backendRequest.put("imageRef", instance.getImage() != null ? instance.getImage().getImageRef() : null);
+                    backendRequest.put("name", instance.getName());
+                    backendRequest.put("userId", userId);
+
+                    return postToBackend("/instances/start", backendRequest)
+                            .doOnNext(backendResponse -> log.info("Backend response when creating container: {}", backendResponse))
+                            .then(Mono.defer(() -> {
+                                // Update instance status and persist
+                                instance.setStatus("running");
+                                if (instance.getId() != null) {
+                                    return databaseService.updateInstance(instance.getId(), instance);
+                                }
+                                return databaseService.createInstance(instance);
+                            }));
+                });
+    }
+
+    // Instanzen aus findOrCreateInstance haben schon eine containerId, aber noch keinen Container
+    private static boolean needsContainer(InstanceDTO instance) {
+        return !hasContainerId(instance) || "created".equals(instance.getStatus());
+    }
+
+    private static boolean hasContainerId(InstanceDTO instance) {
+        return instance.getContainerId() != null && !instance.getContainerId().isEmpty();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Mono<Map> postToBackend(String uri, Map<String, Object> backendRequest) {
+        return backendWebClient.post()
+                .uri(uri)
+                .bodyValue(backendRequest)
+                .retrieve()
+                .bodyToMono(Map.class)
+                .timeout(backendTimeout);
+    }
+
+    private ContainerOperationResponse noInstanceResponse() {
+        return new ContainerOperationResponse(
+                false,
+                "No instance found for this user and image",
+                null,
+                null,
+                null
+        );
+    }
+
+    private ContainerOperationResponse errorResponse(Throwable e) {
+        return new ContainerOperationResponse(
+                false,
+                "Error: " + e.getMessage(),
+                null,
+                null,
+                null
+        );
     }
 }
@@ -5,225 +5,296 @@ import itsi.api.steuerung.dto.InstanceDTO;
 import itsi.api.steuerung.dto.UserDTO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
+/**
+ * Non-blocking client for the database API (port 5050).
+ *
+ * Every lookup returns a {@link Mono} or {@link Flux}; callers compose them instead of blocking a
+ * servlet thread per round trip. Lookups that hit a 404 complete empty.
+ *
+ * Users, images, the image catalogue and instances by (userId, imageId) are served from the
+ * {@link ReferenceDataCache}; writes made through this service invalidate the affected entries.
+ * Identical GETs that are in flight at the same time share one call via {@link SingleFlight}.
+ * Successful writes to live environments publish a {@link LiveEnvironmentChangedEvent}, created or
+ * updated instances an {@link InstanceChangedEvent}.
+ */
 @Service
 @Slf4j
 public class DatabaseService {
 
+    private static final ParameterizedTypeReference<Map<String, Object>> MAP_TYPE =
+            new ParameterizedTypeReference<>() {};
+
     private final WebClient databaseWebClient;
+    private final ReferenceDataCache cache;
+    private final SingleFlight singleFlight;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Duration timeout;
 
-    public DatabaseService(@Qualifier("databaseWebClient") WebClient databaseWebClient) {
+    public DatabaseService(@Qualifier("databaseWebClient") WebClient databaseWebClient,
+                           ReferenceDataCache cache,
+                           SingleFlight singleFlight,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${database.api.timeout:30000}") long timeoutMillis) {
         this.databaseWebClient = databaseWebClient;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.eventPublisher = eventPublisher;
+        this.timeout = Duration.ofMillis(timeoutMillis);
     }
 
-    public InstanceDTO getInstanceById(Integer id) {
+    /**
+     * Lädt Users, Images und Instanzen beim Start parallel in den Cache.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpCache() {
+        long start = System.nanoTime();
+        Mono.when(
+                        fetchAllUsers().doOnNext(cache::putUser).then(),
+                        getAllImages().then(),
+                        getAllInstances().doOnNext(cache::putInstanceIfAbsent).then())
+                .subscribe(null,
+                        e -> log.warn("Cache warm-up failed, entries are loaded on demand", e),
+                        () -> log.info("Reference data cache warmed up in {} ms: {}",
+                                Duration.ofNanos(System.nanoTime() - start).toMillis(), cache.stats()));
+    }
+
+    public Mono<InstanceDTO> getInstanceById(Integer id) {
         log.debug("Fetching instance with id: {}", id);
-        return databaseWebClient.get()
-                .uri("/api/instances/{id}", id)
-                .retrieve()
-                .bodyToMono(InstanceDTO.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+        return get("/api/instances/" + id, InstanceDTO.class, InstanceDTO::copy)
+                .doOnNext(cache::putNested)
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
     }
 
-    public InstanceDTO getInstanceByContainerId(String containerId) {
+    public Mono<InstanceDTO> getInstanceByContainerId(String containerId) {
         log.debug("Fetching instance with containerId: {}", containerId);
-        return databaseWebClient.get()
-                .uri("/api/instances/container/{containerId}", containerId)
-                .retrieve()
-                .bodyToMono(InstanceDTO.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+        return get("/api/instances/container/" + containerId, InstanceDTO.class, InstanceDTO::copy)
+                .doOnNext(cache::putNested)
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
     }
 
-    public InstanceDTO createInstance(InstanceDTO instance) {
+    public Mono<InstanceDTO> createInstance(InstanceDTO instance) {
         log.debug("Creating instance: {}", instance);
         return databaseWebClient.post()
                 .uri("/api/instances")
                 .bodyValue(instance)
                 .retrieve()
                 .bodyToMono(InstanceDTO.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+                .timeout(timeout)
+                .doOnNext(cache::putInstance)
+                .doOnNext(created -> publishInstanceChanged(created, instance.getUserId()))
+                .doOnError(e -> cache.invalidateInstance(instance.getUserId(), instance.getImageId()));
     }
 
-    public InstanceDTO updateInstance(Integer id, InstanceDTO instance) {
+    public Mono<InstanceDTO> updateInstance(Integer id, InstanceDTO instance) {
         log.debug("Updating instance with id: {}", id);
         return databaseWebClient.put()
                 .uri("/api/instances/{id}", id)
                 .bodyValue(instance)
                 .retrieve()
                 .bodyToMono(InstanceDTO.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+                .timeout(timeout)
+                .doOnNext(cache::putInstance)
+                .doOnNext(updated -> publishInstanceChanged(updated, instance.getUserId()))
+                .doOnError(e -> cache.invalidateInstance(instance.getUserId(), instance.getImageId()));
     }
 
-    public UserDTO getUserById(Integer id) {
+    public Mono<UserDTO> getUserById(Integer id) {
+        return cache.user(id, () -> fetchUserById(id));
+    }
+
+    private Mono<UserDTO> fetchUserById(Integer id) {
         log.debug("Fetching user with id: {}", id);
-        return databaseWebClient.get()
-                .uri("/api/users/{id}", id)
-                .retrieve()
-                .bodyToMono(UserDTO.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+        return get("/api/users/" + id, UserDTO.class, UserDTO::copy)
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
+    }
+
+    private Flux<UserDTO> fetchAllUsers() {
+        log.debug("Fetching all users from database");
+        return getList("/api/users", UserDTO.class, UserDTO::copy)
+                .flatMapIterable(users -> users);
+    }
+
+    public Mono<ImageDTO> getImageById(Integer id) {
+        return cache.image(id, () -> fetchImageById(id));
     }
 
-    public ImageDTO getImageById(Integer id) {
+    private Mono<ImageDTO> fetchImageById(Integer id) {
         log.debug("Fetching image with id: {}", id);
-        return databaseWebClient.get()
-                .uri("/api/images/{id}", id)
-                .retrieve()
-                .bodyToMono(ImageDTO.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+        return get("/api/images/" + id, ImageDTO.class, ImageDTO::copy)
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
     }
 
-    public ImageDTO[] getAllImages() {
+    public Flux<ImageDTO> getAllImages() {
+        return cache.catalogue(this::fetchAllImages).flatMapIterable(images -> images);
+    }
+
+    private Mono<List<ImageDTO>> fetchAllImages() {
         log.debug("Fetching all images from database");
-        return databaseWebClient.get()
-                .uri("/api/images")
-                .retrieve()
-                .bodyToMono(ImageDTO[].class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+        return getList("/api/images", ImageDTO.class, ImageDTO::copy);
     }
 
-    public InstanceDTO[] getAllInstances() {
+    public Flux<InstanceDTO> getAllInstances() {
         log.debug("Fetching all instances from database");
-        return databaseWebClient.get()
-                .uri("/api/instances")
-                .retrieve()
-                .bodyToMono(InstanceDTO[].class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+        return getList("/api/instances", InstanceDTO.class, InstanceDTO::copy)
+                .flatMapIterable(instances -> instances)
+                .doOnNext(cache::putNested);
     }
 
-    public void deleteInstance(Integer id) {
+    public Mono<Void> deleteInstance(Integer id) {
         log.debug("Deleting instance with id: {}", id);
-        databaseWebClient.delete()
+        return databaseWebClient.delete()
                 .uri("/api/instances/{id}", id)
                 .retrieve()
                 .bodyToMono(Void.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+                .timeout(timeout)
+                .doFinally(signal -> cache.invalidateInstance(id));
     }
 
-    public String getMaxContainerId() {
-        log.debug("Fetching max container ID");
-        String maxId = databaseWebClient.get()
-                .uri("/api/instances/max-container-id")
-                .retrieve()
-                .bodyToMono(String.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
-        
-        log.debug("Max container ID: {}", maxId);
-        return maxId;
-    }
-
-    public InstanceDTO[] getInstancesByUserAndImage(Integer userId, Integer imageId) {
-        log.debug("Fetching instances for userId: {} and imageId: {}", userId, imageId);
-        // Get all instances for the user
-        InstanceDTO[] userInstances = databaseWebClient.get()
-                .uri("/api/instances/user/{userId}", userId)
+    public Mono<List<Long>> reserveContainerIds(int count) {
+        log.debug("Reserving {} container IDs", count);
+        return databaseWebClient.post()
+                .uri(uriBuilder -> uriBuilder.path("/api/instances/container-ids").queryParam("count", count).build())
                 .retrieve()
-                .bodyToMono(InstanceDTO[].class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+                .bodyToFlux(Long.class)
+                .collectList()
+                .timeout(timeout);
+    }
 
-        // Filter by imageId
-        if (userInstances == null) {
-            return new InstanceDTO[0];
-        }
+    public Mono<InstanceDTO> getInstanceByUserAndImage(Integer userId, Integer imageId) {
+        return cache.instance(userId, imageId, () -> fetchInstanceByUserAndImage(userId, imageId));
+    }
 
-        return java.util.Arrays.stream(userInstances)
-                .filter(instance -> instance.getImageId() != null && instance.getImageId().equals(imageId))
-                .toArray(InstanceDTO[]::new);
+    private Mono<InstanceDTO> fetchInstanceByUserAndImage(Integer userId, Integer imageId) {
+        log.debug("Fetching instance for userId: {} and imageId: {}", userId, imageId);
+        return get("/api/instances/user/" + userId + "/image/" + imageId, InstanceDTO.class, InstanceDTO::copy)
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
     }
 
-    public InstanceDTO findOrCreateInstance(Integer userId, Integer imageId) {
+    /**
+     * Returns the instance of the pair or creates it atomically in the database API with the given
+     * container ID (one round trip, no duplicate under concurrent starts). Completes empty if user or
+     * image do not exist. The returned instance carries a different container ID if it already existed.
+     */
+    public Mono<InstanceDTO> findOrCreateInstance(Integer userId, Integer imageId, String containerId) {
         log.debug("Finding or creating instance for userId: {} and imageId: {}", userId, imageId);
-        
-        // Check if instance already exists
-        InstanceDTO[] existingInstances = getInstancesByUserAndImage(userId, imageId);
-        
-        if (existingInstances != null && existingInstances.length > 0) {
-            log.info("Found existing instance: {}", existingInstances[0].getId());
-            return existingInstances[0];
-        }
-        
-        // Create new instance
-        log.info("No existing instance found. Creating new instance for userId: {} and imageId: {}", userId, imageId);
-        
-        UserDTO user = getUserById(userId);
-        ImageDTO image = getImageById(imageId);
-        
-        InstanceDTO newInstance = new InstanceDTO();
-        newInstance.setUser(user);
-        newInstance.setImage(image);
-        newInstance.setName(user.getName() + "_" + image.getName());
-        newInstance.setContainerId(""); // Will be set by backend
-        newInstance.setStatus("created");
-        
-        return createInstance(newInstance);
-    }
-
-    public java.util.Map<String, Object> getLiveEnvironmentByUserId(Integer userId) {
+        return databaseWebClient.put()
+                .uri(uriBuilder -> uriBuilder.path("/api/instances/user/{userId}/image/{imageId}")
+                        .queryParam("containerId", containerId)
+                        .build(userId, imageId))
+                .retrieve()
+                .bodyToMono(InstanceDTO.class)
+                .timeout(timeout)
+                .doOnNext(cache::putInstance)
+                .doOnNext(found -> publishInstanceChanged(found, userId))
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
+    }
+
+    public Flux<InstanceDTO> getInstancesByUserId(Integer userId) {
+        log.debug("Fetching instances for userId: {}", userId);
+        return getList("/api/instances/user/" + userId, InstanceDTO.class, InstanceDTO::copy)
+                .flatMapIterable(instances -> instances)
+                .doOnNext(cache::putNested)
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Flux.empty());
+    }
+
+    public Mono<Map<String, Object>> getLiveEnvironmentByUserId(Long userId) {
         log.debug("Fetching live-environment for userId: {}", userId);
-        try {
-            return databaseWebClient.get()
-                    .uri("/api/live-environments/{userId}", userId)
-                    .retrieve()
-                    .bodyToMono(java.util.Map.class)
-                    .timeout(Duration.ofSeconds(30))
-                    .block();
-        } catch (Exception e) {
-            log.warn("No live-environment found for userId: {}", userId);
-            return null;
-        }
+        String uri = "/api/live-environments/user/" + userId;
+        return singleFlight.execute(uri,
+                        () -> databaseWebClient.get().uri(uri).retrieve().bodyToMono(MAP_TYPE).timeout(timeout),
+                        liveEnv -> new HashMap<>(liveEnv))
+                .onErrorResume(e -> {
+                    log.warn("No live-environment found for userId: {}", userId);
+                    return Mono.empty();
+                });
     }
 
-    public java.util.Map<String, Object> createImage(java.util.Map<String, Object> image) {
+    public Mono<Map<String, Object>> createLiveEnvironment(Map<String, Object> liveEnv) {
+        log.debug("Creating live-environment: {}", liveEnv);
+        return databaseWebClient.post()
+                .uri("/api/live-environments")
+                .bodyValue(liveEnv)
+                .retrieve()
+                .bodyToMono(MAP_TYPE)
+                .timeout(timeout)
+                .doOnSuccess(created -> publishLiveEnvironmentChanged(null, liveEnv));
+    }
+
+    public Mono<Map<String, Object>> updateLiveEnvironment(Integer liveEnvId, Map<String, Object> liveEnv) {
+        log.debug("Updating live-environment with id: {}", liveEnvId);
+        return databaseWebClient.put()
+                .uri("/api/live-environments/{id}", liveEnvId)
+                .bodyValue(liveEnv)
+                .retrieve()
+                .bodyToMono(MAP_TYPE)
+                .timeout(timeout)
+                .doOnSuccess(updated -> publishLiveEnvironmentChanged(liveEnvId, liveEnv));
+    }
+
+    public Flux<Map<String, Object>> getAllLiveEnvironments() {
+        log.debug("Fetching all live-environments from database");
+        String uri = "/api/live-environments";
+        return singleFlight.execute(uri,
+                        () -> databaseWebClient.get().uri(uri).retrieve().bodyToFlux(MAP_TYPE).collectList().timeout(timeout),
+                        liveEnvs -> liveEnvs.stream().<Map<String, Object>>map(HashMap::new).toList())
+                .flatMapIterable(liveEnvs -> liveEnvs);
+    }
+
+    public Mono<Void> deleteLiveEnvironment(Integer liveEnvId) {
+        log.debug("Deleting live-environment with id: {}", liveEnvId);
+        return databaseWebClient.delete()
+                .uri("/api/live-environments/{id}", liveEnvId)
+                .retrieve()
+                .bodyToMono(Void.class)
+                .timeout(timeout)
+                .doOnSuccess(deleted -> publishLiveEnvironmentChanged(liveEnvId, null));
+    }
+
+    public Mono<Map<String, Object>> createImage(Map<String, Object> image) {
         log.debug("Creating image in database: {}", image);
         return databaseWebClient.post()
                 .uri("/api/images")
                 .bodyValue(image)
                 .retrieve()
-                .bodyToMono(java.util.Map.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+                .bodyToMono(MAP_TYPE)
+                .timeout(timeout)
+                .doFinally(signal -> cache.invalidateCatalogue());
     }
 
-    public void deleteImage(Integer imageId) {
+    public Mono<Void> deleteImage(Integer imageId) {
         log.debug("Deleting image with id: {}", imageId);
-        databaseWebClient.delete()
+        return databaseWebClient.delete()
                 .uri("/api/images/{id}", imageId)
                 .retrieve()
                 .bodyToMono(Void.class)
-                .timeout(Duration.ofSeconds(30))
-                .block();
+                .timeout(timeout)
+                .doFinally(signal -> cache.invalidateImage(imageId));
     }
 
     public Mono<Void> updateInstanceStatus(Integer instanceId, String status) {
         log.debug("Updating instance {} status to: {}", instanceId, status);
 
-        return databaseWebClient.get()
-                .uri("/api/instances/{id}", instanceId)
-                .retrieve()
-                .bodyToMono(InstanceDTO.class)
+        return getInstanceById(instanceId)
                 .flatMap(instance -> {
                     instance.setStatus(status);
-                    return databaseWebClient.put()
-                            .uri("/api/instances/{id}", instanceId)
-                            .bodyValue(instance)
-                            .retrieve()
-                            .bodyToMono(InstanceDTO.class);
+                    return updateInstance(instanceId, instance);
                 })
                 .doOnSuccess(result -> log.info("Instance {} status updated to: {}", instanceId, status))
                 .doOnError(e -> log.error("Failed to update instance {} status", instanceId, e))
@@ -234,18 +305,41 @@ public class DatabaseService {
     public Mono<Void> updateLiveEnvironmentStatus(Integer liveEnvId, String status) {
         log.debug("Updating live-environment {} status to: {}", liveEnvId, status);
 
-        java.util.Map<String, Object> updateData = new java.util.HashMap<>();
+        Map<String, Object> updateData = new HashMap<>();
         updateData.put("status", status);
 
-        return databaseWebClient.put()
-                .uri("/api/live-environments/{id}", liveEnvId)
-                .bodyValue(updateData)
-                .retrieve()
-                .bodyToMono(java.util.Map.class)
-                .timeout(Duration.ofSeconds(30))
+        return updateLiveEnvironment(liveEnvId, updateData)
                 .doOnSuccess(result -> log.info("Live-environment {} status updated to: {}", liveEnvId, status))
                 .doOnError(e -> log.error("Failed to update live-environment {} status", liveEnvId, e))
                 .then()
                 .onErrorResume(e -> Mono.empty());
     }
+
+    private void publishLiveEnvironmentChanged(Integer liveEnvId, Map<String, Object> liveEnv) {
+        Long userId = liveEnv != null && liveEnv.get("userId") instanceof Number number ? number.longValue() : null;
+        eventPublisher.publishEvent(new LiveEnvironmentChangedEvent(liveEnvId, userId));
+    }
+
+    private void publishInstanceChanged(InstanceDTO instance, Integer userId) {
+        InstanceDTO written = instance.copy();
+        if (written.getUserId() == null && userId != null) {
+            written.setUserId(userId);
+        }
+        eventPublisher.publishEvent(new InstanceChangedEvent(written));
+    }
+
+    /**
+     * GET über {@link SingleFlight}: gleichzeitige identische Anfragen teilen sich einen Aufruf.
+     */
+    private <T> Mono<T> get(String uri, Class<T> type, UnaryOperator<T> copy) {
+        return singleFlight.execute(uri,
+                () -> databaseWebClient.get().uri(uri).retrieve().bodyToMono(type).timeout(timeout),
+                copy);
+    }
+
+    private <T> Mono<List<T>> getList(String uri, Class<T> type, UnaryOperator<T> copy) {
+        return singleFlight.execute(uri,
+                () -> databaseWebClient.get().uri(uri).retrieve().bodyToFlux(type).collectList().timeout(timeout),
+                list -> list.stream().map(copy).toList());
+    }
 }
@@ -0,0 +1,9 @@
+package itsi.api.steuerung.service;
+
+import itsi.api.steuerung.dto.InstanceDTO;
+
+/**
+ * Published by {@link DatabaseService} after an instance was created or updated, with the instance as
+ * written; the user id falls back to the one of the request if the response does not carry it.
+ */
+public record InstanceChangedEvent(InstanceDTO instance) {}
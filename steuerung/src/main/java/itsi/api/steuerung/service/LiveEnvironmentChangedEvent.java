@@ -0,0 +1,7 @@
+package itsi.api.steuerung.service;
+
+/**
+ * Published by {@link DatabaseService} after a live environment was created, updated or deleted.
+ * Either value may be {@code null} if the write did not carry it.
+ */
+public record LiveEnvironmentChangedEvent(Integer liveEnvId, Long userId) {}
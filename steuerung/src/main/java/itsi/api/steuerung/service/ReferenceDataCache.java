@@ -0,0 +1,177 @@
+package itsi.api.steuerung.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import itsi.api.steuerung.dto.ImageDTO;
+import itsi.api.steuerung.dto.InstanceDTO;
+import itsi.api.steuerung.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Bounded read-through cache for the reference data steuerung keeps asking the database API for:
+ * users, images, the image catalogue and the instance of a (userId, imageId) pair.
+ *
+ * Entries are evicted by size and TTL. Concurrent misses for the same key share one load, failed or
+ * empty loads are not cached. Callers always get copies, so mutating a returned DTO never changes the
+ * cached one. {@link DatabaseService} routes its lookups through this cache and invalidates the
+ * affected entries on every write it performs; users and images found nested in fetched instances
+ * are cached as well.
+ */
+@Component
+@Slf4j
+public class ReferenceDataCache {
+
+    public record InstanceKey(Integer userId, Integer imageId) {}
+
+    private static final String CATALOGUE_KEY = "all";
+
+    private final AsyncCache<Integer, UserDTO> users;
+    private final AsyncCache<Integer, ImageDTO> images;
+    private final AsyncCache<String, List<ImageDTO>> catalogue;
+    private final AsyncCache<InstanceKey, InstanceDTO> instances;
+
+    public ReferenceDataCache(@Value("${cache.reference.ttl:600000}") long referenceTtlMillis,
+                              @Value("${cache.reference.max-size:10000}") long maxSize,
+                              @Value("${cache.instance.ttl:30000}") long instanceTtlMillis) {
+        this.users = newCache(referenceTtlMillis, maxSize);
+        this.images = newCache(referenceTtlMillis, maxSize);
+        this.catalogue = newCache(referenceTtlMillis, 1);
+        this.instances = newCache(instanceTtlMillis, maxSize);
+    }
+
+    private static <K, V> AsyncCache<K, V> newCache(long ttlMillis, long maxSize) {
+        return Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .maximumSize(maxSize)
+                .recordStats()
+                .buildAsync();
+    }
+
+    public Mono<UserDTO> user(Integer id, Supplier<Mono<UserDTO>> loader) {
+        return lookup(users, id, loader).map(UserDTO::copy);
+    }
+
+    public Mono<ImageDTO> image(Integer id, Supplier<Mono<ImageDTO>> loader) {
+        return lookup(images, id, loader).map(ImageDTO::copy);
+    }
+
+    public Mono<List<ImageDTO>> catalogue(Supplier<Mono<List<ImageDTO>>> loader) {
+        return lookup(catalogue, CATALOGUE_KEY, () -> loader.get().doOnNext(all -> all.forEach(this::putImage)))
+                .map(all -> all.stream().map(ImageDTO::copy).toList());
+    }
+
+    public Mono<InstanceDTO> instance(Integer userId, Integer imageId, Supplier<Mono<InstanceDTO>> loader) {
+        return lookup(instances, new InstanceKey(userId, imageId), () -> loader.get().doOnNext(this::putNested))
+                .map(InstanceDTO::copy);
+    }
+
+    public void putUser(UserDTO user) {
+        if (user != null && user.getId() != null) {
+            users.put(user.getId(), CompletableFuture.completedFuture(user.copy()));
+        }
+    }
+
+    public void putImage(ImageDTO image) {
+        if (image != null && image.getId() != null) {
+            images.put(image.getId(), CompletableFuture.completedFuture(image.copy()));
+        }
+    }
+
+    /**
+     * Caches user and image of a fetched instance, but not the instance itself.
+     */
+    public void putNested(InstanceDTO instance) {
+        if (instance != null) {
+            putUser(instance.getUser());
+            putImage(instance.getImage());
+        }
+    }
+
+    /**
+     * Caches an instance returned by the database API after a write. Instances without user or image
+     * (partial responses) only invalidate their entry.
+     */
+    public void putInstance(InstanceDTO instance) {
+        if (instance == null || instance.getUserId() == null || instance.getImageId() == null) {
+            return;
+        }
+        InstanceKey key = new InstanceKey(instance.getUserId(), instance.getImageId());
+        if (instance.getUser().getName() == null || instance.getImage().getName() == null) {
+            instances.synchronous().invalidate(key);
+            return;
+        }
+        instances.put(key, CompletableFuture.completedFuture(instance.copy()));
+        putNested(instance);
+    }
+
+    /**
+     * Like {@link #putInstance}, but keeps an existing entry (the database API returns the oldest
+     * instance of a pair, lists are ordered by id).
+     */
+    public void putInstanceIfAbsent(InstanceDTO instance) {
+        if (instance == null || instance.getUserId() == null || instance.getImageId() == null) {
+            return;
+        }
+        instances.asMap().putIfAbsent(new InstanceKey(instance.getUserId(), instance.getImageId()),
+                CompletableFuture.completedFuture(instance.copy()));
+        putNested(instance);
+    }
+
+    public void invalidateInstance(Integer userId, Integer imageId) {
+        if (userId != null && imageId != null) {
+            instances.synchronous().invalidate(new InstanceKey(userId, imageId));
+        }
+    }
+
+    public void invalidateInstance(Integer instanceId) {
+        instances.synchronous().asMap().values().removeIf(instance -> instanceId.equals(instance.getId()));
+    }
+
+    public void invalidateImage(Integer imageId) {
+        images.synchronous().invalidate(imageId);
+        catalogue.synchronous().invalidateAll();
+        // Instanzen enthalten das Image eingebettet
+        instances.synchronous().asMap().values().removeIf(instance -> imageId.equals(instance.getImageId()));
+    }
+
+    public void invalidateCatalogue() {
+        catalogue.synchronous().invalidateAll();
+    }
+
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("users", stats(users));
+        stats.put("images", stats(images));
+        stats.put("catalogue", stats(catalogue));
+        stats.put("instances", stats(instances));
+        return stats;
+    }
+
+    private static Map<String, Object> stats(AsyncCache<?, ?> cache) {
+        CacheStats stats = cache.synchronous().stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.synchronous().estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("loadFailures", stats.loadFailureCount());
+        result.put("evictions", stats.evictionCount());
+        return result;
+    }
+
+    private static <K, V> Mono<V> lookup(AsyncCache<K, V> cache, K key, Supplier<Mono<V>> loader) {
+        // Leere Antworten (404) werden nicht gecacht; Abbruch eines Aufrufers bricht die geteilte Ladung nicht ab
+        return Mono.defer(() -> Mono.fromFuture(cache.get(key, (k, executor) -> loader.get().toFuture()), true));
+    }
+}
@@ -0,0 +1,89 @@
+package itsi.api.steuerung.service;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Who may see what another user does: watch a live noVNC session, replay its recordings, see its
+ * thumbnail or follow a class or image on a dashboard. Users may always see their own sessions;
+ * those of others only with the role {@code LEHRER} or {@code ADMIN} from the {@code rolle} claim of
+ * their JWT. The viewer id must come from a verified token, never from a client-supplied
+ * {@code ?userId=}. As in the Cedar policy, a teacher follows only the class from the {@code klasse}
+ * claim; image dashboards span classes and are left to admins.
+ */
+@Service
+public class ScreenAccess {
+
+    public static final String ADMIN = "ADMIN";
+    public static final String TEACHER = "LEHRER";
+
+    private static final String BEARER = "Bearer ";
+
+    /**
+     * A caller identified by a valid JWT.
+     */
+    public record Viewer(Long userId, String role) {}
+
+    private final JwtService jwtService;
+
+    public ScreenAccess(JwtService jwtService) {
+        this.jwtService = jwtService;
+    }
+
+    /**
+     * The caller of a REST request, from its {@code Authorization: Bearer} header; empty without a
+     * valid token.
+     */
+    public Optional<Viewer> fromAuthorization(String authorization) {
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            return Optional.empty();
+        }
+        String token = authorization.substring(BEARER.length());
+        if (!jwtService.isTokenValid(token)) {
+            return Optional.empty();
+        }
+        Claims claims = jwtService.extractClaims(token);
+        if (!(claims.get("userId") instanceof Number userId)) {
+            return Optional.empty();
+        }
+        return Optional.of(new Viewer(userId.longValue(), claims.get("rolle") instanceof String role ? role : null));
+    }
+
+    /**
+     * True for the roles that may see the sessions of other users.
+     */
+    public static boolean isStaff(String role) {
+        return ADMIN.equalsIgnoreCase(role) || TEACHER.equalsIgnoreCase(role);
+    }
+
+    /**
+     * True if {@code viewerId} with {@code role} may see the session of {@code userId}.
+     */
+    public static boolean maySee(Long viewerId, String role, Long userId) {
+        return isStaff(role) || (viewerId != null && viewerId.equals(userId));
+    }
+
+    /**
+     * True if a user with {@code role} and the class {@code ownClass} may follow the class {@code className}.
+     */
+    public static boolean mayFollowClass(String role, String ownClass, String className) {
+        return ADMIN.equalsIgnoreCase(role) || (TEACHER.equalsIgnoreCase(role) && className.equals(ownClass));
+    }
+
+    /**
+     * True if a user with {@code role} may follow all instances of an image.
+     */
+    public static boolean mayFollowImage(String role) {
+        return ADMIN.equalsIgnoreCase(role);
+    }
+
+    /**
+     * True if {@code viewerId} with {@code role} may see the sessions of all {@code userIds}.
+     */
+    public static boolean maySeeAll(Long viewerId, String role, Collection<Long> userIds) {
+        return isStaff(role) || userIds.stream().allMatch(userId -> userId.equals(viewerId));
+    }
+}
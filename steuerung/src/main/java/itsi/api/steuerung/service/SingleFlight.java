@@ -0,0 +1,64 @@
+package itsi.api.steuerung.service;
+
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collapses identical reads that are in flight at the same time into one upstream call.
+ *
+ * The first subscriber for a key starts the call, everyone arriving before it completes waits for the
+ * same result. The key is removed before the result is published, so a read that starts after the
+ * upstream call finished always triggers a new one - nothing is served that a separate call would not
+ * have returned as well. Each waiter gets its own copy of the result.
+ */
+@Component
+public class SingleFlight {
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder upstreamCalls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String key, Supplier<Mono<T>> call, UnaryOperator<T> copy) {
+        return Mono.defer(() -> {
+            requests.increment();
+            CompletableFuture<Object> flight = new CompletableFuture<>();
+            CompletableFuture<Object> existing = inFlight.putIfAbsent(key, flight);
+            if (existing != null) {
+                coalesced.increment();
+                return Mono.fromFuture(existing, true).map(value -> copy.apply((T) value));
+            }
+
+            upstreamCalls.increment();
+            call.get().toFuture().whenComplete((value, error) -> {
+                inFlight.remove(key, flight);
+                if (error != null) {
+                    flight.completeExceptionally(error);
+                } else {
+                    flight.complete(value);
+                }
+            });
+            // Abbruch eines Wartenden bricht den gemeinsamen Aufruf nicht ab
+            return Mono.fromFuture(flight, true).map(value -> copy.apply((T) value));
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requests.sum());
+        stats.put("upstreamCalls", upstreamCalls.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+}
@@ -0,0 +1,204 @@
+package itsi.api.steuerung.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Leases VNC and noVNC ports to live environments.
+ *
+ * Both ranges have the same size; slot {@code i} maps to VNC port {@code vncStart + i} and noVNC port
+ * {@code noVncStart + i}, so a lease always covers a matching pair and two live environments can never
+ * share either port. Used slots are tracked in a bitmap; free slots are additionally kept in a dense
+ * index so that leasing, leasing a specific port and releasing are all O(1), independent of how many
+ * live environments exist.
+ *
+ * A lease is held while a live environment is not stopped: from start (or a create that is not stopped)
+ * until stop/delete. On startup the pool re-adopts the ports of all live environments that are not
+ * stopped; start and create wait for that via {@link #adopted()}, so a request arriving before the
+ * application is ready cannot take a port that is still in use.
+ */
+@Component
+@Slf4j
+public class VncPortPool {
+
+    public record Lease(long userId, int vncPort, int noVncPort) {}
+
+    /**
+     * Every port pair is leased; callers answer with 503 and let the client retry.
+     */
+    public static class ExhaustedException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public ExhaustedException(String message) {
+            super(message);
+        }
+    }
+
+    private final DatabaseService databaseService;
+    private final int vncStart;
+    private final int noVncStart;
+    private final int size;
+
+    // Belegte Slots
+    private final BitSet used;
+    // Freie Slots (dicht gepackt) und Position jedes Slots darin, -1 = belegt
+    private final int[] free;
+    private final int[] freePosition;
+    private int freeCount;
+
+    private final Map<Long, Lease> leasesByUser = new HashMap<>();
+    // Übernahme der Ports laufender Live-Environments, beim ersten Bedarf oder beim Start; nur Erfolg wird gemerkt
+    private final Mono<Void> adoption;
+
+    public VncPortPool(DatabaseService databaseService,
+                       @Value("${liveenv.ports.vnc-start:5901}") int vncStart,
+                       @Value("${liveenv.ports.novnc-start:6901}") int noVncStart,
+                       @Value("${liveenv.ports.range-size:1000}") int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("liveenv.ports.range-size must be positive");
+        }
+        if (vncStart < noVncStart + size && noVncStart < vncStart + size) {
+            throw new IllegalArgumentException("VNC port range " + vncStart + "-" + (vncStart + size - 1)
+                    + " overlaps noVNC port range " + noVncStart + "-" + (noVncStart + size - 1));
+        }
+        this.databaseService = databaseService;
+        this.vncStart = vncStart;
+        this.noVncStart = noVncStart;
+        this.size = size;
+        this.used = new BitSet(size);
+        this.free = new int[size];
+        this.freePosition = new int[size];
+        // Umgekehrt einfüllen, damit zuerst die niedrigsten Ports vergeben werden
+        for (int slot = 0; slot < size; slot++) {
+            free[slot] = size - 1 - slot;
+            freePosition[size - 1 - slot] = slot;
+        }
+        this.freeCount = size;
+        // Fehler werden nicht gecacht, der nächste Aufruf lädt erneut
+        this.adoption = Mono.defer(this::adopt).thenReturn(true).cacheInvalidateIf(done -> false).then();
+    }
+
+    /**
+     * Returns the lease of the user, creating one if necessary. A new lease uses {@code preferredVncPort}
+     * if it lies in the range and is free, otherwise any free slot.
+     *
+     * @throws ExhaustedException if every port pair is leased
+     */
+    public synchronized Lease lease(long userId, Integer preferredVncPort) {
+        Lease existing = leasesByUser.get(userId);
+        if (existing != null) {
+            return existing;
+        }
+
+        int slot = -1;
+        if (preferredVncPort != null) {
+            int preferred = preferredVncPort - vncStart;
+            if (preferred >= 0 && preferred < size && !used.get(preferred)) {
+                slot = preferred;
+            }
+        }
+        if (slot < 0) {
+            if (freeCount == 0) {
+                throw new ExhaustedException("VNC port pool exhausted (" + size + " ports leased)");
+            }
+            slot = free[freeCount - 1];
+        }
+        take(slot);
+
+        Lease lease = new Lease(userId, vncStart + slot, noVncStart + slot);
+        leasesByUser.put(userId, lease);
+        log.debug("Leased VNC port {} / noVNC port {} to user {}", lease.vncPort(), lease.noVncPort(), userId);
+        return lease;
+    }
+
+    public synchronized Optional<Lease> release(long userId) {
+        Lease lease = leasesByUser.remove(userId);
+        if (lease != null) {
+            give(lease.vncPort() - vncStart);
+            log.debug("Released VNC port {} / noVNC port {} of user {}", lease.vncPort(), lease.noVncPort(), userId);
+        }
+        return Optional.ofNullable(lease);
+    }
+
+    public synchronized Optional<Lease> leaseOf(long userId) {
+        return Optional.ofNullable(leasesByUser.get(userId));
+    }
+
+    /**
+     * noVNC port belonging to a VNC port, also for ports that are currently not leased.
+     */
+    public int noVncPortFor(int vncPort) {
+        return noVncStart + (vncPort - vncStart);
+    }
+
+    public synchronized int available() {
+        return freeCount;
+    }
+
+    public synchronized int leased() {
+        return size - freeCount;
+    }
+
+    /**
+     * Completes once the ports of the live environments that are not stopped are adopted; the first
+     * call starts the adoption. If the live environments cannot be loaded it errors, and the next call
+     * tries again.
+     */
+    public Mono<Void> adopted() {
+        return adoption;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void adoptRunningEnvironments() {
+        adoption.subscribe(null, e -> log.warn("Could not load live environments to adopt their VNC ports, retrying on the next start or create", e));
+    }
+
+    private Mono<Void> adopt() {
+        return databaseService.getAllLiveEnvironments()
+                .filter(liveEnv -> liveEnv.get("userId") != null && liveEnv.get("vncPort") != null)
+                .filter(liveEnv -> !"stopped".equals(liveEnv.get("status")))
+                .doOnNext(liveEnv -> {
+                    long userId = ((Number) liveEnv.get("userId")).longValue();
+                    int vncPort = ((Number) liveEnv.get("vncPort")).intValue();
+                    try {
+                        Lease lease = lease(userId, vncPort);
+                        if (lease.vncPort() != vncPort) {
+                            log.warn("Live environment of user {} uses VNC port {} outside the pool or twice, next start moves it to {}",
+                                    userId, vncPort, lease.vncPort());
+                        }
+                    } catch (ExhaustedException e) {
+                        log.warn("Could not adopt VNC port {} of user {}: {}", vncPort, userId, e.getMessage());
+                    }
+                })
+                .then();
+    }
+
+    private void take(int slot) {
+        int position = freePosition[slot];
+        int lastSlot = free[freeCount - 1];
+        free[position] = lastSlot;
+        freePosition[lastSlot] = position;
+        freeCount--;
+        freePosition[slot] = -1;
+        used.set(slot);
+    }
+
+    private void give(int slot) {
+        if (!used.get(slot)) {
+            return;
+        }
+        used.clear(slot);
+        free[freeCount] = slot;
+        freePosition[slot] = freeCount;
+        freeCount++;
+    }
+}
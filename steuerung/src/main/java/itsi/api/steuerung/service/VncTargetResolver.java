@@ -0,0 +1,104 @@
+package itsi.api.steuerung.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves the VNC server (host and port) a user's noVNC session is proxied to, from the user's live
+ * environment.
+ *
+ * Targets are cached per user and loaded from the database API on a miss; concurrent misses share one
+ * load and users without a live environment are not cached. The cache is filled at startup and every
+ * {@link LiveEnvironmentChangedEvent} drops the affected entry, so a WebSocket handshake normally costs
+ * a map lookup. The TTL only catches changes made directly in the database.
+ */
+@Component
+@Slf4j
+public class VncTargetResolver {
+
+    public record VncTarget(Integer liveEnvId, String host, int port) {}
+
+    private final DatabaseService databaseService;
+    private final String defaultHost;
+    private final AsyncCache<Long, VncTarget> targets;
+
+    public VncTargetResolver(DatabaseService databaseService,
+                             @Value("${novnc.vnc-host:localhost}") String defaultHost,
+                             @Value("${novnc.target.ttl:300000}") long ttlMillis,
+                             @Value("${novnc.target.max-size:10000}") long maxSize) {
+        this.databaseService = databaseService;
+        this.defaultHost = defaultHost;
+        this.targets = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .maximumSize(maxSize)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Completes with the target of the user's live environment, or with {@code null} if the user has
+     * none. Already completed on a cache hit.
+     */
+    public CompletableFuture<VncTarget> resolve(Long userId) {
+        return targets.get(userId, (key, executor) -> databaseService.getLiveEnvironmentByUserId(key)
+                .mapNotNull(this::targetOf)
+                .toFuture());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        databaseService.getAllLiveEnvironments()
+                .subscribe(liveEnv -> {
+                    VncTarget target = targetOf(liveEnv);
+                    if (target != null && liveEnv.get("userId") instanceof Number userId) {
+                        targets.asMap().putIfAbsent(userId.longValue(), CompletableFuture.completedFuture(target));
+                    }
+                }, e -> log.warn("Could not preload VNC targets: {}", e.toString()));
+    }
+
+    @EventListener
+    public void onLiveEnvironmentChanged(LiveEnvironmentChangedEvent event) {
+        if (event.userId() != null) {
+            targets.synchronous().invalidate(event.userId());
+        }
+        if (event.liveEnvId() != null) {
+            // Updates per ID kennen den User nicht immer
+            targets.synchronous().asMap().values().removeIf(target -> event.liveEnvId().equals(target.liveEnvId()));
+        }
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = targets.synchronous().stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", targets.synchronous().estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("loadFailures", stats.loadFailureCount());
+        result.put("evictions", stats.evictionCount());
+        return result;
+    }
+
+    /**
+     * Target of a live environment as returned by the database API, {@code null} without a VNC port.
+     */
+    public VncTarget targetOf(Map<String, Object> liveEnv) {
+        if (!(liveEnv.get("vncPort") instanceof Number port)) {
+            return null;
+        }
+        Object host = liveEnv.get("vncHost");
+        Integer id = liveEnv.get("id") instanceof Number number ? number.intValue() : null;
+        return new VncTarget(id, host != null && !host.toString().isBlank() ? host.toString() : defaultHost, port.intValue());
+    }
+}
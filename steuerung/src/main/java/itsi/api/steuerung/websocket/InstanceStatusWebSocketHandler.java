@@ -0,0 +1,60 @@
+package itsi.api.steuerung.websocket;
+
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.live.InstanceStatusFeed;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Autowired;
+
+@Component
+public class InstanceStatusWebSocketHandler extends TextWebSocketHandler {
+    private static final String USER_ID_ATTR = "USER_ID";
+
+    // Statusübergänge der Container-Instanzen je User, statt Polling von /api/backend/instances
+    private final InstanceStatusFeed feed;
+    private final SessionHeartbeat heartbeat;
+
+    @Autowired
+    public InstanceStatusWebSocketHandler(InstanceStatusFeed feed, SessionHeartbeat heartbeat) {
+        this.feed = feed;
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        // userId aus der URL extrahieren
+        String[] parts = session.getUri().getPath().split("/");
+        Long userId = null;
+        for (int i = 0; i < parts.length; i++) {
+            if ("instances".equals(parts[i]) && i + 1 < parts.length) {
+                userId = Long.valueOf(parts[i + 1]);
+                break;
+            }
+        }
+        if (userId != null) {
+            session.getAttributes().put(USER_ID_ATTR, userId);
+            feed.register(userId, session);
+            heartbeat.track(session);
+            feed.sendSnapshot(userId, session);
+        } else {
+            session.close();
+        }
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeat.pong(session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        heartbeat.untrack(session);
+        Long userId = (Long) session.getAttributes().get(USER_ID_ATTR);
+        if (userId != null) {
+            feed.unregister(userId, session);
+        }
+    }
+}
@@ -1,23 +1,58 @@
 package itsi.api.steuerung.websocket;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.live.LiveSnapshotCache;
+import itsi.api.steuerung.websocket.live.LiveUpdateLog;
+import itsi.api.steuerung.websocket.live.LiveUpdateRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.web.reactive.function.client.WebClient;
-import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.web.util.UriComponentsBuilder;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Component
+@Slf4j
 public class LiveEnvironmentWebSocketHandler extends TextWebSocketHandler {
-    private final WebClient webClient;
-    // Map: userId -> WebSocketSession
-    private final Map<Long, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private static final String USER_ID_ATTR = "USER_ID";
+
+    // Alle Sitzungen (Tabs, Geräte) je User
+    private final LiveUpdateRegistry<Long> registry;
+    // Nummerierte Deltas je User, Replay nach Reconnect mit ?lastSeq=
+    private final LiveUpdateLog updateLog;
+    // Erster Stand nach dem Verbinden, aus dem Cache oder über den DatabaseService
+    private final LiveSnapshotCache snapshots;
+    // Ping/Pong, halboffene Verbindungen werden geschlossen statt bis zum nächsten Update registriert zu bleiben
+    private final SessionHeartbeat heartbeat;
+    private final Timer connectFromCache;
+    private final Timer connectFromDatabase;
 
     @Autowired
-    public LiveEnvironmentWebSocketHandler(WebClient.Builder webClientBuilder) {
-        this.webClient = webClientBuilder.baseUrl("http://localhost:5050").build();
+    public LiveEnvironmentWebSocketHandler(LiveUpdateRegistry<Long> registry, LiveUpdateLog updateLog,
+                                           LiveSnapshotCache snapshots, SessionHeartbeat heartbeat,
+                                           MeterRegistry meterRegistry) {
+        this.registry = registry;
+        this.updateLog = updateLog;
+        this.snapshots = snapshots;
+        this.heartbeat = heartbeat;
+        this.connectFromCache = connectTimer(meterRegistry, "cache");
+        this.connectFromDatabase = connectTimer(meterRegistry, "database");
+    }
+
+    private static Timer connectTimer(MeterRegistry meterRegistry, String source) {
+        return Timer.builder("liveenv.ws.connect")
+                .description("Time from connect until a live-environment session has its first state")
+                .tag("snapshot", source)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
     }
 
     @Override
@@ -33,38 +68,65 @@ public class LiveEnvironmentWebSocketHandler extends TextWebSocketHandler {
             }
         }
         if (userId != null) {
-            sessions.put(userId, session);
-            // Live-Environment aus DB holen und an Client senden
-            String envJson = webClient.get()
-                    .uri("/api/live-environments/" + userId)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-            session.sendMessage(new TextMessage(envJson));
+            session.getAttributes().put(USER_ID_ATTR, userId);
+            registry.register(userId, session);
+            heartbeat.track(session);
+            sendSnapshot(userId, session);
         } else {
             session.close();
         }
     }
 
+    // Live-Environment asynchron holen und senden, der Container-Thread wartet nicht auf die Datenbank
+    private void sendSnapshot(Long userId, WebSocketSession session) {
+        long start = System.nanoTime();
+        // Verpasste Updates nachreichen, wenn der Client weiß, bis wohin er sie hat
+        if (updateLog.resume(userId, session, lastSeq(session))) {
+            connectFromCache.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return;
+        }
+        CompletableFuture<TextMessage> snapshot = snapshots.snapshot(userId);
+        Timer connectTime = snapshot.isDone() ? connectFromCache : connectFromDatabase;
+        snapshot.whenComplete((message, error) -> {
+            if (error != null) {
+                log.warn("Could not load live environment of user {}: {}", userId, error.toString());
+            } else if (message != null) {
+                updateLog.sendInitial(userId, session, message);
+            }
+            connectTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+    }
+
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         // Optional: Handle incoming messages (z.B. Start/Stop/Reset)
     }
 
     @Override
-    public void afterConnectionClosed(WebSocketSession session, org.springframework.web.socket.CloseStatus status) throws Exception {
-        sessions.values().remove(session);
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeat.pong(session);
     }
 
-    // Sende Live-Environment-Update an den User über WebSocket
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        heartbeat.untrack(session);
+        Long userId = (Long) session.getAttributes().get(USER_ID_ATTR);
+        if (userId != null) {
+            registry.unregister(userId, session);
+        }
+    }
+
+    // Sende die Änderungen an alle Sitzungen des Users, kurz hintereinander folgende Updates zusammengefasst
     public void sendToUser(Long userId, Map<String, Object> liveEnv) {
-        WebSocketSession session = sessions.get(userId);
-        if (session != null && session.isOpen()) {
-            try {
-                session.sendMessage(new TextMessage(new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(liveEnv)));
-            } catch (Exception e) {
-                // Fehler beim Senden ignorieren oder loggen
-            }
+        updateLog.publish(userId, liveEnv);
+    }
+
+    private static Long lastSeq(WebSocketSession session) {
+        String lastSeq = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("lastSeq");
+        try {
+            return lastSeq != null ? Long.valueOf(lastSeq) : null;
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 }
@@ -0,0 +1,205 @@
+package itsi.api.steuerung.websocket;
+
+import io.jsonwebtoken.Claims;
+import itsi.api.steuerung.service.JwtService;
+import itsi.api.steuerung.service.ScreenAccess;
+import itsi.api.steuerung.websocket.novnc.SessionRecorder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Determines the user of a noVNC WebSocket before the handshake completes.
+ *
+ * Browsers cannot set headers on a WebSocket, so the JWT is passed as {@code ?token=}; its
+ * {@code userId} claim names the user, its {@code rolle} claim the role, which weights the session's
+ * share of the bandwidth, and its {@code klasse} claim the class, which limits the dashboard topics of
+ * a teacher. While JWT authentication is disabled (see
+ * {@code SecurityConfig}), {@code ?userId=} is accepted as well, but without a role, and only where the
+ * browser logs in to the VNC server itself. Handshakes without a user or with an invalid token are
+ * rejected, and so are handshakes for screens of other users unless the role allows it (see
+ * {@link ScreenAccess}). Endpoints where the proxy logs in with the stored VNC password or replays a
+ * recording require a token.
+ *
+ * {@code ?resume=} carries an optional resumption token chosen by the browser; see
+ * {@link itsi.api.steuerung.websocket.novnc.ParkedUpstreams}. On the spectator endpoint,
+ * {@code ?watch=} names the user whose screen is shown; on the replay endpoint, {@code ?recording=}
+ * names the recording and {@code ?from=} (millis) and {@code ?speed=} where and how fast it is played;
+ * on the thumbnail endpoint, {@code ?users=} lists the users (comma-separated) whose screens are shown.
+ */
+@Component
+@Slf4j
+public class NoVncHandshakeInterceptor implements HandshakeInterceptor {
+
+    public static final String USER_ID_ATTR = "USER_ID";
+    public static final String ROLE_ATTR = "ROLE";
+    public static final String CLASS_ATTR = "CLASS";
+    public static final String RESUME_TOKEN_ATTR = "RESUME_TOKEN";
+    public static final String WATCHED_USER_ID_ATTR = "WATCHED_USER_ID";
+    public static final String RECORDING_ID_ATTR = "RECORDING_ID";
+    public static final String REPLAY_FROM_ATTR = "REPLAY_FROM";
+    public static final String REPLAY_SPEED_ATTR = "REPLAY_SPEED";
+    public static final String THUMBNAIL_USER_IDS_ATTR = "THUMBNAIL_USER_IDS";
+
+    private static final int MAX_RESUME_TOKEN_LENGTH = 128;
+    private static final double MIN_REPLAY_SPEED = 0.25;
+    private static final double MAX_REPLAY_SPEED = 16;
+    private static final int MAX_THUMBNAIL_USERS = 100;
+
+    private final JwtService jwtService;
+
+    public NoVncHandshakeInterceptor(JwtService jwtService) {
+        this.jwtService = jwtService;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams();
+
+        // Optional: Token, unter dem die VNC-Verbindung nach einem Abbruch geparkt wird
+        String resumeToken = params.getFirst("resume");
+        if (resumeToken != null && !resumeToken.isBlank() && resumeToken.length() <= MAX_RESUME_TOKEN_LENGTH) {
+            attributes.put(RESUME_TOKEN_ATTR, resumeToken);
+        }
+
+        // Zuschauer: wessen Bildschirm angezeigt wird
+        String watch = params.getFirst("watch");
+        if (watch != null) {
+            try {
+                attributes.put(WATCHED_USER_ID_ATTR, Long.parseLong(watch));
+            } catch (NumberFormatException e) {
+                response.setStatusCode(HttpStatus.BAD_REQUEST);
+                return false;
+            }
+        }
+
+        // Wiedergabe: welche Aufzeichnung, ab wann, wie schnell
+        String recording = params.getFirst("recording");
+        if (recording != null) {
+            try {
+                int from = Integer.parseInt(params.getFirst("from") != null ? params.getFirst("from") : "0");
+                double speed = Double.parseDouble(params.getFirst("speed") != null ? params.getFirst("speed") : "1");
+                if (from < 0 || !(speed >= MIN_REPLAY_SPEED && speed <= MAX_REPLAY_SPEED)) {
+                    throw new NumberFormatException("from " + from + ", speed " + speed);
+                }
+                attributes.put(RECORDING_ID_ATTR, recording);
+                attributes.put(REPLAY_FROM_ATTR, from);
+                attributes.put(REPLAY_SPEED_ATTR, speed);
+            } catch (NumberFormatException e) {
+                response.setStatusCode(HttpStatus.BAD_REQUEST);
+                return false;
+            }
+        }
+
+        // Vorschaubilder: wessen Bildschirme, z.B. alle einer Klasse
+        String users = params.getFirst("users");
+        if (users != null) {
+            try {
+                List<Long> userIds = Arrays.stream(users.split(","))
+                        .map(String::trim)
+                        .map(Long::parseLong)
+                        .distinct()
+                        .toList();
+                if (userIds.size() > MAX_THUMBNAIL_USERS) {
+                    throw new NumberFormatException(userIds.size() + " users");
+                }
+                attributes.put(THUMBNAIL_USER_IDS_ATTR, userIds);
+            } catch (NumberFormatException e) {
+                response.setStatusCode(HttpStatus.BAD_REQUEST);
+                return false;
+            }
+        }
+
+        String token = params.getFirst("token");
+        if (token != null) {
+            if (!jwtService.isTokenValid(token)) {
+                response.setStatusCode(HttpStatus.UNAUTHORIZED);
+                return false;
+            }
+            Claims claims = jwtService.extractClaims(token);
+            if (claims.get("userId") instanceof Number userId) {
+                attributes.put(USER_ID_ATTR, userId.longValue());
+                if (claims.get("rolle") instanceof String role) {
+                    attributes.put(ROLE_ATTR, role);
+                }
+                if (claims.get("klasse") instanceof String className) {
+                    attributes.put(CLASS_ATTR, className);
+                }
+                return authorize(attributes, response, true);
+            }
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+
+        String userId = params.getFirst("userId");
+        try {
+            if (userId != null) {
+                attributes.put(USER_ID_ATTR, Long.parseLong(userId));
+                return authorize(attributes, response, false);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Invalid userId query param on noVNC handshake: {}", userId);
+        }
+        response.setStatusCode(HttpStatus.BAD_REQUEST);
+        return false;
+    }
+
+    /**
+     * Rejects with 401 if the proxy would show a screen (live, logged in by the proxy, or recorded) to a
+     * user that is not authenticated by a token, and with 403 if the user may not see the screens the handshake asks for, see
+     * {@link ScreenAccess}.
+     */
+    private boolean authorize(Map<String, Object> attributes, ServerHttpResponse response, boolean fromToken) {
+        Long userId = (Long) attributes.get(USER_ID_ATTR);
+        String role = (String) attributes.get(ROLE_ATTR);
+
+        // Zuschauer, Wiedergabe und Vorschaubilder zeigen Bildschirme ohne VNC-Passwort, ?userId= allein beweist nichts
+        if (!fromToken && (attributes.containsKey(WATCHED_USER_ID_ATTR) || attributes.containsKey(RECORDING_ID_ATTR)
+                || attributes.containsKey(THUMBNAIL_USER_IDS_ATTR))) {
+            log.warn("Rejecting screen handshake of user {} without token", userId);
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+        if (attributes.get(WATCHED_USER_ID_ATTR) instanceof Long watched && !ScreenAccess.maySee(userId, role, watched)) {
+            log.warn("User {} ({}) may not watch the session of user {}", userId, role, watched);
+            response.setStatusCode(HttpStatus.FORBIDDEN);
+            return false;
+        }
+        if (attributes.get(RECORDING_ID_ATTR) instanceof String recording) {
+            Optional<Long> owner = SessionRecorder.ownerOf(recording);
+            if (owner.isEmpty()) {
+                response.setStatusCode(HttpStatus.BAD_REQUEST);
+                return false;
+            }
+            if (!ScreenAccess.maySee(userId, role, owner.get())) {
+                log.warn("User {} ({}) may not replay recording {}", userId, role, recording);
+                response.setStatusCode(HttpStatus.FORBIDDEN);
+                return false;
+            }
+        }
+        if (attributes.get(THUMBNAIL_USER_IDS_ATTR) instanceof List<?> users
+                && !ScreenAccess.maySeeAll(userId, role, users.stream().map(Long.class::cast).toList())) {
+            log.warn("User {} ({}) may not see thumbnails of users {}", userId, role, users);
+            response.setStatusCode(HttpStatus.FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
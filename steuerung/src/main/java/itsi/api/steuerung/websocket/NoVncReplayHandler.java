@@ -0,0 +1,121 @@
+package itsi.api.steuerung.websocket;
+
+import itsi.api.steuerung.websocket.novnc.NoVncSendPath;
+import itsi.api.steuerung.websocket.novnc.OverflowPolicy;
+import itsi.api.steuerung.websocket.novnc.RecordingPlayer;
+import itsi.api.steuerung.websocket.novnc.RecordingReader;
+import itsi.api.steuerung.websocket.novnc.RfbResumeHandshake;
+import itsi.api.steuerung.websocket.novnc.SessionRecorder;
+import itsi.api.steuerung.websocket.novnc.SessionSendQueue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.io.IOException;
+
+/**
+ * Plays a recorded noVNC session back to a noVNC client, through the same WebSocket protocol as a live
+ * one. The RFB handshake is answered locally with the recorded ServerInit, then the {@link RecordingPlayer}
+ * sends the recorded server messages; input is dropped. The session is closed at the end of the recording.
+ */
+@Component
+@Slf4j
+public class NoVncReplayHandler extends BinaryWebSocketHandler {
+
+    private final SessionRecorder sessionRecorder;
+    private final NoVncSendPath sendPath;
+
+    private static final String SEND_QUEUE_ATTR = "SEND_QUEUE";
+    private static final String READER_ATTR = "RECORDING_READER";
+    private static final String HANDSHAKE_ATTR = "RFB_HANDSHAKE";
+    private static final String PLAYER_ATTR = "RECORDING_PLAYER";
+
+    public NoVncReplayHandler(SessionRecorder sessionRecorder, NoVncSendPath sendPath) {
+        this.sessionRecorder = sessionRecorder;
+        this.sendPath = sendPath;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        String recordingId = (String) session.getAttributes().get(NoVncHandshakeInterceptor.RECORDING_ID_ATTR);
+        RecordingReader reader;
+        try {
+            reader = sessionRecorder.open(recordingId);
+        } catch (IOException e) {
+            log.warn("Cannot replay recording {}: {}", recordingId, e.getMessage());
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Unknown recording"));
+            return;
+        }
+        log.info("noVNC replay {} of recording {}", session.getId(), recordingId);
+
+        // Kein Upstream: der Player liest nur weiter, solange die Queue Platz hat
+        SessionSendQueue sendQueue = sendPath.open(session, OverflowPolicy.BACKPRESSURE);
+        RfbResumeHandshake handshake = new RfbResumeHandshake(reader.protocolVersion(), reader.serverInit());
+        session.getAttributes().put(SEND_QUEUE_ATTR, sendQueue);
+        session.getAttributes().put(READER_ATTR, reader);
+        session.getAttributes().put(HANDSHAKE_ATTR, handshake);
+        sendQueue.connected();
+        sendQueue.enqueue(handshake.start());
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        SessionSendQueue sendQueue = (SessionSendQueue) session.getAttributes().get(SEND_QUEUE_ATTR);
+        RfbResumeHandshake handshake = (RfbResumeHandshake) session.getAttributes().get(HANDSHAKE_ATTR);
+        if (sendQueue == null) {
+            return;
+        }
+        sendQueue.onClientMessage(message.getPayload());
+        if (handshake == null || handshake.isDone()) {
+            // Eingaben haben bei einer Aufzeichnung keine Wirkung
+            return;
+        }
+        try {
+            sendQueue.enqueue(handshake.onClientData(message.getPayload()));
+        } catch (IllegalStateException e) {
+            log.warn("Invalid RFB handshake on replay {}: {}", session.getId(), e.getMessage());
+            closeSession(session, CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+        if (handshake.isDone()) {
+            RecordingReader reader = (RecordingReader) session.getAttributes().remove(READER_ATTR);
+            int from = (Integer) session.getAttributes().getOrDefault(NoVncHandshakeInterceptor.REPLAY_FROM_ATTR, 0);
+            double speed = (Double) session.getAttributes().getOrDefault(NoVncHandshakeInterceptor.REPLAY_SPEED_ATTR, 1.0);
+            RecordingPlayer player = sessionRecorder.play(reader, sendQueue, from, speed,
+                    () -> closeSession(session, CloseStatus.NORMAL.withReason("End of recording")));
+            session.getAttributes().put(PLAYER_ATTR, player);
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        log.info("noVNC replay {} closed - status {}", session.getId(), status);
+        Object player = session.getAttributes().remove(PLAYER_ATTR);
+        if (player instanceof RecordingPlayer recordingPlayer) {
+            recordingPlayer.stop();
+        }
+        Object reader = session.getAttributes().remove(READER_ATTR);
+        if (reader instanceof RecordingReader recordingReader) {
+            recordingReader.close();
+        }
+        Object sendQueue = session.getAttributes().remove(SEND_QUEUE_ATTR);
+        if (sendQueue instanceof SessionSendQueue queue) {
+            queue.close();
+        }
+        session.getAttributes().remove(HANDSHAKE_ATTR);
+        super.afterConnectionClosed(session, status);
+    }
+
+    private void closeSession(WebSocketSession session, CloseStatus status) {
+        try {
+            if (session.isOpen()) {
+                session.close(status);
+            }
+        } catch (IOException e) {
+            log.debug("Error closing WebSocket session {}", session.getId(), e);
+        }
+    }
+}
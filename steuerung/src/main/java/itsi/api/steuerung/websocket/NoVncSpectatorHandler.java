@@ -0,0 +1,158 @@
+package itsi.api.steuerung.websocket;
+
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.VncTargetResolver;
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.novnc.NoVncSendPath;
+import itsi.api.steuerung.websocket.novnc.OverflowPolicy;
+import itsi.api.steuerung.websocket.novnc.RfbResumeHandshake;
+import itsi.api.steuerung.websocket.novnc.SessionSendQueue;
+import itsi.api.steuerung.websocket.novnc.SpectatorHub;
+import itsi.api.steuerung.websocket.novnc.SpectatorSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Read-only noVNC viewers of another user's live environment (teacher, projector).
+ *
+ * All spectators of a user share one VNC connection through the {@link SpectatorHub}. Each one gets
+ * its own send queue, which disconnects the viewer instead of throttling the shared connection when it
+ * falls behind. The browser's RFB handshake is answered locally; everything it sends afterwards,
+ * i.e. input, is dropped.
+ */
+@Component
+@Slf4j
+public class NoVncSpectatorHandler extends BinaryWebSocketHandler {
+
+    private final DatabaseService databaseService;
+    private final VncTargetResolver vncTargetResolver;
+    private final SpectatorHub spectatorHub;
+    private final NoVncSendPath sendPath;
+    private final SessionHeartbeat heartbeat;
+
+    private static final String SEND_QUEUE_ATTR = "SEND_QUEUE";
+    private static final String SOURCE_ATTR = "SPECTATOR_SOURCE";
+    private static final String HANDSHAKE_ATTR = "RFB_HANDSHAKE";
+
+    public NoVncSpectatorHandler(DatabaseService databaseService, VncTargetResolver vncTargetResolver,
+                                 SpectatorHub spectatorHub, NoVncSendPath sendPath, SessionHeartbeat heartbeat) {
+        this.databaseService = databaseService;
+        this.vncTargetResolver = vncTargetResolver;
+        this.spectatorHub = spectatorHub;
+        this.sendPath = sendPath;
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        Long watchedUserId = (Long) session.getAttributes().get(NoVncHandshakeInterceptor.WATCHED_USER_ID_ATTR);
+        if (watchedUserId == null) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("watch parameter missing"));
+            return;
+        }
+        log.info("noVNC spectator {} watching user {}", session.getId(), watchedUserId);
+
+        SessionSendQueue sendQueue = sendPath.open(session, OverflowPolicy.DISCONNECT);
+        session.getAttributes().put(SEND_QUEUE_ATTR, sendQueue);
+        heartbeat.track(session);
+
+        databaseService.getLiveEnvironmentByUserId(watchedUserId)
+                .toFuture()
+                .thenCompose(liveEnv -> {
+                    VncTargetResolver.VncTarget target = liveEnv != null ? vncTargetResolver.targetOf(liveEnv) : null;
+                    if (target == null) {
+                        throw new IllegalStateException("No live environment for user " + watchedUserId);
+                    }
+                    return spectatorHub.source(watchedUserId, target.host(), target.port(), password(liveEnv));
+                })
+                .whenComplete((source, error) -> {
+                    if (error != null) {
+                        log.warn("Cannot watch user {}: {}", watchedUserId, error.toString());
+                        closeSession(session, CloseStatus.SERVER_ERROR);
+                    } else {
+                        attach(session, sendQueue, source);
+                    }
+                });
+    }
+
+    private void attach(WebSocketSession session, SessionSendQueue sendQueue, SpectatorSource source) {
+        session.getAttributes().put(SOURCE_ATTR, source);
+        if (!session.isOpen()) {
+            // Während des Verbindens geschlossen
+            spectatorHub.leave(source, sendQueue);
+            return;
+        }
+        RfbResumeHandshake handshake = source.resumeHandshake();
+        session.getAttributes().put(HANDSHAKE_ATTR, handshake);
+        sendQueue.connected();
+        sendQueue.enqueue(handshake.start());
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        SessionSendQueue sendQueue = (SessionSendQueue) session.getAttributes().get(SEND_QUEUE_ATTR);
+        RfbResumeHandshake handshake = (RfbResumeHandshake) session.getAttributes().get(HANDSHAKE_ATTR);
+        if (sendQueue == null) {
+            return;
+        }
+        sendQueue.onClientMessage(message.getPayload());
+        if (handshake == null || handshake.isDone()) {
+            // Zuschauer steuern nicht mit
+            return;
+        }
+        try {
+            sendQueue.enqueue(handshake.onClientData(message.getPayload()));
+        } catch (IllegalStateException e) {
+            log.warn("Invalid RFB handshake from spectator {}: {}", session.getId(), e.getMessage());
+            closeSession(session, CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+        if (handshake.isDone()) {
+            ((SpectatorSource) session.getAttributes().get(SOURCE_ATTR)).join(sendQueue);
+        }
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeat.pong(session);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        log.info("noVNC spectator {} closed - status {}", session.getId(), status);
+        heartbeat.untrack(session);
+        SessionSendQueue sendQueue = (SessionSendQueue) session.getAttributes().remove(SEND_QUEUE_ATTR);
+        SpectatorSource source = (SpectatorSource) session.getAttributes().remove(SOURCE_ATTR);
+        session.getAttributes().remove(HANDSHAKE_ATTR);
+        if (sendQueue != null) {
+            sendQueue.close();
+            if (source != null) {
+                spectatorHub.leave(source, sendQueue);
+            }
+        }
+        super.afterConnectionClosed(session, status);
+    }
+
+    private static String password(Map<String, Object> liveEnv) {
+        Object password = liveEnv.get("vncPassword");
+        return password != null ? password.toString() : null;
+    }
+
+    private void closeSession(WebSocketSession session, CloseStatus status) {
+        try {
+            if (session.isOpen()) {
+                session.close(status);
+            }
+        } catch (IOException e) {
+            log.debug("Error closing WebSocket session {}", session.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package itsi.api.steuerung.websocket;
+
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.VncTargetResolver;
+import itsi.api.steuerung.websocket.novnc.ThumbnailHub;
+import itsi.api.steuerung.websocket.novnc.ThumbnailViewer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thumbnails of several users' screens over one WebSocket, for a teacher's grid view.
+ *
+ * Every binary message is one JPEG thumbnail, prefixed with the user it shows:
+ * {@code [u64 userId][u16 width][u16 height][JPEG]}. Thumbnails come from the {@link ThumbnailHub},
+ * which keeps one VNC connection per watched user no matter how many grids show it. Users without a
+ * live environment are skipped; messages from the browser are ignored.
+ */
+@Component
+@Slf4j
+public class NoVncThumbnailHandler extends BinaryWebSocketHandler {
+
+    private final DatabaseService databaseService;
+    private final VncTargetResolver vncTargetResolver;
+    private final ThumbnailHub thumbnailHub;
+
+    private static final String VIEWER_ATTR = "THUMBNAIL_VIEWER";
+
+    public NoVncThumbnailHandler(DatabaseService databaseService, VncTargetResolver vncTargetResolver,
+                                 ThumbnailHub thumbnailHub) {
+        this.databaseService = databaseService;
+        this.vncTargetResolver = vncTargetResolver;
+        this.thumbnailHub = thumbnailHub;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        List<Long> userIds = (List<Long>) session.getAttributes().get(NoVncHandshakeInterceptor.THUMBNAIL_USER_IDS_ATTR);
+        if (userIds == null) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("users parameter missing"));
+            return;
+        }
+        log.info("noVNC thumbnails {} for {} users", session.getId(), userIds.size());
+
+        ThumbnailViewer viewer = thumbnailHub.open(session);
+        session.getAttributes().put(VIEWER_ATTR, viewer);
+        for (Long userId : userIds) {
+            databaseService.getLiveEnvironmentByUserId(userId)
+                    .toFuture()
+                    .whenComplete((liveEnv, error) -> {
+                        VncTargetResolver.VncTarget target = liveEnv != null ? vncTargetResolver.targetOf(liveEnv) : null;
+                        if (target == null) {
+                            log.debug("No thumbnail for user {}: {}", userId, error != null ? error.toString() : "no live environment");
+                            return;
+                        }
+                        thumbnailHub.watch(viewer, userId, target.host(), target.port(), password(liveEnv));
+                    });
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        log.info("noVNC thumbnails {} closed - status {}", session.getId(), status);
+        Object viewer = session.getAttributes().remove(VIEWER_ATTR);
+        if (viewer instanceof ThumbnailViewer thumbnailViewer) {
+            thumbnailHub.close(thumbnailViewer);
+        }
+        super.afterConnectionClosed(session, status);
+    }
+
+    private static String password(Map<String, Object> liveEnv) {
+        Object password = liveEnv.get("vncPassword");
+        return password != null ? password.toString() : null;
+    }
+}
@@ -1,136 +1,379 @@
 package itsi.api.steuerung.websocket;
 
+import itsi.api.steuerung.service.VncTargetResolver;
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.novnc.AdaptiveEncoding;
+import itsi.api.steuerung.websocket.novnc.BandwidthShaper;
+import itsi.api.steuerung.websocket.novnc.ClientBacklog;
+import itsi.api.steuerung.websocket.novnc.NoVncSendPath;
+import itsi.api.steuerung.websocket.novnc.ParkedUpstreams;
+import itsi.api.steuerung.websocket.novnc.RfbEncodingRewriter;
+import itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorder;
+import itsi.api.steuerung.websocket.novnc.RfbResumeHandshake;
+import itsi.api.steuerung.websocket.novnc.SessionRecorder;
+import itsi.api.steuerung.websocket.novnc.SessionRecording;
+import itsi.api.steuerung.websocket.novnc.SessionSendQueue;
+import itsi.api.steuerung.websocket.novnc.UpstreamListener;
+import itsi.api.steuerung.websocket.novnc.UpstreamRelay;
+import itsi.api.steuerung.websocket.novnc.VncProxyEngine;
+import itsi.api.steuerung.websocket.novnc.VncUpstream;
+import itsi.api.steuerung.websocket.novnc.WarmUpstreamPool;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.BinaryWebSocketHandler;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 @Slf4j
 public class NoVncWebSocketHandler extends BinaryWebSocketHandler {
 
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final VncProxyEngine proxyEngine;
+    private final NoVncSendPath sendPath;
+    private final VncTargetResolver vncTargetResolver;
+    private final WarmUpstreamPool warmUpstreamPool;
+    private final ParkedUpstreams parkedUpstreams;
+    private final SessionRecorder sessionRecorder;
+    private final AdaptiveEncoding adaptiveEncoding;
+    private final BandwidthShaper bandwidthShaper;
+    private final SessionHeartbeat heartbeat;
 
-    @Value("${novnc.vnc-host:localhost}")
-    private String vncHost;
+    private static final String VNC_UPSTREAM_ATTR = "VNC_UPSTREAM";
+    private static final String SEND_QUEUE_ATTR = "SEND_QUEUE";
+    private static final String RELAY_ATTR = "UPSTREAM_RELAY";
+    private static final String HANDSHAKE_ATTR = "RFB_HANDSHAKE";
+    private static final String RESUME_ATTR = "RFB_RESUME";
+    private static final String RECORDING_ATTR = "SESSION_RECORDING";
+    private static final String REWRITER_ATTR = "ENCODING_REWRITER";
+    private static final String ADMISSION_ATTR = "BANDWIDTH_ADMISSION";
+    private static final String BACKLOG_ATTR = "CLIENT_BACKLOG";
 
-    @Value("${novnc.vnc-port:5900}")
-    private int vncPort;
+    // Obergrenze für Nachrichten des Browsers, bevor der VNC-Server verbunden ist
+    private static final int MAX_BACKLOG_BYTES = 64 * 1024;
 
-    private static final String VNC_SOCKET_ATTR = "VNC_SOCKET";
+    public NoVncWebSocketHandler(VncProxyEngine proxyEngine, NoVncSendPath sendPath,
+                                 VncTargetResolver vncTargetResolver, WarmUpstreamPool warmUpstreamPool,
+                                 ParkedUpstreams parkedUpstreams, SessionRecorder sessionRecorder,
+                                 AdaptiveEncoding adaptiveEncoding, BandwidthShaper bandwidthShaper,
+                                 SessionHeartbeat heartbeat) {
+        this.proxyEngine = proxyEngine;
+        this.sendPath = sendPath;
+        this.vncTargetResolver = vncTargetResolver;
+        this.warmUpstreamPool = warmUpstreamPool;
+        this.parkedUpstreams = parkedUpstreams;
+        this.sessionRecorder = sessionRecorder;
+        this.adaptiveEncoding = adaptiveEncoding;
+        this.bandwidthShaper = bandwidthShaper;
+        this.heartbeat = heartbeat;
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         log.info("noVNC WebSocket connection established: {}", session.getId());
+        // Schlafende Laptops: ohne Pong wird die Sitzung geschlossen und die VNC-Verbindung geparkt
+        heartbeat.track(session);
 
-        // VNC-Port dynamisch aus Query-Param oder Session-Attribut bestimmen
-        int dynamicVncPort = vncPort;
-        String query = session.getUri().getQuery();
-        if (query != null && query.contains("vncPort=")) {
-            try {
-                for (String param : query.split("&")) {
-                    if (param.startsWith("vncPort=")) {
-                        dynamicVncPort = Integer.parseInt(param.split("=")[1]);
-                        break;
-                    }
-                }
-            } catch (Exception e) {
-                log.warn("Invalid vncPort query param, fallback to default: {}", vncPort);
+        // Daten an den Client laufen über eine begrenzte Queue, nie direkt vom I/O-Thread
+        SessionSendQueue sendQueue = sendPath.open(session);
+        session.getAttributes().put(SEND_QUEUE_ATTR, sendQueue);
+        // Nachrichten des Browsers bis zum Binden des VNC-Servers puffern
+        session.getAttributes().put(BACKLOG_ATTR, new ClientBacklog(MAX_BACKLOG_BYTES));
+        // Optional: SetEncodings des Clients an die Verbindung zum Browser anpassen
+        adaptiveEncoding.rewriter(sendQueue).ifPresent(rewriter -> session.getAttributes().put(REWRITER_ATTR, rewriter));
+
+        // Erst verbinden, wenn ein Platz frei ist; Anteil an der Bandbreite nach Rolle
+        CompletableFuture<BandwidthShaper.Share> admission =
+                bandwidthShaper.admit(session, (String) session.getAttributes().get(NoVncHandshakeInterceptor.ROLE_ATTR));
+        session.getAttributes().put(ADMISSION_ATTR, admission);
+        admission.whenComplete((share, error) -> {
+            if (admission.isCancelled()) {
+                // Browser ist während des Wartens gegangen
+                return;
             }
+            if (error != null) {
+                log.warn("No slot for noVNC session {}: {}", session.getId(), error.toString());
+                closeResources(session, CloseStatus.SERVICE_OVERLOAD, false);
+            } else {
+                sendQueue.shape(share);
+                resolve(session, sendQueue);
+            }
+        });
+    }
+
+    private void resolve(WebSocketSession session, SessionSendQueue sendQueue) {
+        if (!session.isOpen()) {
+            return;
         }
+        // VNC-Server aus dem Live-Environment des Users; bei einem Cache-Treffer sofort fertig
+        Long userId = (Long) session.getAttributes().get(NoVncHandshakeInterceptor.USER_ID_ATTR);
+        vncTargetResolver.resolve(userId).whenComplete((target, error) -> {
+            if (error != null) {
+                log.error("Failed to resolve VNC server for user {}", userId, error);
+                closeResources(session, CloseStatus.SERVER_ERROR, false);
+            } else if (target == null) {
+                log.warn("No live environment for user {}, closing noVNC session {}", userId, session.getId());
+                closeResources(session, CloseStatus.POLICY_VIOLATION.withReason("No live environment"), false);
+            } else {
+                connect(session, sendQueue, userId, target);
+            }
+        });
+    }
 
+    private void connect(WebSocketSession session, SessionSendQueue sendQueue, Long userId, VncTargetResolver.VncTarget target) {
+        if (!session.isOpen()) {
+            return;
+        }
+        // Nach einem Abbruch geparkte Verbindung desselben Browsers übernehmen
+        String resumeToken = (String) session.getAttributes().get(NoVncHandshakeInterceptor.RESUME_TOKEN_ATTR);
+        if (resumeToken != null) {
+            Optional<ParkedUpstreams.Parked> parked = parkedUpstreams.resume(userId, resumeToken, target.host(), target.port());
+            if (parked.isPresent()) {
+                resume(session, sendQueue, parked.get());
+                return;
+            }
+        }
         try {
-            Socket socket = new Socket(vncHost, dynamicVncPort);
-            session.getAttributes().put(VNC_SOCKET_ATTR, socket);
-
-            // Start background task to read from VNC TCP socket and forward to WebSocket client
-            executorService.submit(() -> {
-                try (InputStream in = socket.getInputStream()) {
-                    byte[] buffer = new byte[8192];
-                    int read;
-                    while (session.isOpen() && (read = in.read(buffer)) != -1) {
-                        ByteBuffer payload = ByteBuffer.wrap(Arrays.copyOf(buffer, read));
-                        try {
-                            synchronized (session) {
-                                session.sendMessage(new BinaryMessage(payload));
-                            }
-                        } catch (IOException sendEx) {
-                            log.warn("Failed to send binary frame to client {}", session.getId(), sendEx);
-                            break;
-                        }
-                    }
-                } catch (IOException ex) {
-                    log.warn("Error reading from VNC socket for session {}", session.getId(), ex);
-                } finally {
-                    closeResources(session);
-                }
-            });
+            RfbHandshakeRecorder handshake = new RfbHandshakeRecorder();
+            SessionRecording recording = startRecording(session, userId);
+            UpstreamRelay relay = new UpstreamRelay(new SessionForwarder(session, sendQueue, handshake, recording));
+            // Vorab geöffnete Verbindung übernehmen, sonst asynchron verbinden; Nachrichten des Clients werden bis dahin gepuffert
+            VncUpstream upstream = warmUpstreamPool.claim(userId, target.host(), target.port(), relay).orElse(null);
+            if (upstream == null) {
+                upstream = proxyEngine.connect(target.host(), target.port(), relay);
+            }
+            sendQueue.bind(upstream);
+            session.getAttributes().put(HANDSHAKE_ATTR, handshake);
+            session.getAttributes().put(RELAY_ATTR, relay);
+            session.getAttributes().put(VNC_UPSTREAM_ATTR, upstream);
+            if (!session.isOpen()) {
+                // Während des Verbindens geschlossen
+                closeResources(session, CloseStatus.NORMAL, false);
+            } else {
+                drainBacklog(session);
+            }
         } catch (IOException e) {
-            log.error("Failed to connect to VNC server {}:{}", vncHost, dynamicVncPort, e);
-            session.close(CloseStatus.SERVER_ERROR);
+            log.error("Failed to connect to VNC server {}:{}", target.host(), target.port(), e);
+            closeResources(session, CloseStatus.SERVER_ERROR, false);
+        }
+    }
+
+    /**
+     * Takes over a parked connection: the browser's RFB handshake is answered locally, the VNC server
+     * is attached once the browser sent ClientInit.
+     */
+    private void resume(WebSocketSession session, SessionSendQueue sendQueue, ParkedUpstreams.Parked parked) {
+        log.info("Resuming VNC connection {} for noVNC session {}", parked.upstream().address(), session.getId());
+        RfbResumeHandshake resume = new RfbResumeHandshake(parked.protocolVersion(), parked.serverInit());
+        parked.relay().detach(() -> closeResources(session, CloseStatus.SERVER_ERROR, false));
+        sendQueue.bind(parked.upstream());
+        sendQueue.connected();
+        SessionRecording recording = startRecording(session, (Long) session.getAttributes().get(NoVncHandshakeInterceptor.USER_ID_ATTR));
+        if (recording != null) {
+            recording.handshake(parked.protocolVersion(), parked.serverInit());
+        }
+        session.getAttributes().put(RESUME_ATTR, resume);
+        session.getAttributes().put(HANDSHAKE_ATTR, RfbHandshakeRecorder.completed(parked.protocolVersion(), parked.serverInit()));
+        session.getAttributes().put(RELAY_ATTR, parked.relay());
+        session.getAttributes().put(VNC_UPSTREAM_ATTR, parked.upstream());
+        sendQueue.enqueue(resume.start());
+        if (!session.isOpen()) {
+            closeResources(session, CloseStatus.NORMAL, true);
+        } else {
+            drainBacklog(session);
         }
     }
 
     @Override
     protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
-        Socket socket = (Socket) session.getAttributes().get(VNC_SOCKET_ATTR);
-        if (socket == null || socket.isClosed()) {
+        ClientBacklog backlog = (ClientBacklog) session.getAttributes().get(BACKLOG_ATTR);
+        try {
+            if (backlog != null && backlog.offer(message.getPayload())) {
+                // VNC-Server noch nicht gebunden, drainBacklog gibt die Nachricht weiter
+                return;
+            }
+        } catch (IllegalStateException e) {
+            log.warn("Closing noVNC session {}: {}", session.getId(), e.getMessage());
+            closeResources(session, CloseStatus.TOO_BIG_TO_PROCESS, false);
+            return;
+        }
+        forward(session, message.getPayload());
+    }
+
+    private void drainBacklog(WebSocketSession session) {
+        ClientBacklog backlog = (ClientBacklog) session.getAttributes().get(BACKLOG_ATTR);
+        if (backlog != null) {
+            backlog.drain(payload -> forward(session, payload));
+        }
+    }
+
+    private void forward(WebSocketSession session, ByteBuffer payload) {
+        VncUpstream upstream = (VncUpstream) session.getAttributes().get(VNC_UPSTREAM_ATTR);
+        if (upstream == null || !upstream.isOpen()) {
             log.warn("Received binary message but VNC socket is not available for session {}", session.getId());
-            session.close(CloseStatus.SERVER_ERROR);
+            closeResources(session, CloseStatus.SERVER_ERROR, false);
             return;
         }
 
-        try {
-            OutputStream out = socket.getOutputStream();
-            ByteBuffer payload = message.getPayload();
-            out.write(payload.array(), payload.position(), message.getPayloadLength());
-            out.flush();
-        } catch (IOException e) {
-            log.warn("Failed to forward binary message to VNC server for session {}", session.getId(), e);
-            closeResources(session);
+        SessionSendQueue sendQueue = (SessionSendQueue) session.getAttributes().get(SEND_QUEUE_ATTR);
+        if (sendQueue != null) {
+            sendQueue.onClientMessage(payload);
         }
+        RfbHandshakeRecorder handshake = (RfbHandshakeRecorder) session.getAttributes().get(HANDSHAKE_ATTR);
+        if (handshake != null) {
+            handshake.onClientData(payload);
+        }
+
+        RfbResumeHandshake resume = (RfbResumeHandshake) session.getAttributes().get(RESUME_ATTR);
+        if (resume != null && sendQueue != null) {
+            // Der VNC-Server hat den Handshake schon hinter sich, der Browser bekommt ihn von hier
+            try {
+                sendQueue.enqueue(resume.onClientData(payload));
+            } catch (IllegalStateException e) {
+                log.warn("Invalid RFB handshake on resumed noVNC session {}: {}", session.getId(), e.getMessage());
+                closeResources(session, CloseStatus.POLICY_VIOLATION, false);
+                return;
+            }
+            if (!resume.isDone()) {
+                return;
+            }
+            session.getAttributes().remove(RESUME_ATTR);
+            UpstreamRelay relay = (UpstreamRelay) session.getAttributes().get(RELAY_ATTR);
+            relay.attach(new SessionForwarder(session, sendQueue, handshake,
+                    (SessionRecording) session.getAttributes().get(RECORDING_ATTR)));
+            if (!payload.hasRemaining()) {
+                return;
+            }
+        }
+        RfbEncodingRewriter rewriter = (RfbEncodingRewriter) session.getAttributes().get(REWRITER_ATTR);
+        if (rewriter != null && handshake != null && handshake.isComplete()) {
+            // Erst nach ServerInit folgen normale Client-Nachrichten
+            payload = rewriter.onClientData(payload);
+        }
+        upstream.write(payload);
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeat.pong(session);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         log.info("noVNC WebSocket connection closed: {} - status {}", session.getId(), status);
-        closeResources(session);
+        heartbeat.untrack(session);
+        // Browser ist weg; die VNC-Verbindung bleibt für einen Reconnect geparkt, sofern möglich
+        closeResources(session, CloseStatus.NORMAL, true);
         super.afterConnectionClosed(session, status);
     }
 
-    private void closeResources(WebSocketSession session) {
-        Map<String, Object> attrs = session.getAttributes();
-        Object socketObj = attrs.remove(VNC_SOCKET_ATTR);
-        if (socketObj instanceof Socket) {
-            Socket socket = (Socket) socketObj;
-            try {
-                if (!socket.isClosed()) {
-                    socket.close();
-                }
-            } catch (IOException e) {
-                log.debug("Error closing VNC socket for session {}", session.getId(), e);
+    private void closeResources(WebSocketSession session, CloseStatus status, boolean park) {
+        Object upstream = session.getAttributes().remove(VNC_UPSTREAM_ATTR);
+        Object relay = session.getAttributes().remove(RELAY_ATTR);
+        Object handshake = session.getAttributes().remove(HANDSHAKE_ATTR);
+        session.getAttributes().remove(RESUME_ATTR);
+        session.getAttributes().remove(REWRITER_ATTR);
+        session.getAttributes().remove(BACKLOG_ATTR);
+        Object recording = session.getAttributes().remove(RECORDING_ATTR);
+        if (recording instanceof SessionRecording sessionRecording) {
+            sessionRecording.close();
+        }
+        if (upstream instanceof VncUpstream vncUpstream) {
+            boolean parked = park
+                    && relay instanceof UpstreamRelay upstreamRelay
+                    && handshake instanceof RfbHandshakeRecorder recorder
+                    && parkedUpstreams.park((Long) session.getAttributes().get(NoVncHandshakeInterceptor.USER_ID_ATTR),
+                            (String) session.getAttributes().get(NoVncHandshakeInterceptor.RESUME_TOKEN_ATTR),
+                            vncUpstream, upstreamRelay, recorder);
+            if (!parked) {
+                vncUpstream.close();
             }
         }
+        Object sendQueue = session.getAttributes().remove(SEND_QUEUE_ATTR);
+        if (sendQueue instanceof SessionSendQueue) {
+            ((SessionSendQueue) sendQueue).close();
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<BandwidthShaper.Share> admission =
+                (CompletableFuture<BandwidthShaper.Share>) session.getAttributes().remove(ADMISSION_ATTR);
+        bandwidthShaper.release(admission);
 
         try {
             if (session.isOpen()) {
-                session.close();
+                session.close(status);
             }
         } catch (IOException e) {
             log.debug("Error closing WebSocket session {}", session.getId(), e);
         }
     }
-}
\ No newline at end of file
+
+    private SessionRecording startRecording(WebSocketSession session, Long userId) {
+        SessionRecording recording = sessionRecorder.start(userId, session.getId()).orElse(null);
+        if (recording != null) {
+            session.getAttributes().put(RECORDING_ATTR, recording);
+        }
+        return recording;
+    }
+
+    /**
+     * Forwards everything the VNC server sends to the send queue of one session, and to its recording.
+     */
+    private class SessionForwarder implements UpstreamListener {
+
+        private final WebSocketSession session;
+        private final SessionSendQueue sendQueue;
+        private final RfbHandshakeRecorder handshake;
+        private final SessionRecording recording;
+
+        SessionForwarder(WebSocketSession session, SessionSendQueue sendQueue, RfbHandshakeRecorder handshake,
+                         SessionRecording recording) {
+            this.session = session;
+            this.sendQueue = sendQueue;
+            this.handshake = handshake;
+            this.recording = recording;
+        }
+
+        @Override
+        public void onConnected(VncUpstream upstream) {
+            sendQueue.connected();
+        }
+
+        @Override
+        public void onData(VncUpstream upstream, ByteBuffer data) {
+            if (!session.isOpen()) {
+                // afterConnectionClosed entscheidet, ob die Verbindung geschlossen oder geparkt wird
+                return;
+            }
+            boolean handshakeDone = handshake.isComplete();
+            handshake.onServerData(data);
+            if (recording != null) {
+                // Aufgezeichnet wird ab ServerInit; bis dahin sendet der Server nur Handshake
+                if (handshakeDone) {
+                    recording.data(data);
+                } else if (handshake.isComplete()) {
+                    recording.handshake(handshake.protocolVersion(), handshake.serverInit());
+                    // Servernachrichten im selben Read wie das Ende von ServerInit
+                    int after = Math.min(handshake.serverBytesAfterInit(), data.remaining());
+                    if (after > 0) {
+                        recording.data(data.slice(data.position() + data.remaining() - after, after));
+                    }
+                }
+            }
+            sendQueue.enqueue(data);
+        }
+
+        @Override
+        public void onClosed(VncUpstream upstream, Throwable cause) {
+            if (cause != null) {
+                log.warn("VNC connection {} for session {} failed: {}", upstream.address(), session.getId(), cause.toString());
+            }
+            closeResources(session, cause != null ? CloseStatus.SERVER_ERROR : CloseStatus.NORMAL, false);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package itsi.api.steuerung.websocket;
+
+import itsi.api.steuerung.service.ScreenAccess;
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.live.LiveTopics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Status updates of a whole class or image over one WebSocket, for a teacher's dashboard:
+ * {@code /ws/topics?class=<name>,<name>&image=<id>&token=<jwt>}.
+ *
+ * Teachers may follow their own class, admins any class or image (see {@link ScreenAccess}); other
+ * sessions are closed with {@link CloseStatus#POLICY_VIOLATION}.
+ *
+ * Every text message is a {@link LiveTopics.TopicUpdate}: the topic, the student, the channel
+ * ({@code live-environment} or {@code instances}) and the update as the student's own WebSocket
+ * receives it. Messages from the browser are ignored.
+ */
+@Component
+@Slf4j
+public class TopicWebSocketHandler extends TextWebSocketHandler {
+
+    static final int MAX_TOPICS = 50;
+    private static final String TOPICS_ATTR = "TOPICS";
+
+    private final LiveTopics topics;
+    private final SessionHeartbeat heartbeat;
+
+    public TopicWebSocketHandler(LiveTopics topics, SessionHeartbeat heartbeat) {
+        this.topics = topics;
+        this.heartbeat = heartbeat;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        List<String> subscribed = topicsOf(session);
+        if (subscribed.isEmpty() || subscribed.size() > MAX_TOPICS) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("class or image parameter missing or invalid"));
+            return;
+        }
+        if (!mayJoin(session, subscribed)) {
+            log.warn("User {} ({}) may not follow {}", session.getAttributes().get(NoVncHandshakeInterceptor.USER_ID_ATTR),
+                    session.getAttributes().get(NoVncHandshakeInterceptor.ROLE_ATTR), subscribed);
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("not allowed to follow these topics"));
+            return;
+        }
+        log.info("Topic session {} subscribed to {}", session.getId(), subscribed);
+        session.getAttributes().put(TOPICS_ATTR, subscribed);
+        topics.subscribe(subscribed, session);
+        heartbeat.track(session);
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeat.pong(session);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        heartbeat.untrack(session);
+        Object subscribed = session.getAttributes().remove(TOPICS_ATTR);
+        if (subscribed != null) {
+            topics.unsubscribe((List<String>) subscribed, session);
+        }
+    }
+
+    // Rolle und Klasse aus dem JWT, siehe NoVncHandshakeInterceptor
+    static boolean mayJoin(WebSocketSession session, List<String> subscribed) {
+        String role = (String) session.getAttributes().get(NoVncHandshakeInterceptor.ROLE_ATTR);
+        String ownClass = (String) session.getAttributes().get(NoVncHandshakeInterceptor.CLASS_ATTR);
+        return subscribed.stream().allMatch(topic -> topic.startsWith(LiveTopics.CLASS_PREFIX)
+                ? ScreenAccess.mayFollowClass(role, ownClass, topic.substring(LiveTopics.CLASS_PREFIX.length()))
+                : ScreenAccess.mayFollowImage(role));
+    }
+
+    // Klassen und Images aus der URL, z.B. ?class=3AHIT,3BHIT&image=5; leer bei ungültiger Angabe
+    static List<String> topicsOf(WebSocketSession session) {
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        Set<String> result = new LinkedHashSet<>();
+        try {
+            values(params.get("class")).forEach(className -> result.add(LiveTopics.classTopic(className)));
+            values(params.get("image")).forEach(imageId -> result.add(LiveTopics.imageTopic(Integer.valueOf(imageId))));
+        } catch (NumberFormatException e) {
+            return List.of();
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static List<String> values(List<String> params) {
+        if (params == null) {
+            return List.of();
+        }
+        return params.stream()
+                .flatMap(param -> Arrays.stream(param.split(",")))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .toList();
+    }
+}
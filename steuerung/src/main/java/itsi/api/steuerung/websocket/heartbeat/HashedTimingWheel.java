@@ -0,0 +1,169 @@
+package itsi.api.steuerung.websocket.heartbeat;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Timers for many sessions on one thread: a ring of {@code ticksPerWheel} buckets, each covering one tick.
+ * A {@link Timeout} goes into the bucket of its deadline, with the number of full turns of the wheel left
+ * until it is due, so scheduling and cancelling are O(1) and a tick only looks at one bucket. Deadlines are
+ * accurate to one tick, plenty for heartbeats of seconds.
+ *
+ * {@link #schedule} may be called from any thread, the timeouts are put into their bucket on the next tick.
+ * {@link #advanceTo} runs on a single thread, usually from a periodic task; expired timeouts run on it, so
+ * {@link Timeout#expire()} must not block. A timeout is its own list node and may be scheduled again after
+ * it expired, so a recurring timer does not allocate per round.
+ */
+@Slf4j
+final class HashedTimingWheel {
+
+    /**
+     * A timer in the wheel; subclasses hold the state of what is due.
+     */
+    abstract static class Timeout {
+
+        // Nur vom Tick-Thread verwendet
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;
+        private long rounds;
+        private long deadline;
+        private volatile boolean cancelled;
+
+        /**
+         * Called on the tick thread once the deadline passed.
+         */
+        protected abstract void expire();
+
+        /**
+         * Keeps the timeout from expiring; it is dropped from its bucket on one of the next ticks.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] heads;
+    private final LongSupplier clock;
+    private final long startTime;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    // Nächster zu bearbeitender Tick, nur vom Tick-Thread verwendet
+    private long tick;
+    private int size;
+
+    HashedTimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, LongSupplier clock) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tick duration and ticks per wheel must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        // Zweierpotenz, damit der Bucket per Maske statt Modulo bestimmt wird
+        int buckets = 1;
+        while (buckets < ticksPerWheel) {
+            buckets <<= 1;
+        }
+        this.heads = new Timeout[buckets];
+        this.mask = heads.length - 1;
+        this.clock = clock;
+        this.startTime = clock.getAsLong();
+    }
+
+    /**
+     * Lets {@code timeout} expire after {@code delay}. It must not be scheduled already.
+     */
+    void schedule(Timeout timeout, long delay, TimeUnit unit) {
+        timeout.deadline = clock.getAsLong() - startTime + unit.toNanos(delay);
+        pending.add(timeout);
+    }
+
+    /**
+     * Expires everything due up to {@code now} ({@link System#nanoTime()} or the clock of the wheel), tick by tick.
+     */
+    void advanceTo(long now) {
+        long elapsed = now - startTime;
+        while ((tick + 1) * tickNanos <= elapsed) {
+            transferPending();
+            expireBucket((int) (tick & mask), (tick + 1) * tickNanos);
+            tick++;
+        }
+    }
+
+    /**
+     * Timeouts in the buckets, including cancelled ones not yet dropped; only accurate on the tick thread.
+     */
+    int size() {
+        return size;
+    }
+
+    int buckets() {
+        return heads.length;
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long due = timeout.deadline / tickNanos;
+            timeout.rounds = (due - tick) / heads.length;
+            // Schon überfällig: im aktuellen Tick
+            add((int) (Math.max(due, tick) & mask), timeout);
+        }
+    }
+
+    private void expireBucket(int bucket, long deadline) {
+        Timeout timeout = heads[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                remove(timeout);
+            } else if (timeout.rounds <= 0 && timeout.deadline < deadline) {
+                remove(timeout);
+                try {
+                    timeout.expire();
+                } catch (RuntimeException e) {
+                    log.warn("Timeout failed: {}", e.toString(), e);
+                }
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void add(int bucket, Timeout timeout) {
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = heads[bucket];
+        if (heads[bucket] != null) {
+            heads[bucket].prev = timeout;
+        }
+        heads[bucket] = timeout;
+        size++;
+    }
+
+    private void remove(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            heads[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+}
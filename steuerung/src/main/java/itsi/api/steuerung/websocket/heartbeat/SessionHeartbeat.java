@@ -0,0 +1,221 @@
+package itsi.api.steuerung.websocket.heartbeat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Finds half-open WebSocket connections, e.g. of a laptop that went to sleep or left the WLAN, which
+ * otherwise stay registered until a write to them fails.
+ *
+ * Every tracked session gets a WebSocket ping every {@code ws.heartbeat.interval-ms}; browsers answer
+ * with a pong on their own, which the handler passes to {@link #pong}. A session without a pong for
+ * {@code ws.heartbeat.timeout-ms} is closed with {@link CloseStatus#SESSION_NOT_RELIABLE}, so its handler
+ * cleans up in {@code afterConnectionClosed} as for any other close.
+ *
+ * All timers are in one {@link HashedTimingWheel} advanced by a single thread every
+ * {@code ws.heartbeat.tick-ms}; per session there is one small timer object and no task or thread. Pings
+ * and closes, which may block on a congested connection, run on {@code ws.heartbeat.io-threads} threads.
+ *
+ * Meters: {@code ws.heartbeat.sessions}, {@code ws.heartbeat.pings}, {@code ws.heartbeat.evictions} and
+ * {@code ws.heartbeat.rtt} (ping to pong).
+ */
+@Component
+@Slf4j
+public class SessionHeartbeat {
+
+    private static final CloseStatus TIMED_OUT = CloseStatus.SESSION_NOT_RELIABLE.withReason("heartbeat timeout");
+
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final long timeoutNanos;
+    private final HashedTimingWheel wheel;
+    private final LongSupplier clock;
+    private final Executor io;
+    private final ScheduledExecutorService ticker;
+
+    private final Map<String, Beat> beats = new ConcurrentHashMap<>();
+
+    private final Counter pings;
+    private final Counter evictions;
+    private final Timer roundTrip;
+
+    @Autowired
+    public SessionHeartbeat(MeterRegistry meterRegistry,
+                            @Value("${ws.heartbeat.enabled:true}") boolean enabled,
+                            @Value("${ws.heartbeat.interval-ms:25000}") long intervalMillis,
+                            @Value("${ws.heartbeat.timeout-ms:60000}") long timeoutMillis,
+                            @Value("${ws.heartbeat.tick-ms:500}") long tickMillis,
+                            @Value("${ws.heartbeat.io-threads:2}") int ioThreads) {
+        this(meterRegistry, enabled, intervalMillis, timeoutMillis,
+                // Eine Umdrehung deckt das Intervall ab, ein Ping braucht also keine zusätzliche Runde
+                new HashedTimingWheel(tickMillis, TimeUnit.MILLISECONDS, (int) Math.max(1, intervalMillis / tickMillis), System::nanoTime),
+                System::nanoTime,
+                Executors.newFixedThreadPool(Math.max(1, ioThreads), daemonThreads("ws-heartbeat-io-")),
+                Executors.newSingleThreadScheduledExecutor(daemonThreads("ws-heartbeat-")));
+        if (enabled) {
+            ticker.scheduleAtFixedRate(() -> wheel.advanceTo(System.nanoTime()), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    SessionHeartbeat(MeterRegistry meterRegistry, boolean enabled, long intervalMillis, long timeoutMillis,
+                     HashedTimingWheel wheel, LongSupplier clock, Executor io, ScheduledExecutorService ticker) {
+        this.enabled = enabled;
+        this.intervalMillis = intervalMillis;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.wheel = wheel;
+        this.clock = clock;
+        this.io = io;
+        this.ticker = ticker;
+
+        this.pings = Counter.builder("ws.heartbeat.pings").register(meterRegistry);
+        this.evictions = Counter.builder("ws.heartbeat.evictions")
+                .description("Sessions closed because no pong arrived within the timeout")
+                .register(meterRegistry);
+        this.roundTrip = Timer.builder("ws.heartbeat.rtt")
+                .description("Time from a ping until the pong of the browser")
+                .register(meterRegistry);
+        Gauge.builder("ws.heartbeat.sessions", beats, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Starts pinging {@code session}; called when the connection is established.
+     */
+    public void track(WebSocketSession session) {
+        if (!enabled) {
+            return;
+        }
+        Beat beat = new Beat(session, clock.getAsLong());
+        if (beats.putIfAbsent(session.getId(), beat) == null) {
+            wheel.schedule(beat, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records the pong of {@code session}.
+     */
+    public void pong(WebSocketSession session) {
+        Beat beat = beats.get(session.getId());
+        if (beat == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long pingSentAt = beat.pingSentAt;
+        if (pingSentAt != 0) {
+            roundTrip.record(now - pingSentAt, TimeUnit.NANOSECONDS);
+            beat.pingSentAt = 0;
+        }
+        beat.lastPong = now;
+    }
+
+    /**
+     * Stops pinging {@code session}; called when the connection is closed.
+     */
+    public void untrack(WebSocketSession session) {
+        Beat beat = beats.remove(session.getId());
+        if (beat != null) {
+            beat.cancel();
+        }
+    }
+
+    public int sessions() {
+        return beats.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        if (io instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void ping(Beat beat) {
+        try {
+            beat.pingSentAt = clock.getAsLong();
+            // Kontrollframes dürfen laut JSR 356 zwischen Datenframes gesendet werden, auch aus anderen Threads
+            beat.session.sendMessage(new PingMessage());
+            pings.increment();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Ping to WebSocket session {} failed: {}", beat.session.getId(), e.toString());
+            if (beats.remove(beat.session.getId(), beat)) {
+                beat.cancel();
+                evict(beat.session);
+            }
+        }
+    }
+
+    private void evict(WebSocketSession session) {
+        evictions.increment();
+        log.info("Closing WebSocket session {}: no pong within {} ms", session.getId(),
+                TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+        try {
+            session.close(TIMED_OUT);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Error closing WebSocket session {}", session.getId(), e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Heartbeat state of one session, also its timer in the wheel.
+     */
+    private final class Beat extends HashedTimingWheel.Timeout {
+
+        private final WebSocketSession session;
+        private volatile long lastPong;
+        // Zeitpunkt des unbeantworteten Pings, 0 = keiner offen
+        private volatile long pingSentAt;
+
+        Beat(WebSocketSession session, long now) {
+            this.session = session;
+            this.lastPong = now;
+        }
+
+        // Auf dem Tick-Thread: nur entscheiden, Senden und Schließen laufen auf dem I/O-Pool
+        @Override
+        protected void expire() {
+            if (!session.isOpen()) {
+                beats.remove(session.getId(), this);
+                return;
+            }
+            if (clock.getAsLong() - lastPong > timeoutNanos) {
+                if (beats.remove(session.getId(), this)) {
+                    io.execute(() -> evict(session));
+                }
+                return;
+            }
+            wheel.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+            io.execute(() -> ping(this));
+        }
+    }
+}
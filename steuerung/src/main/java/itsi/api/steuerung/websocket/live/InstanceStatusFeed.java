@@ -0,0 +1,113 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import itsi.api.steuerung.dto.InstanceDTO;
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.InstanceChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Container instance status for {@code /ws/instances/{userId}}, pushed as it changes instead of polled.
+ *
+ * Every instance written through the {@link DatabaseService} (by the {@code ContainerService} or the
+ * {@code BackendController}) arrives as an {@link InstanceChangedEvent}; only a change of status is
+ * sent, to every session of the instance's user, as a {@code status} message with the previous status.
+ * A session gets a {@code snapshot} of all instances of its user after connecting. Status changes also
+ * go to the dashboards subscribed to the user's class or the instance's image, see {@link LiveTopics}.
+ *
+ * Meters: {@code instances.ws.transitions} (status changes sent) and the {@code liveenv.ws.*} meters of
+ * the registry with {@code channel=instances}.
+ */
+@Component
+@Slf4j
+public class InstanceStatusFeed {
+
+    public static final String CHANNEL = "instances";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String STATUS = "status";
+
+    public record InstanceStatus(Integer instanceId, String containerId, Integer imageId, String status, String previousStatus) {}
+
+    /**
+     * One message to the instance WebSocket; a {@code status} message carries one instance.
+     */
+    public record InstanceStatusMessage(String type, List<InstanceStatus> instances) {}
+
+    private final LiveUpdateRegistry<Long> registry;
+    private final DatabaseService databaseService;
+    private final LiveTopics topics;
+    // Zuletzt bekannter Status je Instanz, um nur echte Übergänge zu senden
+    private final Map<Integer, String> statuses = new ConcurrentHashMap<>();
+    private final Counter transitions;
+
+    public InstanceStatusFeed(@Qualifier("instanceUpdateRegistry") LiveUpdateRegistry<Long> registry,
+                              DatabaseService databaseService,
+                              LiveTopics topics,
+                              MeterRegistry meterRegistry) {
+        this.registry = registry;
+        this.databaseService = databaseService;
+        this.topics = topics;
+        this.transitions = Counter.builder("instances.ws.transitions").register(meterRegistry);
+    }
+
+    public void register(Long userId, WebSocketSession session) {
+        registry.register(userId, session);
+    }
+
+    public void unregister(Long userId, WebSocketSession session) {
+        registry.unregister(userId, session);
+    }
+
+    @EventListener
+    public void onInstanceChanged(InstanceChangedEvent event) {
+        InstanceDTO instance = event.instance();
+        if (instance.getId() == null || instance.getStatus() == null) {
+            return;
+        }
+        String previous = statuses.put(instance.getId(), instance.getStatus());
+        if (Objects.equals(previous, instance.getStatus()) || instance.getUserId() == null) {
+            return;
+        }
+        transitions.increment();
+        Long userId = instance.getUserId().longValue();
+        InstanceStatusMessage message = new InstanceStatusMessage(STATUS, List.of(statusOf(instance, previous)));
+        registry.publish(userId, message);
+        // Dashboards der Klasse und des Images
+        topics.publishToClass(userId, CHANNEL, message);
+        topics.publishToImage(instance.getImageId(), userId, CHANNEL, message);
+    }
+
+    /**
+     * Sends the instances of the user, loaded asynchronously, to a newly connected session. A status
+     * seen here already wins over the one loaded, in case it changed during the load.
+     */
+    public void sendSnapshot(Long userId, WebSocketSession session) {
+        databaseService.getInstancesByUserId(userId.intValue())
+                .map(instance -> {
+                    String status = instance.getId() != null ? statuses.get(instance.getId()) : null;
+                    if (status != null) {
+                        instance.setStatus(status);
+                    }
+                    return statusOf(instance, null);
+                })
+                .collectList()
+                .subscribe(instances -> registry.send(userId, session,
+                                registry.serialize(new InstanceStatusMessage(SNAPSHOT, instances))),
+                        e -> log.warn("Could not load instances of user {}: {}", userId, e.toString()));
+    }
+
+    private static InstanceStatus statusOf(InstanceDTO instance, String previousStatus) {
+        return new InstanceStatus(instance.getId(), instance.getContainerId(), instance.getImageId(),
+                instance.getStatus(), previousStatus);
+    }
+}
@@ -0,0 +1,101 @@
+package itsi.api.steuerung.websocket.live;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.LiveEnvironmentChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The live environment a WebSocket session receives right after connecting while nothing has been
+ * published for the user since startup, per user and already serialized as a {@link LiveUpdateLog}
+ * snapshot, so every session of a user gets the same message.
+ *
+ * Like the {@link itsi.api.steuerung.service.VncTargetResolver}, snapshots are loaded through the
+ * {@link DatabaseService} on a miss, filled at startup and dropped on every
+ * {@link LiveEnvironmentChangedEvent}. Concurrent misses for a user share one load, so a wave of
+ * reconnects costs one database call per user at most; users without a live environment are not cached.
+ */
+@Component
+@Slf4j
+public class LiveSnapshotCache {
+
+    record Snapshot(Integer liveEnvId, TextMessage message) {}
+
+    private final DatabaseService databaseService;
+    private final LiveUpdateLog updateLog;
+    private final AsyncCache<Long, Snapshot> snapshots;
+
+    public LiveSnapshotCache(DatabaseService databaseService,
+                             LiveUpdateLog updateLog,
+                             @Value("${liveenv.snapshot.ttl:300000}") long ttlMillis,
+                             @Value("${liveenv.snapshot.max-size:10000}") long maxSize) {
+        this.databaseService = databaseService;
+        this.updateLog = updateLog;
+        this.snapshots = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .maximumSize(maxSize)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Completes with the serialized live environment of the user, or with {@code null} if the user has
+     * none. Already completed on a cache hit.
+     */
+    public CompletableFuture<TextMessage> snapshot(Long userId) {
+        return snapshots.get(userId, (key, executor) -> databaseService.getLiveEnvironmentByUserId(key)
+                        .map(this::snapshotOf)
+                        .toFuture())
+                .thenApply(snapshot -> snapshot != null ? snapshot.message() : null);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        databaseService.getAllLiveEnvironments()
+                .subscribe(liveEnv -> {
+                    if (liveEnv.get("userId") instanceof Number userId) {
+                        snapshots.asMap().putIfAbsent(userId.longValue(), CompletableFuture.completedFuture(snapshotOf(liveEnv)));
+                    }
+                }, e -> log.warn("Could not preload live-environment snapshots: {}", e.toString()));
+    }
+
+    @EventListener
+    public void onLiveEnvironmentChanged(LiveEnvironmentChangedEvent event) {
+        if (event.userId() != null) {
+            snapshots.synchronous().invalidate(event.userId());
+        }
+        if (event.liveEnvId() != null) {
+            // Status-Updates kennen nur die ID
+            snapshots.synchronous().asMap().values().removeIf(snapshot -> event.liveEnvId().equals(snapshot.liveEnvId()));
+        }
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = snapshots.synchronous().stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", snapshots.synchronous().estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("loadFailures", stats.loadFailureCount());
+        result.put("evictions", stats.evictionCount());
+        return result;
+    }
+
+    private Snapshot snapshotOf(Map<String, Object> liveEnv) {
+        Integer id = liveEnv.get("id") instanceof Number number ? number.intValue() : null;
+        return new Snapshot(id, updateLog.snapshotOf(liveEnv));
+    }
+}
@@ -0,0 +1,159 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import itsi.api.steuerung.service.DatabaseService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topic subscriptions for dashboards on {@code /ws/topics}: one connection receives the updates of
+ * every student of a class ({@code class:<name>}, from {@code users.class}) or of every instance of an
+ * image ({@code image:<id>}), instead of one connection per student.
+ *
+ * Live-environment updates and instance status changes are wrapped in a {@link TopicUpdate} naming the
+ * user and the channel, serialized once per topic and sent to all its sessions; credentials such as
+ * {@code vncPassword} are removed first. The class of a user comes from the {@link DatabaseService},
+ * normally from the reference data cache; nothing is looked up or serialized while no dashboard is
+ * connected.
+ *
+ * Meters: {@code liveenv.topics.published} (updates serialized for a topic) and the
+ * {@code liveenv.ws.*} meters of the registry with {@code channel=topics}.
+ */
+@Component
+@Slf4j
+public class LiveTopics {
+
+    public static final String CLASS_PREFIX = "class:";
+    public static final String IMAGE_PREFIX = "image:";
+    // Felder, die nie an ein Dashboard gehen
+    static final Set<String> CREDENTIALS = Set.of("vncPassword", "password");
+
+    /**
+     * An update of one user, on the channel it was published to ({@code live-environment} or
+     * {@code instances}), as sent to the subscribers of a topic.
+     */
+    public record TopicUpdate(String topic, Long userId, String channel, Object update) {}
+
+    private final LiveUpdateRegistry<String> registry;
+    private final DatabaseService databaseService;
+    private final Counter published;
+    // Updates je User, deren Klasse gerade geladen wird, in Reihenfolge
+    private final Map<Long, List<Pending>> resolving = new ConcurrentHashMap<>();
+
+    public LiveTopics(@Qualifier("topicUpdateRegistry") LiveUpdateRegistry<String> registry,
+                      DatabaseService databaseService,
+                      MeterRegistry meterRegistry) {
+        this.registry = registry;
+        this.databaseService = databaseService;
+        this.published = Counter.builder("liveenv.topics.published").register(meterRegistry);
+    }
+
+    public static String classTopic(String className) {
+        return CLASS_PREFIX + className;
+    }
+
+    public static String imageTopic(Integer imageId) {
+        return IMAGE_PREFIX + imageId;
+    }
+
+    public void subscribe(Collection<String> topics, WebSocketSession session) {
+        topics.forEach(topic -> registry.register(topic, session));
+    }
+
+    public void unsubscribe(Collection<String> topics, WebSocketSession session) {
+        topics.forEach(topic -> registry.unregister(topic, session));
+    }
+
+    /**
+     * Sends {@code update} of {@code userId} to the subscribers of the user's class. Updates of a user
+     * arriving while the class is still being loaded wait for it, so they are sent in the order they
+     * were published.
+     */
+    public void publishToClass(Long userId, String channel, Object update) {
+        if (registry.sessions() == 0) {
+            return;
+        }
+        Pending pending = new Pending(channel, update);
+        boolean[] first = new boolean[1];
+        resolving.compute(userId, (id, queued) -> {
+            if (queued == null) {
+                queued = new ArrayList<>();
+                first[0] = true;
+            }
+            queued.add(pending);
+            return queued;
+        });
+        if (!first[0]) {
+            return;
+        }
+        // Bei einem Treffer im Cache synchron, sonst wenn der User geladen ist
+        databaseService.getUserById(userId.intValue())
+                .map(user -> Optional.ofNullable(user.getClassName()).filter(className -> !className.isBlank()))
+                .defaultIfEmpty(Optional.empty())
+                .subscribe(className -> drain(userId, className.orElse(null)), e -> {
+                    log.debug("Could not resolve the class of user {}: {}", userId, e.toString());
+                    drain(userId, null);
+                });
+    }
+
+    /**
+     * Sends {@code update} of {@code userId} to the subscribers of an image.
+     */
+    public void publishToImage(Integer imageId, Long userId, String channel, Object update) {
+        if (imageId != null && registry.sessions() > 0) {
+            publish(imageTopic(imageId), userId, channel, update);
+        }
+    }
+
+    private void drain(Long userId, String className) {
+        // Im compute des Users, damit kein neues Update an den wartenden vorbeigeht
+        resolving.computeIfPresent(userId, (id, queued) -> {
+            if (className != null) {
+                queued.forEach(pending -> publish(classTopic(className), userId, pending.channel(), pending.update()));
+            }
+            return null;
+        });
+    }
+
+    private void publish(String topic, Long userId, String channel, Object update) {
+        if (registry.publish(topic, new TopicUpdate(topic, userId, channel, withoutCredentials(update))) > 0) {
+            published.increment();
+        }
+    }
+
+    // Dashboards zeigen den Status, keine Zugangsdaten der Schüler
+    static Object withoutCredentials(Object update) {
+        if (update instanceof LiveUpdateLog.LiveUpdate liveUpdate && liveUpdate.data() != null
+                && CREDENTIALS.stream().anyMatch(liveUpdate.data()::containsKey)) {
+            return new LiveUpdateLog.LiveUpdate(liveUpdate.seq(), liveUpdate.type(), withoutCredentials(liveUpdate.data()));
+        }
+        if (update instanceof Map<?, ?> map && CREDENTIALS.stream().anyMatch(map::containsKey)) {
+            return withoutCredentials(map);
+        }
+        return update;
+    }
+
+    private static <V> Map<String, V> withoutCredentials(Map<?, V> data) {
+        Map<String, V> copy = new LinkedHashMap<>();
+        data.forEach((key, value) -> {
+            if (!CREDENTIALS.contains(key)) {
+                copy.put(String.valueOf(key), value);
+            }
+        });
+        return copy;
+    }
+
+    private record Pending(String channel, Object update) {}
+}
@@ -0,0 +1,247 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequenced live-environment updates per user, sent through the {@link LiveUpdateRegistry}.
+ *
+ * Every message is a {@link LiveUpdate}: a {@code snapshot} carries the whole live environment, a
+ * {@code delta} only the fields that changed since the previous message ({@code null} for a removed
+ * field). Sequence numbers increase by one per message and start above those of any earlier run. A
+ * client replaces its state with a snapshot, applies a delta whose {@code seq} directly follows the
+ * last one it has, ignores anything older and reconnects with {@code lastSeq} on a gap.
+ *
+ * Updates published within {@code liveenv.ws.coalesce-ms} of each other are collapsed into one delta,
+ * the latest value of a field wins. The last {@code liveenv.ws.replay-size} messages are kept per user;
+ * a client reconnecting with a {@code lastSeq} still in that buffer gets just the messages it missed,
+ * otherwise the current snapshot.
+ *
+ * Each message also goes to the dashboards subscribed to the user's class, see {@link LiveTopics}.
+ *
+ * Meters: {@code liveenv.ws.updates} (messages sent), {@code liveenv.ws.collapsed} (updates merged
+ * into a pending one) and {@code liveenv.ws.replays} (tag {@code result=delta|snapshot}).
+ */
+@Component
+public class LiveUpdateLog {
+
+    public static final String CHANNEL = "live-environment";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String DELTA = "delta";
+
+    /**
+     * One message to the live-environment WebSocket.
+     */
+    public record LiveUpdate(long seq, String type, Map<String, Object> data) {}
+
+    private record Entry(long seq, TextMessage message) {}
+
+    private final class UserLog {
+        private long seq = base;
+        // Neuester Stand und zuletzt gesendeter Stand, null bis zum ersten Update
+        private Map<String, Object> state;
+        private Map<String, Object> sent;
+        private boolean scheduled;
+        private TextMessage snapshot;
+        private final ArrayDeque<Entry> recent = new ArrayDeque<>();
+    }
+
+    private final LiveUpdateRegistry<Long> registry;
+    private final LiveTopics topics;
+    private final int replaySize;
+    private final long coalesceMillis;
+    private final long base = System.currentTimeMillis() * 1000;
+    private final Map<Long, UserLog> logs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final Counter updates;
+    private final Counter collapsed;
+    private final Counter replayedDeltas;
+    private final Counter replayedSnapshots;
+
+    public LiveUpdateLog(LiveUpdateRegistry<Long> registry,
+                         LiveTopics topics,
+                         MeterRegistry meterRegistry,
+                         @Value("${liveenv.ws.replay-size:64}") int replaySize,
+                         @Value("${liveenv.ws.coalesce-ms:50}") long coalesceMillis) {
+        this.registry = registry;
+        this.topics = topics;
+        this.replaySize = Math.max(1, replaySize);
+        this.coalesceMillis = coalesceMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "liveenv-updates");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.updates = Counter.builder("liveenv.ws.updates").register(meterRegistry);
+        this.collapsed = Counter.builder("liveenv.ws.collapsed").register(meterRegistry);
+        this.replayedDeltas = Counter.builder("liveenv.ws.replays").tag("result", DELTA).register(meterRegistry);
+        this.replayedSnapshots = Counter.builder("liveenv.ws.replays").tag("result", SNAPSHOT).register(meterRegistry);
+    }
+
+    /**
+     * Records the new state of the user's live environment and sends what changed, after the
+     * coalescing window, to every session of the user.
+     */
+    public void publish(Long userId, Map<String, Object> liveEnv) {
+        UserLog userLog = logs.computeIfAbsent(userId, id -> new UserLog());
+        boolean flushNow;
+        synchronized (userLog) {
+            if (liveEnv.equals(userLog.state)) {
+                return;
+            }
+            userLog.state = new LinkedHashMap<>(liveEnv);
+            if (userLog.scheduled) {
+                // Wird mit dem ausstehenden Update gesendet, neuester Wert gewinnt
+                collapsed.increment();
+                return;
+            }
+            flushNow = coalesceMillis <= 0;
+            if (!flushNow) {
+                userLog.scheduled = true;
+                try {
+                    scheduler.schedule(() -> flush(userId, userLog), coalesceMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    flushNow = true;
+                }
+            }
+        }
+        if (flushNow) {
+            flush(userId, userLog);
+        }
+    }
+
+    /**
+     * Brings a (re)connected session up to date from the log: the messages after {@code lastSeq} if they
+     * are all still buffered, otherwise the current snapshot. Returns {@code false} if nothing has been
+     * published for the user yet, the session then needs a snapshot from the database.
+     */
+    public boolean resume(Long userId, WebSocketSession session, Long lastSeq) {
+        UserLog userLog = logs.get(userId);
+        if (userLog == null) {
+            return false;
+        }
+        synchronized (userLog) {
+            if (userLog.sent == null) {
+                return false;
+            }
+            Entry oldest = userLog.recent.peekFirst();
+            if (lastSeq != null && oldest != null && lastSeq >= oldest.seq() - 1 && lastSeq <= userLog.seq) {
+                for (Entry entry : userLog.recent) {
+                    if (entry.seq() > lastSeq) {
+                        registry.send(userId, session, entry.message());
+                    }
+                }
+                replayedDeltas.increment();
+            } else {
+                registry.send(userId, session, snapshot(userLog));
+                replayedSnapshots.increment();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sends the snapshot loaded from the database, unless updates have been published for the user in
+     * the meantime; then the session gets the current state from the log instead.
+     */
+    public void sendInitial(Long userId, WebSocketSession session, TextMessage databaseSnapshot) {
+        UserLog userLog = logs.computeIfAbsent(userId, id -> new UserLog());
+        synchronized (userLog) {
+            registry.send(userId, session, userLog.sent != null ? snapshot(userLog) : databaseSnapshot);
+        }
+    }
+
+    /**
+     * A snapshot message for a live environment loaded from the database, numbered before any update
+     * of this run.
+     */
+    public TextMessage snapshotOf(Map<String, Object> liveEnv) {
+        return registry.serialize(new LiveUpdate(base, SNAPSHOT, liveEnv));
+    }
+
+    /**
+     * Current sequence number of the user.
+     */
+    public long seq(Long userId) {
+        UserLog userLog = logs.get(userId);
+        if (userLog == null) {
+            return base;
+        }
+        synchronized (userLog) {
+            return userLog.seq;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void flush(Long userId, UserLog userLog) {
+        synchronized (userLog) {
+            userLog.scheduled = false;
+            LiveUpdate update;
+            if (userLog.sent == null) {
+                update = new LiveUpdate(userLog.seq + 1, SNAPSHOT, userLog.state);
+            } else {
+                Map<String, Object> changes = diff(userLog.sent, userLog.state);
+                if (changes.isEmpty()) {
+                    return;
+                }
+                update = new LiveUpdate(userLog.seq + 1, DELTA, changes);
+            }
+            TextMessage message = registry.serialize(update);
+            userLog.seq = update.seq();
+            // state wird nie verändert, nur ersetzt
+            userLog.sent = userLog.state;
+            userLog.snapshot = SNAPSHOT.equals(update.type()) ? message : null;
+            userLog.recent.addLast(new Entry(update.seq(), message));
+            if (userLog.recent.size() > replaySize) {
+                userLog.recent.removeFirst();
+            }
+            // Unter dem Lock, damit Replay und neue Updates einer Sitzung nicht durcheinander kommen
+            registry.publish(userId, message);
+            topics.publishToClass(userId, CHANNEL, update);
+            updates.increment();
+        }
+    }
+
+    private TextMessage snapshot(UserLog userLog) {
+        if (userLog.snapshot == null) {
+            userLog.snapshot = registry.serialize(new LiveUpdate(userLog.seq, SNAPSHOT, userLog.sent));
+        }
+        return userLog.snapshot;
+    }
+
+    private static Map<String, Object> diff(Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        after.forEach((key, value) -> {
+            if (!before.containsKey(key) || !Objects.equals(before.get(key), value)) {
+                changes.put(key, value);
+            }
+        });
+        before.keySet().forEach(key -> {
+            if (!after.containsKey(key)) {
+                changes.put(key, null);
+            }
+        });
+        return changes;
+    }
+}
@@ -0,0 +1,178 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscribers of one WebSocket channel, e.g. live-environment or instance status updates: any number
+ * of sessions per key, a user (tabs, devices) or a topic such as a class. Created per channel in
+ * {@link itsi.api.steuerung.config.LiveUpdateConfig}. An update is serialized once, with the
+ * application's {@link JsonMapper}, and the same message is sent to every session of the key.
+ *
+ * Sessions are kept per key by session id, so registering and removing one is O(1) regardless of
+ * how many are open. Each is wrapped in a {@link ConcurrentWebSocketSessionDecorator}: concurrent
+ * updates for one session are sent one after the other, and a session that takes longer than
+ * {@code liveenv.ws.send-time-limit} ms or falls more than {@code liveenv.ws.buffer-limit} bytes
+ * behind is closed instead of holding up the publisher.
+ *
+ * Meters, tagged with the {@code channel}: {@code liveenv.ws.sessions}, {@code liveenv.ws.users},
+ * {@code liveenv.ws.serialize} (one per update), {@code liveenv.ws.sent} (messages to sessions) and
+ * {@code liveenv.ws.send.failures}.
+ */
+@Slf4j
+public class LiveUpdateRegistry<K> {
+
+    private final ObjectWriter writer;
+    private final int sendTimeLimitMillis;
+    private final int bufferLimit;
+
+    private final Map<K, Map<String, WebSocketSession>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private final Timer serializeTime;
+    private final Counter sent;
+    private final Counter failures;
+
+    public LiveUpdateRegistry(String channel,
+                              JsonMapper jsonMapper,
+                              MeterRegistry meterRegistry,
+                              int sendTimeLimitMillis,
+                              int bufferLimit) {
+        this.writer = jsonMapper.writer();
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.bufferLimit = bufferLimit;
+
+        this.serializeTime = Timer.builder("liveenv.ws.serialize")
+                .description("Time to serialize one update for all its subscribers")
+                .tag("channel", channel)
+                .register(meterRegistry);
+        this.sent = Counter.builder("liveenv.ws.sent").tag("channel", channel).register(meterRegistry);
+        this.failures = Counter.builder("liveenv.ws.send.failures").tag("channel", channel).register(meterRegistry);
+        Gauge.builder("liveenv.ws.sessions", sessions, AtomicInteger::get).tag("channel", channel).register(meterRegistry);
+        Gauge.builder("liveenv.ws.users", subscribers, Map::size).tag("channel", channel).register(meterRegistry);
+    }
+
+    /**
+     * Adds {@code session} to the subscribers of {@code key}.
+     */
+    public void register(K key, WebSocketSession session) {
+        WebSocketSession subscriber = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMillis, bufferLimit,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.TERMINATE);
+        subscribers.compute(key, (id, userSessions) -> {
+            Map<String, WebSocketSession> result = userSessions != null ? userSessions : new ConcurrentHashMap<>();
+            if (result.put(session.getId(), subscriber) == null) {
+                sessions.incrementAndGet();
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Removes {@code session} from the subscribers of {@code key}, and the key once nobody is left.
+     */
+    public void unregister(K key, WebSocketSession session) {
+        subscribers.computeIfPresent(key, (id, userSessions) -> {
+            if (userSessions.remove(session.getId()) != null) {
+                sessions.decrementAndGet();
+            }
+            return userSessions.isEmpty() ? null : userSessions;
+        });
+    }
+
+    /**
+     * Serializes {@code update} once and sends it to every session of {@code key}; returns how many
+     * sessions it reached.
+     */
+    public int publish(K key, Object update) {
+        Map<String, WebSocketSession> userSessions = subscribers.get(key);
+        if (userSessions == null || userSessions.isEmpty()) {
+            return 0;
+        }
+        return publish(key, serialize(update));
+    }
+
+    /**
+     * Sends the already serialized {@code message} to every session of {@code key}; returns how many
+     * sessions it reached.
+     */
+    public int publish(K key, TextMessage message) {
+        Map<String, WebSocketSession> userSessions = subscribers.get(key);
+        if (userSessions == null) {
+            return 0;
+        }
+        int delivered = 0;
+        for (WebSocketSession subscriber : userSessions.values()) {
+            if (deliver(key, subscriber, message)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Sends {@code message} to one registered session, in order with the updates published to it.
+     */
+    public boolean send(K key, WebSocketSession session, TextMessage message) {
+        Map<String, WebSocketSession> userSessions = subscribers.get(key);
+        WebSocketSession subscriber = userSessions != null ? userSessions.get(session.getId()) : null;
+        return subscriber != null && deliver(key, subscriber, message);
+    }
+
+    /**
+     * The JSON message for {@code update}.
+     */
+    public TextMessage serialize(Object update) {
+        long start = System.nanoTime();
+        try {
+            return new TextMessage(writer.writeValueAsBytes(update));
+        } finally {
+            serializeTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int sessions() {
+        return sessions.get();
+    }
+
+    public int users() {
+        return subscribers.size();
+    }
+
+    private boolean deliver(K key, WebSocketSession subscriber, TextMessage message) {
+        if (!subscriber.isOpen()) {
+            unregister(key, subscriber);
+            return false;
+        }
+        try {
+            subscriber.sendMessage(message);
+            sent.increment();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Langsamer oder abgebrochener Client: abmelden, die anderen Sitzungen bekommen das Update trotzdem
+            failures.increment();
+            log.warn("Failed to send update to session {} of {}: {}", subscriber.getId(), key, e.toString());
+            unregister(key, subscriber);
+            try {
+                subscriber.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException closeError) {
+                log.debug("Error closing WebSocket session {}", subscriber.getId(), closeError);
+            }
+            return false;
+        }
+    }
+}
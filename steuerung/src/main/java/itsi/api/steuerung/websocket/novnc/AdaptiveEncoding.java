@@ -0,0 +1,100 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Chooses the encodings a VNC server uses for a noVNC session from the link to its browser; the
+ * {@link RfbEncodingRewriter} of each session applies the choice to the client's SetEncodings.
+ *
+ * Off unless {@code novnc.encoding.adaptive} is set. The JPEG quality level (Tight) drops by one for
+ * every halving of the throughput below {@code full-quality-throughput} bytes per second, but never
+ * below {@code min-quality} and never above what the client asked for. The zlib compression level
+ * rises as the quality falls, and to at least {@value #WAN_COMPRESS_LEVEL} once the round-trip time
+ * exceeds {@code wan-rtt} microseconds. Without an estimate yet, the client's own levels apply.
+ *
+ * Meters: {@code novnc.encoding.rewrites} (SetEncodings sent with other levels or order than the
+ * client's) and {@code novnc.encoding.quality} (chosen quality levels).
+ */
+@Component
+public class AdaptiveEncoding {
+
+    static final int MAX_LEVEL = 9;
+    private static final int WAN_COMPRESS_LEVEL = 6;
+
+    private final boolean enabled;
+    private final long adaptIntervalMillis;
+    private final long fullQualityThroughput;
+    private final int minQuality;
+    private final long wanRttMicros;
+
+    private final Counter rewrites;
+    private final DistributionSummary quality;
+
+    public AdaptiveEncoding(MeterRegistry meterRegistry,
+                            @Value("${novnc.encoding.adaptive:false}") boolean enabled,
+                            @Value("${novnc.encoding.adapt-interval:2000}") long adaptIntervalMillis,
+                            @Value("${novnc.encoding.full-quality-throughput:33554432}") long fullQualityThroughput,
+                            @Value("${novnc.encoding.min-quality:1}") int minQuality,
+                            @Value("${novnc.encoding.wan-rtt:20000}") long wanRttMicros) {
+        this.enabled = enabled;
+        this.adaptIntervalMillis = adaptIntervalMillis;
+        this.fullQualityThroughput = fullQualityThroughput;
+        this.minQuality = Math.max(0, Math.min(MAX_LEVEL, minQuality));
+        this.wanRttMicros = wanRttMicros;
+
+        this.rewrites = Counter.builder("novnc.encoding.rewrites").register(meterRegistry);
+        this.quality = DistributionSummary.builder("novnc.encoding.quality").register(meterRegistry);
+    }
+
+    /**
+     * A rewriter for the messages of the browser behind {@code sendQueue}, empty if adaptation is off.
+     */
+    public Optional<RfbEncodingRewriter> rewriter(SessionSendQueue sendQueue) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.of(new RfbEncodingRewriter(this, () -> sendQueue.stats().throughputBytesPerSecond(),
+                sendQueue::roundTripMicros));
+    }
+
+    long adaptIntervalMillis() {
+        return adaptIntervalMillis;
+    }
+
+    /**
+     * Highest JPEG quality level for {@code bytesPerSecond}, {@link #MAX_LEVEL} while unknown.
+     */
+    int qualityLevel(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return MAX_LEVEL;
+        }
+        int level = MAX_LEVEL;
+        for (long threshold = fullQualityThroughput; bytesPerSecond < threshold && level > minQuality; threshold /= 2) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * Lowest zlib compression level for {@code bytesPerSecond} and the round-trip time, 0 while both
+     * are unknown.
+     */
+    int compressLevel(long bytesPerSecond, long rttMicros) {
+        int level = bytesPerSecond > 0 ? MAX_LEVEL - qualityLevel(bytesPerSecond) : 0;
+        if (wanRttMicros > 0 && rttMicros >= wanRttMicros) {
+            level = Math.max(level, WAN_COMPRESS_LEVEL);
+        }
+        return level;
+    }
+
+    void recordRewrite(int qualityLevel) {
+        rewrites.increment();
+        quality.record(qualityLevel);
+    }
+}
@@ -0,0 +1,419 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Shares the uplink to the browsers between the noVNC sessions, so one busy screen (a video, a
+ * scrolling terminal) cannot starve the others.
+ *
+ * Every admitted session has a {@link TokenBucket} that its {@link SessionSendQueue} drains before each
+ * WebSocket frame, and all sessions share a global one; a frame without budget waits in the queue,
+ * which throttles the VNC server through the usual backpressure. Every {@code rebalance-interval} ms the
+ * global rate is split between the sessions that sent in the last interval by the weight of their
+ * user's role ({@code novnc.shaping.weights}, 1 for roles not listed), capped at the per-session rate;
+ * the share of idle sessions goes to the busy ones.
+ *
+ * At most {@code max-sessions} sessions are admitted at once. Further sessions wait, higher weights
+ * first, until a slot is free or {@code wait-timeout} ms have passed; beyond {@code max-waiting}
+ * waiting sessions they are rejected right away. While shaping is off every session is admitted
+ * without a share.
+ *
+ * Meters: {@code novnc.shaping.delayed} (frames held back), {@code novnc.shaping.delay} (how long),
+ * {@code novnc.shaping.active} (sessions that sent in the last interval), {@code novnc.shaping.waiting}
+ * and {@code novnc.shaping.admissions} (tag {@code result} = admitted/queued/rejected/timeout).
+ */
+@Component
+@Slf4j
+public class BandwidthShaper {
+
+    private final boolean enabled;
+    private final long sessionRate;
+    private final long globalRate;
+    private final long burst;
+    private final Map<String, Integer> weights;
+    private final int maxSessions;
+    private final int maxWaiting;
+    private final long waitTimeoutMillis;
+    private final TokenBucket global;
+    private final ScheduledExecutorService scheduler;
+
+    private final Counter delayed;
+    private final Timer delay;
+    private final Counter admitted;
+    private final Counter queued;
+    private final Counter rejected;
+    private final Counter timedOut;
+
+    // Geschützt durch this
+    private final Set<Share> shares = new HashSet<>();
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>(
+            Comparator.comparingInt((Waiter waiter) -> -waiter.weight).thenComparingLong(waiter -> waiter.sequence));
+    private long nextSequence;
+    private int active;
+
+    /**
+     * Budget of one admitted session.
+     */
+    public static final class Share {
+        private final String sessionId;
+        private final String role;
+        private final int weight;
+        private final TokenBucket bucket;
+        private final BandwidthShaper shaper;
+        // Seit dem letzten Rebalancing gesendet
+        private volatile boolean sending;
+
+        Share(String sessionId, String role, int weight, TokenBucket bucket, BandwidthShaper shaper) {
+            this.sessionId = sessionId;
+            this.role = role;
+            this.weight = weight;
+            this.bucket = bucket;
+            this.shaper = shaper;
+        }
+
+        /**
+         * Takes {@code bytes} from the budget and returns 0, or returns the nanoseconds to wait first.
+         */
+        long acquire(int bytes) {
+            return shaper.acquire(this, bytes, System.nanoTime());
+        }
+
+        public String sessionId() {
+            return sessionId;
+        }
+
+        public int weight() {
+            return weight;
+        }
+
+        long rate() {
+            return bucket.rate();
+        }
+    }
+
+    private static final class Waiter {
+        final String sessionId;
+        final String role;
+        final int weight;
+        final long sequence;
+        final CompletableFuture<Share> admission = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+        Share share;
+
+        Waiter(String sessionId, String role, int weight, long sequence) {
+            this.sessionId = sessionId;
+            this.role = role;
+            this.weight = weight;
+            this.sequence = sequence;
+        }
+    }
+
+    public BandwidthShaper(MeterRegistry meterRegistry,
+                           @Value("${novnc.shaping.enabled:false}") boolean enabled,
+                           @Value("${novnc.shaping.session-rate:0}") long sessionRate,
+                           @Value("${novnc.shaping.global-rate:0}") long globalRate,
+                           @Value("${novnc.shaping.burst:262144}") long burst,
+                           @Value("${novnc.shaping.weights:ADMIN=4}") String weights,
+                           @Value("${novnc.shaping.rebalance-interval:100}") long rebalanceIntervalMillis,
+                           @Value("${novnc.shaping.max-sessions:0}") int maxSessions,
+                           @Value("${novnc.shaping.max-waiting:50}") int maxWaiting,
+                           @Value("${novnc.shaping.wait-timeout:30000}") long waitTimeoutMillis) {
+        this.enabled = enabled;
+        this.sessionRate = Math.max(0, sessionRate);
+        this.globalRate = Math.max(0, globalRate);
+        this.burst = burst;
+        this.weights = parseWeights(weights);
+        this.maxSessions = maxSessions;
+        this.maxWaiting = maxWaiting;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.global = new TokenBucket(this.globalRate, burst, System.nanoTime());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-shaping");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.delayed = Counter.builder("novnc.shaping.delayed")
+                .description("Frames to a noVNC client held back for lack of bandwidth share")
+                .register(meterRegistry);
+        this.delay = Timer.builder("novnc.shaping.delay")
+                .description("How long a frame to a noVNC client is held back")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.admitted = admissions(meterRegistry, "admitted");
+        this.queued = admissions(meterRegistry, "queued");
+        this.rejected = admissions(meterRegistry, "rejected");
+        this.timedOut = admissions(meterRegistry, "timeout");
+        Gauge.builder("novnc.shaping.active", this, BandwidthShaper::active).register(meterRegistry);
+        Gauge.builder("novnc.shaping.waiting", this, BandwidthShaper::waiting).register(meterRegistry);
+
+        if (enabled && (this.sessionRate > 0 || this.globalRate > 0)) {
+            long period = Math.max(10, rebalanceIntervalMillis);
+            scheduler.scheduleAtFixedRate(this::rebalance, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Admits the noVNC session {@code session} of a user with {@code role} (may be null): completes with
+     * its share once a slot is free, with null while shaping is off, or exceptionally with a
+     * {@link RejectedExecutionException} (too many waiting) or {@link TimeoutException}. Hand the
+     * returned future to {@link #release} when the session ends, whether it completed or not.
+     */
+    public CompletableFuture<Share> admit(WebSocketSession session, String role) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int weight = weightOf(role);
+        Waiter waiter;
+        synchronized (this) {
+            if (maxSessions <= 0 || shares.size() < maxSessions) {
+                admitted.increment();
+                return CompletableFuture.completedFuture(newShare(session.getId(), role, weight));
+            }
+            if (waiting.size() >= maxWaiting) {
+                rejected.increment();
+                log.warn("Rejecting noVNC session {}: {} sessions active, {} waiting", session.getId(), shares.size(), waiting.size());
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many noVNC sessions"));
+            }
+            waiter = new Waiter(session.getId(), role, weight, nextSequence++);
+            waiting.add(waiter);
+            queued.increment();
+            log.info("noVNC session {} waits for a slot ({} sessions active, {} waiting)", session.getId(), shares.size(), waiting.size());
+            try {
+                waiter.timeout = scheduler.schedule(() -> expire(waiter), waitTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutdown
+            }
+        }
+        return waiter.admission;
+    }
+
+    /**
+     * Ends an admission from {@link #admit}: frees the slot of an admitted session, or leaves the wait
+     * queue.
+     */
+    public void release(CompletableFuture<Share> admission) {
+        if (admission == null) {
+            return;
+        }
+        if (admission.cancel(false)) {
+            // Noch in der Warteschlange
+            synchronized (this) {
+                waiting.removeIf(waiter -> waiter.admission == admission);
+            }
+            return;
+        }
+        Share share = admission.isCompletedExceptionally() ? null : admission.join();
+        if (share == null) {
+            return;
+        }
+        List<Waiter> next;
+        synchronized (this) {
+            if (!shares.remove(share)) {
+                return;
+            }
+            next = admitWaiting();
+        }
+        complete(next);
+    }
+
+    public synchronized int sessions() {
+        return shares.size();
+    }
+
+    public synchronized int active() {
+        return active;
+    }
+
+    public synchronized int waiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Limits, the waiting sessions and the current rate of every admitted session.
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sessionRate", sessionRate);
+        stats.put("globalRate", globalRate);
+        stats.put("sessions", shares.size());
+        stats.put("active", active);
+        stats.put("waiting", waiting.size());
+        stats.put("delayedFrames", (long) delayed.count());
+        stats.put("perSession", shares.stream()
+                .sorted(Comparator.comparingInt(Share::weight).reversed().thenComparing(Share::sessionId))
+                .map(share -> {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("sessionId", share.sessionId);
+                    entry.put("role", share.role);
+                    entry.put("weight", share.weight);
+                    entry.put("rateBytesPerSecond", share.rate());
+                    entry.put("sending", share.sending);
+                    return entry;
+                })
+                .toList());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<Waiter> abandoned;
+        synchronized (this) {
+            abandoned = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        abandoned.forEach(waiter -> waiter.admission.completeExceptionally(new RejectedExecutionException("Shutting down")));
+        scheduler.shutdownNow();
+    }
+
+    long acquire(Share share, int bytes, long now) {
+        share.sending = true;
+        long wait = Math.max(share.bucket.waitNanos(now), global.waitNanos(now));
+        if (wait > 0) {
+            delayed.increment();
+            delay.record(wait, TimeUnit.NANOSECONDS);
+            return wait;
+        }
+        share.bucket.take(bytes, now);
+        global.take(bytes, now);
+        return 0;
+    }
+
+    /**
+     * Splits the global rate between the sessions that sent since the last call by their weight. An idle
+     * session gets the rate it would have next to them, so it can start sending right away; the global
+     * bucket catches the overlap.
+     */
+    synchronized void rebalance() {
+        long now = System.nanoTime();
+        long activeWeight = 0;
+        int sending = 0;
+        for (Share share : shares) {
+            if (share.sending) {
+                activeWeight += share.weight;
+                sending++;
+            }
+        }
+        for (Share share : shares) {
+            long weight = share.sending ? activeWeight : activeWeight + share.weight;
+            share.bucket.setRate(rateOf(share.weight, weight), now);
+            share.sending = false;
+        }
+        active = sending;
+    }
+
+    int weightOf(String role) {
+        return role != null ? weights.getOrDefault(role.toUpperCase(Locale.ROOT), 1) : 1;
+    }
+
+    private long rateOf(int weight, long totalWeight) {
+        if (globalRate == 0) {
+            return sessionRate;
+        }
+        long fair = Math.max(1, globalRate * weight / Math.max(1, totalWeight));
+        return sessionRate > 0 ? Math.min(sessionRate, fair) : fair;
+    }
+
+    /**
+     * Creates and registers a share; called with the lock held.
+     */
+    private Share newShare(String sessionId, String role, int weight) {
+        long now = System.nanoTime();
+        long activeWeight = shares.stream().filter(share -> share.sending).mapToLong(share -> share.weight).sum();
+        Share share = new Share(sessionId, role, weight, new TokenBucket(rateOf(weight, activeWeight + weight), burst, now), this);
+        shares.add(share);
+        return share;
+    }
+
+    /**
+     * Admits waiting sessions into free slots; called with the lock held, the returned waiters are
+     * completed after it is released.
+     */
+    private List<Waiter> admitWaiting() {
+        List<Waiter> next = new ArrayList<>();
+        while (shares.size() < maxSessions && !waiting.isEmpty()) {
+            Waiter waiter = waiting.poll();
+            if (waiter.admission.isDone()) {
+                continue;
+            }
+            if (waiter.timeout != null) {
+                waiter.timeout.cancel(false);
+            }
+            waiter.share = newShare(waiter.sessionId, waiter.role, waiter.weight);
+            next.add(waiter);
+        }
+        return next;
+    }
+
+    private void complete(List<Waiter> next) {
+        for (Waiter waiter : next) {
+            admitted.increment();
+            if (!waiter.admission.complete(waiter.share)) {
+                // Inzwischen abgebrochen
+                release(CompletableFuture.completedFuture(waiter.share));
+            }
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!waiting.remove(waiter)) {
+                return;
+            }
+        }
+        timedOut.increment();
+        log.warn("noVNC session {} waited {} ms for a slot, giving up", waiter.sessionId, waitTimeoutMillis);
+        waiter.admission.completeExceptionally(new TimeoutException("No free noVNC slot"));
+    }
+
+    private static Counter admissions(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("novnc.shaping.admissions").tag("result", result).register(meterRegistry);
+    }
+
+    private static Map<String, Integer> parseWeights(String weights) {
+        Map<String, Integer> parsed = new HashMap<>();
+        if (weights == null || weights.isBlank()) {
+            return parsed;
+        }
+        for (String entry : weights.split(",")) {
+            String[] parts = entry.split("=");
+            try {
+                int weight = Integer.parseInt(parts[1].trim());
+                if (parts.length != 2 || weight < 1) {
+                    throw new NumberFormatException(entry);
+                }
+                parsed.put(parts[0].trim().toUpperCase(Locale.ROOT), weight);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid novnc.shaping.weights entry: " + entry.trim());
+            }
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,67 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Messages of a noVNC browser that arrive before its session is bound to a VNC server, i.e. while it
+ * waits for a bandwidth slot, its live environment is resolved or the connection is being opened.
+ * They are forwarded in order once the upstream is bound; from then on {@link #offer} refuses and
+ * messages go straight to the upstream.
+ */
+public class ClientBacklog {
+
+    private final int maxBytes;
+
+    // Geschützt durch this; null, sobald alles weitergegeben ist
+    private List<ByteBuffer> messages = new ArrayList<>();
+    private int bytes;
+
+    public ClientBacklog(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Queues a copy of {@code data} while the upstream is not bound; {@code data} is not modified.
+     *
+     * @return false once the backlog is drained, the caller forwards the message itself
+     * @throws IllegalStateException if more than {@code maxBytes} would be queued
+     */
+    public synchronized boolean offer(ByteBuffer data) {
+        if (messages == null) {
+            return false;
+        }
+        if (bytes + data.remaining() > maxBytes) {
+            throw new IllegalStateException("More than " + maxBytes + " bytes before the VNC server is connected");
+        }
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining()).put(data.duplicate()).flip();
+        messages.add(copy);
+        bytes += copy.remaining();
+        return true;
+    }
+
+    /**
+     * Forwards the queued messages in order, including those offered meanwhile, and stops queueing
+     * once none are left. Called once, after the upstream is bound.
+     */
+    public void drain(Consumer<ByteBuffer> forward) {
+        while (true) {
+            List<ByteBuffer> batch;
+            synchronized (this) {
+                if (messages == null) {
+                    return;
+                }
+                if (messages.isEmpty()) {
+                    // Ab hier schreibt der Aufrufer von offer selbst, nach allen gepufferten Nachrichten
+                    messages = null;
+                    return;
+                }
+                batch = messages;
+                messages = new ArrayList<>();
+            }
+            batch.forEach(forward);
+        }
+    }
+}
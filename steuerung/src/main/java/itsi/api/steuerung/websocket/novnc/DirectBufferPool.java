@@ -0,0 +1,65 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of equally sized direct buffers.
+ *
+ * {@link #acquire()} hands out a pooled buffer or allocates a new one when the pool is empty;
+ * {@link #release(ByteBuffer)} keeps at most {@code maxPooled} buffers and lets the rest be collected.
+ * Every acquired buffer must be released exactly once and must not be used afterwards.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> pooled;
+
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder acquired = new LongAdder();
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("bufferSize and maxPooled must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.pooled = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public ByteBuffer acquire() {
+        acquired.increment();
+        ByteBuffer buffer = pooled.poll();
+        if (buffer == null) {
+            allocated.increment();
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        // Voller Pool: Buffer wird vom GC freigegeben
+        pooled.offer(buffer);
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public int pooled() {
+        return pooled.size();
+    }
+
+    public long allocated() {
+        return allocated.sum();
+    }
+
+    public long acquired() {
+        return acquired.sum();
+    }
+}
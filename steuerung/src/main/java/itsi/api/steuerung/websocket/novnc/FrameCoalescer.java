@@ -0,0 +1,137 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches the reads from the VNC server of one session into larger WebSocket frames.
+ *
+ * Bytes are appended to a pooled buffer that is handed to the {@link SessionSendQueue} once it holds
+ * {@code byteThreshold} bytes or at the latest when the flush deadline after its first byte has passed.
+ * The timer stays armed across threshold flushes instead of being rescheduled for every frame, so a burst
+ * of reads costs one timer event; bytes never wait longer than the deadline. The deadline
+ * is a fraction of the smoothed round-trip time to the browser, clamped to [min, max] microseconds: on
+ * a fast LAN frames leave almost immediately, on a slow link a few milliseconds of batching are
+ * invisible next to the RTT.
+ *
+ * The RTT is sampled from the time between a flush and the next FramebufferUpdateRequest of the client
+ * (RFB message type 3), which noVNC sends as soon as it has processed an update, and smoothed like
+ * TCP's SRTT (gain 1/8).
+ */
+class FrameCoalescer {
+
+    record Settings(boolean enabled, int byteThreshold, long minDelayNanos, long maxDelayNanos, double rttFraction) {}
+
+    private static final byte FRAMEBUFFER_UPDATE_REQUEST = 3;
+    private static final double RTT_GAIN = 0.125;
+
+    private final SessionSendQueue queue;
+    private final NoVncSendPath sendPath;
+    private final Settings settings;
+
+    // Geschützt durch this
+    private ByteBuffer pending;
+    private ScheduledFuture<?> flushTask;
+    private boolean closed;
+
+    private volatile long smoothedRttNanos;
+    private volatile long lastFlushAt;
+    private volatile boolean awaitingRequest;
+
+    FrameCoalescer(SessionSendQueue queue, NoVncSendPath sendPath, Settings settings) {
+        this.queue = queue;
+        this.sendPath = sendPath;
+        this.settings = settings;
+    }
+
+    /**
+     * Copies {@code data} into the pending frame, flushing whenever the threshold is reached.
+     */
+    synchronized void append(ByteBuffer data) {
+        if (closed) {
+            return;
+        }
+        while (data.hasRemaining()) {
+            if (pending == null) {
+                pending = sendPath.bufferPool().acquire();
+            }
+            int length = Math.min(pending.remaining(), data.remaining());
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + length);
+            pending.put(slice);
+            data.position(data.position() + length);
+
+            if (!settings.enabled() || pending.position() >= settings.byteThreshold() || !pending.hasRemaining()) {
+                flush();
+            }
+        }
+        if (pending != null && flushTask == null) {
+            flushTask = sendPath.flushScheduler().schedule(this::flushOnDeadline, flushDelayNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Hands the pending frame to the send queue right away.
+     */
+    synchronized void flush() {
+        if (pending == null || pending.position() == 0) {
+            return;
+        }
+        ByteBuffer frame = pending;
+        pending = null;
+        frame.flip();
+        lastFlushAt = System.nanoTime();
+        awaitingRequest = true;
+        queue.submit(frame);
+    }
+
+    static boolean isFramebufferUpdateRequest(ByteBuffer message) {
+        return message.hasRemaining() && message.get(message.position()) == FRAMEBUFFER_UPDATE_REQUEST;
+    }
+
+    /**
+     * Inspects a message of the client for an RTT sample; the buffer is not modified.
+     */
+    void onClientMessage(ByteBuffer message) {
+        if (!awaitingRequest || !isFramebufferUpdateRequest(message)) {
+            return;
+        }
+        awaitingRequest = false;
+        long sample = System.nanoTime() - lastFlushAt;
+        long current = smoothedRttNanos;
+        smoothedRttNanos = current == 0 ? sample : (long) (current + RTT_GAIN * (sample - current));
+    }
+
+    long smoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    long flushDelayNanos() {
+        long rtt = smoothedRttNanos;
+        if (rtt == 0) {
+            return settings.minDelayNanos();
+        }
+        long delay = (long) (rtt * settings.rttFraction());
+        return Math.max(settings.minDelayNanos(), Math.min(settings.maxDelayNanos(), delay));
+    }
+
+    synchronized void close() {
+        closed = true;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pending != null) {
+            sendPath.bufferPool().release(pending);
+            pending = null;
+        }
+    }
+
+    private synchronized void flushOnDeadline() {
+        flushTask = null;
+        if (!closed) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared part of the noVNC send path: the executor that sends queued data to the WebSocket clients,
+ * the limits and overflow policy of every {@link SessionSendQueue}, the coalescing settings and flush
+ * timer of the {@link FrameCoalescer}s, a watchdog for sends that exceed the time limit, and the
+ * metrics.
+ *
+ * Meters: {@code novnc.send.latency} (time per WebSocket send), {@code novnc.send.frame.size} (bytes per
+ * WebSocket frame), {@code novnc.send.queue.depth} (bytes queued in a session after each enqueue),
+ * {@code novnc.send.queued.bytes} (all sessions), {@code novnc.send.overflows},
+ * {@code novnc.send.timeouts}, {@code novnc.sessions}, {@code novnc.traffic.bytes} and
+ * {@code novnc.traffic.frames} (tag {@code direction} = out/in), {@code novnc.connect.duration},
+ * {@code novnc.first.byte} and {@code novnc.handshake.duration}. Per-session values are not tagged
+ * meters, to keep the number of time series bounded; they are listed by {@link #stats()}.
+ */
+@Component
+@Slf4j
+public class NoVncSendPath {
+
+    private final DirectBufferPool bufferPool;
+    private final ExecutorService sendExecutor;
+    private final ScheduledExecutorService watchdog;
+    private final ScheduledExecutorService flushScheduler;
+    private final long bufferLimit;
+    private final long timeLimitNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final FrameCoalescer.Settings coalescing;
+
+    private final Set<SessionSendQueue> queues = ConcurrentHashMap.newKeySet();
+
+    private final Timer sendLatency;
+    private final DistributionSummary frameSize;
+    private final DistributionSummary queueDepth;
+    private final Counter overflows;
+    private final Counter timeouts;
+    private final Counter bytesOut;
+    private final Counter framesOut;
+    private final Counter bytesIn;
+    private final Counter framesIn;
+    private final Timer connectDuration;
+    private final Timer firstByte;
+    private final Timer handshakeDuration;
+
+    public NoVncSendPath(VncProxyEngine proxyEngine,
+                         MeterRegistry meterRegistry,
+                         @Value("${novnc.send.threads:0}") int sendThreads,
+                         @Value("${novnc.send.buffer-limit:1048576}") long bufferLimit,
+                         @Value("${novnc.send.time-limit:10000}") long timeLimitMillis,
+                         @Value("${novnc.send.overflow-policy:BACKPRESSURE}") OverflowPolicy overflowPolicy,
+                         @Value("${novnc.coalesce.enabled:true}") boolean coalesce,
+                         @Value("${novnc.coalesce.byte-threshold:16384}") int byteThreshold,
+                         @Value("${novnc.coalesce.min-delay-us:200}") long minDelayMicros,
+                         @Value("${novnc.coalesce.max-delay-us:4000}") long maxDelayMicros,
+                         @Value("${novnc.coalesce.rtt-fraction:0.1}") double rttFraction) {
+        this.bufferPool = proxyEngine.bufferPool();
+        int threads = sendThreads > 0 ? sendThreads : 2 * Runtime.getRuntime().availableProcessors();
+        this.sendExecutor = Executors.newFixedThreadPool(threads, daemonThreads("novnc-send-"));
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("novnc-send-watchdog-"));
+        this.bufferLimit = bufferLimit;
+        this.timeLimitNanos = TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.coalescing = new FrameCoalescer.Settings(coalesce, byteThreshold,
+                TimeUnit.MICROSECONDS.toNanos(minDelayMicros), TimeUnit.MICROSECONDS.toNanos(maxDelayMicros), rttFraction);
+        ScheduledThreadPoolExecutor flushTimer = new ScheduledThreadPoolExecutor(1, daemonThreads("novnc-flush-"));
+        // Timer geschlossener Sessions nicht bis zum Ablauf in der Queue halten
+        flushTimer.setRemoveOnCancelPolicy(true);
+        this.flushScheduler = flushTimer;
+
+        this.sendLatency = Timer.builder("novnc.send.latency")
+                .description("Time to hand one frame to a noVNC WebSocket client")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.frameSize = DistributionSummary.builder("novnc.send.frame.size")
+                .description("Bytes per WebSocket frame sent to a noVNC client")
+                .baseUnit("bytes")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.queueDepth = DistributionSummary.builder("novnc.send.queue.depth")
+                .description("Bytes queued for a noVNC client after each enqueue")
+                .baseUnit("bytes")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.overflows = Counter.builder("novnc.send.overflows")
+                .tag("policy", overflowPolicy.name())
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("novnc.send.timeouts").register(meterRegistry);
+        this.bytesOut = Counter.builder("novnc.traffic.bytes").tag("direction", "out").baseUnit("bytes").register(meterRegistry);
+        this.framesOut = Counter.builder("novnc.traffic.frames").tag("direction", "out").register(meterRegistry);
+        this.bytesIn = Counter.builder("novnc.traffic.bytes").tag("direction", "in").baseUnit("bytes").register(meterRegistry);
+        this.framesIn = Counter.builder("novnc.traffic.frames").tag("direction", "in").register(meterRegistry);
+        this.connectDuration = Timer.builder("novnc.connect.duration")
+                .description("Time to open the TCP connection to the VNC server")
+                .register(meterRegistry);
+        this.firstByte = Timer.builder("novnc.first.byte")
+                .description("Time from connect until the VNC server sends its first bytes")
+                .register(meterRegistry);
+        this.handshakeDuration = Timer.builder("novnc.handshake.duration")
+                .description("Time from connect until the client requests its first framebuffer update")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("novnc.send.queued.bytes", queues, all -> all.stream().mapToLong(SessionSendQueue::queuedBytes).sum())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("novnc.sessions", queues, Set::size).register(meterRegistry);
+
+        long period = Math.max(100, timeLimitMillis / 4);
+        watchdog.scheduleAtFixedRate(this::abortOverdueSends, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public SessionSendQueue open(WebSocketSession session) {
+        return open(session, overflowPolicy);
+    }
+
+    /**
+     * Opens a queue with its own overflow policy, e.g. {@link OverflowPolicy#DISCONNECT} for a viewer
+     * that must not throttle a shared upstream.
+     */
+    public SessionSendQueue open(WebSocketSession session, OverflowPolicy overflowPolicy) {
+        SessionSendQueue queue = new SessionSendQueue(session, this, overflowPolicy);
+        queues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Totals and the traffic of every open session, busiest first.
+     */
+    public Map<String, Object> stats() {
+        List<Map<String, Object>> sessions = queues.stream()
+                .map(SessionSendQueue::stats)
+                .sorted(Comparator.comparingLong(SessionTrafficStats::bytesOut).reversed())
+                .map(SessionTrafficStats::toMap)
+                .toList();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("bytesOut", (long) bytesOut.count());
+        stats.put("framesOut", (long) framesOut.count());
+        stats.put("bytesIn", (long) bytesIn.count());
+        stats.put("framesIn", (long) framesIn.count());
+        stats.put("queuedBytes", queues.stream().mapToLong(SessionSendQueue::queuedBytes).sum());
+        stats.put("overflows", (long) overflows.count());
+        stats.put("timeouts", (long) timeouts.count());
+        stats.put("perSession", sessions);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        flushScheduler.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    DirectBufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    ExecutorService sendExecutor() {
+        return sendExecutor;
+    }
+
+    ScheduledExecutorService flushScheduler() {
+        return flushScheduler;
+    }
+
+    FrameCoalescer.Settings coalescing() {
+        return coalescing;
+    }
+
+    long bufferLimit() {
+        return bufferLimit;
+    }
+
+    void unregister(SessionSendQueue queue) {
+        queues.remove(queue);
+    }
+
+    void recordSend(int bytes, long nanos) {
+        sendLatency.record(nanos, TimeUnit.NANOSECONDS);
+        bytesOut.increment(bytes);
+        framesOut.increment();
+    }
+
+    void recordReceived(int bytes) {
+        bytesIn.increment(bytes);
+        framesIn.increment();
+    }
+
+    void recordConnect(long nanos) {
+        connectDuration.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordFirstByte(long nanos) {
+        firstByte.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordHandshake(long nanos) {
+        handshakeDuration.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordFrame(int bytes) {
+        frameSize.record(bytes);
+    }
+
+    void recordQueueDepth(long bytes) {
+        queueDepth.record(bytes);
+    }
+
+    void recordOverflow() {
+        overflows.increment();
+    }
+
+    private void abortOverdueSends() {
+        long now = System.nanoTime();
+        for (SessionSendQueue queue : queues) {
+            if (queue.isSendOverdue(now, timeLimitNanos)) {
+                timeouts.increment();
+                queue.abort("send time limit of " + TimeUnit.NANOSECONDS.toMillis(timeLimitNanos) + " ms exceeded");
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package itsi.api.steuerung.websocket.novnc;
+
+/**
+ * What a {@link SessionSendQueue} does when more than the configured number of bytes waits for a
+ * slow WebSocket client.
+ *
+ * RFB is a byte stream without resynchronisation points, so queued framebuffer data can be neither
+ * dropped nor merged without breaking the client. Instead the proxy either stops reading from the
+ * VNC server, which then sends fewer, larger updates, or gives up on the client.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Pause reads from the VNC server until the queue has drained to half the limit.
+     */
+    BACKPRESSURE,
+
+    /**
+     * Close the session with {@code SESSION_NOT_RELIABLE}, like Spring's
+     * {@code ConcurrentWebSocketSessionDecorator}.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,177 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VNC connections of noVNC sessions whose browser went away, kept open for a grace period so a
+ * reconnecting browser (tab reload, Wi-Fi blip) can take them over instead of connecting and
+ * authenticating again.
+ *
+ * Connections are parked under the user and a resumption token chosen by the browser. Only sessions
+ * whose RFB handshake was recorded can be parked; {@link RfbResumeHandshake} replays it to the returning
+ * browser. While parked, data from the VNC server is dropped. A connection is only handed out once the
+ * server has been quiet for the quiet period, so the returning browser does not start in the middle of
+ * an update; otherwise it is closed and the browser gets a fresh connection.
+ *
+ * Meters: {@code novnc.resume.claims} (tag {@code result} = hit/miss/busy), {@code novnc.resume.expired}
+ * and {@code novnc.resume.parked}.
+ */
+@Component
+@Slf4j
+public class ParkedUpstreams {
+
+    /**
+     * A parked connection; the relay stays detached until the caller attaches its listener.
+     */
+    public record Parked(VncUpstream upstream, UpstreamRelay relay, byte[] protocolVersion, byte[] serverInit) {}
+
+    private record Key(Long userId, String token) {}
+
+    private final long gracePeriodMillis;
+    private final long quietPeriodNanos;
+    private final ScheduledExecutorService scheduler;
+
+    // Geschützt durch this
+    private final Map<Key, Entry> parked = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter busy;
+    private final Counter expired;
+
+    public ParkedUpstreams(MeterRegistry meterRegistry,
+                           @Value("${novnc.resume.grace-period:15000}") long gracePeriodMillis,
+                           @Value("${novnc.resume.quiet-period:250}") long quietPeriodMillis) {
+        this.gracePeriodMillis = gracePeriodMillis;
+        this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriodMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-resume");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.hits = Counter.builder("novnc.resume.claims").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("novnc.resume.claims").tag("result", "miss").register(meterRegistry);
+        this.busy = Counter.builder("novnc.resume.claims").tag("result", "busy").register(meterRegistry);
+        this.expired = Counter.builder("novnc.resume.expired").register(meterRegistry);
+        Gauge.builder("novnc.resume.parked", this, ParkedUpstreams::parked).register(meterRegistry);
+    }
+
+    /**
+     * Parks {@code upstream} under {@code userId} and {@code token}. Returns false if that is not
+     * possible, the caller then closes the connection.
+     */
+    public boolean park(Long userId, String token, VncUpstream upstream, UpstreamRelay relay, RfbHandshakeRecorder handshake) {
+        if (gracePeriodMillis <= 0 || userId == null || token == null || !handshake.isComplete() || !upstream.isOpen()) {
+            return false;
+        }
+        Entry entry = new Entry(new Key(userId, token),
+                new Parked(upstream, relay, handshake.protocolVersion(), handshake.serverInit()));
+        Entry previous;
+        synchronized (this) {
+            previous = parked.put(entry.key, entry);
+            entry.expiry = scheduler.schedule(() -> expire(entry), gracePeriodMillis, TimeUnit.MILLISECONDS);
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        relay.detach(() -> onParkedClosed(entry));
+        // Eine pausierte Sitzung hinterlässt evtl. ein pausiertes Lesen
+        upstream.resumeReading();
+        log.debug("Parked VNC connection {} of user {} for {} ms", upstream.address(), userId, gracePeriodMillis);
+        return true;
+    }
+
+    /**
+     * Takes the connection parked under {@code userId} and {@code token} if it goes to
+     * {@code host:port}, is still open and the VNC server is quiet.
+     */
+    public Optional<Parked> resume(Long userId, String token, String host, int port) {
+        Entry entry;
+        synchronized (this) {
+            entry = parked.remove(new Key(userId, token));
+            if (entry != null) {
+                entry.expiry.cancel(false);
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        VncUpstream upstream = entry.parked.upstream();
+        InetSocketAddress address = upstream.address();
+        if (!upstream.isOpen() || !address.getHostString().equals(host) || address.getPort() != port) {
+            entry.close();
+            misses.increment();
+            return Optional.empty();
+        }
+        if (entry.parked.relay().idleNanos() < quietPeriodNanos) {
+            // Server sendet noch, der Browser würde mitten in einem Update einsteigen
+            entry.close();
+            busy.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        log.debug("Resumed VNC connection {} for user {}", address, userId);
+        return Optional.of(entry.parked);
+    }
+
+    public synchronized int parked() {
+        return parked.size();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        scheduler.shutdownNow();
+        List<Entry> entries = new ArrayList<>(parked.values());
+        parked.clear();
+        entries.forEach(Entry::close);
+    }
+
+    private synchronized void expire(Entry entry) {
+        if (parked.remove(entry.key, entry)) {
+            expired.increment();
+            entry.close();
+        }
+    }
+
+    private synchronized void onParkedClosed(Entry entry) {
+        if (parked.remove(entry.key, entry)) {
+            entry.expiry.cancel(false);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Key key;
+        private final Parked parked;
+        // Geschützt durch den Monitor von ParkedUpstreams
+        private ScheduledFuture<?> expiry;
+
+        Entry(Key key, Parked parked) {
+            this.key = key;
+            this.parked = parked;
+        }
+
+        void close() {
+            parked.upstream().close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a recording into the send queue of a noVNC session, in the timing it was recorded.
+ *
+ * noVNC's decoders keep state across updates, so everything before the start position is still sent,
+ * just without pauses: the index tells up to which record that is. Reading pauses while the send queue
+ * holds more than {@value #MAX_QUEUED} bytes; at the end, the callback runs once the queue is empty.
+ */
+@Slf4j
+public class RecordingPlayer {
+
+    private static final long MAX_QUEUED = 1 << 20;
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final RecordingReader reader;
+    private final SessionSendQueue queue;
+    private final ScheduledExecutorService scheduler;
+    private final int fromMillis;
+    private final double speed;
+    private final Runnable onEnd;
+
+    // Geschützt durch this
+    private long fastForwardUntil;
+    private RecordingReader.Record next;
+    private long baseNanos = -1;
+    private int baseMillis;
+    private boolean ended;
+    private boolean stopped;
+
+    RecordingPlayer(RecordingReader reader, SessionSendQueue queue, ScheduledExecutorService scheduler,
+                    int fromMillis, double speed, Runnable onEnd) {
+        this.reader = reader;
+        this.queue = queue;
+        this.scheduler = scheduler;
+        this.fromMillis = fromMillis;
+        this.speed = speed;
+        this.onEnd = onEnd;
+    }
+
+    synchronized void start() {
+        fastForwardUntil = reader.offsetAt(fromMillis);
+        scheduler.execute(this::step);
+    }
+
+    /**
+     * Stops playing and closes the recording.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        next = null;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            log.debug("Error closing recording", e);
+        }
+    }
+
+    private synchronized void step() {
+        if (stopped) {
+            return;
+        }
+        if (ended) {
+            awaitSent();
+            return;
+        }
+        try {
+            while (true) {
+                if (queue.queuedBytes() > MAX_QUEUED) {
+                    schedule(RETRY_NANOS);
+                    return;
+                }
+                if (next == null) {
+                    next = reader.next();
+                }
+                if (next == null) {
+                    ended = true;
+                    queue.flush();
+                    awaitSent();
+                    return;
+                }
+                if (next.offset() >= fastForwardUntil && next.millis() >= fromMillis) {
+                    long now = System.nanoTime();
+                    if (baseNanos < 0) {
+                        baseNanos = now;
+                        baseMillis = next.millis();
+                    }
+                    long due = baseNanos + (long) (TimeUnit.MILLISECONDS.toNanos(next.millis() - baseMillis) / speed);
+                    if (due > now) {
+                        schedule(due - now);
+                        return;
+                    }
+                }
+                queue.enqueue(next.payload());
+                next = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Replay stopped: {}", e.toString());
+            stop();
+            onEnd.run();
+        }
+    }
+
+    private void awaitSent() {
+        if (queue.queuedBytes() > 0) {
+            schedule(RETRY_NANOS);
+            return;
+        }
+        stop();
+        onEnd.run();
+    }
+
+    private void schedule(long nanos) {
+        scheduler.schedule(this::step, nanos, TimeUnit.NANOSECONDS);
+    }
+}
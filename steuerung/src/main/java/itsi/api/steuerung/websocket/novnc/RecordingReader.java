@@ -0,0 +1,204 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a recording written by {@link SessionRecording}, record by record, through one read buffer.
+ *
+ * A recording that is still being written can be read up to its last complete record. The index is
+ * loaded completely when opening, it has one entry per index interval.
+ */
+public class RecordingReader implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 65_536;
+    private static final int MAX_HANDSHAKE = 4096;
+    private static final int VERSION_LENGTH = 12;
+    private static final int SERVER_INIT_LENGTH = 24;
+
+    /**
+     * A record; the payload is only valid until the next call of {@link #next()}.
+     */
+    public record Record(long offset, byte type, int millis, ByteBuffer payload) {}
+
+    private final FileChannel data;
+    private final long startedAt;
+    private final byte[] protocolVersion;
+    private final byte[] serverInit;
+    private final long dataStart;
+    private final int[] indexMillis;
+    private final long[] indexOffsets;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).flip();
+    // Dateiposition des ersten Bytes in buffer
+    private long bufferOffset;
+
+    private RecordingReader(FileChannel data, Path index) throws IOException {
+        this.data = data;
+        if (!ensure(SessionRecording.HEADER_LENGTH) || !hasMagic(buffer)) {
+            throw new IOException("Not a noVNC recording");
+        }
+        buffer.position(buffer.position() + SessionRecording.MAGIC.length());
+        this.startedAt = buffer.getLong();
+
+        Record handshake = next();
+        if (handshake == null || handshake.type() != SessionRecording.TYPE_HANDSHAKE
+                || handshake.payload().remaining() < VERSION_LENGTH + SERVER_INIT_LENGTH) {
+            throw new IOException("Recording without RFB handshake");
+        }
+        this.protocolVersion = new byte[VERSION_LENGTH];
+        this.serverInit = new byte[handshake.payload().remaining() - VERSION_LENGTH];
+        handshake.payload().get(protocolVersion).get(serverInit);
+        this.dataStart = position();
+
+        ByteBuffer entries = ByteBuffer.wrap(Files.exists(index) ? Files.readAllBytes(index) : new byte[0]);
+        int count = entries.remaining() / SessionRecording.INDEX_ENTRY_LENGTH;
+        this.indexMillis = new int[count];
+        this.indexOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            indexMillis[i] = entries.getInt();
+            indexOffsets[i] = entries.getLong();
+        }
+    }
+
+    /**
+     * Opens {@code <id>.rec} and {@code <id>.idx} in {@code directory}.
+     *
+     * @throws IOException if the recording does not exist or has no complete handshake record
+     */
+    public static RecordingReader open(Path directory, String id) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(id + SessionRecorder.DATA_SUFFIX), StandardOpenOption.READ);
+        try {
+            return new RecordingReader(channel, directory.resolve(id + SessionRecorder.INDEX_SUFFIX));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long startedAt() {
+        return startedAt;
+    }
+
+    public byte[] protocolVersion() {
+        return protocolVersion;
+    }
+
+    public byte[] serverInit() {
+        return serverInit;
+    }
+
+    /**
+     * Length of the recording as far as indexed, i.e. up to one index interval short.
+     */
+    public int durationMillis() {
+        return indexMillis.length == 0 ? 0 : indexMillis[indexMillis.length - 1];
+    }
+
+    /**
+     * File offset of the indexed record at or before {@code millis}, to seek to with {@link #seek}.
+     */
+    public long offsetAt(int millis) {
+        int i = Arrays.binarySearch(indexMillis, millis);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i < 0 ? dataStart : indexOffsets[i];
+    }
+
+    /**
+     * Continues reading at {@code offset}, which must be the start of a record.
+     */
+    public void seek(long offset) {
+        long inBuffer = offset - bufferOffset;
+        if (inBuffer >= 0 && inBuffer <= buffer.limit()) {
+            buffer.position((int) inBuffer);
+        } else {
+            buffer.clear().flip();
+            bufferOffset = offset;
+        }
+    }
+
+    /**
+     * Offset of the next record.
+     */
+    public long position() {
+        return bufferOffset + buffer.position();
+    }
+
+    /**
+     * The next record, or null at the end of what has been written so far.
+     */
+    public Record next() throws IOException {
+        if (!ensure(SessionRecording.RECORD_HEADER_LENGTH)) {
+            return null;
+        }
+        long offset = position();
+        int start = buffer.position();
+        byte type = buffer.get(start);
+        int millis = buffer.getInt(start + 1);
+        int length = buffer.getInt(start + 5);
+        if (length < 0 || (offset == SessionRecording.HEADER_LENGTH && length > MAX_HANDSHAKE)) {
+            throw new IOException("Corrupt record at offset " + offset);
+        }
+        if (SessionRecording.RECORD_HEADER_LENGTH + length > buffer.capacity()) {
+            // Größer als der Lesepuffer: eigener Puffer
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            long payloadOffset = offset + SessionRecording.RECORD_HEADER_LENGTH;
+            while (payload.hasRemaining()) {
+                if (data.read(payload, payloadOffset + payload.position()) < 0) {
+                    return null;
+                }
+            }
+            seek(payloadOffset + length);
+            return new Record(offset, type, millis, payload.flip());
+        }
+        if (!ensure(SessionRecording.RECORD_HEADER_LENGTH + length)) {
+            return null;
+        }
+        start = buffer.position();
+        ByteBuffer payload = buffer.slice(start + SessionRecording.RECORD_HEADER_LENGTH, length);
+        buffer.position(start + SessionRecording.RECORD_HEADER_LENGTH + length);
+        return new Record(offset, type, millis, payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
+    /**
+     * Makes {@code length} bytes available from the buffer position; false at the end of the file.
+     */
+    private boolean ensure(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return true;
+        }
+        bufferOffset += buffer.position();
+        buffer.compact();
+        while (buffer.position() < length) {
+            if (data.read(buffer, bufferOffset + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= length;
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer) {
+        byte[] magic = SessionRecording.MAGIC.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(buffer.position() + i) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
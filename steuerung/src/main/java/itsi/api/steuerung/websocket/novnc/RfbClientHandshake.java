@@ -0,0 +1,202 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Client side of the RFB handshake, for connections the proxy opens on its own behalf (spectators).
+ *
+ * Speaks 3.3 to 3.8, prefers security type None and falls back to VNC Authentication with the password
+ * of the live environment. ClientInit asks for a shared session, so the student's own connection stays
+ * up. Once {@link #isDone()}, the size and name of the desktop from ServerInit are known.
+ */
+public class RfbClientHandshake {
+
+    private static final int VERSION_LENGTH = 12;
+    private static final int SERVER_INIT_LENGTH = 24;
+    private static final int MAX_NAME_LENGTH = 4096;
+    private static final int SECURITY_NONE = 1;
+    private static final int SECURITY_VNC_AUTH = 2;
+    private static final int VNC_AUTH_CHALLENGE = 16;
+
+    private enum State { VERSION, SECURITY_TYPES, CHALLENGE, SECURITY_RESULT, SERVER_INIT, DONE }
+
+    private final String password;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private State state = State.VERSION;
+    private int minor;
+    private int securityType;
+    private int width;
+    private int height;
+    private String name;
+
+    public RfbClientHandshake(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Consumes handshake bytes from {@code data} and returns what to send to the VNC server, possibly
+     * empty. Once {@link #isDone()}, the bytes left in {@code data} are the first server messages.
+     *
+     * @throws IllegalStateException if the server refuses or speaks something this class does not
+     */
+    public ByteBuffer onServerData(ByteBuffer data) {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        while (state != State.DONE && data.hasRemaining()) {
+            byte[] field = take(data, needed());
+            if (field == null) {
+                break;
+            }
+            switch (state) {
+                case VERSION -> {
+                    int serverMinor = RfbHandshakeRecorder.minorVersion(field, 0);
+                    if (serverMinor < 3) {
+                        throw new IllegalStateException("Not an RFB server");
+                    }
+                    minor = serverMinor >= 8 ? 8 : serverMinor >= 7 ? 7 : 3;
+                    reply.writeBytes(String.format("RFB 003.%03d\n", minor).getBytes(StandardCharsets.US_ASCII));
+                    state = State.SECURITY_TYPES;
+                }
+                case SECURITY_TYPES -> {
+                    securityType = chooseSecurity(field);
+                    if (minor >= 7) {
+                        reply.write(securityType);
+                    }
+                    if (securityType == SECURITY_VNC_AUTH) {
+                        state = State.CHALLENGE;
+                    } else if (minor >= 8) {
+                        state = State.SECURITY_RESULT;
+                    } else {
+                        reply.write(1);
+                        state = State.SERVER_INIT;
+                    }
+                }
+                case CHALLENGE -> {
+                    reply.writeBytes(vncAuthResponse(password, field));
+                    state = State.SECURITY_RESULT;
+                }
+                case SECURITY_RESULT -> {
+                    if (ByteBuffer.wrap(field).getInt() != 0) {
+                        throw new IllegalStateException("VNC server rejected the authentication");
+                    }
+                    // ClientInit: shared
+                    reply.write(1);
+                    state = State.SERVER_INIT;
+                }
+                case SERVER_INIT -> {
+                    ByteBuffer init = ByteBuffer.wrap(field);
+                    width = init.getShort(0) & 0xffff;
+                    height = init.getShort(2) & 0xffff;
+                    name = new String(field, SERVER_INIT_LENGTH, field.length - SERVER_INIT_LENGTH, StandardCharsets.UTF_8);
+                    state = State.DONE;
+                }
+                default -> throw new IllegalStateException(state.name());
+            }
+        }
+        return ByteBuffer.wrap(reply.toByteArray());
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Response to a VNC Authentication challenge: the challenge DES-encrypted with the password, whose
+     * bytes are used bit-reversed as key (RFC 6143, 7.2.2 and errata).
+     */
+    static byte[] vncAuthResponse(String password, byte[] challenge) {
+        byte[] key = new byte[8];
+        byte[] passwordBytes = (password != null ? password : "").getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < key.length && i < passwordBytes.length; i++) {
+            key[i] = (byte) (Integer.reverse(passwordBytes[i] & 0xff) >>> 24);
+        }
+        try {
+            Cipher des = Cipher.getInstance("DES/ECB/NoPadding");
+            des.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "DES"));
+            return des.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("DES not available", e);
+        }
+    }
+
+    /**
+     * Bytes the current state still needs from the server; may depend on what {@link #pending} holds.
+     */
+    private int needed() {
+        byte[] soFar = pending.toByteArray();
+        return switch (state) {
+            case VERSION -> VERSION_LENGTH;
+            case SECURITY_TYPES -> minor < 7 ? 4 : soFar.length == 0 ? 1 : 1 + (soFar[0] & 0xff);
+            case CHALLENGE -> VNC_AUTH_CHALLENGE;
+            case SECURITY_RESULT -> 4;
+            case SERVER_INIT -> {
+                if (soFar.length < SERVER_INIT_LENGTH) {
+                    yield SERVER_INIT_LENGTH;
+                }
+                long nameLength = ByteBuffer.wrap(soFar, SERVER_INIT_LENGTH - 4, 4).getInt() & 0xffffffffL;
+                if (nameLength > MAX_NAME_LENGTH) {
+                    throw new IllegalStateException("Desktop name too long");
+                }
+                yield SERVER_INIT_LENGTH + (int) nameLength;
+            }
+            case DONE -> 0;
+        };
+    }
+
+    /**
+     * Collects {@code length} bytes in {@link #pending}; returns them once complete, otherwise null.
+     * Fields whose length is only known from their first bytes are collected in several steps.
+     */
+    private byte[] take(ByteBuffer data, int length) {
+        while (pending.size() < length && data.hasRemaining()) {
+            pending.write(data.get());
+            length = needed();
+        }
+        if (pending.size() < length) {
+            return null;
+        }
+        byte[] field = pending.toByteArray();
+        pending.reset();
+        return field;
+    }
+
+    private int chooseSecurity(byte[] field) {
+        if (minor < 7) {
+            int type = ByteBuffer.wrap(field).getInt();
+            if (type != SECURITY_NONE && type != SECURITY_VNC_AUTH) {
+                throw new IllegalStateException("Unsupported security type " + type);
+            }
+            return type;
+        }
+        if (field[0] == 0) {
+            throw new IllegalStateException("VNC server refused the connection");
+        }
+        boolean vncAuth = false;
+        for (int i = 1; i < field.length; i++) {
+            if (field[i] == SECURITY_NONE) {
+                return SECURITY_NONE;
+            }
+            vncAuth |= field[i] == SECURITY_VNC_AUTH;
+        }
+        if (!vncAuth) {
+            throw new IllegalStateException("No supported security type offered");
+        }
+        return SECURITY_VNC_AUTH;
+    }
+}
@@ -0,0 +1,330 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Follows the messages a noVNC client sends after the RFB handshake and rewrites its SetEncodings for
+ * the link to that client, as chosen by {@link AdaptiveEncoding}.
+ *
+ * Tight and ZRLE, if the client offers them, move ahead of the other encodings; the JPEG quality and
+ * zlib compression pseudo-encodings are replaced by the adapted levels, but only if the client sent
+ * them, so the server never uses anything the client did not ask for. As the estimates change, a new
+ * SetEncodings is sent ahead of the next FramebufferUpdateRequest, at most once per adapt interval.
+ * SetPixelFormat is followed to know whether Tight can use JPEG at all (32 bpp true colour).
+ *
+ * Everything else is forwarded unchanged and without copying, also when split across WebSocket
+ * messages. After a message type it does not know, the rewriter forwards the rest of the session as is.
+ */
+@Slf4j
+public class RfbEncodingRewriter {
+
+    static final int ENCODING_COPY_RECT = 1;
+    static final int ENCODING_TIGHT = 7;
+    static final int ENCODING_ZRLE = 16;
+    static final int ENCODING_TIGHT_PNG = -260;
+    static final int QUALITY_LEVEL_0 = -32;
+    static final int COMPRESS_LEVEL_0 = -256;
+
+    private static final int SET_PIXEL_FORMAT = 0;
+    private static final int SET_ENCODINGS = 2;
+    private static final int FRAMEBUFFER_UPDATE_REQUEST = 3;
+    private static final int MAX_ENCODINGS = 256;
+
+    private enum Step { TYPE, HEADER, BODY, CAPTURE, PASS_THROUGH }
+
+    private final AdaptiveEncoding policy;
+    private final LongSupplier throughput;
+    private final LongSupplier rttMicros;
+    private final long adaptIntervalNanos;
+
+    private final ByteBuffer header = ByteBuffer.allocate(12);
+    private ByteBuffer capture = ByteBuffer.allocate(20);
+    private Step step = Step.TYPE;
+    private int type;
+    private long skip;
+
+    private boolean jpegPossible = true;
+    private int[] clientEncodings;
+    private int[] sentEncodings;
+    private long nextAdaptAt;
+
+    RfbEncodingRewriter(AdaptiveEncoding policy, LongSupplier throughput, LongSupplier rttMicros) {
+        this.policy = policy;
+        this.throughput = throughput;
+        this.rttMicros = rttMicros;
+        this.adaptIntervalNanos = TimeUnit.MILLISECONDS.toNanos(policy.adaptIntervalMillis());
+    }
+
+    /**
+     * The bytes to forward to the VNC server for {@code data} from the client: {@code data} itself if
+     * nothing changed, otherwise a new buffer. Bytes of an incomplete SetPixelFormat or SetEncodings are
+     * held back until the message is complete. Not thread-safe; called for one session at a time.
+     */
+    public ByteBuffer onClientData(ByteBuffer data) {
+        ByteBuffer input = data.duplicate();
+        List<ByteBuffer> parts = step == Step.CAPTURE ? new ArrayList<>() : null;
+        // Beginn der unverändert weiterzuleitenden Bytes, -1 während eine Nachricht zurückgehalten wird
+        int forwardFrom = step == Step.CAPTURE ? -1 : input.position();
+        while (input.hasRemaining()) {
+            switch (step) {
+                case TYPE -> {
+                    type = input.get(input.position()) & 0xff;
+                    if (type == SET_PIXEL_FORMAT || type == SET_ENCODINGS) {
+                        parts = forward(parts, input, forwardFrom);
+                        forwardFrom = -1;
+                        capture.clear().limit(type == SET_PIXEL_FORMAT ? 20 : 4);
+                        step = Step.CAPTURE;
+                        continue;
+                    }
+                    if (type == FRAMEBUFFER_UPDATE_REQUEST) {
+                        ByteBuffer adapted = adapt();
+                        if (adapted != null) {
+                            parts = forward(parts, input, forwardFrom);
+                            forwardFrom = input.position();
+                            parts.add(adapted);
+                        }
+                    }
+                    int headerLength = headerLength(type);
+                    if (headerLength < 0) {
+                        log.debug("Unknown client message type {}, forwarding the rest of the session unchanged", type);
+                        step = Step.PASS_THROUGH;
+                        continue;
+                    }
+                    header.clear().limit(headerLength);
+                    step = Step.HEADER;
+                }
+                case HEADER -> {
+                    while (header.hasRemaining() && input.hasRemaining()) {
+                        header.put(input.get());
+                    }
+                    if (!header.hasRemaining()) {
+                        skip = bodyLength();
+                        step = skip < 0 ? Step.PASS_THROUGH : skip > 0 ? Step.BODY : Step.TYPE;
+                    }
+                }
+                case BODY -> {
+                    int length = (int) Math.min(skip, input.remaining());
+                    input.position(input.position() + length);
+                    skip -= length;
+                    if (skip == 0) {
+                        step = Step.TYPE;
+                    }
+                }
+                case CAPTURE -> {
+                    int length = Math.min(capture.remaining(), input.remaining());
+                    capture.put(input.slice(input.position(), length));
+                    input.position(input.position() + length);
+                    if (!capture.hasRemaining()) {
+                        captureDone(parts);
+                        if (step != Step.CAPTURE) {
+                            forwardFrom = input.position();
+                        }
+                    }
+                }
+                case PASS_THROUGH -> input.position(input.limit());
+            }
+        }
+        if (parts == null) {
+            return data;
+        }
+        forward(parts, input, forwardFrom);
+        int length = parts.stream().mapToInt(ByteBuffer::remaining).sum();
+        ByteBuffer result = ByteBuffer.allocate(length);
+        parts.forEach(result::put);
+        return result.flip();
+    }
+
+    /**
+     * Adds the bytes from {@code from} up to the current position of {@code input}, unless a message
+     * is held back.
+     */
+    private static List<ByteBuffer> forward(List<ByteBuffer> parts, ByteBuffer input, int from) {
+        List<ByteBuffer> result = parts != null ? parts : new ArrayList<>();
+        if (from >= 0 && input.position() > from) {
+            result.add(input.slice(from, input.position() - from));
+        }
+        return result;
+    }
+
+    /**
+     * The captured part is complete: either the header of SetEncodings, whose body follows, or a whole
+     * message, which is added to {@code parts}. Leaves {@link #step} at CAPTURE while more follows.
+     */
+    private void captureDone(List<ByteBuffer> parts) {
+        capture.flip();
+        if (type == SET_PIXEL_FORMAT) {
+            // bits-per-pixel, depth, big-endian-flag, true-colour-flag
+            jpegPossible = (capture.get(4) & 0xff) == 32 && capture.get(7) != 0;
+            parts.add(copy(capture));
+            step = Step.TYPE;
+            return;
+        }
+        int count = capture.getShort(2) & 0xffff;
+        if (capture.limit() == 4 && count > 0) {
+            if (count > MAX_ENCODINGS) {
+                // Unverändert weiterleiten
+                parts.add(copy(capture));
+                skip = 4L * count;
+                step = Step.BODY;
+                return;
+            }
+            if (capture.capacity() < 4 + 4 * count) {
+                capture = ByteBuffer.allocate(4 + 4 * count).put(capture);
+            } else {
+                capture.position(4);
+            }
+            capture.limit(4 + 4 * count);
+            return;
+        }
+        clientEncodings = new int[count];
+        for (int i = 0; i < count; i++) {
+            clientEncodings[i] = capture.getInt(4 + 4 * i);
+        }
+        sentEncodings = rewrite(clientEncodings);
+        nextAdaptAt = System.nanoTime() + adaptIntervalNanos;
+        if (!Arrays.equals(sentEncodings, clientEncodings)) {
+            policy.recordRewrite(qualityLevel(sentEncodings));
+        }
+        parts.add(setEncodings(sentEncodings));
+        if (capture.capacity() > 20) {
+            capture = ByteBuffer.allocate(20);
+        }
+        step = Step.TYPE;
+    }
+
+    /**
+     * A SetEncodings for the current estimates if the interval has passed and they changed the levels,
+     * otherwise null.
+     */
+    private ByteBuffer adapt() {
+        long now = System.nanoTime();
+        if (clientEncodings == null || now - nextAdaptAt < 0) {
+            return null;
+        }
+        nextAdaptAt = now + adaptIntervalNanos;
+        int[] adapted = rewrite(clientEncodings);
+        if (Arrays.equals(adapted, sentEncodings)) {
+            return null;
+        }
+        sentEncodings = adapted;
+        policy.recordRewrite(qualityLevel(adapted));
+        return setEncodings(adapted);
+    }
+
+    /**
+     * The client's encodings with Tight and ZRLE first and the levels adapted to the link.
+     */
+    int[] rewrite(int[] encodings) {
+        long bytesPerSecond = throughput.getAsLong();
+        long rtt = rttMicros.getAsLong();
+        int clientQuality = AdaptiveEncoding.MAX_LEVEL;
+        for (int encoding : encodings) {
+            if (isQualityLevel(encoding)) {
+                clientQuality = encoding - QUALITY_LEVEL_0;
+            }
+        }
+        int quality = jpegPossible ? Math.min(clientQuality, policy.qualityLevel(bytesPerSecond)) : clientQuality;
+        int compressFloor = policy.compressLevel(bytesPerSecond, rtt);
+
+        List<Integer> preferred = new ArrayList<>();
+        for (int encoding : new int[]{ENCODING_TIGHT, ENCODING_ZRLE}) {
+            if (Arrays.stream(encodings).anyMatch(e -> e == encoding)) {
+                preferred.add(encoding);
+            }
+        }
+        List<Integer> result = new ArrayList<>(encodings.length);
+        for (int encoding : encodings) {
+            if (preferred.contains(encoding)) {
+                continue;
+            }
+            boolean real = encoding >= 0 || encoding == ENCODING_TIGHT_PNG;
+            if (real && encoding != ENCODING_COPY_RECT && !preferred.isEmpty() && !result.containsAll(preferred)) {
+                // Vor der ersten anderen echten Kodierung
+                result.addAll(preferred);
+            }
+            if (isQualityLevel(encoding)) {
+                result.add(QUALITY_LEVEL_0 + quality);
+            } else if (isCompressLevel(encoding)) {
+                result.add(COMPRESS_LEVEL_0 + Math.max(encoding - COMPRESS_LEVEL_0, compressFloor));
+            } else {
+                result.add(encoding);
+            }
+        }
+        if (!result.containsAll(preferred)) {
+            result.addAll(preferred);
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int qualityLevel(int[] encodings) {
+        return Arrays.stream(encodings).filter(RfbEncodingRewriter::isQualityLevel)
+                .map(encoding -> encoding - QUALITY_LEVEL_0).findFirst().orElse(AdaptiveEncoding.MAX_LEVEL);
+    }
+
+    private static boolean isQualityLevel(int encoding) {
+        return encoding >= QUALITY_LEVEL_0 && encoding <= QUALITY_LEVEL_0 + AdaptiveEncoding.MAX_LEVEL;
+    }
+
+    private static boolean isCompressLevel(int encoding) {
+        return encoding >= COMPRESS_LEVEL_0 && encoding <= COMPRESS_LEVEL_0 + AdaptiveEncoding.MAX_LEVEL;
+    }
+
+    static ByteBuffer setEncodings(int[] encodings) {
+        ByteBuffer message = ByteBuffer.allocate(4 + 4 * encodings.length)
+                .put((byte) SET_ENCODINGS).put((byte) 0).putShort((short) encodings.length);
+        for (int encoding : encodings) {
+            message.putInt(encoding);
+        }
+        return message.flip();
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    /**
+     * Bytes up to and including the length fields of a client message, -1 for an unknown type.
+     */
+    private int headerLength(int type) {
+        return switch (type) {
+            // FramebufferUpdateRequest, EnableContinuousUpdates
+            case FRAMEBUFFER_UPDATE_REQUEST, 150 -> 10;
+            // KeyEvent, ClientCutText
+            case 4, 6 -> 8;
+            // PointerEvent
+            case 5 -> 6;
+            // ClientFence
+            case 248 -> 9;
+            // xvp
+            case 250 -> 4;
+            // SetDesktopSize
+            case 251 -> 8;
+            // QEMU-Nachricht, der Untertyp entscheidet
+            case 255 -> 2;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Bytes after the header, -1 if the message cannot be followed.
+     */
+    private long bodyLength() {
+        return switch (type) {
+            // Negative Länge: Extended Clipboard
+            case 6 -> Math.abs((long) header.getInt(4));
+            case 248 -> header.get(8) & 0xff;
+            case 251 -> 16L * (header.get(6) & 0xff);
+            // Nur QEMU Extended Key Event ist bekannt
+            case 255 -> header.get(1) == 0 ? 10 : -1;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,178 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * The screen of a proxy-owned VNC connection at one byte per pixel (BGR233), kept up to date from the
+ * Raw, CopyRect and DesktopSize rectangles that {@link RfbServerMessageParser} passes on, and scaled
+ * down into thumbnails.
+ */
+class RfbFramebuffer implements RfbServerMessageParser.RectSink {
+
+    // SetPixelFormat für BGR233: 8 bpp, Tiefe 8, True Colour, Maxima 7/7/3, Shifts 0/3/6
+    static final byte[] PIXEL_FORMAT = {8, 8, 0, 1, 0, 7, 0, 7, 0, 3, 0, 3, 6, 0, 0, 0};
+
+    private static final int[] RGB = new int[256];
+
+    static {
+        for (int pixel = 0; pixel < 256; pixel++) {
+            int red = (pixel & 7) * 255 / 7;
+            int green = (pixel >> 3 & 7) * 255 / 7;
+            int blue = (pixel >> 6 & 3) * 255 / 3;
+            RGB[pixel] = red << 16 | green << 8 | blue;
+        }
+    }
+
+    private int width;
+    private int height;
+    private byte[] pixels;
+    private boolean changed;
+
+    // Aktuelles Rechteck
+    private int rectX;
+    private int rectY;
+    private int rectWidth;
+    private int rectHeight;
+    private int encoding;
+    private int received;
+    private final byte[] copySource = new byte[4];
+
+    RfbFramebuffer(int width, int height) {
+        resize(width, height);
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    /**
+     * The colour of a pixel as 0xRRGGBB.
+     */
+    int rgb(int x, int y) {
+        return RGB[pixels[y * width + x] & 0xff];
+    }
+
+    /**
+     * True if rectangles arrived since the last call.
+     */
+    boolean takeChanged() {
+        boolean result = changed;
+        changed = false;
+        return result;
+    }
+
+    @Override
+    public void rect(int x, int y, int width, int height, int encoding) {
+        this.rectX = x;
+        this.rectY = y;
+        this.rectWidth = width;
+        this.rectHeight = height;
+        this.encoding = encoding;
+        this.received = 0;
+        if (encoding == RfbServerMessageParser.ENCODING_DESKTOP_SIZE) {
+            resize(width, height);
+        }
+        changed = true;
+    }
+
+    @Override
+    public void data(ByteBuffer body) {
+        if (encoding == RfbServerMessageParser.ENCODING_RAW) {
+            raw(body);
+        } else if (encoding == RfbServerMessageParser.ENCODING_COPY_RECT) {
+            while (body.hasRemaining() && received < copySource.length) {
+                copySource[received++] = body.get();
+            }
+            if (received == copySource.length) {
+                copyRect((copySource[0] & 0xff) << 8 | copySource[1] & 0xff, (copySource[2] & 0xff) << 8 | copySource[3] & 0xff);
+            }
+        }
+        body.position(body.limit());
+    }
+
+    /**
+     * The screen scaled to at most {@code maxWidth} pixels wide, averaging the pixels each thumbnail
+     * pixel covers; null while the screen is empty.
+     */
+    BufferedImage thumbnail(int maxWidth) {
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        int thumbnailWidth = Math.min(maxWidth, width);
+        int thumbnailHeight = Math.max(1, (int) ((long) height * thumbnailWidth / width));
+        int[] column = new int[width];
+        for (int x = 0; x < width; x++) {
+            column[x] = (int) ((long) x * thumbnailWidth / width);
+        }
+        int[] red = new int[thumbnailWidth];
+        int[] green = new int[thumbnailWidth];
+        int[] blue = new int[thumbnailWidth];
+        int[] count = new int[thumbnailWidth];
+        int[] scaled = new int[thumbnailWidth * thumbnailHeight];
+        for (int row = 0; row < thumbnailHeight; row++) {
+            int fromY = (int) ((long) row * height / thumbnailHeight);
+            int toY = (int) ((long) (row + 1) * height / thumbnailHeight);
+            for (int y = fromY; y < toY; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    int rgb = RGB[pixels[offset + x] & 0xff];
+                    int target = column[x];
+                    red[target] += rgb >> 16 & 0xff;
+                    green[target] += rgb >> 8 & 0xff;
+                    blue[target] += rgb & 0xff;
+                    count[target]++;
+                }
+            }
+            for (int x = 0; x < thumbnailWidth; x++) {
+                int n = Math.max(1, count[x]);
+                scaled[row * thumbnailWidth + x] = red[x] / n << 16 | green[x] / n << 8 | blue[x] / n;
+                red[x] = green[x] = blue[x] = count[x] = 0;
+            }
+        }
+        BufferedImage image = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, thumbnailWidth, thumbnailHeight, scaled, 0, thumbnailWidth);
+        return image;
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new byte[width * height];
+    }
+
+    private void raw(ByteBuffer body) {
+        while (body.hasRemaining() && rectWidth > 0) {
+            int row = received / rectWidth;
+            int column = received % rectWidth;
+            int length = Math.min(body.remaining(), rectWidth - column);
+            int y = rectY + row;
+            int x = rectX + column;
+            // Was außerhalb des Bildschirms liegt, wird übersprungen
+            int visible = y < height && x < width ? Math.min(length, width - x) : 0;
+            if (visible > 0) {
+                body.get(pixels, y * width + x, visible);
+            }
+            body.position(body.position() + length - visible);
+            received += length;
+        }
+    }
+
+    private void copyRect(int sourceX, int sourceY) {
+        int copyWidth = Math.min(rectWidth, Math.min(width - rectX, width - sourceX));
+        int copyHeight = Math.min(rectHeight, Math.min(height - rectY, height - sourceY));
+        if (copyWidth <= 0 || copyHeight <= 0) {
+            return;
+        }
+        // Überlappende Bereiche: von der Seite her kopieren, die nicht überschrieben wird
+        boolean bottomUp = sourceY < rectY;
+        for (int i = 0; i < copyHeight; i++) {
+            int row = bottomUp ? copyHeight - 1 - i : i;
+            System.arraycopy(pixels, (sourceY + row) * width + sourceX, pixels, (rectY + row) * width + rectX, copyWidth);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Follows the RFB handshake of a noVNC session in both directions (RFC 6143, 7.1 to 7.3) and keeps the
+ * ProtocolVersion and ServerInit of the VNC server, which {@link RfbResumeHandshake} replays to a browser
+ * that resumes the session.
+ *
+ * Only the security types None and VNC Authentication are understood. Any other type, a failed
+ * handshake or more than {@value #MAX_HANDSHAKE} bytes leave the session not resumable. Once the
+ * handshake is complete or given up, recording costs a volatile read per call.
+ */
+public class RfbHandshakeRecorder {
+
+    private static final int MAX_HANDSHAKE = 4096;
+    private static final int VERSION_LENGTH = 12;
+    private static final int SERVER_INIT_LENGTH = 24;
+    private static final int SECURITY_NONE = 1;
+    private static final int SECURITY_VNC_AUTH = 2;
+    private static final int VNC_AUTH_CHALLENGE = 16;
+
+    private enum State { RECORDING, COMPLETE, UNSUPPORTED }
+
+    private volatile State state = State.RECORDING;
+
+    // Geschützt durch this
+    private ByteArrayOutputStream server = new ByteArrayOutputStream();
+    private ByteArrayOutputStream client = new ByteArrayOutputStream();
+    private byte[] protocolVersion;
+    private byte[] serverInit;
+    private int serverBytesAfterInit;
+
+    /**
+     * A recorder for a session that starts with an already known handshake, i.e. a resumed one.
+     */
+    public static RfbHandshakeRecorder completed(byte[] protocolVersion, byte[] serverInit) {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+        recorder.complete(protocolVersion, serverInit);
+        return recorder;
+    }
+
+    /**
+     * Bytes from the VNC server; {@code data} is not modified.
+     */
+    public void onServerData(ByteBuffer data) {
+        if (state == State.RECORDING) {
+            record(true, data);
+        }
+    }
+
+    /**
+     * Bytes from the browser; {@code data} is not modified.
+     */
+    public void onClientData(ByteBuffer data) {
+        if (state == State.RECORDING) {
+            record(false, data);
+        }
+    }
+
+    public boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    public synchronized byte[] protocolVersion() {
+        return protocolVersion;
+    }
+
+    public synchronized byte[] serverInit() {
+        return serverInit;
+    }
+
+    /**
+     * Server bytes recorded after ServerInit, i.e. the first server messages that arrived in the same read
+     * as the end of ServerInit; 0 for a resumed session.
+     */
+    public synchronized int serverBytesAfterInit() {
+        return serverBytesAfterInit;
+    }
+
+    /**
+     * Minor version of an RFB ProtocolVersion message ("RFB 003.008\n"), -1 if it is none.
+     */
+    static int minorVersion(byte[] message, int offset) {
+        String version = new String(message, offset, VERSION_LENGTH, StandardCharsets.US_ASCII);
+        if (!version.startsWith("RFB 003.") || version.charAt(VERSION_LENGTH - 1) != '\n') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(version.substring(8, 11));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private synchronized void record(boolean fromServer, ByteBuffer data) {
+        if (state != State.RECORDING) {
+            return;
+        }
+        ByteArrayOutputStream target = fromServer ? server : client;
+        if (target.size() + data.remaining() > MAX_HANDSHAKE) {
+            giveUp();
+            return;
+        }
+        ByteBuffer copy = data.duplicate();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        target.write(bytes, 0, bytes.length);
+        parse();
+    }
+
+    private void parse() {
+        byte[] s = server.toByteArray();
+        byte[] c = client.toByteArray();
+        if (s.length < VERSION_LENGTH || c.length < VERSION_LENGTH) {
+            return;
+        }
+        int serverMinor = minorVersion(s, 0);
+        int clientMinor = minorVersion(c, 0);
+        if (serverMinor < 3 || clientMinor < 3) {
+            giveUp();
+            return;
+        }
+        int minor = Math.min(serverMinor, clientMinor);
+        int pos = VERSION_LENGTH;
+        int clientPos = VERSION_LENGTH;
+
+        // Security: 3.3 gibt der Server vor, ab 3.7 wählt der Client aus einer Liste
+        int type;
+        if (minor < 7) {
+            if (s.length < pos + 4) {
+                return;
+            }
+            type = readInt(s, pos);
+            pos += 4;
+        } else {
+            if (s.length < pos + 1) {
+                return;
+            }
+            int count = s[pos] & 0xff;
+            if (count == 0) {
+                giveUp();
+                return;
+            }
+            pos += 1 + count;
+            if (c.length < clientPos + 1) {
+                return;
+            }
+            type = c[clientPos] & 0xff;
+            clientPos++;
+        }
+        if (type == SECURITY_VNC_AUTH) {
+            pos += VNC_AUTH_CHALLENGE;
+            clientPos += VNC_AUTH_CHALLENGE;
+        } else if (type != SECURITY_NONE) {
+            giveUp();
+            return;
+        }
+
+        // SecurityResult, bei None erst ab 3.8
+        if (type == SECURITY_VNC_AUTH || minor >= 8) {
+            if (s.length < pos + 4) {
+                return;
+            }
+            if (readInt(s, pos) != 0) {
+                giveUp();
+                return;
+            }
+            pos += 4;
+        }
+
+        // ServerInit folgt auf ClientInit
+        if (c.length < clientPos + 1 || s.length < pos + SERVER_INIT_LENGTH) {
+            return;
+        }
+        long nameLength = readInt(s, pos + SERVER_INIT_LENGTH - 4) & 0xffffffffL;
+        if (nameLength > MAX_HANDSHAKE) {
+            giveUp();
+            return;
+        }
+        int end = pos + SERVER_INIT_LENGTH + (int) nameLength;
+        if (s.length < end) {
+            return;
+        }
+        serverBytesAfterInit = s.length - end;
+        complete(Arrays.copyOf(s, VERSION_LENGTH), Arrays.copyOfRange(s, pos, end));
+    }
+
+    private synchronized void complete(byte[] protocolVersion, byte[] serverInit) {
+        this.protocolVersion = protocolVersion;
+        this.serverInit = serverInit;
+        server = null;
+        client = null;
+        state = State.COMPLETE;
+    }
+
+    private void giveUp() {
+        server = null;
+        client = null;
+        state = State.UNSUPPORTED;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ByteBuffer.wrap(bytes, offset, 4).getInt();
+    }
+}
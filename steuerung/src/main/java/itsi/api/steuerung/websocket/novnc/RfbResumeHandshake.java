@@ -0,0 +1,94 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Server side of the RFB handshake towards a browser that resumes a parked noVNC session.
+ *
+ * The VNC server has completed its handshake with the previous browser, so this one is answered
+ * locally: it gets the recorded ProtocolVersion, is offered security type None and receives the recorded
+ * ServerInit after its ClientInit. The resumption token took the place of the VNC password. Everything
+ * the browser sends after ClientInit belongs to the VNC server.
+ */
+public class RfbResumeHandshake {
+
+    private static final int VERSION_LENGTH = 12;
+    private static final byte SECURITY_NONE = 1;
+
+    private enum State { VERSION, SECURITY, CLIENT_INIT, DONE }
+
+    private final byte[] protocolVersion;
+    private final byte[] serverInit;
+    private final ByteArrayOutputStream clientVersion = new ByteArrayOutputStream(VERSION_LENGTH);
+    private State state = State.VERSION;
+    private int minor;
+
+    public RfbResumeHandshake(byte[] protocolVersion, byte[] serverInit) {
+        this.protocolVersion = protocolVersion;
+        this.serverInit = serverInit;
+    }
+
+    /**
+     * The first message to the browser.
+     */
+    public ByteBuffer start() {
+        return ByteBuffer.wrap(protocolVersion);
+    }
+
+    /**
+     * Consumes handshake bytes from {@code message} and returns the answer to the browser, possibly
+     * empty. Once {@link #isDone()}, the bytes left in {@code message} go to the VNC server.
+     *
+     * @throws IllegalStateException if the browser does not follow the handshake
+     */
+    public synchronized ByteBuffer onClientData(ByteBuffer message) {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        while (state != State.DONE && message.hasRemaining()) {
+            switch (state) {
+                case VERSION -> {
+                    while (clientVersion.size() < VERSION_LENGTH && message.hasRemaining()) {
+                        clientVersion.write(message.get());
+                    }
+                    if (clientVersion.size() < VERSION_LENGTH) {
+                        break;
+                    }
+                    minor = RfbHandshakeRecorder.minorVersion(clientVersion.toByteArray(), 0);
+                    if (minor < 3) {
+                        throw new IllegalStateException("Unsupported RFB version from client");
+                    }
+                    if (minor >= 7) {
+                        reply.write(1);
+                        reply.write(SECURITY_NONE);
+                        state = State.SECURITY;
+                    } else {
+                        reply.writeBytes(new byte[]{0, 0, 0, SECURITY_NONE});
+                        state = State.CLIENT_INIT;
+                    }
+                }
+                case SECURITY -> {
+                    if (message.get() != SECURITY_NONE) {
+                        throw new IllegalStateException("Client chose a security type that was not offered");
+                    }
+                    if (minor >= 8) {
+                        // SecurityResult OK
+                        reply.writeBytes(new byte[4]);
+                    }
+                    state = State.CLIENT_INIT;
+                }
+                case CLIENT_INIT -> {
+                    // Shared-Flag; die Verbindung zum VNC-Server besteht bereits
+                    message.get();
+                    reply.writeBytes(serverInit);
+                    state = State.DONE;
+                }
+                default -> throw new IllegalStateException(state.name());
+            }
+        }
+        return ByteBuffer.wrap(reply.toByteArray());
+    }
+
+    public synchronized boolean isDone() {
+        return state == State.DONE;
+    }
+}
@@ -0,0 +1,210 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the message boundaries in the stream a VNC server sends after ServerInit, without copying it.
+ *
+ * Only what a proxy-owned connection asks for is understood: FramebufferUpdate with the encodings Raw,
+ * CopyRect and the DesktopSize pseudo-encoding, SetColourMapEntries, Bell and ServerCutText, at a fixed
+ * number of bytes per pixel. Anything else cannot be skipped and fails the stream. A {@link RectSink}
+ * additionally gets the rectangles, for a connection that keeps its own framebuffer.
+ */
+public class RfbServerMessageParser {
+
+    static final int ENCODING_RAW = 0;
+    static final int ENCODING_COPY_RECT = 1;
+    static final int ENCODING_DESKTOP_SIZE = -223;
+
+    private static final int MAX_CUT_TEXT = 1 << 20;
+
+    private enum Step { TYPE, UPDATE, RECT, COLOURS, CUT }
+
+    /**
+     * Receives the rectangles of FramebufferUpdates as they are parsed.
+     */
+    interface RectSink {
+
+        /**
+         * A rectangle header; the body, if any, follows through {@link #data}.
+         */
+        void rect(int x, int y, int width, int height, int encoding);
+
+        /**
+         * The next part of the body of the current rectangle, to be consumed completely.
+         */
+        void data(ByteBuffer body);
+    }
+
+    private final int bytesPerPixel;
+    private final RectSink sink;
+    private final ByteBuffer header = ByteBuffer.allocate(12);
+    private Step step = Step.TYPE;
+    private long skip;
+    private int rectsLeft;
+    private int width;
+    private int height;
+    private boolean updateComplete;
+
+    public RfbServerMessageParser(int bytesPerPixel, int width, int height) {
+        this(bytesPerPixel, width, height, null);
+    }
+
+    RfbServerMessageParser(int bytesPerPixel, int width, int height, RectSink sink) {
+        this.bytesPerPixel = bytesPerPixel;
+        this.sink = sink;
+        this.width = width;
+        this.height = height;
+        header.limit(1);
+    }
+
+    /**
+     * Advances {@code data} up to the end of the current message or of the data, whichever comes first.
+     * Returns true if a message ended there.
+     *
+     * @throws IllegalStateException for a message or encoding that cannot be parsed
+     */
+    public boolean advance(ByteBuffer data) {
+        updateComplete = false;
+        while (data.hasRemaining()) {
+            if (skip > 0) {
+                int length = (int) Math.min(skip, data.remaining());
+                if (sink != null && step == Step.RECT) {
+                    sink.data(data.slice(data.position(), length));
+                }
+                data.position(data.position() + length);
+                skip -= length;
+                if (skip == 0 && bodyDone()) {
+                    return true;
+                }
+                continue;
+            }
+            while (header.hasRemaining() && data.hasRemaining()) {
+                header.put(data.get());
+            }
+            if (!header.hasRemaining() && headerDone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the message that ended in the last {@link #advance} was a complete FramebufferUpdate.
+     */
+    public boolean updateComplete() {
+        return updateComplete;
+    }
+
+    /**
+     * True between messages.
+     */
+    public boolean atBoundary() {
+        return step == Step.TYPE && skip == 0 && header.position() == 0;
+    }
+
+    /**
+     * Framebuffer size, as changed by DesktopSize rectangles.
+     */
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Handles a complete header; true if the message ends with it.
+     */
+    private boolean headerDone() {
+        header.flip();
+        switch (step) {
+            case TYPE -> {
+                int type = header.get(0) & 0xff;
+                switch (type) {
+                    case 0 -> expect(Step.UPDATE, 3);
+                    case 1 -> expect(Step.COLOURS, 5);
+                    case 2 -> {
+                        // Bell
+                        return messageDone();
+                    }
+                    case 3 -> expect(Step.CUT, 7);
+                    default -> throw new IllegalStateException("Unknown server message type " + type);
+                }
+            }
+            case UPDATE -> {
+                rectsLeft = header.getShort(1) & 0xffff;
+                if (rectsLeft == 0) {
+                    updateComplete = true;
+                    return messageDone();
+                }
+                expect(Step.RECT, 12);
+            }
+            case RECT -> {
+                int w = header.getShort(4) & 0xffff;
+                int h = header.getShort(6) & 0xffff;
+                int encoding = header.getInt(8);
+                skip = switch (encoding) {
+                    case ENCODING_RAW -> (long) w * h * bytesPerPixel;
+                    case ENCODING_COPY_RECT -> 4;
+                    case ENCODING_DESKTOP_SIZE -> {
+                        width = w;
+                        height = h;
+                        yield 0;
+                    }
+                    default -> throw new IllegalStateException("Unexpected encoding " + encoding);
+                };
+                if (sink != null) {
+                    sink.rect(header.getShort(0) & 0xffff, header.getShort(2) & 0xffff, w, h, encoding);
+                }
+                rectsLeft--;
+                expect(Step.RECT, 12);
+                if (skip == 0) {
+                    return rectDone();
+                }
+            }
+            case COLOURS -> {
+                skip = 6L * (header.getShort(3) & 0xffff);
+                if (skip == 0) {
+                    return messageDone();
+                }
+            }
+            case CUT -> {
+                skip = header.getInt(3) & 0xffffffffL;
+                if (skip > MAX_CUT_TEXT) {
+                    throw new IllegalStateException("Cut text of " + skip + " bytes");
+                }
+                if (skip == 0) {
+                    return messageDone();
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A message body was skipped; true if the message ends with it.
+     */
+    private boolean bodyDone() {
+        return step == Step.RECT ? rectDone() : messageDone();
+    }
+
+    private boolean rectDone() {
+        if (rectsLeft > 0) {
+            return false;
+        }
+        updateComplete = true;
+        return messageDone();
+    }
+
+    private boolean messageDone() {
+        expect(Step.TYPE, 1);
+        return true;
+    }
+
+    private void expect(Step next, int headerLength) {
+        step = next;
+        header.clear().limit(headerLength);
+    }
+}
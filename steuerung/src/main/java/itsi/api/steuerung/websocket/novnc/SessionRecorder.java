@@ -0,0 +1,242 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Records what the VNC server sends to noVNC sessions ({@link SessionRecording}) and plays recordings
+ * back ({@link RecordingPlayer}), e.g. to review an exam.
+ *
+ * Recording is off unless {@code novnc.recording.enabled} is set. All recordings share one writer
+ * thread, which every {@value #WRITE_INTERVAL_MILLIS} ms writes what they queued, so a write covers
+ * many reads and the I/O threads never have to wake it. Recordings are named
+ * {@code <userId>-<epoch millis>-<session id>}.
+ *
+ * Meters: {@code novnc.recording.active}, {@code novnc.recording.bytes} (written) and
+ * {@code novnc.recording.truncated} (recordings stopped because the writer fell behind).
+ */
+@Component
+@Slf4j
+public class SessionRecorder {
+
+    static final String DATA_SUFFIX = ".rec";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final long WRITE_INTERVAL_MILLIS = 20;
+    private static final Pattern RECORDING_ID = Pattern.compile("[0-9]+-[0-9]+-[A-Za-z0-9]{0,64}");
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long bufferLimit;
+    private final long indexIntervalMillis;
+
+    private final Set<SessionRecording> active = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writer;
+    private final ScheduledExecutorService replayScheduler;
+    private volatile boolean running = true;
+
+    private final Counter bytesWritten;
+    private final Counter truncated;
+
+    public SessionRecorder(MeterRegistry meterRegistry,
+                           @Value("${novnc.recording.enabled:false}") boolean enabled,
+                           @Value("${novnc.recording.directory:recordings}") String directory,
+                           @Value("${novnc.recording.buffer-limit:8388608}") long bufferLimit,
+                           @Value("${novnc.recording.index-interval:1000}") long indexIntervalMillis) {
+        this.directory = Paths.get(directory);
+        this.bufferLimit = bufferLimit;
+        this.indexIntervalMillis = indexIntervalMillis;
+        this.enabled = enabled && createDirectory(this.directory);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-record");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.replayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (this.enabled) {
+            writer.execute(this::writeLoop);
+            log.info("Recording noVNC sessions to {}", this.directory.toAbsolutePath());
+        }
+
+        this.bytesWritten = Counter.builder("novnc.recording.bytes").baseUnit("bytes").register(meterRegistry);
+        this.truncated = Counter.builder("novnc.recording.truncated").register(meterRegistry);
+        Gauge.builder("novnc.recording.active", active, Set::size).register(meterRegistry);
+    }
+
+    /**
+     * A new recording for a noVNC session of {@code userId}, empty if recording is off.
+     */
+    public Optional<SessionRecording> start(Long userId, String sessionId) {
+        if (!enabled || !running || userId == null) {
+            return Optional.empty();
+        }
+        String session = sessionId.replaceAll("[^A-Za-z0-9]", "");
+        String id = userId + "-" + System.currentTimeMillis() + "-" + session.substring(0, Math.min(session.length(), 64));
+        SessionRecording recording = new SessionRecording(id, this, bufferLimit);
+        active.add(recording);
+        return Optional.of(recording);
+    }
+
+    /**
+     * Opens a recording for playback.
+     *
+     * @throws IOException if there is no readable recording with that id
+     */
+    public RecordingReader open(String id) throws IOException {
+        if (id == null || !RECORDING_ID.matcher(id).matches()) {
+            throw new IOException("Invalid recording id");
+        }
+        return RecordingReader.open(directory, id);
+    }
+
+    /**
+     * The user whose session {@code id} recorded, empty for an invalid id.
+     */
+    public static Optional<Long> ownerOf(String id) {
+        if (id == null || !RECORDING_ID.matcher(id).matches()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Long.parseLong(id.substring(0, id.indexOf('-'))));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Starts playing {@code reader} into {@code queue} from {@code fromMillis} on; {@code onEnd} runs at
+     * the end of the recording.
+     */
+    public RecordingPlayer play(RecordingReader reader, SessionSendQueue queue, int fromMillis, double speed, Runnable onEnd) {
+        RecordingPlayer player = new RecordingPlayer(reader, queue, replayScheduler, fromMillis, speed, onEnd);
+        player.start();
+        return player;
+    }
+
+    /**
+     * Recordings of {@code userId}, newest first.
+     */
+    public List<Map<String, Object>> list(Long userId) {
+        List<Map<String, Object>> recordings = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return recordings;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(userId + "-") && name.endsWith(DATA_SUFFIX))
+                    .map(name -> name.substring(0, name.length() - DATA_SUFFIX.length()))
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(id -> {
+                        try (RecordingReader reader = open(id)) {
+                            Map<String, Object> info = new LinkedHashMap<>();
+                            info.put("id", id);
+                            info.put("startedAt", Instant.ofEpochMilli(reader.startedAt()).toString());
+                            info.put("durationMillis", reader.durationMillis());
+                            info.put("bytes", Files.size(directory.resolve(id + DATA_SUFFIX)));
+                            recordings.add(info);
+                        } catch (IOException e) {
+                            log.debug("Skipping unreadable recording {}: {}", id, e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            log.warn("Cannot list recordings in {}: {}", directory, e.getMessage());
+        }
+        return recordings;
+    }
+
+    public int active() {
+        return active.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        // Offene Aufzeichnungen abschließen, der Schreib-Thread schreibt noch, was in der Queue steht
+        active.forEach(SessionRecording::close);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        replayScheduler.shutdownNow();
+    }
+
+    void recordWritten(int bytes) {
+        bytesWritten.increment(bytes);
+    }
+
+    void recordTruncated() {
+        truncated.increment();
+    }
+
+    private void writeLoop() {
+        // Nach dem Shutdown weiter, bis alle Aufzeichnungen abgeschlossen sind
+        while (running || !active.isEmpty()) {
+            try {
+                Thread.sleep(WRITE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            for (SessionRecording recording : active) {
+                try {
+                    if (recording.writePending(directory, indexIntervalMillis)) {
+                        recording.flush();
+                    } else {
+                        active.remove(recording);
+                    }
+                } catch (IOException e) {
+                    fail(recording, e);
+                }
+            }
+        }
+    }
+
+    private void fail(SessionRecording recording, IOException e) {
+        log.error("Recording {} failed: {}", recording.id(), e.toString());
+        recording.abandon();
+        active.remove(recording);
+    }
+
+    private static boolean createDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            return true;
+        } catch (IOException e) {
+            log.error("Cannot create recording directory {}, recording is off", directory, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recording of what the VNC server sent to one noVNC session, written by the {@link SessionRecorder}.
+ *
+ * The I/O thread only copies the data into a queue ({@link #data}); the writer thread of the recorder
+ * collects it periodically and appends it to two files:
+ * <ul>
+ *   <li>{@code <id>.rec}: {@value #MAGIC}, the start as epoch millis (8 bytes), then records of type
+ *   (1 byte), millis since the start (4 bytes), length (4 bytes) and payload. The first record holds
+ *   ProtocolVersion and ServerInit of the VNC server, all further ones the messages after ServerInit.</li>
+ *   <li>{@code <id>.idx}: millis (4 bytes) and offset in the {@code .rec} file (8 bytes) of the first
+ *   record in each index interval, for seeking.</li>
+ * </ul>
+ * If the writer falls behind by more than the buffer limit, the recording ends there; a gap would make
+ * everything after it undecodable.
+ */
+@Slf4j
+public class SessionRecording {
+
+    static final String MAGIC = "NVREC001";
+    static final int HEADER_LENGTH = 16;
+    static final int RECORD_HEADER_LENGTH = 9;
+    static final int INDEX_ENTRY_LENGTH = 12;
+    static final byte TYPE_HANDSHAKE = 1;
+    static final byte TYPE_DATA = 2;
+    private static final int WRITE_BUFFER_SIZE = 65_536;
+
+    private record Chunk(byte type, int millis, byte[] payload) {}
+
+    // Markiert das Ende der Aufzeichnung in der Queue
+    private static final Chunk END = new Chunk((byte) 0, 0, null);
+
+    private final String id;
+    private final SessionRecorder recorder;
+    private final long bufferLimit;
+    private final long startedNanos = System.nanoTime();
+    private final long startedAt = System.currentTimeMillis();
+
+    private final Queue<Chunk> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private volatile boolean stopped;
+
+    // Nur vom Schreib-Thread benutzt
+    private FileChannel data;
+    private FileChannel index;
+    private final ByteBuffer dataBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private long written;
+    private long nextIndexAt;
+    private boolean hasHandshake;
+
+    SessionRecording(String id, SessionRecorder recorder, long bufferLimit) {
+        this.id = id;
+        this.recorder = recorder;
+        this.bufferLimit = bufferLimit;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * Starts the recording with the handshake of the VNC server; data before it is not recorded.
+     */
+    public void handshake(byte[] protocolVersion, byte[] serverInit) {
+        byte[] payload = new byte[protocolVersion.length + serverInit.length];
+        System.arraycopy(protocolVersion, 0, payload, 0, protocolVersion.length);
+        System.arraycopy(serverInit, 0, payload, protocolVersion.length, serverInit.length);
+        offer(new Chunk(TYPE_HANDSHAKE, millis(), payload));
+    }
+
+    /**
+     * Records a copy of {@code data}, which is not modified. Called on the I/O thread.
+     */
+    public void data(ByteBuffer data) {
+        if (stopped || !data.hasRemaining()) {
+            return;
+        }
+        byte[] payload = new byte[data.remaining()];
+        data.get(data.position(), payload);
+        offer(new Chunk(TYPE_DATA, millis(), payload));
+    }
+
+    /**
+     * Ends the recording; what is queued is still written.
+     */
+    public void close() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        pending.add(END);
+    }
+
+    private void offer(Chunk chunk) {
+        if (stopped) {
+            return;
+        }
+        if (pendingBytes.addAndGet(chunk.payload().length) > bufferLimit) {
+            log.warn("Recording {} falls behind by more than {} bytes, stopping it", id, bufferLimit);
+            recorder.recordTruncated();
+            close();
+            return;
+        }
+        pending.add(chunk);
+    }
+
+    private int millis() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    }
+
+    /**
+     * Writes the queued chunks into the buffers, and into the files where those are full. Returns false
+     * once the recording is complete. Runs on the writer thread.
+     */
+    boolean writePending(Path directory, long indexIntervalMillis) throws IOException {
+        Chunk chunk;
+        while ((chunk = pending.poll()) != null) {
+            if (chunk == END) {
+                finish(directory);
+                return false;
+            }
+            pendingBytes.addAndGet(-chunk.payload().length);
+            if (chunk.type() == TYPE_HANDSHAKE) {
+                open(directory);
+            } else if (!hasHandshake) {
+                continue;
+            }
+            append(chunk, indexIntervalMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the buffers to the files. Runs on the writer thread.
+     */
+    void flush() throws IOException {
+        if (data == null) {
+            return;
+        }
+        drain(dataBuffer, data);
+        drain(indexBuffer, index);
+    }
+
+    private void open(Path directory) throws IOException {
+        if (hasHandshake) {
+            return;
+        }
+        data = FileChannel.open(directory.resolve(id + SessionRecorder.DATA_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = FileChannel.open(directory.resolve(id + SessionRecorder.INDEX_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        dataBuffer.put(MAGIC.getBytes(StandardCharsets.US_ASCII)).putLong(startedAt);
+        written = HEADER_LENGTH;
+        hasHandshake = true;
+    }
+
+    private void append(Chunk chunk, long indexIntervalMillis) throws IOException {
+        if (chunk.type() == TYPE_DATA && chunk.millis() >= nextIndexAt) {
+            if (indexBuffer.remaining() < INDEX_ENTRY_LENGTH) {
+                drain(indexBuffer, index);
+            }
+            indexBuffer.putInt(chunk.millis()).putLong(written);
+            nextIndexAt = chunk.millis() - chunk.millis() % indexIntervalMillis + indexIntervalMillis;
+        }
+        if (dataBuffer.remaining() < RECORD_HEADER_LENGTH + chunk.payload().length) {
+            drain(dataBuffer, data);
+        }
+        dataBuffer.put(chunk.type()).putInt(chunk.millis()).putInt(chunk.payload().length);
+        if (dataBuffer.remaining() >= chunk.payload().length) {
+            dataBuffer.put(chunk.payload());
+        } else {
+            // Größer als der Puffer: direkt schreiben
+            drain(dataBuffer, data);
+            ByteBuffer payload = ByteBuffer.wrap(chunk.payload());
+            while (payload.hasRemaining()) {
+                data.write(payload);
+            }
+        }
+        written += RECORD_HEADER_LENGTH + chunk.payload().length;
+        recorder.recordWritten(RECORD_HEADER_LENGTH + chunk.payload().length);
+    }
+
+    private void finish(Path directory) throws IOException {
+        pending.clear();
+        pendingBytes.set(0);
+        if (data == null) {
+            log.debug("Recording {} ended before the RFB handshake, nothing written", id);
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            data.close();
+            index.close();
+        }
+        log.info("Recording {} finished: {} bytes in {}", id, written, directory);
+    }
+
+    /**
+     * Gives up after an I/O error: the queue is dropped and the files are closed as far as written.
+     */
+    void abandon() {
+        stopped = true;
+        pending.clear();
+        pendingBytes.set(0);
+        try {
+            if (data != null) {
+                data.close();
+                index.close();
+            }
+        } catch (IOException e) {
+            log.debug("Error closing recording {}", id, e);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,284 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send path of one noVNC session: bytes from the VNC server are batched into pooled buffers by a
+ * {@link FrameCoalescer}, queued and sent to the WebSocket client by a task on the send executor of the
+ * {@link NoVncSendPath}, so the I/O thread that read them never blocks on a slow client.
+ *
+ * If more than the buffer limit is queued, the {@link OverflowPolicy} applies. A send that takes longer
+ * than the time limit closes the session. Traffic in both directions is counted in the
+ * {@link SessionTrafficStats} of the session. With a {@link BandwidthShaper.Share}, a frame is only sent
+ * once the share allows it; until then it stays queued.
+ */
+@Slf4j
+public class SessionSendQueue {
+
+    private final WebSocketSession session;
+    private final NoVncSendPath sendPath;
+    private final FrameCoalescer coalescer;
+    private final SessionTrafficStats stats;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Deque<ByteBuffer> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Start des laufenden Sendevorgangs (System.nanoTime), 0 = kein Sendevorgang
+    private volatile long sendStartedAt;
+    private volatile VncUpstream upstream;
+    private volatile BandwidthShaper.Share share;
+
+    SessionSendQueue(WebSocketSession session, NoVncSendPath sendPath, OverflowPolicy overflowPolicy) {
+        this.session = session;
+        this.sendPath = sendPath;
+        this.overflowPolicy = overflowPolicy;
+        this.coalescer = new FrameCoalescer(this, sendPath, sendPath.coalescing());
+        this.stats = new SessionTrafficStats(session.getId(),
+                session.getRemoteAddress() != null ? session.getRemoteAddress().toString() : null);
+    }
+
+    /**
+     * Connects the queue to the upstream it throttles under {@link OverflowPolicy#BACKPRESSURE}.
+     */
+    public void bind(VncUpstream upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * Limits what is sent to the client to {@code share}; null sends without limit.
+     */
+    public void shape(BandwidthShaper.Share share) {
+        this.share = share;
+    }
+
+    /**
+     * Queues a copy of {@code data} for the client. Called on the I/O thread of the upstream.
+     */
+    public void enqueue(ByteBuffer data) {
+        if (closed.get()) {
+            return;
+        }
+        long firstByte = stats.recordFirstByte();
+        if (firstByte >= 0) {
+            sendPath.recordFirstByte(firstByte);
+        }
+        coalescer.append(data);
+    }
+
+    /**
+     * Counts a message of the client and passes it to the coalescer, which derives the round-trip time
+     * from it. The buffer is not modified.
+     */
+    public void onClientMessage(ByteBuffer message) {
+        stats.recordReceived(message.remaining());
+        sendPath.recordReceived(message.remaining());
+        if (FrameCoalescer.isFramebufferUpdateRequest(message)) {
+            long handshake = stats.recordHandshakeDone();
+            if (handshake >= 0) {
+                sendPath.recordHandshake(handshake);
+            }
+        }
+        coalescer.onClientMessage(message);
+    }
+
+    /**
+     * Called once the TCP connection to the VNC server is up.
+     */
+    public void connected() {
+        long connect = stats.recordConnected();
+        if (connect >= 0) {
+            sendPath.recordConnect(connect);
+        }
+    }
+
+    public SessionTrafficStats stats() {
+        return stats;
+    }
+
+    /**
+     * Smoothed round-trip time to the client in microseconds, 0 while unknown.
+     */
+    public long roundTripMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(coalescer.smoothedRttNanos());
+    }
+
+    /**
+     * Submits what the coalescer holds back right away.
+     */
+    void flush() {
+        coalescer.flush();
+    }
+
+    public long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public WebSocketSession session() {
+        return session;
+    }
+
+    /**
+     * Closes the queue and releases all buffers that were not sent.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        sendPath.unregister(this);
+        coalescer.close();
+        releaseQueued();
+    }
+
+    /**
+     * Called by the watchdog of the {@link NoVncSendPath}: true if the current send exceeded the limit.
+     */
+    boolean isSendOverdue(long now, long timeLimitNanos) {
+        long startedAt = sendStartedAt;
+        return startedAt != 0 && now - startedAt > timeLimitNanos;
+    }
+
+    /**
+     * Called by the {@link FrameCoalescer} with a filled frame; the queue takes ownership of the buffer.
+     */
+    void submit(ByteBuffer frame) {
+        if (closed.get()) {
+            sendPath.bufferPool().release(frame);
+            return;
+        }
+        sendPath.recordFrame(frame.remaining());
+        queue.add(frame);
+        long queued = queuedBytes.addAndGet(frame.remaining());
+        sendPath.recordQueueDepth(queued);
+        if (queued > sendPath.bufferLimit()) {
+            overflow(queued);
+        }
+        scheduleDrain();
+    }
+
+    void abort(String reason) {
+        log.warn("Closing noVNC session {}: {}", session.getId(), reason);
+        close();
+        VncUpstream current = upstream;
+        if (current != null) {
+            current.close();
+        }
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE.withReason(reason));
+        } catch (IOException e) {
+            log.debug("Error closing WebSocket session {}", session.getId(), e);
+        }
+    }
+
+    private void overflow(long queued) {
+        VncUpstream current = upstream;
+        if (overflowPolicy == OverflowPolicy.BACKPRESSURE) {
+            if (current != null && !current.isReadingPaused()) {
+                sendPath.recordOverflow();
+                log.debug("Send queue of session {} holds {} bytes, pausing VNC reads", session.getId(), queued);
+                current.pauseReading();
+            }
+            return;
+        }
+        sendPath.recordOverflow();
+        abort("send buffer limit of " + sendPath.bufferLimit() + " bytes exceeded");
+    }
+
+    private void scheduleDrain() {
+        if (!closed.get() && !queue.isEmpty() && draining.compareAndSet(false, true)) {
+            sendPath.sendExecutor().execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        boolean held = false;
+        try {
+            ByteBuffer next;
+            while (!closed.get() && (next = queue.poll()) != null) {
+                BandwidthShaper.Share budget = share;
+                long holdNanos = budget != null ? budget.acquire(next.remaining()) : 0;
+                if (holdNanos > 0) {
+                    // Kein Budget: zurück an den Anfang, draining bleibt gesetzt, bis der Timer weitersendet
+                    queue.addFirst(next);
+                    held = resumeAfter(holdNanos);
+                    break;
+                }
+                int length = next.remaining();
+                try {
+                    send(next);
+                } finally {
+                    sendPath.bufferPool().release(next);
+                }
+                long remaining = queuedBytes.addAndGet(-length);
+
+                VncUpstream current = upstream;
+                if (current != null && current.isReadingPaused() && remaining <= sendPath.bufferLimit() / 2) {
+                    current.resumeReading();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!closed.get()) {
+                log.warn("Failed to send binary frame to client {}: {}", session.getId(), e.toString());
+                abort("send failed");
+            }
+        } finally {
+            if (!held) {
+                draining.set(false);
+            }
+        }
+        if (held) {
+            return;
+        }
+        if (closed.get()) {
+            releaseQueued();
+        } else {
+            // Während des Sendens eingereihte Daten
+            scheduleDrain();
+        }
+    }
+
+    private boolean resumeAfter(long nanos) {
+        try {
+            sendPath.flushScheduler().schedule(() -> sendPath.sendExecutor().execute(this::drain), nanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Shutdown
+            return false;
+        }
+    }
+
+    private void send(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        long startedAt = System.nanoTime();
+        sendStartedAt = startedAt;
+        try {
+            session.sendMessage(new BinaryMessage(data));
+        } finally {
+            sendStartedAt = 0;
+            long nanos = System.nanoTime() - startedAt;
+            stats.recordSent(length, nanos);
+            sendPath.recordSend(length, nanos);
+        }
+    }
+
+    private void releaseQueued() {
+        ByteBuffer buffer;
+        while ((buffer = queue.poll()) != null) {
+            queuedBytes.addAndGet(-buffer.remaining());
+            sendPath.bufferPool().release(buffer);
+        }
+    }
+}
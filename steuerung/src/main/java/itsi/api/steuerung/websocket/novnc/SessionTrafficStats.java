@@ -0,0 +1,191 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters of one noVNC session, kept by its {@link SessionSendQueue}.
+ *
+ * "Out" is towards the browser, "in" from the browser to the VNC server. Timings are measured from the
+ * moment the session was opened, which is when the proxy starts connecting to the VNC server:
+ * {@code connect} until the TCP connection is up, {@code firstByte} from then until the VNC server sent
+ * its first bytes, {@code handshake} until the client requested its first framebuffer update, i.e.
+ * finished the RFB handshake.
+ *
+ * Send latencies go into a histogram with power-of-two microsecond buckets, so percentiles are upper
+ * bounds within a factor of two, at a fixed 32 counters per session.
+ *
+ * The throughput estimate is a moving average of bytes per second over sends of at least
+ * {@value #THROUGHPUT_MIN_BYTES} bytes. A send returns once the socket buffer took the data, so the
+ * estimate is high while the link keeps up and drops to the rate the link drains once it does not.
+ */
+public class SessionTrafficStats {
+
+    private static final int LATENCY_BUCKETS = 32;
+    private static final int THROUGHPUT_MIN_BYTES = 4096;
+    private static final double THROUGHPUT_GAIN = 0.125;
+
+    private final String sessionId;
+    private final String remoteAddress;
+    private final Instant openedAt = Instant.now();
+    private final long openedNanos = System.nanoTime();
+
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder framesIn = new LongAdder();
+    private final AtomicLongArray sendLatencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+    private volatile long maxSendNanos;
+    // 0 = noch keine Messung; nur vom Sende-Task geschrieben
+    private volatile long throughput;
+
+    // -1 = noch nicht eingetreten
+    private volatile long connectNanos = -1;
+    private volatile long firstByteNanos = -1;
+    private volatile long handshakeNanos = -1;
+
+    SessionTrafficStats(String sessionId, String remoteAddress) {
+        this.sessionId = sessionId;
+        this.remoteAddress = remoteAddress;
+    }
+
+    void recordSent(int bytes, long nanos) {
+        bytesOut.add(bytes);
+        framesOut.increment();
+        sendLatencyBuckets.incrementAndGet(bucket(nanos));
+        if (nanos > maxSendNanos) {
+            maxSendNanos = nanos;
+        }
+        if (bytes >= THROUGHPUT_MIN_BYTES) {
+            long sample = (long) (bytes * 1e9 / Math.max(1, nanos));
+            long current = throughput;
+            throughput = current == 0 ? sample : (long) (current + THROUGHPUT_GAIN * (sample - current));
+        }
+    }
+
+    void recordReceived(int bytes) {
+        bytesIn.add(bytes);
+        framesIn.increment();
+    }
+
+    /**
+     * @return the connect duration, or -1 if it was already recorded
+     */
+    synchronized long recordConnected() {
+        if (connectNanos >= 0) {
+            return -1;
+        }
+        connectNanos = System.nanoTime() - openedNanos;
+        return connectNanos;
+    }
+
+    /**
+     * @return the time from connect to the first byte, or -1 if it was already recorded or the
+     *         connection is not up yet
+     */
+    synchronized long recordFirstByte() {
+        if (firstByteNanos >= 0 || connectNanos < 0) {
+            return -1;
+        }
+        firstByteNanos = System.nanoTime() - openedNanos - connectNanos;
+        return firstByteNanos;
+    }
+
+    /**
+     * @return the handshake duration, or -1 if it was already recorded
+     */
+    synchronized long recordHandshakeDone() {
+        if (handshakeNanos >= 0) {
+            return -1;
+        }
+        handshakeNanos = System.nanoTime() - openedNanos;
+        return handshakeNanos;
+    }
+
+    public String sessionId() {
+        return sessionId;
+    }
+
+    public long bytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long bytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long framesOut() {
+        return framesOut.sum();
+    }
+
+    public long framesIn() {
+        return framesIn.sum();
+    }
+
+    /**
+     * Estimated throughput towards the browser in bytes per second, 0 while unknown.
+     */
+    public long throughputBytesPerSecond() {
+        return throughput;
+    }
+
+    /**
+     * Upper bound of the send latency at {@code quantile} in microseconds, 0 without sends.
+     */
+    public long sendLatencyMicros(double quantile) {
+        long[] counts = new long[LATENCY_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = sendLatencyBuckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return 1L << i;
+            }
+        }
+        return 1L << (LATENCY_BUCKETS - 1);
+    }
+
+    public Map<String, Object> toMap() {
+        long ageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedNanos);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessionId", sessionId);
+        stats.put("remoteAddress", remoteAddress);
+        stats.put("openedAt", openedAt.toString());
+        stats.put("bytesOut", bytesOut());
+        stats.put("framesOut", framesOut());
+        stats.put("bytesIn", bytesIn());
+        stats.put("framesIn", framesIn());
+        stats.put("bytesOutPerSecond", ageMillis > 0 ? bytesOut() * 1000 / ageMillis : 0);
+        stats.put("throughputBytesPerSecond", throughputBytesPerSecond());
+        stats.put("sendLatencyP50Micros", sendLatencyMicros(0.5));
+        stats.put("sendLatencyP99Micros", sendLatencyMicros(0.99));
+        stats.put("sendLatencyMaxMicros", TimeUnit.NANOSECONDS.toMicros(maxSendNanos));
+        stats.put("connectMillis", toMillis(connectNanos));
+        stats.put("firstByteMillis", toMillis(firstByteNanos));
+        stats.put("handshakeMillis", toMillis(handshakeNanos));
+        return stats;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1e6;
+    }
+
+    // Bucket i enthält Latenzen bis 2^i µs
+    private static int bucket(long nanos) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,115 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The {@link SpectatorSource}s of all watched users: the first spectator of a user opens one VNC
+ * connection, further spectators share it, and it is closed when the last one leaves.
+ *
+ * Meters: {@code novnc.spectate.sources} and {@code novnc.spectate.viewers}.
+ */
+@Component
+@Slf4j
+public class SpectatorHub {
+
+    private final VncProxyEngine proxyEngine;
+    private final long frameIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // Geschützt durch this
+    private final Map<Long, SpectatorSource> sources = new HashMap<>();
+
+    public SpectatorHub(VncProxyEngine proxyEngine,
+                        MeterRegistry meterRegistry,
+                        @Value("${novnc.spectate.frame-interval:100}") long frameIntervalMillis) {
+        this.proxyEngine = proxyEngine;
+        this.frameIntervalMillis = frameIntervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-spectate");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("novnc.spectate.sources", this, SpectatorHub::sources).register(meterRegistry);
+        Gauge.builder("novnc.spectate.viewers", this, SpectatorHub::viewers).register(meterRegistry);
+    }
+
+    /**
+     * The source for {@code watchedUserId}, connecting to {@code host:port} if there is none yet.
+     * Completes once the VNC handshake is done.
+     */
+    public synchronized CompletableFuture<SpectatorSource> source(Long watchedUserId, String host, int port, String password) {
+        SpectatorSource existing = sources.get(watchedUserId);
+        if (existing != null && existing.address().equals(host + ":" + port)) {
+            return existing.ready();
+        }
+        if (existing != null) {
+            // Live-Environment ist umgezogen
+            sources.remove(watchedUserId);
+            existing.close();
+        }
+        SpectatorSource source = new SpectatorSource(host + ":" + port, password, scheduler, frameIntervalMillis,
+                closed -> remove(watchedUserId, closed));
+        try {
+            source.bind(proxyEngine.connect(host, port, source));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        sources.put(watchedUserId, source);
+        log.info("Opened spectator connection to {} for user {}", source.address(), watchedUserId);
+        return source.ready();
+    }
+
+    /**
+     * Removes a viewer from its source and closes the source if nobody watches anymore.
+     */
+    public void leave(SpectatorSource source, SessionSendQueue viewer) {
+        if (source.leave(viewer)) {
+            synchronized (this) {
+                // Erneut prüfen, ein neuer Zuschauer kann inzwischen beigetreten sein
+                if (source.viewers() > 0) {
+                    return;
+                }
+                sources.values().remove(source);
+            }
+            source.close();
+        }
+    }
+
+    public synchronized int sources() {
+        return sources.size();
+    }
+
+    public synchronized int viewers() {
+        return sources.values().stream().mapToInt(SpectatorSource::viewers).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<SpectatorSource> all;
+        synchronized (this) {
+            all = new ArrayList<>(sources.values());
+            sources.clear();
+        }
+        all.forEach(SpectatorSource::close);
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void remove(Long watchedUserId, SpectatorSource source) {
+        sources.remove(watchedUserId, source);
+    }
+}
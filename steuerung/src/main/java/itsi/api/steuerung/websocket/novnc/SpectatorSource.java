@@ -0,0 +1,246 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One VNC connection whose framebuffer updates are fanned out to any number of read-only viewers.
+ *
+ * The connection is opened by the proxy itself ({@link RfbClientHandshake}) with the pixel format noVNC
+ * uses and only the stateless encodings Raw and CopyRect, so a viewer can join between any two
+ * messages; {@link RfbServerMessageParser} finds those boundaries. A joining viewer gets a full
+ * framebuffer update, afterwards all viewers receive the same incremental ones, requested at most once
+ * per frame interval.
+ *
+ * Every viewer has its own {@link SessionSendQueue}; the data is copied into each of them on the I/O
+ * thread and nothing waits for a viewer, so a slow one is disconnected by its queue instead of holding
+ * back the others.
+ */
+@Slf4j
+public class SpectatorSource implements UpstreamListener {
+
+    // Das Format, das noVNC per SetPixelFormat verlangt: 32 bpp, Tiefe 24, Little Endian, True Colour, Shifts 0/8/16
+    static final byte[] PIXEL_FORMAT = {32, 24, 0, 1, 0, (byte) 255, 0, (byte) 255, 0, (byte) 255, 0, 8, 16, 0, 0, 0};
+    static final byte[] PROTOCOL_VERSION = "RFB 003.008\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final String address;
+    private final RfbClientHandshake handshake;
+    private final ScheduledExecutorService scheduler;
+    private final long frameIntervalNanos;
+    private final Consumer<SpectatorSource> onClosed;
+    private final CompletableFuture<SpectatorSource> ready = new CompletableFuture<>();
+
+    // Geschützt durch this
+    private VncUpstream upstream;
+    private RfbServerMessageParser parser;
+    private final List<SessionSendQueue> viewers = new ArrayList<>();
+    private final List<SessionSendQueue> joining = new ArrayList<>();
+    private boolean fullUpdateWanted;
+    private boolean requestScheduled;
+    private long lastRequestAt;
+    private boolean closed;
+
+    SpectatorSource(String address, String password, ScheduledExecutorService scheduler,
+                    long frameIntervalMillis, Consumer<SpectatorSource> onClosed) {
+        this.address = address;
+        this.handshake = new RfbClientHandshake(password);
+        this.scheduler = scheduler;
+        this.frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(frameIntervalMillis);
+        this.onClosed = onClosed;
+    }
+
+    synchronized void bind(VncUpstream upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * Completes once the handshake with the VNC server is done, exceptionally if it failed.
+     */
+    public CompletableFuture<SpectatorSource> ready() {
+        return ready;
+    }
+
+    /**
+     * The handshake a joining viewer's browser goes through, answered locally with the current
+     * {@link #serverInit()} of this connection.
+     */
+    public RfbResumeHandshake resumeHandshake() {
+        return new RfbResumeHandshake(PROTOCOL_VERSION, serverInit());
+    }
+
+    /**
+     * ServerInit for a viewer: the current desktop size and the pixel format of this connection.
+     */
+    public synchronized byte[] serverInit() {
+        byte[] name = handshake.name().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(24 + name.length)
+                .putShort((short) parser.width())
+                .putShort((short) parser.height())
+                .put(PIXEL_FORMAT)
+                .putInt(name.length)
+                .put(name)
+                .array();
+    }
+
+    /**
+     * Adds a viewer whose RFB handshake is done. It receives messages from the next message boundary on,
+     * starting with a full framebuffer update.
+     */
+    public synchronized void join(SessionSendQueue viewer) {
+        if (closed) {
+            viewer.abort("VNC connection closed");
+            return;
+        }
+        if (parser.atBoundary()) {
+            viewers.add(viewer);
+        } else {
+            joining.add(viewer);
+        }
+        fullUpdateWanted = true;
+        requestUpdate();
+    }
+
+    /**
+     * Removes a viewer; returns true if it was the last one.
+     */
+    public synchronized boolean leave(SessionSendQueue viewer) {
+        viewers.remove(viewer);
+        joining.remove(viewer);
+        return viewers.isEmpty() && joining.isEmpty();
+    }
+
+    public synchronized int viewers() {
+        return viewers.size() + joining.size();
+    }
+
+    public String address() {
+        return address;
+    }
+
+    public void close() {
+        VncUpstream current;
+        synchronized (this) {
+            current = upstream;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public synchronized void onData(VncUpstream upstream, ByteBuffer data) {
+        if (parser == null) {
+            this.upstream = upstream;
+            ByteBuffer reply = handshake.onServerData(data);
+            if (reply.hasRemaining()) {
+                upstream.write(reply);
+            }
+            if (!handshake.isDone()) {
+                return;
+            }
+            parser = new RfbServerMessageParser(BYTES_PER_PIXEL, handshake.width(), handshake.height());
+            upstream.write(setPixelFormat(PIXEL_FORMAT));
+            upstream.write(setEncodings(RfbServerMessageParser.ENCODING_COPY_RECT, RfbServerMessageParser.ENCODING_RAW,
+                    RfbServerMessageParser.ENCODING_DESKTOP_SIZE));
+            log.debug("Spectator connection to {} ready, {}x{} '{}'", address, handshake.width(), handshake.height(), handshake.name());
+            ready.complete(this);
+        }
+        while (data.hasRemaining()) {
+            int start = data.position();
+            boolean boundary = parser.advance(data);
+            ByteBuffer chunk = data.duplicate();
+            chunk.position(start).limit(data.position());
+            for (SessionSendQueue viewer : viewers) {
+                viewer.enqueue(chunk.duplicate());
+            }
+            if (boundary) {
+                if (!joining.isEmpty()) {
+                    viewers.addAll(joining);
+                    joining.clear();
+                }
+                if (parser.updateComplete()) {
+                    requestScheduled = false;
+                    requestUpdate();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onClosed(VncUpstream upstream, Throwable cause) {
+        List<SessionSendQueue> all;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<>(viewers);
+            all.addAll(joining);
+            viewers.clear();
+            joining.clear();
+        }
+        // Erst austragen, damit ein Fehlschlag von ready() keine tote Quelle mehr findet
+        onClosed.accept(this);
+        if (!ready.isDone()) {
+            ready.completeExceptionally(cause != null ? cause : new IllegalStateException("VNC server closed the connection"));
+        }
+        if (cause != null) {
+            log.warn("Spectator connection to {} failed: {}", address, cause.toString());
+        }
+        all.forEach(viewer -> viewer.abort("VNC connection closed"));
+    }
+
+    /**
+     * Asks for the next update unless one is outstanding; not more often than the frame interval.
+     */
+    private void requestUpdate() {
+        if (closed || parser == null || (requestScheduled && !fullUpdateWanted)) {
+            return;
+        }
+        long wait = lastRequestAt + frameIntervalNanos - System.nanoTime();
+        if (wait > 0 && !fullUpdateWanted) {
+            requestScheduled = true;
+            scheduler.schedule(this::sendRequest, wait, TimeUnit.NANOSECONDS);
+            return;
+        }
+        requestScheduled = true;
+        sendRequest();
+    }
+
+    private synchronized void sendRequest() {
+        if (closed) {
+            return;
+        }
+        boolean incremental = !fullUpdateWanted;
+        fullUpdateWanted = false;
+        lastRequestAt = System.nanoTime();
+        upstream.write(framebufferUpdateRequest(incremental, parser.width(), parser.height()));
+    }
+
+    static ByteBuffer setPixelFormat(byte[] pixelFormat) {
+        return ByteBuffer.allocate(20).put((byte) 0).put(new byte[3]).put(pixelFormat).flip();
+    }
+
+    static ByteBuffer setEncodings(int... encodings) {
+        ByteBuffer message = ByteBuffer.allocate(4 + 4 * encodings.length)
+                .put((byte) 2).put((byte) 0).putShort((short) encodings.length);
+        for (int encoding : encodings) {
+            message.putInt(encoding);
+        }
+        return message.flip();
+    }
+
+    static ByteBuffer framebufferUpdateRequest(boolean incremental, int width, int height) {
+        return ByteBuffer.allocate(10)
+                .put((byte) 3).put((byte) (incremental ? 1 : 0))
+                .putShort((short) 0).putShort((short) 0)
+                .putShort((short) width).putShort((short) height)
+                .flip();
+    }
+}
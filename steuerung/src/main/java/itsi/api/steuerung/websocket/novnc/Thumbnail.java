@@ -0,0 +1,19 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A JPEG thumbnail of one user's screen, already framed as it is sent to every viewer:
+ * {@code [u64 userId][u16 width][u16 height][JPEG]}.
+ */
+record Thumbnail(long userId, int width, int height, ByteBuffer frame) {
+
+    static final int HEADER_LENGTH = 12;
+
+    static Thumbnail of(long userId, int width, int height, byte[] jpeg) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + jpeg.length)
+                .putLong(userId).putShort((short) width).putShort((short) height).put(jpeg)
+                .flip();
+        return new Thumbnail(userId, width, height, frame.asReadOnlyBuffer());
+    }
+}
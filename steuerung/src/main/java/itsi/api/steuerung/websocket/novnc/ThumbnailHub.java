@@ -0,0 +1,266 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Screen thumbnails of watched users for grid views: one {@link ThumbnailSource} per user, shared by
+ * all {@link ThumbnailViewer}s that watch that user, closed when the last one leaves.
+ *
+ * The latest thumbnail of every user is kept, so a new viewer sees all screens at once instead of
+ * waiting for the next change. A connection that closes while someone still watches is opened again
+ * after {@code novnc.thumbnail.retry-delay} ms.
+ *
+ * Meters: {@code novnc.thumbnail.sources}, {@code novnc.thumbnail.viewers}, {@code novnc.thumbnail.encode}
+ * (scale and JPEG), {@code novnc.thumbnail.size}, {@code novnc.thumbnail.sent} and
+ * {@code novnc.thumbnail.skipped} (replaced by a newer thumbnail before it was sent).
+ */
+@Component
+@Slf4j
+public class ThumbnailHub {
+
+    private final VncProxyEngine proxyEngine;
+    private final long intervalMillis;
+    private final int maxWidth;
+    private final float quality;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService encoder;
+    private final ExecutorService sender;
+
+    private final Timer encodeTime;
+    private final DistributionSummary imageSize;
+    private final Counter sent;
+    private final Counter skipped;
+
+    // Geschützt durch this
+    private final Map<Long, Watched> watched = new HashMap<>();
+    private final Set<ThumbnailViewer> viewers = new HashSet<>();
+
+    private static final class Watched {
+        final String host;
+        final int port;
+        final String password;
+        final Set<ThumbnailViewer> viewers = new HashSet<>();
+        ThumbnailSource source;
+        Thumbnail latest;
+
+        Watched(String host, int port, String password) {
+            this.host = host;
+            this.port = port;
+            this.password = password;
+        }
+
+        String address() {
+            return host + ":" + port;
+        }
+    }
+
+    public ThumbnailHub(VncProxyEngine proxyEngine,
+                        MeterRegistry meterRegistry,
+                        @Value("${novnc.thumbnail.interval:1000}") long intervalMillis,
+                        @Value("${novnc.thumbnail.width:240}") int maxWidth,
+                        @Value("${novnc.thumbnail.quality:0.6}") float quality,
+                        @Value("${novnc.thumbnail.retry-delay:5000}") long retryDelayMillis,
+                        @Value("${novnc.thumbnail.threads:2}") int threads) {
+        this.proxyEngine = proxyEngine;
+        this.intervalMillis = intervalMillis;
+        this.maxWidth = maxWidth;
+        this.quality = quality;
+        this.retryDelayMillis = retryDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-thumbnail");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger encoders = new AtomicInteger();
+        this.encoder = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "novnc-thumbnail-encode-" + encoders.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger senders = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "novnc-thumbnail-send-" + senders.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.encodeTime = Timer.builder("novnc.thumbnail.encode").register(meterRegistry);
+        this.imageSize = DistributionSummary.builder("novnc.thumbnail.size").baseUnit("bytes").register(meterRegistry);
+        this.sent = Counter.builder("novnc.thumbnail.sent").register(meterRegistry);
+        this.skipped = Counter.builder("novnc.thumbnail.skipped").register(meterRegistry);
+        Gauge.builder("novnc.thumbnail.sources", this, ThumbnailHub::sources).register(meterRegistry);
+        Gauge.builder("novnc.thumbnail.viewers", this, ThumbnailHub::viewers).register(meterRegistry);
+    }
+
+    /**
+     * A new, empty thumbnail stream for {@code session}.
+     */
+    public synchronized ThumbnailViewer open(WebSocketSession session) {
+        ThumbnailViewer viewer = new ThumbnailViewer(session, sender, sent, skipped);
+        viewers.add(viewer);
+        return viewer;
+    }
+
+    /**
+     * Adds {@code userId}, whose VNC server is at {@code host:port}, to the thumbnails of {@code viewer}.
+     * The viewer gets the latest thumbnail right away if there is one.
+     */
+    public void watch(ThumbnailViewer viewer, Long userId, String host, int port, String password) {
+        Thumbnail latest;
+        ThumbnailSource moved = null;
+        synchronized (this) {
+            if (viewer.isClosed() || !viewers.contains(viewer)) {
+                return;
+            }
+            Watched entry = watched.get(userId);
+            if (entry == null || !entry.address().equals(host + ":" + port)) {
+                Watched previous = entry;
+                entry = new Watched(host, port, password);
+                if (previous != null) {
+                    // Live-Environment ist umgezogen
+                    entry.viewers.addAll(previous.viewers);
+                    moved = previous.source;
+                }
+                watched.put(userId, entry);
+                connect(userId, entry);
+            }
+            entry.viewers.add(viewer);
+            viewer.watched().add(userId);
+            latest = entry.latest;
+        }
+        if (moved != null) {
+            moved.close();
+        }
+        if (latest != null) {
+            viewer.offer(latest);
+        }
+    }
+
+    /**
+     * Ends the stream of {@code viewer} and closes the connections nobody watches anymore.
+     */
+    public void close(ThumbnailViewer viewer) {
+        viewer.close();
+        List<ThumbnailSource> unwatched = new ArrayList<>();
+        synchronized (this) {
+            viewers.remove(viewer);
+            for (Long userId : viewer.watched()) {
+                Watched entry = watched.get(userId);
+                if (entry != null && entry.viewers.remove(viewer) && entry.viewers.isEmpty()) {
+                    watched.remove(userId);
+                    if (entry.source != null) {
+                        unwatched.add(entry.source);
+                    }
+                }
+            }
+        }
+        unwatched.forEach(ThumbnailSource::close);
+    }
+
+    public synchronized int sources() {
+        return watched.size();
+    }
+
+    public synchronized int viewers() {
+        return viewers.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<ThumbnailSource> all = new ArrayList<>();
+        synchronized (this) {
+            watched.values().forEach(entry -> {
+                if (entry.source != null) {
+                    all.add(entry.source);
+                }
+            });
+            watched.clear();
+            viewers.forEach(ThumbnailViewer::close);
+            viewers.clear();
+        }
+        all.forEach(ThumbnailSource::close);
+        scheduler.shutdownNow();
+        encoder.shutdownNow();
+        sender.shutdownNow();
+    }
+
+    /**
+     * Opens the connection of {@code entry}; called with the lock held.
+     */
+    private void connect(Long userId, Watched entry) {
+        ThumbnailSource source = new ThumbnailSource(userId, entry.address(), entry.password, scheduler, encoder,
+                intervalMillis, maxWidth, quality, encodeTime,
+                thumbnail -> published(userId, entry, thumbnail),
+                (closed, cause) -> closed(userId, entry, closed));
+        entry.source = source;
+        try {
+            source.bind(proxyEngine.connect(entry.host, entry.port, source));
+            log.debug("Opened thumbnail connection to {} for user {}", entry.address(), userId);
+        } catch (IOException e) {
+            log.warn("Cannot open thumbnail connection to {} for user {}: {}", entry.address(), userId, e.toString());
+            entry.source = null;
+            scheduleRetry(userId, entry);
+        }
+    }
+
+    private void published(Long userId, Watched entry, Thumbnail thumbnail) {
+        imageSize.record(thumbnail.frame().remaining());
+        List<ThumbnailViewer> receivers;
+        synchronized (this) {
+            if (watched.get(userId) != entry) {
+                return;
+            }
+            entry.latest = thumbnail;
+            receivers = new ArrayList<>(entry.viewers);
+        }
+        receivers.forEach(viewer -> viewer.offer(thumbnail));
+    }
+
+    private synchronized void closed(Long userId, Watched entry, ThumbnailSource source) {
+        if (entry.source != source) {
+            return;
+        }
+        entry.source = null;
+        if (watched.get(userId) == entry && !entry.viewers.isEmpty()) {
+            scheduleRetry(userId, entry);
+        }
+    }
+
+    private void scheduleRetry(Long userId, Watched entry) {
+        try {
+            scheduler.schedule(() -> retry(userId, entry), retryDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutdown
+        }
+    }
+
+    private synchronized void retry(Long userId, Watched entry) {
+        if (watched.get(userId) == entry && entry.source == null && !entry.viewers.isEmpty()) {
+            connect(userId, entry);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A VNC connection that keeps the screen of one user as an {@link RfbFramebuffer} and turns it into
+ * JPEG thumbnails.
+ *
+ * The connection is opened by the proxy itself ({@link RfbClientHandshake}) at one byte per pixel with
+ * Raw and CopyRect only. After each complete FramebufferUpdate that changed something, the screen is
+ * scaled down and encoded on the encoder executor; the next incremental update is only requested once
+ * that is done and the interval has passed, so an idle or slow encoder never queues up work.
+ */
+@Slf4j
+class ThumbnailSource implements UpstreamListener {
+
+    private final long userId;
+    private final String address;
+    private final RfbClientHandshake handshake;
+    private final ScheduledExecutorService scheduler;
+    private final Executor encoder;
+    private final long intervalNanos;
+    private final int maxWidth;
+    private final float quality;
+    private final Timer encodeTime;
+    private final Consumer<Thumbnail> onThumbnail;
+    private final BiConsumer<ThumbnailSource, Throwable> onClosed;
+
+    // Geschützt durch this
+    private VncUpstream upstream;
+    private RfbFramebuffer framebuffer;
+    private RfbServerMessageParser parser;
+    private long lastRequestAt;
+    private boolean closed;
+
+    ThumbnailSource(long userId, String address, String password, ScheduledExecutorService scheduler, Executor encoder,
+                    long intervalMillis, int maxWidth, float quality, Timer encodeTime,
+                    Consumer<Thumbnail> onThumbnail, BiConsumer<ThumbnailSource, Throwable> onClosed) {
+        this.userId = userId;
+        this.address = address;
+        this.handshake = new RfbClientHandshake(password);
+        this.scheduler = scheduler;
+        this.encoder = encoder;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxWidth = maxWidth;
+        this.quality = quality;
+        this.encodeTime = encodeTime;
+        this.onThumbnail = onThumbnail;
+        this.onClosed = onClosed;
+    }
+
+    synchronized void bind(VncUpstream upstream) {
+        this.upstream = upstream;
+    }
+
+    String address() {
+        return address;
+    }
+
+    void close() {
+        VncUpstream current;
+        synchronized (this) {
+            current = upstream;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public synchronized void onData(VncUpstream upstream, ByteBuffer data) {
+        if (parser == null) {
+            this.upstream = upstream;
+            ByteBuffer reply = handshake.onServerData(data);
+            if (reply.hasRemaining()) {
+                upstream.write(reply);
+            }
+            if (!handshake.isDone()) {
+                return;
+            }
+            framebuffer = new RfbFramebuffer(handshake.width(), handshake.height());
+            parser = new RfbServerMessageParser(1, handshake.width(), handshake.height(), framebuffer);
+            upstream.write(SpectatorSource.setPixelFormat(RfbFramebuffer.PIXEL_FORMAT));
+            upstream.write(SpectatorSource.setEncodings(RfbServerMessageParser.ENCODING_COPY_RECT,
+                    RfbServerMessageParser.ENCODING_RAW, RfbServerMessageParser.ENCODING_DESKTOP_SIZE));
+            log.debug("Thumbnail connection to {} ready, {}x{}", address, handshake.width(), handshake.height());
+            sendRequest(false);
+        }
+        while (data.hasRemaining()) {
+            if (parser.advance(data) && parser.updateComplete()) {
+                updateReceived();
+            }
+        }
+    }
+
+    @Override
+    public void onClosed(VncUpstream upstream, Throwable cause) {
+        synchronized (this) {
+            closed = true;
+        }
+        if (cause != null) {
+            log.debug("Thumbnail connection to {} closed: {}", address, cause.toString());
+        }
+        onClosed.accept(this, cause);
+    }
+
+    private void updateReceived() {
+        if (!framebuffer.takeChanged()) {
+            scheduleRequest();
+            return;
+        }
+        try {
+            encoder.execute(this::encode);
+        } catch (RejectedExecutionException e) {
+            // Shutdown
+        }
+    }
+
+    private void encode() {
+        long start = System.nanoTime();
+        BufferedImage image;
+        synchronized (this) {
+            // Bis zur nächsten Anfrage ändert sich der Framebuffer nicht
+            image = closed ? null : framebuffer.thumbnail(maxWidth);
+        }
+        try {
+            if (image != null) {
+                onThumbnail.accept(Thumbnail.of(userId, image.getWidth(), image.getHeight(), jpeg(image, quality)));
+                encodeTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot encode thumbnail of {}: {}", address, e.toString());
+        } finally {
+            scheduleRequest();
+        }
+    }
+
+    private synchronized void scheduleRequest() {
+        if (closed) {
+            return;
+        }
+        long wait = Math.max(0, lastRequestAt + intervalNanos - System.nanoTime());
+        try {
+            scheduler.schedule(() -> sendRequest(true), wait, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutdown
+        }
+    }
+
+    private synchronized void sendRequest(boolean incremental) {
+        if (closed) {
+            return;
+        }
+        lastRequestAt = System.nanoTime();
+        upstream.write(SpectatorSource.framebufferUpdateRequest(incremental, parser.width(), parser.height()));
+    }
+
+    static byte[] jpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
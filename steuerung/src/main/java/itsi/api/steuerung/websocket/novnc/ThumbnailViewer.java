@@ -0,0 +1,104 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The thumbnail stream of one WebSocket session, e.g. a teacher's grid of all student screens.
+ *
+ * Only the latest thumbnail per user waits to be sent: a newer one replaces it, so a viewer that
+ * cannot keep up gets fewer frames instead of a growing backlog. At most one send per viewer is in
+ * progress on the shared sender executor.
+ */
+@Slf4j
+public class ThumbnailViewer {
+
+    private final WebSocketSession session;
+    private final Executor sender;
+    private final Counter sent;
+    private final Counter skipped;
+    private final Map<Long, Thumbnail> pending = new ConcurrentHashMap<>();
+    private final Set<Long> watched = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private volatile boolean closed;
+
+    ThumbnailViewer(WebSocketSession session, Executor sender, Counter sent, Counter skipped) {
+        this.session = session;
+        this.sender = sender;
+        this.sent = sent;
+        this.skipped = skipped;
+    }
+
+    public String id() {
+        return session.getId();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Users whose thumbnails this viewer receives.
+     */
+    Set<Long> watched() {
+        return watched;
+    }
+
+    void offer(Thumbnail thumbnail) {
+        if (closed) {
+            return;
+        }
+        if (pending.put(thumbnail.userId(), thumbnail) != null) {
+            skipped.increment();
+        }
+        scheduleSend();
+    }
+
+    void close() {
+        closed = true;
+        pending.clear();
+    }
+
+    private void scheduleSend() {
+        if (!sending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sender.execute(this::send);
+        } catch (RejectedExecutionException e) {
+            sending.set(false);
+        }
+    }
+
+    private void send() {
+        try {
+            for (Long userId : pending.keySet()) {
+                Thumbnail thumbnail = pending.remove(userId);
+                if (thumbnail == null || closed) {
+                    continue;
+                }
+                session.sendMessage(new BinaryMessage(thumbnail.frame().duplicate()));
+                sent.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Cannot send thumbnail to {}: {}", session.getId(), e.toString());
+            close();
+        } finally {
+            sending.set(false);
+        }
+        // Während des Sendens eingetroffen
+        if (!pending.isEmpty() && !closed) {
+            scheduleSend();
+        }
+    }
+}
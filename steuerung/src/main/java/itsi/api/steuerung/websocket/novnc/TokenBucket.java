@@ -0,0 +1,64 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte budget refilled at a fixed rate, up to {@code capacity} bytes. A send is allowed while the budget
+ * is not negative and may overdraw it, so frames larger than the capacity pass as well; the next send
+ * then waits until the debt is paid off. A rate of 0 means unlimited.
+ */
+final class TokenBucket {
+
+    private final long capacity;
+
+    // Geschützt durch this
+    private long bytesPerSecond;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(long bytesPerSecond, long capacity, long now) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.refilledAt = now;
+    }
+
+    synchronized long rate() {
+        return bytesPerSecond;
+    }
+
+    synchronized void setRate(long bytesPerSecond, long now) {
+        refill(now);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Nanoseconds until a send is allowed, 0 if it is allowed now.
+     */
+    synchronized long waitNanos(long now) {
+        if (bytesPerSecond == 0) {
+            return 0;
+        }
+        refill(now);
+        if (tokens >= 0) {
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil(-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond));
+    }
+
+    synchronized void take(int bytes, long now) {
+        if (bytesPerSecond == 0) {
+            return;
+        }
+        refill(now);
+        tokens -= bytes;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - refilledAt;
+        refilledAt = now;
+        if (elapsed > 0 && bytesPerSecond > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed * bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callbacks of a {@link VncUpstream}. They run on the I/O threads of the {@link VncProxyEngine} and should
+ * return quickly.
+ */
+public interface UpstreamListener {
+
+    /**
+     * The TCP connection to the VNC server is established.
+     */
+    default void onConnected(VncUpstream upstream) {
+    }
+
+    /**
+     * Bytes received from the VNC server. {@code data} is a pooled buffer that is only valid during the
+     * call; the next read into it starts after the method returns.
+     */
+    void onData(VncUpstream upstream, ByteBuffer data);
+
+    /**
+     * The connection is gone: {@code cause} is {@code null} if the VNC server closed it or
+     * {@link VncUpstream#close()} was called, otherwise the connect or I/O error.
+     */
+    void onClosed(VncUpstream upstream, Throwable cause);
+}
@@ -0,0 +1,81 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Passes the callbacks of a {@link VncUpstream} on to a listener that can be swapped, so the connection
+ * can outlive the noVNC session it was opened for.
+ *
+ * While detached, data from the VNC server is dropped and a closed connection runs the callback given to
+ * {@link #detach}, also if it was already closed at that point.
+ */
+public class UpstreamRelay implements UpstreamListener {
+
+    private volatile UpstreamListener target;
+    private volatile long lastDataAt = System.nanoTime();
+
+    // Geschützt durch this
+    private Runnable onDetachedClose;
+    private boolean closed;
+
+    public UpstreamRelay(UpstreamListener target) {
+        this.target = target;
+    }
+
+    public synchronized void attach(UpstreamListener target) {
+        this.target = target;
+        this.onDetachedClose = null;
+    }
+
+    public void detach(Runnable onClose) {
+        boolean alreadyClosed;
+        synchronized (this) {
+            target = null;
+            onDetachedClose = onClose;
+            alreadyClosed = closed;
+        }
+        if (alreadyClosed) {
+            onClose.run();
+        }
+    }
+
+    /**
+     * Nanoseconds since the VNC server last sent something.
+     */
+    public long idleNanos() {
+        return System.nanoTime() - lastDataAt;
+    }
+
+    @Override
+    public void onConnected(VncUpstream upstream) {
+        UpstreamListener current = target;
+        if (current != null) {
+            current.onConnected(upstream);
+        }
+    }
+
+    @Override
+    public void onData(VncUpstream upstream, ByteBuffer data) {
+        lastDataAt = System.nanoTime();
+        UpstreamListener current = target;
+        if (current != null) {
+            current.onData(upstream, data);
+        }
+    }
+
+    @Override
+    public void onClosed(VncUpstream upstream, Throwable cause) {
+        UpstreamListener current;
+        Runnable callback;
+        synchronized (this) {
+            closed = true;
+            current = target;
+            callback = onDetachedClose;
+        }
+        if (current != null) {
+            current.onClosed(upstream, cause);
+        } else if (callback != null) {
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens {@link VncUpstream} connections for the noVNC proxy.
+ *
+ * All connections share one {@link AsynchronousChannelGroup} with a small fixed number of I/O threads
+ * and one {@link DirectBufferPool}, so a session costs one read buffer plus its queued writes instead
+ * of a thread and a fresh array per frame.
+ */
+@Component
+@Slf4j
+public class VncProxyEngine {
+
+    private final AsynchronousChannelGroup channelGroup;
+    private final DirectBufferPool bufferPool;
+    private final boolean tcpNoDelay;
+    private final int receiveBufferSize;
+    private final int sendBufferSize;
+
+    public VncProxyEngine(@Value("${novnc.proxy.io-threads:0}") int ioThreads,
+                          @Value("${novnc.proxy.buffer-size:65536}") int bufferSize,
+                          @Value("${novnc.proxy.pooled-buffers:256}") int pooledBuffers,
+                          @Value("${novnc.proxy.tcp-no-delay:true}") boolean tcpNoDelay,
+                          @Value("${novnc.proxy.receive-buffer-size:0}") int receiveBufferSize,
+                          @Value("${novnc.proxy.send-buffer-size:0}") int sendBufferSize) throws IOException {
+        int threads = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+        this.channelGroup = AsynchronousChannelGroup.withFixedThreadPool(threads, ioThreadFactory());
+        this.bufferPool = new DirectBufferPool(bufferSize, pooledBuffers);
+        this.tcpNoDelay = tcpNoDelay;
+        this.receiveBufferSize = receiveBufferSize;
+        this.sendBufferSize = sendBufferSize;
+        log.info("noVNC proxy engine started: {} I/O threads, {} byte buffers, TCP_NODELAY={}", threads, bufferSize, tcpNoDelay);
+    }
+
+    /**
+     * Starts connecting to {@code host:port} and returns immediately. Writes are queued until the
+     * connection is up; a failed connect is reported through {@link UpstreamListener#onClosed}.
+     */
+    public VncUpstream connect(String host, int port, UpstreamListener listener) throws IOException {
+        AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(channelGroup);
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            // 0 = Standardwert des Betriebssystems
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            if (sendBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        VncUpstream upstream = new VncUpstream(channel, new InetSocketAddress(host, port), bufferPool, listener);
+        upstream.connect();
+        return upstream;
+    }
+
+    public DirectBufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            channelGroup.shutdownNow();
+        } catch (IOException e) {
+            log.warn("Error shutting down noVNC proxy channel group", e);
+        }
+    }
+
+    private static ThreadFactory ioThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "novnc-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,233 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One TCP connection to a VNC server, driven by completion handlers on the channel group of the
+ * {@link VncProxyEngine}.
+ *
+ * There is at most one read in flight, into a single pooled buffer that is handed to the
+ * {@link UpstreamListener} and reused for the next read. Writes are copied, queued and written one after
+ * another, also before the connection is established. Client messages are mostly key and pointer events
+ * of a few bytes, so writes up to {@value #SMALL_WRITE_BYTES} bytes get an exactly sized heap buffer;
+ * only larger ones (e.g. clipboard text) are copied into pooled direct buffers.
+ *
+ * {@link #pauseReading()} stops issuing reads after the current one, so the VNC server is throttled by
+ * TCP flow control until {@link #resumeReading()}.
+ */
+@Slf4j
+public class VncUpstream {
+
+    static final int SMALL_WRITE_BYTES = 256;
+
+    private final AsynchronousSocketChannel channel;
+    private final InetSocketAddress address;
+    private final DirectBufferPool bufferPool;
+    private final UpstreamListener listener;
+
+    private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean connected;
+
+    // Lese-Buffer, solange das Lesen pausiert ist
+    private final AtomicReference<ByteBuffer> parkedReadBuffer = new AtomicReference<>();
+    private volatile boolean readingPaused;
+
+    VncUpstream(AsynchronousSocketChannel channel, InetSocketAddress address,
+                DirectBufferPool bufferPool, UpstreamListener listener) {
+        this.channel = channel;
+        this.address = address;
+        this.bufferPool = bufferPool;
+        this.listener = listener;
+    }
+
+    void connect() {
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                connected = true;
+                log.debug("Connected to VNC server {}", address);
+                listener.onConnected(VncUpstream.this);
+                read(bufferPool.acquire());
+                drainWrites();
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                close(e);
+            }
+        });
+    }
+
+    /**
+     * Queues bytes for the VNC server. The content of {@code data} is copied, the caller may reuse it.
+     */
+    public void write(ByteBuffer data) {
+        if (closed.get()) {
+            return;
+        }
+        int remaining = data.remaining();
+        if (remaining <= Math.min(SMALL_WRITE_BYTES, bufferPool.bufferSize())) {
+            // Kein Pool-Buffer (standardmäßig 64 KiB) für ein paar Bytes; release() ignoriert Heap-Buffer
+            ByteBuffer copy = ByteBuffer.allocate(remaining);
+            copy.put(data).flip();
+            pendingWrites.add(copy);
+        }
+        while (data.hasRemaining()) {
+            ByteBuffer chunk = bufferPool.acquire();
+            int length = Math.min(chunk.remaining(), data.remaining());
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + length);
+            chunk.put(slice).flip();
+            data.position(data.position() + length);
+            pendingWrites.add(chunk);
+        }
+        drainWrites();
+    }
+
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * No further reads after the one in progress. May be called from any thread, also from
+     * {@link UpstreamListener#onData}.
+     */
+    public void pauseReading() {
+        readingPaused = true;
+    }
+
+    public void resumeReading() {
+        readingPaused = false;
+        ByteBuffer parked = parkedReadBuffer.getAndSet(null);
+        if (parked != null) {
+            continueReading(parked);
+        }
+    }
+
+    public boolean isReadingPaused() {
+        return readingPaused;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    private void read(ByteBuffer buffer) {
+        channel.read(buffer, buffer, new CompletionHandler<Integer, ByteBuffer>() {
+            @Override
+            public void completed(Integer read, ByteBuffer buffer) {
+                if (read < 0) {
+                    bufferPool.release(buffer);
+                    close(null);
+                    return;
+                }
+                buffer.flip();
+                try {
+                    listener.onData(VncUpstream.this, buffer);
+                } catch (RuntimeException e) {
+                    bufferPool.release(buffer);
+                    close(e);
+                    return;
+                }
+                buffer.clear();
+                if (readingPaused) {
+                    // Parken; resumeReading() oder die erneute Prüfung unten setzt das Lesen fort
+                    parkedReadBuffer.set(buffer);
+                    if (readingPaused || !parkedReadBuffer.compareAndSet(buffer, null)) {
+                        if (closed.get() && parkedReadBuffer.compareAndSet(buffer, null)) {
+                            bufferPool.release(buffer);
+                        }
+                        return;
+                    }
+                }
+                continueReading(buffer);
+            }
+
+            @Override
+            public void failed(Throwable e, ByteBuffer buffer) {
+                bufferPool.release(buffer);
+                close(closed.get() ? null : e);
+            }
+        });
+    }
+
+    private void continueReading(ByteBuffer buffer) {
+        if (closed.get()) {
+            bufferPool.release(buffer);
+            return;
+        }
+        read(buffer);
+    }
+
+    private void drainWrites() {
+        // Nur ein Write gleichzeitig pro Channel; wer das Flag setzt, schreibt den Kopf der Queue
+        while (connected && !pendingWrites.isEmpty() && writing.compareAndSet(false, true)) {
+            ByteBuffer next = pendingWrites.poll();
+            if (next == null) {
+                writing.set(false);
+                continue;
+            }
+            if (closed.get()) {
+                bufferPool.release(next);
+                writing.set(false);
+                return;
+            }
+            channel.write(next, next, new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer written, ByteBuffer buffer) {
+                    if (buffer.hasRemaining() && !closed.get()) {
+                        channel.write(buffer, buffer, this);
+                        return;
+                    }
+                    bufferPool.release(buffer);
+                    writing.set(false);
+                    drainWrites();
+                }
+
+                @Override
+                public void failed(Throwable e, ByteBuffer buffer) {
+                    bufferPool.release(buffer);
+                    writing.set(false);
+                    close(closed.get() ? null : e);
+                }
+            });
+            return;
+        }
+    }
+
+    private void close(Throwable cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing channel to VNC server {}", address, e);
+        }
+        ByteBuffer pending;
+        while ((pending = pendingWrites.poll()) != null) {
+            bufferPool.release(pending);
+        }
+        ByteBuffer parked = parkedReadBuffer.getAndSet(null);
+        if (parked != null) {
+            bufferPool.release(parked);
+        }
+        listener.onClosed(this, cause);
+    }
+}
@@ -0,0 +1,280 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-opened VNC connections, at most one per user, so a browser attaching to a live environment
+ * does not wait for the TCP connect and the greeting of the VNC server.
+ *
+ * {@link #warm} connects right after a live environment was started and keeps what the VNC server
+ * sends before the client speaks, i.e. its RFB ProtocolVersion. {@link #claim} hands the connection to
+ * the noVNC session and replays the buffered bytes, so the browser runs the rest of the handshake
+ * (version choice, security) itself. Connects are retried while the VNC server is still starting;
+ * unclaimed connections are closed after the TTL.
+ *
+ * Meters: {@code novnc.warm.claims} (tag {@code result} = hit/miss), {@code novnc.warm.expired} and
+ * {@code novnc.warm.pooled}.
+ */
+@Component
+@Slf4j
+public class WarmUpstreamPool {
+
+    // Mehr sendet ein VNC-Server nicht, bevor der Client antwortet
+    private static final int MAX_GREETING = 4096;
+
+    private final VncProxyEngine proxyEngine;
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final int connectAttempts;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // Geschützt durch this
+    private final Map<Long, WarmUpstream> pool = new HashMap<>();
+    private final Map<Long, ScheduledFuture<?>> retries = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter expired;
+
+    public WarmUpstreamPool(VncProxyEngine proxyEngine,
+                            MeterRegistry meterRegistry,
+                            @Value("${novnc.warm.enabled:true}") boolean enabled,
+                            @Value("${novnc.warm.ttl:60000}") long ttlMillis,
+                            @Value("${novnc.warm.connect-attempts:5}") int connectAttempts,
+                            @Value("${novnc.warm.retry-delay:500}") long retryDelayMillis) {
+        this.proxyEngine = proxyEngine;
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.connectAttempts = Math.max(1, connectAttempts);
+        this.retryDelayMillis = retryDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "novnc-warm");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.hits = Counter.builder("novnc.warm.claims").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("novnc.warm.claims").tag("result", "miss").register(meterRegistry);
+        this.expired = Counter.builder("novnc.warm.expired").register(meterRegistry);
+        Gauge.builder("novnc.warm.pooled", this, WarmUpstreamPool::pooled).register(meterRegistry);
+    }
+
+    /**
+     * Opens a warm connection for {@code userId}, replacing an existing one.
+     */
+    public void warm(Long userId, String host, int port) {
+        if (enabled) {
+            connect(userId, host, port, 1);
+        }
+    }
+
+    /**
+     * Takes the warm connection of {@code userId} if it goes to {@code host:port} and is still open.
+     * From now on {@code listener} receives its callbacks, starting with the buffered greeting.
+     */
+    public Optional<VncUpstream> claim(Long userId, String host, int port, UpstreamListener listener) {
+        WarmUpstream warm;
+        synchronized (this) {
+            warm = pool.remove(userId);
+            if (warm != null) {
+                warm.release();
+            }
+        }
+        if (warm == null || !warm.host.equals(host) || warm.port != port || !warm.handOver(listener)) {
+            if (warm != null) {
+                warm.upstream.close();
+            }
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        log.debug("Claimed warm VNC connection {}:{} for user {}", host, port, userId);
+        return Optional.of(warm.upstream);
+    }
+
+    /**
+     * Closes the warm connection of {@code userId}, e.g. when the live environment stops.
+     */
+    public synchronized void discard(Long userId) {
+        ScheduledFuture<?> retry = retries.remove(userId);
+        if (retry != null) {
+            retry.cancel(false);
+        }
+        WarmUpstream warm = pool.remove(userId);
+        if (warm != null) {
+            warm.release();
+            warm.upstream.close();
+        }
+    }
+
+    public synchronized int pooled() {
+        return pool.size();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        scheduler.shutdownNow();
+        retries.clear();
+        pool.values().forEach(warm -> {
+            warm.release();
+            warm.upstream.close();
+        });
+        pool.clear();
+    }
+
+    private synchronized void connect(Long userId, String host, int port, int attempt) {
+        discard(userId);
+        WarmUpstream warm = new WarmUpstream(userId, host, port, attempt);
+        try {
+            // Callbacks des Verbindungsaufbaus warten auf diesen Monitor, upstream ist dann gesetzt
+            warm.upstream = proxyEngine.connect(host, port, warm);
+        } catch (IOException e) {
+            log.debug("Could not pre-connect to VNC server {}:{} for user {}: {}", host, port, userId, e.toString());
+            return;
+        }
+        pool.put(userId, warm);
+        warm.expiry = scheduler.schedule(() -> expire(warm), ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void expire(WarmUpstream warm) {
+        if (pool.remove(warm.userId, warm)) {
+            expired.increment();
+            warm.release();
+            warm.upstream.close();
+        }
+    }
+
+    private synchronized void onWarmClosed(WarmUpstream warm, Throwable cause) {
+        boolean current = pool.remove(warm.userId, warm);
+        if (current) {
+            warm.release();
+        }
+        // VNC-Server startet evtl. noch
+        if (current && cause != null && warm.attempt < connectAttempts) {
+            retries.put(warm.userId, scheduler.schedule(() -> retry(warm), retryDelayMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private synchronized void retry(WarmUpstream failed) {
+        // discard() oder ein neues warm() seit dem Fehlschlag entfernt den Eintrag
+        if (retries.remove(failed.userId) != null && !pool.containsKey(failed.userId)) {
+            connect(failed.userId, failed.host, failed.port, failed.attempt + 1);
+        }
+    }
+
+    /**
+     * A pre-opened connection; buffers the greeting until a session takes over.
+     */
+    private final class WarmUpstream implements UpstreamListener {
+
+        private final Long userId;
+        private final String host;
+        private final int port;
+        private final int attempt;
+
+        // Geschützt durch den Monitor des Pools
+        private VncUpstream upstream;
+        private ScheduledFuture<?> expiry;
+
+        // Geschützt durch this
+        private final ByteArrayOutputStream greeting = new ByteArrayOutputStream();
+        private boolean connected;
+        private boolean closed;
+        private UpstreamListener delegate;
+
+        WarmUpstream(Long userId, String host, int port, int attempt) {
+            this.userId = userId;
+            this.host = host;
+            this.port = port;
+            this.attempt = attempt;
+        }
+
+        void release() {
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+        }
+
+        /**
+         * Replays the state so far to {@code listener} and forwards everything after it; false if the
+         * connection is already gone.
+         */
+        synchronized boolean handOver(UpstreamListener listener) {
+            if (closed) {
+                return false;
+            }
+            if (connected) {
+                listener.onConnected(upstream);
+            }
+            if (greeting.size() > 0) {
+                listener.onData(upstream, ByteBuffer.wrap(greeting.toByteArray()));
+            }
+            delegate = listener;
+            return true;
+        }
+
+        @Override
+        public void onConnected(VncUpstream upstream) {
+            UpstreamListener target;
+            synchronized (this) {
+                connected = true;
+                target = delegate;
+            }
+            if (target != null) {
+                target.onConnected(upstream);
+            } else {
+                log.debug("Warm VNC connection {}:{} for user {} established", host, port, userId);
+            }
+        }
+
+        @Override
+        public void onData(VncUpstream upstream, ByteBuffer data) {
+            UpstreamListener target;
+            synchronized (this) {
+                target = delegate;
+                if (target == null) {
+                    if (greeting.size() + data.remaining() > MAX_GREETING) {
+                        throw new IllegalStateException("VNC server sent more than " + MAX_GREETING + " bytes unprompted");
+                    }
+                    byte[] bytes = new byte[data.remaining()];
+                    data.get(bytes);
+                    greeting.write(bytes, 0, bytes.length);
+                    return;
+                }
+            }
+            target.onData(upstream, data);
+        }
+
+        @Override
+        public void onClosed(VncUpstream upstream, Throwable cause) {
+            UpstreamListener target;
+            synchronized (this) {
+                closed = true;
+                target = delegate;
+            }
+            if (target != null) {
+                target.onClosed(upstream, cause);
+            } else {
+                onWarmClosed(this, cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package itsi.api.steuerung.service;
+
+import itsi.api.steuerung.dto.ImageDTO;
+import itsi.api.steuerung.dto.InstanceDTO;
+import itsi.api.steuerung.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReferenceDataCacheTest {
+
+    private ReferenceDataCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ReferenceDataCache(60_000, 100, 60_000);
+        loads = new AtomicInteger();
+    }
+
+    private Mono<UserDTO> loadUser() {
+        loads.incrementAndGet();
+        return Mono.just(new UserDTO(1, "john_doe", "john@example.com", null, "student", null, null));
+    }
+
+    @Test
+    void user_shouldLoadOnceAndThenHit() {
+        assertEquals("john_doe", cache.user(1, this::loadUser).block().getName());
+        assertEquals("john_doe", cache.user(1, this::loadUser).block().getName());
+
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.stats().get("users").get("hits"));
+        assertEquals(1L, cache.stats().get("users").get("misses"));
+    }
+
+    @Test
+    void user_shouldReturnCopies() {
+        cache.user(1, this::loadUser).block().setName("changed");
+
+        assertEquals("john_doe", cache.user(1, this::loadUser).block().getName());
+    }
+
+    @Test
+    void image_shouldNotCacheEmptyResult() {
+        cache.image(9, () -> {
+            loads.incrementAndGet();
+            return Mono.empty();
+        }).block();
+        ImageDTO image = cache.image(9, () -> {
+            loads.incrementAndGet();
+            return Mono.just(new ImageDTO(9, "ubuntu", "ubuntu:22.04"));
+        }).block();
+
+        assertEquals("ubuntu", image.getName());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void instance_shouldPopulateNestedUserAndImage() {
+        InstanceDTO instance = new InstanceDTO(5, "cont_5", "ubuntu_john_doe",
+                new ImageDTO(3, "ubuntu", "ubuntu:22.04"),
+                new UserDTO(2, "john_doe", null, null, null, null, null),
+                "running");
+
+        cache.instance(2, 3, () -> Mono.just(instance)).block();
+
+        assertEquals("john_doe", cache.user(2, () -> Mono.error(new AssertionError("not cached"))).block().getName());
+        assertEquals("ubuntu", cache.image(3, () -> Mono.error(new AssertionError("not cached"))).block().getName());
+    }
+
+    @Test
+    void invalidateImage_shouldDropImageCatalogueAndInstances() {
+        InstanceDTO instance = new InstanceDTO(5, "cont_5", "ubuntu_john_doe",
+                new ImageDTO(3, "ubuntu", "ubuntu:22.04"),
+                new UserDTO(2, "john_doe", null, null, null, null, null),
+                "running");
+        cache.instance(2, 3, () -> Mono.just(instance)).block();
+        cache.catalogue(() -> Mono.just(List.of(new ImageDTO(3, "ubuntu", "ubuntu:22.04")))).block();
+
+        cache.invalidateImage(3);
+
+        assertEquals(0L, cache.stats().get("catalogue").get("size"));
+        assertEquals(0L, cache.stats().get("instances").get("size"));
+        assertNull(cache.image(3, Mono::empty).block());
+    }
+
+    @Test
+    void putInstance_shouldReplaceCachedStatus() {
+        InstanceDTO instance = new InstanceDTO(5, "cont_5", "ubuntu_john_doe",
+                new ImageDTO(3, "ubuntu", "ubuntu:22.04"),
+                new UserDTO(2, "john_doe", null, null, null, null, null),
+                "stopped");
+        cache.instance(2, 3, () -> Mono.just(instance)).block();
+
+        InstanceDTO updated = instance.copy();
+        updated.setStatus("running");
+        cache.putInstance(updated);
+
+        assertEquals("running", cache.instance(2, 3, Mono::empty).block().getStatus());
+    }
+}
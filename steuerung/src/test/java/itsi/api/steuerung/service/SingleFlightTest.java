@@ -0,0 +1,92 @@
+package itsi.api.steuerung.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private SingleFlight singleFlight;
+    private AtomicInteger upstreamCalls;
+    private Sinks.One<List<String>> upstream;
+
+    @BeforeEach
+    void setUp() {
+        singleFlight = new SingleFlight();
+        upstreamCalls = new AtomicInteger();
+        upstream = Sinks.one();
+    }
+
+    private Mono<List<String>> call() {
+        upstreamCalls.incrementAndGet();
+        return upstream.asMono();
+    }
+
+    @Test
+    void execute_shouldShareOneCallBetweenConcurrentReads() {
+        List<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            singleFlight.execute("/api/images", this::call, ArrayList::new).subscribe(results::add);
+        }
+
+        upstream.tryEmitValue(List.of("ubuntu"));
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(10, results.size());
+        assertTrue(results.stream().allMatch(List.of("ubuntu")::equals));
+        assertEquals(9L, singleFlight.stats().get("coalesced"));
+        assertEquals(0, singleFlight.stats().get("inFlight"));
+    }
+
+    @Test
+    void execute_shouldGiveEveryWaiterItsOwnCopy() {
+        List<List<String>> results = new ArrayList<>();
+        singleFlight.execute("/api/images", this::call, ArrayList::new).subscribe(results::add);
+        singleFlight.execute("/api/images", this::call, ArrayList::new).subscribe(results::add);
+
+        upstream.tryEmitValue(List.of("ubuntu"));
+
+        assertNotSame(results.get(0), results.get(1));
+    }
+
+    @Test
+    void execute_shouldStartNewCallAfterCompletion() {
+        singleFlight.execute("/api/images", this::call, ArrayList::new).subscribe();
+        upstream.tryEmitValue(List.of("ubuntu"));
+
+        upstream = Sinks.one();
+        singleFlight.execute("/api/images", this::call, ArrayList::new).subscribe();
+
+        assertEquals(2, upstreamCalls.get());
+    }
+
+    @Test
+    void execute_shouldNotCoalesceDifferentKeys() {
+        singleFlight.execute("/api/users/1", this::call, ArrayList::new).subscribe();
+        singleFlight.execute("/api/users/2", this::call, ArrayList::new).subscribe();
+
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(0L, singleFlight.stats().get("coalesced"));
+    }
+
+    @Test
+    void execute_shouldPropagateErrorToAllWaiters() {
+        AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            singleFlight.execute("/api/images", this::call, ArrayList::new)
+                    .subscribe(null, e -> errors.incrementAndGet());
+        }
+
+        upstream.tryEmitError(new IllegalStateException("database down"));
+
+        assertEquals(3, errors.get());
+        assertEquals(0, singleFlight.stats().get("inFlight"));
+    }
+}
@@ -0,0 +1,59 @@
+package itsi.api.steuerung.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Lease/release cost at increasing numbers of live environments. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class VncPortPoolBenchmark {
+
+    private static final int RANGE_SIZE = 10_000;
+    private static final int ITERATIONS = 2_000_000;
+
+    @Test
+    void leaseAndReleaseStayConstantAsPoolFills() {
+        int[] fillLevels = {10, 1_000, 5_000, 9_000, 9_990};
+        double[] nanosPerOp = new double[fillLevels.length];
+
+        for (int i = 0; i < fillLevels.length; i++) {
+            nanosPerOp[i] = measure(fillLevels[i]);
+            System.out.printf("%5d live environments: %6.1f ns per lease+release%n", fillLevels[i], nanosPerOp[i]);
+        }
+
+        double fastest = Double.MAX_VALUE;
+        double slowest = 0;
+        for (double value : nanosPerOp) {
+            fastest = Math.min(fastest, value);
+            slowest = Math.max(slowest, value);
+        }
+        // O(1): a nearly full pool must not be noticeably slower than an empty one
+        assertTrue(slowest < fastest * 5, "lease+release cost grows with pool occupancy");
+    }
+
+    private double measure(int liveEnvironments) {
+        VncPortPool pool = new VncPortPool(mock(DatabaseService.class), 20_000, 40_000, RANGE_SIZE);
+        for (long userId = 0; userId < liveEnvironments; userId++) {
+            pool.lease(userId, null);
+        }
+
+        long userId = RANGE_SIZE;
+        // Warmup
+        for (int i = 0; i < ITERATIONS; i++) {
+            pool.lease(userId, null);
+            pool.release(userId);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Abwechselnd bevorzugten Port und beliebigen Slot leasen
+            pool.lease(userId, (i & 1) == 0 ? null : 20_000 + (i % RANGE_SIZE));
+            pool.release(userId);
+        }
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+}
@@ -0,0 +1,147 @@
+package itsi.api.steuerung.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VncPortPoolTest {
+
+    private VncPortPool pool;
+
+    @BeforeEach
+    void setUp() {
+        pool = new VncPortPool(mock(DatabaseService.class), 5901, 6901, 100);
+    }
+
+    @Test
+    void lease_shouldPairVncAndNoVncPort() {
+        VncPortPool.Lease lease = pool.lease(1L, null);
+
+        assertEquals(5901, lease.vncPort());
+        assertEquals(6901, lease.noVncPort());
+        assertEquals(lease.noVncPort(), pool.noVncPortFor(lease.vncPort()));
+    }
+
+    @Test
+    void lease_shouldReturnExistingLeaseForSameUser() {
+        VncPortPool.Lease first = pool.lease(1L, null);
+        VncPortPool.Lease second = pool.lease(1L, 5950);
+
+        assertEquals(first, second);
+        assertEquals(1, pool.leased());
+    }
+
+    @Test
+    void lease_shouldUsePreferredPortWhenFree() {
+        VncPortPool.Lease lease = pool.lease(1L, 5950);
+
+        assertEquals(5950, lease.vncPort());
+        assertEquals(6950, lease.noVncPort());
+    }
+
+    @Test
+    void lease_shouldIgnorePreferredPortWhenTakenOrOutOfRange() {
+        pool.lease(1L, 5950);
+
+        assertNotEquals(5950, pool.lease(2L, 5950).vncPort());
+        assertNotEquals(4000, pool.lease(3L, 4000).vncPort());
+    }
+
+    @Test
+    void release_shouldMakePortsReusable() {
+        for (long userId = 0; userId < 100; userId++) {
+            pool.lease(userId, null);
+        }
+        assertThrows(VncPortPool.ExhaustedException.class, () -> pool.lease(100L, null));
+
+        VncPortPool.Lease released = pool.release(42L).orElseThrow();
+        VncPortPool.Lease reused = pool.lease(100L, null);
+
+        assertEquals(released.vncPort(), reused.vncPort());
+        assertEquals(0, pool.available());
+    }
+
+    @Test
+    void release_shouldIgnoreUnknownUser() {
+        assertTrue(pool.release(7L).isEmpty());
+        assertEquals(100, pool.available());
+    }
+
+    @Test
+    void adopted_shouldTakeThePortsOfRunningEnvironmentsOnce() {
+        DatabaseService databaseService = mock(DatabaseService.class);
+        when(databaseService.getAllLiveEnvironments()).thenReturn(Flux.just(
+                Map.of("userId", 1, "vncPort", 5905, "status", "running"),
+                Map.of("userId", 2, "vncPort", 5906, "status", "stopped")));
+        VncPortPool adopting = new VncPortPool(databaseService, 5901, 6901, 100);
+
+        adopting.adopted().block();
+        adopting.adoptRunningEnvironments();
+
+        assertEquals(5905, adopting.leaseOf(1L).orElseThrow().vncPort());
+        assertTrue(adopting.leaseOf(2L).isEmpty());
+        assertNotEquals(5905, adopting.lease(3L, 5905).vncPort());
+        verify(databaseService, times(1)).getAllLiveEnvironments();
+    }
+
+    @Test
+    void adopted_shouldRetryWhenTheLiveEnvironmentsCannotBeLoaded() {
+        DatabaseService databaseService = mock(DatabaseService.class);
+        Flux<Map<String, Object>> down = Flux.error(new IllegalStateException("database down"));
+        when(databaseService.getAllLiveEnvironments())
+                .thenReturn(down)
+                .thenReturn(down)
+                .thenReturn(Flux.just(Map.of("userId", 1, "vncPort", 5905, "status", "running")));
+        VncPortPool adopting = new VncPortPool(databaseService, 5901, 6901, 100);
+
+        adopting.adoptRunningEnvironments();
+        assertThrows(IllegalStateException.class, () -> adopting.adopted().block());
+        adopting.adopted().block();
+        adopting.adopted().block();
+
+        assertEquals(5905, adopting.leaseOf(1L).orElseThrow().vncPort());
+        verify(databaseService, times(3)).getAllLiveEnvironments();
+    }
+
+    @Test
+    void constructor_shouldRejectOverlappingRanges() {
+        DatabaseService databaseService = mock(DatabaseService.class);
+
+        assertThrows(IllegalArgumentException.class, () -> new VncPortPool(databaseService, 5901, 6000, 1000));
+    }
+
+    @Test
+    void concurrentLeases_shouldNeverShareAPort() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Set<Integer> vncPorts = ConcurrentHashMap.newKeySet();
+        Set<Integer> noVncPorts = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(100);
+
+        for (long userId = 0; userId < 100; userId++) {
+            long id = userId;
+            executor.submit(() -> {
+                VncPortPool.Lease lease = pool.lease(id, 5901);
+                vncPorts.add(lease.vncPort());
+                noVncPorts.add(lease.noVncPort());
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(100, vncPorts.size());
+        assertEquals(100, noVncPorts.size());
+        assertEquals(0, pool.available());
+    }
+}
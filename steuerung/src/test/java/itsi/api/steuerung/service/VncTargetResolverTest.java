@@ -0,0 +1,77 @@
+package itsi.api.steuerung.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VncTargetResolverTest {
+
+    private DatabaseService databaseService;
+    private VncTargetResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        databaseService = mock(DatabaseService.class);
+        resolver = new VncTargetResolver(databaseService, "localhost", 60_000, 100);
+    }
+
+    private static Map<String, Object> liveEnv(int id, long userId, String host, int port) {
+        Map<String, Object> liveEnv = new HashMap<>();
+        liveEnv.put("id", id);
+        liveEnv.put("userId", userId);
+        liveEnv.put("vncHost", host);
+        liveEnv.put("vncPort", port);
+        return liveEnv;
+    }
+
+    @Test
+    void resolve_shouldLoadOnceAndThenHit() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L)).thenReturn(Mono.just(liveEnv(7, 1, "vnc-2", 5903)));
+
+        VncTargetResolver.VncTarget first = resolver.resolve(1L).get();
+        VncTargetResolver.VncTarget second = resolver.resolve(1L).get();
+
+        assertEquals(new VncTargetResolver.VncTarget(7, "vnc-2", 5903), first);
+        assertEquals(first, second);
+        verify(databaseService, times(1)).getLiveEnvironmentByUserId(1L);
+        assertTrue(resolver.resolve(1L).isDone());
+    }
+
+    @Test
+    void resolve_shouldFallBackToDefaultHost() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L)).thenReturn(Mono.just(liveEnv(7, 1, null, 5903)));
+
+        assertEquals("localhost", resolver.resolve(1L).get().host());
+    }
+
+    @Test
+    void resolve_shouldNotCacheMissingLiveEnvironment() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L)).thenReturn(Mono.empty());
+
+        assertNull(resolver.resolve(1L).get());
+        assertNull(resolver.resolve(1L).get());
+
+        verify(databaseService, times(2)).getLiveEnvironmentByUserId(1L);
+    }
+
+    @Test
+    void onLiveEnvironmentChanged_shouldInvalidateByUserAndById() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L))
+                .thenReturn(Mono.just(liveEnv(7, 1, "vnc-1", 5901)))
+                .thenReturn(Mono.just(liveEnv(7, 1, "vnc-2", 5902)))
+                .thenReturn(Mono.just(liveEnv(7, 1, "vnc-3", 5903)));
+
+        assertEquals(5901, resolver.resolve(1L).get().port());
+        resolver.onLiveEnvironmentChanged(new LiveEnvironmentChangedEvent(null, 1L));
+        assertEquals(5902, resolver.resolve(1L).get().port());
+        // Status-Update kennt nur die ID
+        resolver.onLiveEnvironmentChanged(new LiveEnvironmentChangedEvent(7, null));
+        assertEquals(5903, resolver.resolve(1L).get().port());
+    }
+}
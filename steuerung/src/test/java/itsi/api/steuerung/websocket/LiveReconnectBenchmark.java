@@ -0,0 +1,164 @@
+package itsi.api.steuerung.websocket;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.live.LiveSnapshotCache;
+import itsi.api.steuerung.websocket.live.LiveTopics;
+import itsi.api.steuerung.websocket.live.LiveUpdateLog;
+import itsi.api.steuerung.websocket.live.LiveUpdateRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * 1,000 live-environment WebSockets reconnecting at once, e.g. after a network blip, with a database
+ * API that answers after 50 ms. Connect latency is the time from the connect until the session has its
+ * first state. Compares fetching with {@code .block()} on the container threads (200, Tomcat's default)
+ * with the asynchronous handler, once with an empty snapshot cache and once with a warm one. Run with
+ * {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class LiveReconnectBenchmark {
+
+    private static final int CONNECTS = 1_000;
+    private static final int CONTAINER_THREADS = 200;
+    private static final Duration DATABASE_LATENCY = Duration.ofMillis(50);
+
+    @Test
+    void reconnectStorm() throws Exception {
+        ExecutorService container = Executors.newFixedThreadPool(CONTAINER_THREADS);
+        try {
+            LiveEnvironmentWebSocketHandler handler = handler();
+
+            // Warmup
+            blocking(container);
+            async(container, handler);
+
+            Result blocking = blocking(container);
+            Result cold = async(container, handler(), "async, cold cache");
+            Result warm = async(container, handler, "async, warm cache");
+            blocking.print();
+            cold.print();
+            warm.print();
+
+            assertTrue(cold.p99 * 2 < blocking.p99, "connect latency still grows with the number of reconnects");
+            assertTrue(warm.p99 < cold.p99, "the cache does not help");
+        } finally {
+            container.shutdownNow();
+        }
+    }
+
+    private Result blocking(ExecutorService container) throws Exception {
+        long[] latencies = new long[CONNECTS];
+        CountDownLatch done = new CountDownLatch(CONNECTS);
+        long start = System.nanoTime();
+        for (int user = 0; user < CONNECTS; user++) {
+            int connect = user;
+            container.execute(() -> {
+                // Bisher: Datenbank-Aufruf mit block() auf dem Container-Thread
+                Mono.just(liveEnvironment(connect)).delayElement(DATABASE_LATENCY).block();
+                latencies[connect] = System.nanoTime() - start;
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        return new Result("blocking", latencies);
+    }
+
+    private Result async(ExecutorService container, LiveEnvironmentWebSocketHandler handler) throws Exception {
+        return async(container, handler, "async");
+    }
+
+    private Result async(ExecutorService container, LiveEnvironmentWebSocketHandler handler, String label) throws Exception {
+        long[] latencies = new long[CONNECTS];
+        CountDownLatch done = new CountDownLatch(CONNECTS);
+        long start = System.nanoTime();
+        for (int user = 0; user < CONNECTS; user++) {
+            WebSocketSession session = session(user, start, latencies, done);
+            container.execute(() -> {
+                try {
+                    handler.afterConnectionEstablished(session);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        return new Result(label, latencies);
+    }
+
+    private static LiveEnvironmentWebSocketHandler handler() {
+        DatabaseService databaseService = mock(DatabaseService.class);
+        when(databaseService.getLiveEnvironmentByUserId(anyLong())).thenAnswer(invocation ->
+                Mono.just(liveEnvironment(invocation.<Long>getArgument(0).intValue())).delayElement(DATABASE_LATENCY));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+        LiveUpdateLog updateLog = new LiveUpdateLog(registry, mock(LiveTopics.class), meterRegistry, 64, 50);
+        return new LiveEnvironmentWebSocketHandler(registry, updateLog,
+                new LiveSnapshotCache(databaseService, updateLog, 60_000, 10_000), mock(SessionHeartbeat.class), meterRegistry);
+    }
+
+    private static WebSocketSession session(int user, long start, long[] latencies, CountDownLatch done) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+        when(session.getId()).thenReturn("s" + user);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getUri()).thenReturn(URI.create("ws://localhost:9090/ws/live-environment/" + user));
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0) instanceof TextMessage) {
+                latencies[user] = System.nanoTime() - start;
+                done.countDown();
+            }
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static Map<String, Object> liveEnvironment(int user) {
+        Map<String, Object> liveEnv = new LinkedHashMap<>();
+        liveEnv.put("id", user);
+        liveEnv.put("userId", user);
+        liveEnv.put("status", "running");
+        liveEnv.put("vncHost", "localhost");
+        liveEnv.put("vncPort", 5901 + user);
+        return liveEnv;
+    }
+
+    private record Result(String label, long p50, long p99, long max) {
+
+        Result(String label, long[] latencies) {
+            this(label, percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1.0));
+        }
+
+        private static long percentile(long[] latencies, double percentile) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+        }
+
+        void print() {
+            System.out.printf("%-18s %d connects: p50 %6.1f ms, p99 %6.1f ms, max %6.1f ms%n",
+                    label, CONNECTS, p50 / 1e6, p99 / 1e6, max / 1e6);
+        }
+    }
+}
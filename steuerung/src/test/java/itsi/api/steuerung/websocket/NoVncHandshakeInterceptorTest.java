@@ -0,0 +1,228 @@
+package itsi.api.steuerung.websocket;
+
+import io.jsonwebtoken.Claims;
+import itsi.api.steuerung.service.JwtService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.socket.WebSocketHandler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class NoVncHandshakeInterceptorTest {
+
+    private JwtService jwtService;
+    private NoVncHandshakeInterceptor interceptor;
+    private MockHttpServletResponse servletResponse;
+    private Map<String, Object> attributes;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = mock(JwtService.class);
+        interceptor = new NoVncHandshakeInterceptor(jwtService);
+        servletResponse = new MockHttpServletResponse();
+        attributes = new HashMap<>();
+    }
+
+    private boolean handshake(String query) {
+        MockHttpServletRequest servletRequest = new MockHttpServletRequest("GET", "/ws/novnc");
+        servletRequest.setQueryString(query);
+        return interceptor.beforeHandshake(new ServletServerHttpRequest(servletRequest),
+                new ServletServerHttpResponse(servletResponse), mock(WebSocketHandler.class), attributes);
+    }
+
+    private Claims tokenFor(long userId, String role) {
+        Claims claims = mock(Claims.class);
+        when(claims.get("userId")).thenReturn(userId);
+        when(claims.get("rolle")).thenReturn(role);
+        when(jwtService.isTokenValid("abc")).thenReturn(true);
+        when(jwtService.extractClaims("abc")).thenReturn(claims);
+        return claims;
+    }
+
+    @Test
+    void beforeHandshake_shouldTakeUserIdFromToken() {
+        Claims claims = mock(Claims.class);
+        when(claims.get("userId")).thenReturn(42);
+        when(jwtService.isTokenValid("abc")).thenReturn(true);
+        when(jwtService.extractClaims("abc")).thenReturn(claims);
+
+        assertTrue(handshake("token=abc&userId=1"));
+        assertEquals(42L, attributes.get(NoVncHandshakeInterceptor.USER_ID_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldTakeRoleFromToken() {
+        Claims claims = mock(Claims.class);
+        when(claims.get("userId")).thenReturn(42);
+        when(claims.get("rolle")).thenReturn("ADMIN");
+        when(jwtService.isTokenValid("abc")).thenReturn(true);
+        when(jwtService.extractClaims("abc")).thenReturn(claims);
+
+        assertTrue(handshake("token=abc"));
+        assertEquals("ADMIN", attributes.get(NoVncHandshakeInterceptor.ROLE_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldTakeClassFromToken() {
+        Claims claims = tokenFor(42, "LEHRER");
+        when(claims.get("klasse")).thenReturn("3AHIT");
+
+        assertTrue(handshake("token=abc"));
+        assertEquals("3AHIT", attributes.get(NoVncHandshakeInterceptor.CLASS_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectInvalidToken() {
+        when(jwtService.isTokenValid("abc")).thenReturn(false);
+
+        assertFalse(handshake("token=abc&userId=1"));
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), servletResponse.getStatus());
+        assertTrue(attributes.isEmpty());
+    }
+
+    @Test
+    void beforeHandshake_shouldAcceptUserIdParam() {
+        assertTrue(handshake("userId=7"));
+        assertEquals(7L, attributes.get(NoVncHandshakeInterceptor.USER_ID_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldKeepResumeToken() {
+        assertTrue(handshake("userId=7&resume=tab-1"));
+        assertEquals("tab-1", attributes.get(NoVncHandshakeInterceptor.RESUME_TOKEN_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldIgnoreBlankResumeToken() {
+        assertTrue(handshake("userId=7&resume="));
+        assertFalse(attributes.containsKey(NoVncHandshakeInterceptor.RESUME_TOKEN_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldLetTeacherWatchOtherUsers() {
+        tokenFor(42, "LEHRER");
+
+        assertTrue(handshake("token=abc&watch=7"));
+        assertEquals(7L, attributes.get(NoVncHandshakeInterceptor.WATCHED_USER_ID_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldLetUsersWatchThemselves() {
+        tokenFor(7, "SCHUELER");
+
+        assertTrue(handshake("token=abc&watch=7"));
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectStudentWatchingOtherUsers() {
+        tokenFor(42, "SCHUELER");
+
+        assertFalse(handshake("token=abc&watch=7"));
+        assertEquals(HttpStatus.FORBIDDEN.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectWatchingWithoutToken() {
+        // Die Steuerung meldet sich für Zuschauer selbst am VNC-Server an
+        assertFalse(handshake("userId=7&watch=7"));
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), servletResponse.getStatus());
+        assertFalse(handshake("userId=42&watch=7"));
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldTakeReplayParams() {
+        tokenFor(7, "SCHUELER");
+
+        assertTrue(handshake("token=abc&recording=7-1700000000000-abc&from=5000"));
+        assertEquals("7-1700000000000-abc", attributes.get(NoVncHandshakeInterceptor.RECORDING_ID_ATTR));
+        assertEquals(5000, attributes.get(NoVncHandshakeInterceptor.REPLAY_FROM_ATTR));
+        assertEquals(1.0, attributes.get(NoVncHandshakeInterceptor.REPLAY_SPEED_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldLetTeacherReplayOtherUsers() {
+        tokenFor(42, "LEHRER");
+
+        assertTrue(handshake("token=abc&recording=7-1700000000000-abc"));
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectReplayOfOtherUsers() {
+        tokenFor(8, "SCHUELER");
+
+        assertFalse(handshake("token=abc&recording=7-1700000000000-abc"));
+        assertEquals(HttpStatus.FORBIDDEN.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectReplayWithoutToken() {
+        assertFalse(handshake("userId=7&recording=7-1700000000000-abc"));
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectInvalidRecordingId() {
+        tokenFor(7, "SCHUELER");
+
+        assertFalse(handshake("token=abc&recording=../7-1700000000000-abc"));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectInvalidReplaySpeed() {
+        assertFalse(handshake("userId=7&recording=7-1700000000000-abc&speed=100"));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldStoreThumbnailUsers() {
+        tokenFor(42, "LEHRER");
+
+        assertTrue(handshake("token=abc&users=3,1,3,2"));
+        assertEquals(List.of(3L, 1L, 2L), attributes.get(NoVncHandshakeInterceptor.THUMBNAIL_USER_IDS_ATTR));
+    }
+
+    @Test
+    void beforeHandshake_shouldLetUsersSeeTheirOwnThumbnail() {
+        tokenFor(7, "SCHUELER");
+
+        assertTrue(handshake("token=abc&users=7"));
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectThumbnailsWithoutToken() {
+        assertFalse(handshake("userId=7&users=7"));
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectThumbnailsOfOtherUsersWithoutRole() {
+        tokenFor(7, "SCHUELER");
+
+        assertFalse(handshake("token=abc&users=7,8"));
+        assertEquals(HttpStatus.FORBIDDEN.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectInvalidThumbnailUsers() {
+        assertFalse(handshake("userId=7&users=1,abc"));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), servletResponse.getStatus());
+    }
+
+    @Test
+    void beforeHandshake_shouldRejectMissingUser() {
+        assertFalse(handshake("vncPort=5901"));
+        assertEquals(HttpStatus.BAD_REQUEST.value(), servletResponse.getStatus());
+    }
+}
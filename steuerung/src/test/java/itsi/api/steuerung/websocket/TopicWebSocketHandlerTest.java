@@ -0,0 +1,87 @@
+package itsi.api.steuerung.websocket;
+
+import itsi.api.steuerung.websocket.heartbeat.SessionHeartbeat;
+import itsi.api.steuerung.websocket.live.LiveTopics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class TopicWebSocketHandlerTest {
+
+    private LiveTopics topics;
+    private TopicWebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        topics = mock(LiveTopics.class);
+        handler = new TopicWebSocketHandler(topics, mock(SessionHeartbeat.class));
+    }
+
+    private static WebSocketSession session(String query, String role, String className) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(NoVncHandshakeInterceptor.USER_ID_ATTR, 42L);
+        if (role != null) {
+            attributes.put(NoVncHandshakeInterceptor.ROLE_ATTR, role);
+        }
+        if (className != null) {
+            attributes.put(NoVncHandshakeInterceptor.CLASS_ATTR, className);
+        }
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("t1");
+        when(session.getUri()).thenReturn(URI.create("ws://localhost/ws/topics?" + query));
+        when(session.getAttributes()).thenReturn(attributes);
+        return session;
+    }
+
+    @Test
+    void afterConnectionEstablished_shouldLetTeacherFollowTheirClass() throws Exception {
+        WebSocketSession session = session("class=3AHIT", "LEHRER", "3AHIT");
+
+        handler.afterConnectionEstablished(session);
+
+        verify(topics).subscribe(List.of("class:3AHIT"), session);
+        verify(session, never()).close(any());
+    }
+
+    @Test
+    void afterConnectionEstablished_shouldRejectOtherClassesAndImagesForTeachers() throws Exception {
+        WebSocketSession otherClass = session("class=3BHIT", "LEHRER", "3AHIT");
+        WebSocketSession image = session("class=3AHIT&image=5", "LEHRER", "3AHIT");
+
+        handler.afterConnectionEstablished(otherClass);
+        handler.afterConnectionEstablished(image);
+
+        verify(otherClass).close(argThat(status -> status.getCode() == CloseStatus.POLICY_VIOLATION.getCode()));
+        verify(image).close(argThat(status -> status.getCode() == CloseStatus.POLICY_VIOLATION.getCode()));
+        verify(topics, never()).subscribe(any(), any());
+    }
+
+    @Test
+    void afterConnectionEstablished_shouldRejectSessionsWithoutRole() throws Exception {
+        WebSocketSession session = session("class=3AHIT", null, null);
+
+        handler.afterConnectionEstablished(session);
+
+        verify(session).close(any());
+        verify(topics, never()).subscribe(any(), any());
+    }
+
+    @Test
+    void afterConnectionEstablished_shouldLetAdminFollowAnyTopic() throws Exception {
+        WebSocketSession session = session("class=3BHIT&image=5", "ADMIN", null);
+
+        handler.afterConnectionEstablished(session);
+
+        verify(topics).subscribe(List.of("class:3BHIT", "image:5"), session);
+    }
+}
@@ -0,0 +1,114 @@
+package itsi.api.steuerung.websocket.heartbeat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashedTimingWheelTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    // 8 Buckets à 10 ms, eine Umdrehung = 80 ms
+    private final HashedTimingWheel wheel = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 8, now::get);
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        wheel.advanceTo(now.get());
+    }
+
+    private static final class Recording extends HashedTimingWheel.Timeout {
+
+        final List<Long> expiredAt = new ArrayList<>();
+        private final AtomicLong clock;
+
+        Recording(AtomicLong clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        protected void expire() {
+            expiredAt.add(clock.get());
+        }
+    }
+
+    @Test
+    void advanceTo_shouldExpireWithinOneTickOfTheDeadline() {
+        Recording timeout = new Recording(now);
+        long start = now.get();
+        wheel.schedule(timeout, 35, TimeUnit.MILLISECONDS);
+
+        advance(30);
+        assertTrue(timeout.expiredAt.isEmpty());
+        advance(10);
+
+        assertEquals(List.of(start + TimeUnit.MILLISECONDS.toNanos(40)), timeout.expiredAt);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void advanceTo_shouldWaitFullTurnsForDeadlinesBeyondTheWheel() {
+        Recording timeout = new Recording(now);
+        wheel.schedule(timeout, 250, TimeUnit.MILLISECONDS);
+
+        // Derselbe Bucket kommt bei 10, 90 und 170 ms vorbei, bevor die Frist erreicht ist
+        advance(240);
+        assertTrue(timeout.expiredAt.isEmpty());
+        advance(20);
+
+        assertEquals(1, timeout.expiredAt.size());
+    }
+
+    @Test
+    void cancel_shouldDropTheTimeoutWithoutExpiring() {
+        Recording cancelled = new Recording(now);
+        Recording other = new Recording(now);
+        wheel.schedule(cancelled, 20, TimeUnit.MILLISECONDS);
+        wheel.schedule(other, 20, TimeUnit.MILLISECONDS);
+        advance(10);
+        assertEquals(2, wheel.size());
+
+        cancelled.cancel();
+        advance(20);
+
+        assertTrue(cancelled.expiredAt.isEmpty());
+        assertEquals(1, other.expiredAt.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void schedule_shouldLetATimeoutRecurFromItsOwnExpiry() {
+        List<Long> rounds = new ArrayList<>();
+        HashedTimingWheel.Timeout recurring = new HashedTimingWheel.Timeout() {
+            @Override
+            protected void expire() {
+                rounds.add(now.get());
+                if (rounds.size() < 5) {
+                    wheel.schedule(this, 30, TimeUnit.MILLISECONDS);
+                }
+            }
+        };
+        wheel.schedule(recurring, 30, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 30; i++) {
+            advance(10);
+        }
+
+        assertEquals(5, rounds.size());
+        // Abstand höchstens ein Tick mehr als die Verzögerung
+        for (int i = 1; i < rounds.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(rounds.get(i) - rounds.get(i - 1));
+            assertTrue(gap >= 30 && gap <= 40, "gap " + gap);
+        }
+    }
+
+    @Test
+    void constructor_shouldRoundTheBucketsUpToAPowerOfTwo() {
+        assertEquals(8, wheel.buckets());
+        assertEquals(64, new HashedTimingWheel(500, TimeUnit.MILLISECONDS, 50, now::get).buckets());
+        assertEquals(1, new HashedTimingWheel(500, TimeUnit.MILLISECONDS, 1, now::get).buckets());
+    }
+}
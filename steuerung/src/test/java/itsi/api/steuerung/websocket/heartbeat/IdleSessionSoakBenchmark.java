@@ -0,0 +1,117 @@
+package itsi.api.steuerung.websocket.heartbeat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import itsi.api.steuerung.websocket.live.LiveUpdateRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 10,000 idle live-environment WebSockets held for a few heartbeat rounds, 1 % of them half-open (no
+ * pong). Measures the heap the server keeps per session (registry with its send decorator, heartbeat
+ * timer) against a budget of 2 KiB, i.e. 20 MB for 10,000 sessions, and checks that exactly the silent
+ * sessions are closed, that the heap does not grow while pinging and that the heartbeat runs on a fixed
+ * number of threads. The message buffers of the servlet container come on top, see
+ * {@code ws.container.*}. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class IdleSessionSoakBenchmark {
+
+    private static final int SESSIONS = 10_000;
+    private static final int SILENT_EVERY = 100;
+    private static final long BUDGET_BYTES_PER_SESSION = 2048;
+    private static final long INTERVAL_MS = 200;
+    private static final long TIMEOUT_MS = 1000;
+    private static final long TICK_MS = 20;
+    private static final long SOAK_MS = 5000;
+
+    @Test
+    void holdTenThousandIdleSessions() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        SessionHeartbeat heartbeat = new SessionHeartbeat(meterRegistry, true, INTERVAL_MS, TIMEOUT_MS, TICK_MS, 2);
+        Set<String> closed = ConcurrentHashMap.newKeySet();
+        List<WebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.add(session((long) i, i % SILENT_EVERY == 0, heartbeat, registry, closed));
+        }
+
+        // Nur der Zustand der Steuerung pro Sitzung, die Sitzungen selbst gehören dem Container
+        long baseline = usedHeap();
+        for (int i = 0; i < SESSIONS; i++) {
+            registry.register((long) i, sessions.get(i));
+            heartbeat.track(sessions.get(i));
+        }
+        long registered = usedHeap();
+        Thread.sleep(SOAK_MS);
+        int threadsDuring = ManagementFactory.getThreadMXBean().getThreadCount();
+        long afterSoak = usedHeap();
+        heartbeat.shutdown();
+
+        long perSession = (registered - baseline) / SESSIONS;
+        double pings = meterRegistry.get("ws.heartbeat.pings").counter().count();
+        System.out.printf("%d sessions: %d bytes/session (budget %d), %.1f MB after %d ms soak, %.0f pings, %d evicted, %d threads added%n",
+                SESSIONS, perSession, BUDGET_BYTES_PER_SESSION, (afterSoak - baseline) / 1e6, SOAK_MS, pings,
+                closed.size(), threadsDuring - threadsBefore);
+        System.out.printf("ping rtt mean %.3f ms%n",
+                meterRegistry.get("ws.heartbeat.rtt").timer().mean(TimeUnit.MILLISECONDS));
+
+        assertEquals(SESSIONS / SILENT_EVERY, closed.size());
+        assertEquals(SESSIONS - closed.size(), heartbeat.sessions());
+        assertEquals(SESSIONS - closed.size(), registry.sessions());
+        // Mindestens jede zweite Runde, auch wenn der Tick-Thread während der GCs zurückliegt
+        assertTrue(pings >= (double) (SESSIONS - closed.size()) * SOAK_MS / INTERVAL_MS / 2, "too few pings");
+        assertTrue(perSession <= BUDGET_BYTES_PER_SESSION, perSession + " bytes per session");
+        assertTrue(afterSoak - baseline <= BUDGET_BYTES_PER_SESSION * SESSIONS, "heap grew during the soak");
+        // Ein Tick-Thread und zwei I/O-Threads, unabhängig von der Zahl der Sitzungen
+        assertTrue(threadsDuring - threadsBefore <= 3, "threads added: " + (threadsDuring - threadsBefore));
+    }
+
+    private static WebSocketSession session(Long userId, boolean silent, SessionHeartbeat heartbeat,
+                                            LiveUpdateRegistry<Long> registry, Set<String> closed) throws Exception {
+        String id = "s" + userId;
+        WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenAnswer(invocation -> !closed.contains(id));
+        if (!silent) {
+            // Browser antworten auf einen Ping selbst mit einem Pong
+            doAnswer(invocation -> {
+                heartbeat.pong(session);
+                return null;
+            }).when(session).sendMessage(any(PingMessage.class));
+        }
+        // Wie afterConnectionClosed des Handlers
+        doAnswer(invocation -> {
+            closed.add(id);
+            registry.unregister(userId, session);
+            heartbeat.untrack(session);
+            return null;
+        }).when(session).close(any(CloseStatus.class));
+        return session;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
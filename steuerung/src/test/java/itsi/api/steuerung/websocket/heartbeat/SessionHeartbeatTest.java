@@ -0,0 +1,107 @@
+package itsi.api.steuerung.websocket.heartbeat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class SessionHeartbeatTest {
+
+    private static final long INTERVAL_MS = 100;
+    private static final long TIMEOUT_MS = 250;
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private HashedTimingWheel wheel;
+    private SessionHeartbeat heartbeat;
+
+    @BeforeEach
+    void setUp() {
+        wheel = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 16, now::get);
+        // Pings und Schließen direkt auf dem Test-Thread
+        heartbeat = new SessionHeartbeat(meterRegistry, true, INTERVAL_MS, TIMEOUT_MS, wheel, now::get,
+                Runnable::run, mock(ScheduledExecutorService.class));
+    }
+
+    private void advance(long millis) {
+        for (long i = 0; i < millis; i += 10) {
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+            wheel.advanceTo(now.get());
+        }
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    @Test
+    void track_shouldPingEveryIntervalWhileTheBrowserAnswers() throws Exception {
+        WebSocketSession session = session("s1");
+        doAnswer(invocation -> {
+            heartbeat.pong(session);
+            return null;
+        }).when(session).sendMessage(any(PingMessage.class));
+        heartbeat.track(session);
+
+        advance(1000);
+
+        verify(session, atLeast(8)).sendMessage(any(PingMessage.class));
+        verify(session, never()).close(any());
+        assertEquals(1, heartbeat.sessions());
+        assertEquals(0.0, meterRegistry.get("ws.heartbeat.evictions").counter().count());
+    }
+
+    @Test
+    void track_shouldCloseASessionWithoutPongAfterTheTimeout() throws Exception {
+        WebSocketSession silent = session("s1");
+        heartbeat.track(silent);
+
+        advance(TIMEOUT_MS);
+        verify(silent, never()).close(any());
+        advance(2 * INTERVAL_MS);
+
+        verify(silent).close(argThat(status -> status.getCode() == CloseStatus.SESSION_NOT_RELIABLE.getCode()));
+        assertEquals(0, heartbeat.sessions());
+        assertEquals(1.0, meterRegistry.get("ws.heartbeat.evictions").counter().count());
+    }
+
+    @Test
+    void track_shouldCloseTheSessionWhenThePingFails() throws Exception {
+        WebSocketSession broken = session("s1");
+        doThrow(new IOException("Broken pipe")).when(broken).sendMessage(any(PingMessage.class));
+        heartbeat.track(broken);
+
+        advance(INTERVAL_MS + 10);
+
+        verify(broken).close(any());
+        assertEquals(0, heartbeat.sessions());
+    }
+
+    @Test
+    void untrack_shouldStopPinging() throws Exception {
+        WebSocketSession session = session("s1");
+        heartbeat.track(session);
+        heartbeat.untrack(session);
+
+        advance(1000);
+
+        verify(session, never()).sendMessage(any());
+        verify(session, never()).close(any());
+        assertEquals(0, wheel.size());
+    }
+}
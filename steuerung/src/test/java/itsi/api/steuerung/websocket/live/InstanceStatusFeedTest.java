@@ -0,0 +1,91 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import itsi.api.steuerung.dto.InstanceDTO;
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.InstanceChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InstanceStatusFeedTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DatabaseService databaseService;
+    private LiveTopics topics;
+    private InstanceStatusFeed feed;
+
+    @BeforeEach
+    void setUp() {
+        databaseService = mock(DatabaseService.class);
+        topics = mock(LiveTopics.class);
+        LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("instances", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+        feed = new InstanceStatusFeed(registry, databaseService, topics, meterRegistry);
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private static InstanceDTO instance(int id, int userId, String status) {
+        InstanceDTO instance = new InstanceDTO();
+        instance.setId(id);
+        instance.setContainerId("cont_" + id);
+        instance.setUserId(userId);
+        instance.setImageId(3);
+        instance.setStatus(status);
+        return instance;
+    }
+
+    @Test
+    void onInstanceChanged_shouldSendOnlyStatusTransitionsToTheUser() throws Exception {
+        WebSocketSession session = session("s1");
+        WebSocketSession other = session("s2");
+        feed.register(1L, session);
+        feed.register(2L, other);
+
+        feed.onInstanceChanged(new InstanceChangedEvent(instance(5, 1, "created")));
+        feed.onInstanceChanged(new InstanceChangedEvent(instance(5, 1, "running")));
+        // Gleicher Status, z.B. erneuter Start
+        feed.onInstanceChanged(new InstanceChangedEvent(instance(5, 1, "running")));
+
+        ArgumentCaptor<TextMessage> messages = ArgumentCaptor.forClass(TextMessage.class);
+        verify(session, times(2)).sendMessage(messages.capture());
+        verify(other, never()).sendMessage(any());
+        assertEquals("{\"type\":\"status\",\"instances\":[{\"instanceId\":5,\"containerId\":\"cont_5\",\"imageId\":3,"
+                + "\"status\":\"running\",\"previousStatus\":\"created\"}]}", messages.getAllValues().get(1).getPayload());
+        assertEquals(2.0, meterRegistry.get("instances.ws.transitions").counter().count());
+        verify(topics, times(2)).publishToClass(eq(1L), eq("instances"), any());
+        verify(topics, times(2)).publishToImage(eq(3), eq(1L), eq("instances"), any());
+    }
+
+    @Test
+    void sendSnapshot_shouldPreferStatusesSeenSinceTheLoad() throws Exception {
+        WebSocketSession session = session("s1");
+        feed.register(1L, session);
+        feed.onInstanceChanged(new InstanceChangedEvent(instance(5, 1, "stopped")));
+        when(databaseService.getInstancesByUserId(1))
+                .thenReturn(Flux.just(instance(5, 1, "running"), instance(6, 1, "created")));
+
+        feed.sendSnapshot(1L, session);
+
+        ArgumentCaptor<TextMessage> messages = ArgumentCaptor.forClass(TextMessage.class);
+        verify(session, times(2)).sendMessage(messages.capture());
+        String snapshot = messages.getAllValues().get(1).getPayload();
+        assertTrue(snapshot.startsWith("{\"type\":\"snapshot\""));
+        assertTrue(snapshot.contains("{\"instanceId\":5,\"containerId\":\"cont_5\",\"imageId\":3,\"status\":\"stopped\""));
+        assertTrue(snapshot.contains("{\"instanceId\":6,\"containerId\":\"cont_6\",\"imageId\":3,\"status\":\"created\""));
+    }
+}
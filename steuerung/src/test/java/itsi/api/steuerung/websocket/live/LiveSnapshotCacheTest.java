@@ -0,0 +1,97 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import itsi.api.steuerung.service.DatabaseService;
+import itsi.api.steuerung.service.LiveEnvironmentChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LiveSnapshotCacheTest {
+
+    private DatabaseService databaseService;
+    private LiveUpdateLog updateLog;
+    private LiveSnapshotCache cache;
+
+    @BeforeEach
+    void setUp() {
+        databaseService = mock(DatabaseService.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+        updateLog = new LiveUpdateLog(registry, mock(LiveTopics.class), meterRegistry, 16, 0);
+        cache = new LiveSnapshotCache(databaseService, updateLog, 60_000, 100);
+    }
+
+    private static Map<String, Object> liveEnv(int id, long userId, String status) {
+        Map<String, Object> liveEnv = new LinkedHashMap<>();
+        liveEnv.put("id", id);
+        liveEnv.put("userId", userId);
+        liveEnv.put("status", status);
+        return liveEnv;
+    }
+
+    @Test
+    void snapshot_shouldLoadOnceAndThenHit() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L)).thenReturn(Mono.just(liveEnv(7, 1, "running")));
+
+        TextMessage first = cache.snapshot(1L).get();
+        CompletableFuture<TextMessage> second = cache.snapshot(1L);
+
+        assertEquals("{\"seq\":" + updateLog.seq(1L) + ",\"type\":\"snapshot\",\"data\":{\"id\":7,\"userId\":1,\"status\":\"running\"}}",
+                first.getPayload());
+        assertTrue(second.isDone());
+        // Schon serialisiert, dieselbe Nachricht für jede Sitzung
+        assertSame(first, second.get());
+        verify(databaseService, times(1)).getLiveEnvironmentByUserId(1L);
+    }
+
+    @Test
+    void snapshot_shouldShareOneLoadBetweenConcurrentConnects() throws Exception {
+        Sinks.One<Map<String, Object>> response = Sinks.one();
+        when(databaseService.getLiveEnvironmentByUserId(1L)).thenReturn(response.asMono());
+
+        CompletableFuture<TextMessage> first = cache.snapshot(1L);
+        CompletableFuture<TextMessage> second = cache.snapshot(1L);
+        assertFalse(first.isDone());
+
+        response.tryEmitValue(liveEnv(7, 1, "running"));
+
+        assertSame(first.get(), second.get());
+        verify(databaseService, times(1)).getLiveEnvironmentByUserId(1L);
+    }
+
+    @Test
+    void snapshot_shouldNotCacheMissingLiveEnvironment() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L)).thenReturn(Mono.empty());
+
+        assertNull(cache.snapshot(1L).get());
+        assertNull(cache.snapshot(1L).get());
+
+        verify(databaseService, times(2)).getLiveEnvironmentByUserId(1L);
+    }
+
+    @Test
+    void onLiveEnvironmentChanged_shouldInvalidateByUserAndById() throws Exception {
+        when(databaseService.getLiveEnvironmentByUserId(1L))
+                .thenReturn(Mono.just(liveEnv(7, 1, "stopped")))
+                .thenReturn(Mono.just(liveEnv(7, 1, "running")))
+                .thenReturn(Mono.just(liveEnv(7, 1, "stopped")));
+
+        assertTrue(cache.snapshot(1L).get().getPayload().contains("stopped"));
+        cache.onLiveEnvironmentChanged(new LiveEnvironmentChangedEvent(null, 1L));
+        assertTrue(cache.snapshot(1L).get().getPayload().contains("running"));
+        // Status-Update kennt nur die ID
+        cache.onLiveEnvironmentChanged(new LiveEnvironmentChangedEvent(7, null));
+        assertTrue(cache.snapshot(1L).get().getPayload().contains("stopped"));
+    }
+}
@@ -0,0 +1,130 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import itsi.api.steuerung.dto.UserDTO;
+import itsi.api.steuerung.service.DatabaseService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class LiveTopicsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DatabaseService databaseService;
+    private LiveTopics topics;
+
+    @BeforeEach
+    void setUp() {
+        databaseService = mock(DatabaseService.class);
+        LiveUpdateRegistry<String> registry = new LiveUpdateRegistry<>("topics", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+        topics = new LiveTopics(registry, databaseService, meterRegistry);
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private static UserDTO user(int id, String className) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setClassName(className);
+        return user;
+    }
+
+    @Test
+    void publishToClass_shouldSerializeOnceForEveryDashboardOfTheClass() throws Exception {
+        WebSocketSession teacher = session("t1");
+        WebSocketSession secondScreen = session("t2");
+        WebSocketSession otherClass = session("t3");
+        topics.subscribe(List.of("class:3AHIT"), teacher);
+        topics.subscribe(List.of("class:3AHIT", "image:5"), secondScreen);
+        topics.subscribe(List.of("class:3BHIT"), otherClass);
+        when(databaseService.getUserById(12)).thenReturn(Mono.just(user(12, "3AHIT")));
+
+        topics.publishToClass(12L, "live-environment", Map.of("status", "running"));
+
+        ArgumentCaptor<TextMessage> toTeacher = ArgumentCaptor.forClass(TextMessage.class);
+        ArgumentCaptor<TextMessage> toSecondScreen = ArgumentCaptor.forClass(TextMessage.class);
+        verify(teacher).sendMessage(toTeacher.capture());
+        verify(secondScreen).sendMessage(toSecondScreen.capture());
+        verify(otherClass, never()).sendMessage(any());
+        // Einmal je Topic serialisiert, nicht je Sitzung
+        assertSame(toTeacher.getValue(), toSecondScreen.getValue());
+        assertEquals("{\"topic\":\"class:3AHIT\",\"userId\":12,\"channel\":\"live-environment\",\"update\":{\"status\":\"running\"}}",
+                toTeacher.getValue().getPayload());
+        assertEquals(1L, meterRegistry.get("liveenv.ws.serialize").tag("channel", "topics").timer().count());
+    }
+
+    @Test
+    void publishToClass_shouldLeaveOutTheVncPassword() throws Exception {
+        WebSocketSession teacher = session("t1");
+        topics.subscribe(List.of("class:3AHIT"), teacher);
+        when(databaseService.getUserById(12)).thenReturn(Mono.just(user(12, "3AHIT")));
+
+        topics.publishToClass(12L, "live-environment",
+                new LiveUpdateLog.LiveUpdate(3, "delta", Map.of("vncPassword", "secret")));
+
+        ArgumentCaptor<TextMessage> message = ArgumentCaptor.forClass(TextMessage.class);
+        verify(teacher).sendMessage(message.capture());
+        assertFalse(message.getValue().getPayload().contains("secret"));
+        assertTrue(message.getValue().getPayload().contains("\"seq\":3"));
+    }
+
+    @Test
+    void publishToClass_shouldKeepTheOrderWhileTheClassIsLoading() throws Exception {
+        WebSocketSession teacher = session("t1");
+        topics.subscribe(List.of("class:3AHIT"), teacher);
+        Sinks.One<UserDTO> loading = Sinks.one();
+        when(databaseService.getUserById(12)).thenReturn(loading.asMono()).thenReturn(Mono.just(user(12, "3AHIT")));
+
+        topics.publishToClass(12L, "live-environment", Map.of("seq", 1));
+        topics.publishToClass(12L, "live-environment", Map.of("seq", 2));
+        verify(teacher, never()).sendMessage(any());
+        loading.tryEmitValue(user(12, "3AHIT"));
+        topics.publishToClass(12L, "live-environment", Map.of("seq", 3));
+
+        ArgumentCaptor<TextMessage> messages = ArgumentCaptor.forClass(TextMessage.class);
+        verify(teacher, times(3)).sendMessage(messages.capture());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(messages.getAllValues().get(i).getPayload().endsWith("\"update\":{\"seq\":" + (i + 1) + "}}"));
+        }
+        // Eine Abfrage für die wartenden Updates, eine für das nächste
+        verify(databaseService, times(2)).getUserById(12);
+    }
+
+    @Test
+    void publishToClass_shouldNotLookUpTheClassWithoutDashboards() {
+        topics.publishToClass(12L, "live-environment", Map.of("status", "running"));
+
+        verify(databaseService, never()).getUserById(anyInt());
+    }
+
+    @Test
+    void unsubscribe_shouldStopUpdatesOfTheImage() throws Exception {
+        WebSocketSession dashboard = session("t1");
+        topics.subscribe(List.of("image:5"), dashboard);
+
+        topics.publishToImage(5, 12L, "instances", Map.of("status", "running"));
+        topics.unsubscribe(List.of("image:5"), dashboard);
+        topics.publishToImage(5, 12L, "instances", Map.of("status", "stopped"));
+
+        verify(dashboard, times(1)).sendMessage(any());
+        assertEquals(1.0, meterRegistry.get("liveenv.topics.published").counter().count());
+    }
+}
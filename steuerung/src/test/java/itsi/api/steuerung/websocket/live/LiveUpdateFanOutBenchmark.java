@@ -0,0 +1,163 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Live-environment updates for 2,000 users with three sessions each (6,000 sessions): the registry,
+ * which serializes each update once with a shared mapper, compared with a new mapper and serialization
+ * per session and message, as before. Also times closing all sessions against removing each one by
+ * scanning the values of a session map. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class LiveUpdateFanOutBenchmark {
+
+    private static final int USERS = 2_000;
+    private static final int SESSIONS_PER_USER = 3;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void serializeOncePerUpdate() throws Exception {
+        AtomicLong received = new AtomicLong();
+        List<List<WebSocketSession>> sessions = new ArrayList<>();
+        for (int user = 0; user < USERS; user++) {
+            List<WebSocketSession> userSessions = new ArrayList<>();
+            for (int i = 0; i < SESSIONS_PER_USER; i++) {
+                userSessions.add(session(user + "-" + i, received));
+            }
+            sessions.add(userSessions);
+        }
+
+        // Warmup
+        perSession(sessions);
+        shared(sessions);
+
+        received.set(0);
+        Result perSession = perSession(sessions);
+        long perSessionBytes = received.getAndSet(0);
+        Result shared = shared(sessions);
+        long sharedBytes = received.get();
+        perSession.print("mapper per session");
+        shared.print("serialized once");
+
+        long scanNanos = removeByScan(sessions);
+        long registryNanos = removeFromRegistry(sessions);
+        System.out.printf("closing %d sessions: map scan %6.1f ms, registry %6.1f ms%n",
+                USERS * SESSIONS_PER_USER, scanNanos / 1e6, registryNanos / 1e6);
+
+        assertEquals(perSessionBytes, sharedBytes);
+        assertTrue(shared.nanos * 2 < perSession.nanos, "serializing once is not faster");
+        assertTrue(shared.allocatedBytes * 2 < perSession.allocatedBytes, "serializing once does not allocate less");
+        assertTrue(registryNanos < scanNanos, "removing a session is not cheaper than a scan");
+    }
+
+    private Result perSession(List<List<WebSocketSession>> sessions) throws Exception {
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int user = 0; user < USERS; user++) {
+                Map<String, Object> update = liveEnvironment(user, round);
+                for (WebSocketSession session : sessions.get(user)) {
+                    session.sendMessage(new TextMessage(JsonMapper.builder().build().writeValueAsString(update)));
+                }
+            }
+        }
+        return new Result(System.nanoTime() - start, allocatedBytes() - allocated);
+    }
+
+    private Result shared(List<List<WebSocketSession>> sessions) {
+        LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), new SimpleMeterRegistry(), 5000, 1 << 16);
+        for (int user = 0; user < USERS; user++) {
+            for (WebSocketSession session : sessions.get(user)) {
+                registry.register((long) user, session);
+            }
+        }
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int user = 0; user < USERS; user++) {
+                registry.publish((long) user, liveEnvironment(user, round));
+            }
+        }
+        return new Result(System.nanoTime() - start, allocatedBytes() - allocated);
+    }
+
+    private long removeByScan(List<List<WebSocketSession>> sessions) {
+        Map<String, WebSocketSession> bySession = new ConcurrentHashMap<>();
+        sessions.forEach(userSessions -> userSessions.forEach(session -> bySession.put(session.getId(), session)));
+        long start = System.nanoTime();
+        sessions.forEach(userSessions -> userSessions.forEach(session -> bySession.values().remove(session)));
+        return System.nanoTime() - start;
+    }
+
+    private long removeFromRegistry(List<List<WebSocketSession>> sessions) {
+        LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), new SimpleMeterRegistry(), 5000, 1 << 16);
+        for (int user = 0; user < USERS; user++) {
+            for (WebSocketSession session : sessions.get(user)) {
+                registry.register((long) user, session);
+            }
+        }
+        long start = System.nanoTime();
+        for (int user = 0; user < USERS; user++) {
+            for (WebSocketSession session : sessions.get(user)) {
+                registry.unregister((long) user, session);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertEquals(0, registry.sessions());
+        return nanos;
+    }
+
+    private static Map<String, Object> liveEnvironment(int user, int round) {
+        Map<String, Object> liveEnv = new LinkedHashMap<>();
+        liveEnv.put("id", user);
+        liveEnv.put("userId", user);
+        liveEnv.put("status", round % 2 == 0 ? "running" : "stopped");
+        liveEnv.put("vncHost", "localhost");
+        liveEnv.put("vncPort", 5901 + user);
+        liveEnv.put("noVncPort", 6901 + user);
+        liveEnv.put("vncPassword", "password123");
+        return liveEnv;
+    }
+
+    private static WebSocketSession session(String id, AtomicLong received) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            received.addAndGet(invocation.<TextMessage>getArgument(0).getPayloadLength());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private record Result(long nanos, long allocatedBytes) {
+
+        void print(String label) {
+            int messages = USERS * SESSIONS_PER_USER * ROUNDS;
+            System.out.printf("%-20s %6d messages in %7.1f ms (%6.2f us/message), %8.1f MB allocated%n",
+                    label, messages, nanos / 1e6, nanos / 1e3 / messages, allocatedBytes / 1e6);
+        }
+    }
+}
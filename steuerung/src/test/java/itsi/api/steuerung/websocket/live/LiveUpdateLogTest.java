@@ -0,0 +1,125 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LiveUpdateLogTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LiveUpdateRegistry<Long> registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+    private LiveUpdateLog updateLog;
+
+    @AfterEach
+    void tearDown() {
+        if (updateLog != null) {
+            updateLog.shutdown();
+        }
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private static Map<String, Object> liveEnv(String status, int vncPort) {
+        Map<String, Object> liveEnv = new LinkedHashMap<>();
+        liveEnv.put("id", 7);
+        liveEnv.put("status", status);
+        liveEnv.put("vncPort", vncPort);
+        return liveEnv;
+    }
+
+    private static List<String> received(WebSocketSession session, int count) throws Exception {
+        ArgumentCaptor<TextMessage> messages = ArgumentCaptor.forClass(TextMessage.class);
+        verify(session, timeout(1000).times(count)).sendMessage(messages.capture());
+        return messages.getAllValues().stream().map(TextMessage::getPayload).toList();
+    }
+
+    @Test
+    void publish_shouldSendASnapshotAndThenOnlyTheChangedFields() throws Exception {
+        updateLog = new LiveUpdateLog(registry, mock(LiveTopics.class), meterRegistry, 16, 0);
+        WebSocketSession session = session("s1");
+        registry.register(1L, session);
+        long base = updateLog.seq(1L);
+
+        updateLog.publish(1L, liveEnv("running", 5901));
+        updateLog.publish(1L, liveEnv("running", 5901));
+        Map<String, Object> stopped = liveEnv("stopped", 5901);
+        stopped.remove("vncPort");
+        updateLog.publish(1L, stopped);
+
+        assertEquals(List.of(
+                "{\"seq\":" + (base + 1) + ",\"type\":\"snapshot\",\"data\":{\"id\":7,\"status\":\"running\",\"vncPort\":5901}}",
+                // Unverändertes Update wird nicht gesendet, entfernte Felder kommen als null
+                "{\"seq\":" + (base + 2) + ",\"type\":\"delta\",\"data\":{\"status\":\"stopped\",\"vncPort\":null}}"),
+                received(session, 2));
+    }
+
+    @Test
+    void publish_shouldCollapseBurstsLatestValueWins() throws Exception {
+        updateLog = new LiveUpdateLog(registry, mock(LiveTopics.class), meterRegistry, 16, 50);
+        WebSocketSession session = session("s1");
+        registry.register(1L, session);
+        updateLog.publish(1L, liveEnv("stopped", 5901));
+        received(session, 1);
+
+        updateLog.publish(1L, liveEnv("starting", 5901));
+        updateLog.publish(1L, liveEnv("running", 5902));
+        updateLog.publish(1L, liveEnv("running", 5903));
+
+        List<String> messages = received(session, 2);
+        assertTrue(messages.get(1).endsWith("\"type\":\"delta\",\"data\":{\"status\":\"running\",\"vncPort\":5903}}"));
+        assertEquals(2.0, meterRegistry.get("liveenv.ws.collapsed").counter().count());
+    }
+
+    @Test
+    void resume_shouldReplayOnlyTheMissedMessages() throws Exception {
+        updateLog = new LiveUpdateLog(registry, mock(LiveTopics.class), meterRegistry, 16, 0);
+        long base = updateLog.seq(1L);
+        updateLog.publish(1L, liveEnv("stopped", 5901));
+        updateLog.publish(1L, liveEnv("running", 5901));
+        updateLog.publish(1L, liveEnv("running", 5902));
+
+        WebSocketSession session = session("s1");
+        registry.register(1L, session);
+
+        assertTrue(updateLog.resume(1L, session, base + 1));
+        List<String> messages = received(session, 2);
+        assertTrue(messages.get(0).startsWith("{\"seq\":" + (base + 2) + ",\"type\":\"delta\""));
+        assertTrue(messages.get(1).startsWith("{\"seq\":" + (base + 3) + ",\"type\":\"delta\""));
+        assertEquals(1.0, meterRegistry.get("liveenv.ws.replays").tag("result", "delta").counter().count());
+    }
+
+    @Test
+    void resume_shouldSendTheSnapshotWhenLastSeqIsNoLongerBuffered() throws Exception {
+        updateLog = new LiveUpdateLog(registry, mock(LiveTopics.class), meterRegistry, 2, 0);
+        long base = updateLog.seq(1L);
+        assertFalse(updateLog.resume(1L, session("s0"), base));
+        for (int port = 5901; port <= 5905; port++) {
+            updateLog.publish(1L, liveEnv("running", port));
+        }
+
+        WebSocketSession session = session("s1");
+        registry.register(1L, session);
+
+        // Aus einem früheren Lauf oder zu weit zurück
+        assertTrue(updateLog.resume(1L, session, base + 1));
+        assertEquals("{\"seq\":" + (base + 5) + ",\"type\":\"snapshot\",\"data\":{\"id\":7,\"status\":\"running\",\"vncPort\":5905}}",
+                received(session, 1).get(0));
+        assertEquals(1.0, meterRegistry.get("liveenv.ws.replays").tag("result", "snapshot").counter().count());
+    }
+}
@@ -0,0 +1,91 @@
+package itsi.api.steuerung.websocket.live;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class LiveUpdateRegistryTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private LiveUpdateRegistry<Long> registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new LiveUpdateRegistry<>("live-environment", JsonMapper.builder().build(), meterRegistry, 5000, 1 << 16);
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    @Test
+    void publish_shouldSendTheSameMessageToEverySessionOfTheUser() throws Exception {
+        WebSocketSession tab = session("s1");
+        WebSocketSession phone = session("s2");
+        WebSocketSession other = session("s3");
+        registry.register(1L, tab);
+        registry.register(1L, phone);
+        registry.register(2L, other);
+
+        assertEquals(2, registry.publish(1L, Map.of("status", "running")));
+
+        ArgumentCaptor<TextMessage> toTab = ArgumentCaptor.forClass(TextMessage.class);
+        ArgumentCaptor<TextMessage> toPhone = ArgumentCaptor.forClass(TextMessage.class);
+        verify(tab).sendMessage(toTab.capture());
+        verify(phone).sendMessage(toPhone.capture());
+        verify(other, never()).sendMessage(any());
+        // Einmal serialisiert, dieselbe Nachricht für beide
+        assertSame(toTab.getValue(), toPhone.getValue());
+        assertEquals("{\"status\":\"running\"}", toTab.getValue().getPayload());
+        assertEquals(1L, meterRegistry.get("liveenv.ws.serialize").timer().count());
+    }
+
+    @Test
+    void unregister_shouldDropTheUserWithItsLastSession() {
+        WebSocketSession tab = session("s1");
+        WebSocketSession phone = session("s2");
+        registry.register(1L, tab);
+        registry.register(1L, phone);
+
+        registry.unregister(1L, tab);
+        assertEquals(1, registry.sessions());
+        assertEquals(1, registry.users());
+
+        registry.unregister(1L, phone);
+        assertEquals(0, registry.sessions());
+        assertEquals(0, registry.users());
+        assertEquals(0, registry.publish(1L, Map.of("status", "stopped")));
+    }
+
+    @Test
+    void publish_shouldDropSessionsThatFail() throws Exception {
+        WebSocketSession broken = session("s1");
+        WebSocketSession tab = session("s2");
+        doThrow(new IOException("Broken pipe")).when(broken).sendMessage(any());
+        registry.register(1L, broken);
+        registry.register(1L, tab);
+
+        assertEquals(1, registry.publish(1L, Map.of("status", "running")));
+
+        assertEquals(1, registry.sessions());
+        verify(broken).close(CloseStatus.SESSION_NOT_RELIABLE);
+        verify(tab).sendMessage(any());
+        assertEquals(1.0, meterRegistry.get("liveenv.ws.send.failures").counter().count());
+    }
+}
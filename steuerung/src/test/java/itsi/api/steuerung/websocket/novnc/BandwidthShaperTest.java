@@ -0,0 +1,126 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BandwidthShaperTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BandwidthShaper shaper;
+
+    @AfterEach
+    void tearDown() {
+        if (shaper != null) {
+            shaper.shutdown();
+        }
+    }
+
+    // Rebalancing nur von Hand
+    private BandwidthShaper newShaper(long sessionRate, long globalRate, int maxSessions, int maxWaiting, long waitTimeoutMillis) {
+        return new BandwidthShaper(meterRegistry, true, sessionRate, globalRate, 1000, "ADMIN=4", 60_000,
+                maxSessions, maxWaiting, waitTimeoutMillis);
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        return session;
+    }
+
+    @Test
+    void acquire_shouldHoldBackOnceTheBurstIsUsed() {
+        shaper = newShaper(1000, 0, 0, 0, 1000);
+        BandwidthShaper.Share share = shaper.admit(session("s1"), "USER").join();
+        long now = System.nanoTime();
+
+        // Ein Frame darf das Budget überziehen, der nächste wartet die Schuld ab
+        assertEquals(0, shaper.acquire(share, 1500, now));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), shaper.acquire(share, 100, now));
+        assertEquals(0, shaper.acquire(share, 100, now + TimeUnit.MILLISECONDS.toNanos(500)));
+        assertEquals(1.0, meterRegistry.get("novnc.shaping.delayed").counter().count());
+    }
+
+    @Test
+    void rebalance_shouldSplitTheGlobalRateBetweenSendingSessionsByWeight() {
+        shaper = newShaper(0, 500_000, 0, 0, 1000);
+        BandwidthShaper.Share admin = shaper.admit(session("s1"), "admin").join();
+        BandwidthShaper.Share user = shaper.admit(session("s2"), "USER").join();
+        BandwidthShaper.Share idle = shaper.admit(session("s3"), null).join();
+
+        shaper.acquire(admin, 1, System.nanoTime());
+        shaper.acquire(user, 1, System.nanoTime());
+        shaper.rebalance();
+
+        assertEquals(2, shaper.active());
+        assertEquals(400_000, admin.rate());
+        assertEquals(100_000, user.rate());
+        // So viel, wie sie neben den beiden anderen bekäme
+        assertEquals(83_333, idle.rate());
+
+        shaper.acquire(user, 1, System.nanoTime());
+        shaper.rebalance();
+
+        assertEquals(500_000, user.rate());
+        assertEquals(400_000, admin.rate());
+    }
+
+    @Test
+    void admit_shouldQueueBeyondMaxSessionsHigherWeightsFirst() {
+        shaper = newShaper(0, 500_000, 1, 2, 60_000);
+        CompletableFuture<BandwidthShaper.Share> first = shaper.admit(session("s1"), "USER");
+        CompletableFuture<BandwidthShaper.Share> second = shaper.admit(session("s2"), "USER");
+        CompletableFuture<BandwidthShaper.Share> third = shaper.admit(session("s3"), "ADMIN");
+        CompletableFuture<BandwidthShaper.Share> fourth = shaper.admit(session("s4"), "ADMIN");
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(2, shaper.waiting());
+        ExecutionException rejected = assertThrows(ExecutionException.class, fourth::get);
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+
+        shaper.release(first);
+
+        assertEquals("s3", third.join().sessionId());
+        assertFalse(second.isDone());
+
+        shaper.release(second);
+
+        assertEquals(0, shaper.waiting());
+        assertEquals(1, shaper.sessions());
+        assertEquals(1.0, meterRegistry.get("novnc.shaping.admissions").tag("result", "rejected").counter().count());
+    }
+
+    @Test
+    void admit_shouldGiveUpAfterTheWaitTimeout() {
+        shaper = newShaper(0, 500_000, 1, 5, 50);
+        shaper.admit(session("s1"), null);
+
+        CompletableFuture<BandwidthShaper.Share> waiting = shaper.admit(session("s2"), null);
+
+        ExecutionException timedOut = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, timedOut.getCause());
+        assertEquals(0, shaper.waiting());
+        assertEquals(1.0, meterRegistry.get("novnc.shaping.admissions").tag("result", "timeout").counter().count());
+    }
+
+    @Test
+    void admit_shouldAdmitWithoutShareWhenDisabled() {
+        shaper = new BandwidthShaper(meterRegistry, false, 1000, 1000, 1000, "", 100, 1, 0, 1000);
+
+        assertNull(shaper.admit(session("s1"), null).join());
+        assertNull(shaper.admit(session("s2"), null).join());
+        assertEquals(0, shaper.sessions());
+    }
+}
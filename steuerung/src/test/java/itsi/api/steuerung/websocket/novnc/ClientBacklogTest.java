@@ -0,0 +1,81 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientBacklogTest {
+
+    private static ByteBuffer message(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length);
+        for (int value : values) {
+            buffer.put((byte) value);
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void drain_shouldForwardQueuedMessagesInOrder() {
+        ClientBacklog backlog = new ClientBacklog(1024);
+        List<ByteBuffer> forwarded = new ArrayList<>();
+
+        assertTrue(backlog.offer(message(1, 2)));
+        assertTrue(backlog.offer(message(3)));
+        backlog.drain(forwarded::add);
+
+        assertEquals(List.of(message(1, 2), message(3)), forwarded);
+    }
+
+    @Test
+    void drain_shouldForwardMessagesOfferedWhileDraining() {
+        ClientBacklog backlog = new ClientBacklog(1024);
+        List<ByteBuffer> forwarded = new ArrayList<>();
+        backlog.offer(message(1));
+
+        backlog.drain(data -> {
+            forwarded.add(data);
+            if (forwarded.size() == 1) {
+                // Browser sendet, während der Puffer geleert wird
+                assertTrue(backlog.offer(message(2)));
+            }
+        });
+
+        assertEquals(List.of(message(1), message(2)), forwarded);
+    }
+
+    @Test
+    void offer_shouldRefuseAfterDrain() {
+        ClientBacklog backlog = new ClientBacklog(1024);
+
+        backlog.drain(data -> fail("nothing queued"));
+
+        assertFalse(backlog.offer(message(1)));
+    }
+
+    @Test
+    void offer_shouldCopyWithoutConsuming() {
+        ClientBacklog backlog = new ClientBacklog(1024);
+        ByteBuffer data = message(1, 2);
+        List<ByteBuffer> forwarded = new ArrayList<>();
+
+        backlog.offer(data);
+        data.put(0, (byte) 9);
+        backlog.drain(forwarded::add);
+
+        assertEquals(2, data.remaining());
+        assertEquals(List.of(message(1, 2)), forwarded);
+    }
+
+    @Test
+    void offer_shouldRejectMoreThanMaxBytes() {
+        ClientBacklog backlog = new ClientBacklog(2);
+
+        backlog.offer(message(1, 2));
+
+        assertThrows(IllegalStateException.class, () -> backlog.offer(message(3)));
+    }
+}
@@ -0,0 +1,49 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectBufferPoolTest {
+
+    @Test
+    void acquire_shouldReuseReleasedBuffer() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 4);
+
+        ByteBuffer first = pool.acquire();
+        first.put((byte) 1);
+        pool.release(first);
+        ByteBuffer second = pool.acquire();
+
+        assertSame(first, second);
+        assertTrue(second.isDirect());
+        assertEquals(0, second.position());
+        assertEquals(1024, second.limit());
+        assertEquals(1, pool.allocated());
+    }
+
+    @Test
+    void release_shouldKeepAtMostMaxPooledBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 2);
+        ByteBuffer[] buffers = {pool.acquire(), pool.acquire(), pool.acquire()};
+
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+
+        assertEquals(2, pool.pooled());
+        assertEquals(3, pool.allocated());
+    }
+
+    @Test
+    void release_shouldIgnoreForeignBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 2);
+
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocateDirect(512));
+
+        assertEquals(0, pool.pooled());
+    }
+}
@@ -0,0 +1,138 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal RFB 3.8 server for tests: security None, answers every FramebufferUpdateRequest with one Raw
+ * rectangle (the whole screen if not incremental, otherwise a tile) of random pixels, at the bits per
+ * pixel of the last SetPixelFormat (32 until then), and counts what it sends. Keeps the last SetEncodings.
+ */
+class FakeVncServer implements AutoCloseable {
+
+    final int width;
+    final int height;
+    final int tile;
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger fullRequests = new AtomicInteger();
+    final AtomicLong bytesSent = new AtomicLong();
+    volatile int[] encodings;
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+
+    FakeVncServer(int width, int height, int tile) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.tile = tile;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::acceptLoop, "fake-vnc");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Closes the open connections, as a VNC server restarting in the container would; new ones are
+     * still accepted.
+     */
+    void dropConnections() throws IOException {
+        for (Socket socket : open) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                open.add(socket);
+                connections.incrementAndGet();
+                Thread connection = new Thread(() -> serve(socket), "fake-vnc-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(RfbHandshakeRecorderTest.VERSION_38);
+            in.readNBytes(12);
+            out.write(new byte[]{1, 1});
+            in.readByte();
+            out.writeInt(0);
+            in.readByte();
+            ByteBuffer serverInit = ByteBuffer.wrap(RfbHandshakeRecorderTest.serverInit("fake"));
+            serverInit.putShort(0, (short) width).putShort(2, (short) height);
+            out.write(serverInit.array());
+            byte[] frame = new byte[width * height * 4];
+            ThreadLocalRandom.current().nextBytes(frame);
+            int bytesPerPixel = 4;
+            while (true) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case 0 -> {
+                        in.readNBytes(3);
+                        bytesPerPixel = in.readUnsignedByte() / 8;
+                        in.readNBytes(15);
+                    }
+                    case 2 -> {
+                        in.readByte();
+                        int[] received = new int[in.readUnsignedShort()];
+                        for (int i = 0; i < received.length; i++) {
+                            received[i] = in.readInt();
+                        }
+                        encodings = received;
+                    }
+                    case 3 -> {
+                        boolean incremental = in.readByte() != 0;
+                        in.readNBytes(8);
+                        requests.incrementAndGet();
+                        int w = incremental ? tile : width;
+                        int h = incremental ? tile : height;
+                        if (!incremental) {
+                            fullRequests.incrementAndGet();
+                        }
+                        ByteBuffer header = ByteBuffer.allocate(16)
+                                .put((byte) 0).put((byte) 0).putShort((short) 1)
+                                .putShort((short) 0).putShort((short) 0).putShort((short) w).putShort((short) h).putInt(0);
+                        out.write(header.array());
+                        out.write(frame, 0, w * h * bytesPerPixel);
+                        out.flush();
+                        bytesSent.addAndGet(16 + (long) w * h * bytesPerPixel);
+                    }
+                    default -> throw new IOException("Unexpected client message " + type);
+                }
+            }
+        } catch (IOException e) {
+            // Verbindung beendet
+        } finally {
+            open.remove(socket);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Frames per second and CPU time of the send path with and without {@link FrameCoalescer}, for a VNC
+ * server that delivers framebuffer updates as bursts of MTU-sized reads. Every frame is written to a
+ * loopback socket, so it costs a system call like a send of the WebSocket container. Run with
+ * {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class FrameCoalescerBenchmark {
+
+    private static final int BURSTS = 2_000;
+    private static final int READS_PER_BURST = 16;
+    private static final int READ_SIZE = 1_460;
+    private static final long PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void coalescingSendsFewerFramesForTheSameBytes() throws Exception {
+        // Warmup
+        run(false);
+        run(true);
+
+        Result passThrough = run(false);
+        Result coalesced = run(true);
+        passThrough.print("pass-through");
+        coalesced.print("coalesced");
+
+        assertTrue(coalesced.frames * 4 < passThrough.frames, "coalescing does not reduce the number of frames");
+    }
+
+    private Result run(boolean coalesce) throws Exception {
+        VncProxyEngine engine = new VncProxyEngine(1, 65_536, 64, true, 0, 0);
+        NoVncSendPath sendPath = new NoVncSendPath(engine, new SimpleMeterRegistry(), 2, 1 << 24, 10_000,
+                OverflowPolicy.BACKPRESSURE, coalesce, 16_384, 200, 4_000, 0.1);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel peer = server.accept()) {
+            AtomicLong frames = new AtomicLong();
+            AtomicLong receivedBytes = new AtomicLong();
+            Thread reader = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+                try {
+                    int read;
+                    while ((read = peer.read(buffer)) > 0) {
+                        receivedBytes.addAndGet(read);
+                        buffer.clear();
+                    }
+                } catch (IOException e) {
+                    // Socket am Ende des Laufs geschlossen
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+
+            WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+            when(session.getId()).thenReturn("bench");
+            doAnswer(invocation -> {
+                ByteBuffer payload = invocation.<BinaryMessage>getArgument(0).getPayload();
+                frames.incrementAndGet();
+                while (payload.hasRemaining()) {
+                    client.write(payload);
+                }
+                return null;
+            }).when(session).sendMessage(any());
+            SessionSendQueue queue = sendPath.open(session);
+
+            ByteBuffer read = ByteBuffer.allocateDirect(READ_SIZE);
+            long totalBytes = (long) BURSTS * READS_PER_BURST * READ_SIZE;
+            long cpuStart = processCpuNanos();
+            long start = System.nanoTime();
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (int i = 0; i < READS_PER_BURST; i++) {
+                    read.clear();
+                    queue.enqueue(read);
+                }
+                LockSupport.parkNanos(PAUSE_NANOS);
+            }
+            while (receivedBytes.get() < totalBytes) {
+                LockSupport.parkNanos(100_000);
+            }
+            long wallNanos = System.nanoTime() - start;
+            long cpuNanos = processCpuNanos() - cpuStart;
+            queue.close();
+            return new Result(frames.get(), totalBytes, wallNanos, cpuNanos);
+        } finally {
+            sendPath.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private record Result(long frames, long bytes, long wallNanos, long cpuNanos) {
+
+        void print(String label) {
+            double seconds = wallNanos / 1e9;
+            System.out.printf("%-12s %8d frames, %7.0f frames/s, %6.0f bytes/frame, CPU %6.1f ms (%5.2f ms per MB)%n",
+                    label, frames, frames / seconds, bytes / (double) frames,
+                    cpuNanos / 1e6, cpuNanos / 1e6 / (bytes / 1e6));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FrameCoalescerTest {
+
+    private VncProxyEngine engine;
+    private NoVncSendPath sendPath;
+    private WebSocketSession session;
+    private final List<byte[]> frames = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(1, 1024, 16, true, 0, 0);
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            ByteBuffer payload = invocation.<BinaryMessage>getArgument(0).getPayload();
+            byte[] frame = new byte[payload.remaining()];
+            payload.get(frame);
+            frames.add(frame);
+            return null;
+        }).when(session).sendMessage(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (sendPath != null) {
+            sendPath.shutdown();
+        }
+        engine.shutdown();
+    }
+
+    private NoVncSendPath newSendPath(int byteThreshold, long minDelayMicros, long maxDelayMicros) {
+        return new NoVncSendPath(engine, new SimpleMeterRegistry(), 1, 1 << 20, 10_000, OverflowPolicy.BACKPRESSURE,
+                true, byteThreshold, minDelayMicros, maxDelayMicros, 0.1);
+    }
+
+    private static ByteBuffer bytes(int from, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) (from + i));
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void append_shouldSendSmallReadsAsOneFrameAtThreshold() throws Exception {
+        sendPath = newSendPath(64, 1_000_000, 1_000_000);
+        SessionSendQueue queue = sendPath.open(session);
+
+        for (int i = 0; i < 8; i++) {
+            queue.enqueue(bytes(i * 8, 8));
+        }
+
+        verify(session, timeout(5000)).sendMessage(any());
+        assertEquals(1, frames.size());
+        assertArrayEquals(bytes(0, 64).array(), frames.get(0));
+    }
+
+    @Test
+    void append_shouldFlushPartialFrameAfterDeadline() throws Exception {
+        sendPath = newSendPath(512, 1_000, 4_000);
+        SessionSendQueue queue = sendPath.open(session);
+
+        queue.enqueue(bytes(0, 10));
+        queue.enqueue(bytes(10, 10));
+
+        verify(session, timeout(5000)).sendMessage(any());
+        assertEquals(1, frames.size());
+        assertArrayEquals(bytes(0, 20).array(), frames.get(0));
+    }
+
+    @Test
+    void append_shouldSplitReadsLargerThanBuffer() throws Exception {
+        sendPath = newSendPath(512, 1_000, 4_000);
+        SessionSendQueue queue = sendPath.open(session);
+
+        queue.enqueue(bytes(0, 2500));
+
+        verify(session, timeout(5000).times(3)).sendMessage(any());
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            sent.write(frame, 0, frame.length);
+        }
+        assertArrayEquals(bytes(0, 2500).array(), sent.toByteArray());
+        assertEquals(1024, frames.get(0).length);
+    }
+
+    @Test
+    void onClientMessage_shouldDeriveFlushDelayFromRoundTripTime() throws Exception {
+        sendPath = newSendPath(512, 200, 4_000);
+        SessionSendQueue queue = sendPath.open(session);
+        FrameCoalescer coalescer = new FrameCoalescer(queue, sendPath, sendPath.coalescing());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(200), coalescer.flushDelayNanos());
+
+        coalescer.append(bytes(0, 10));
+        coalescer.flush();
+        Thread.sleep(20);
+        // KeyEvent ist kein FramebufferUpdateRequest
+        coalescer.onClientMessage(ByteBuffer.wrap(new byte[]{4, 1, 0, 0}));
+        assertEquals(0, coalescer.smoothedRttNanos());
+        coalescer.onClientMessage(ByteBuffer.wrap(new byte[]{3, 1, 0, 0}));
+
+        long rtt = coalescer.smoothedRttNanos();
+        assertTrue(rtt >= TimeUnit.MILLISECONDS.toNanos(20));
+        long expected = Math.min(TimeUnit.MICROSECONDS.toNanos(4_000), (long) (rtt * 0.1));
+        assertEquals(expected, coalescer.flushDelayNanos());
+
+        // Ohne neuen Flush kein weiteres Sample
+        coalescer.onClientMessage(ByteBuffer.wrap(new byte[]{3, 1, 0, 0}));
+        assertEquals(rtt, coalescer.smoothedRttNanos());
+    }
+}
@@ -0,0 +1,203 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.VERSION_38;
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.serverInit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParkedUpstreamsTest {
+
+    private VncProxyEngine engine;
+    private SimpleMeterRegistry meterRegistry;
+    private ServerSocket vncServer;
+    private ParkedUpstreams parkedUpstreams;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(1, 1024, 8, true, 0, 0);
+        meterRegistry = new SimpleMeterRegistry();
+        vncServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (parkedUpstreams != null) {
+            parkedUpstreams.shutdown();
+        }
+        vncServer.close();
+        engine.shutdown();
+    }
+
+    private static class RecordingListener implements UpstreamListener {
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onData(VncUpstream upstream, ByteBuffer data) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            received.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void onClosed(VncUpstream upstream, Throwable cause) {
+            closed.countDown();
+        }
+
+        synchronized int size() {
+            return received.size();
+        }
+    }
+
+    private RfbHandshakeRecorder handshake() {
+        return RfbHandshakeRecorder.completed(VERSION_38, serverInit("desktop"));
+    }
+
+    private static void awaitSize(RecordingListener listener, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (listener.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, listener.size());
+    }
+
+    @Test
+    void resume_shouldHandOverParkedConnection() throws Exception {
+        parkedUpstreams = new ParkedUpstreams(meterRegistry, 60_000, 50);
+        int port = vncServer.getLocalPort();
+        RecordingListener first = new RecordingListener();
+        UpstreamRelay relay = new UpstreamRelay(first);
+        VncUpstream upstream = engine.connect("127.0.0.1", port, relay);
+
+        try (Socket server = vncServer.accept()) {
+            server.getOutputStream().write(new byte[]{1, 2, 3});
+            awaitSize(first, 3);
+
+            assertTrue(parkedUpstreams.park(1L, "tab-1", upstream, relay, handshake()));
+            // Während die Verbindung geparkt ist, wird verworfen
+            server.getOutputStream().write(new byte[]{4, 5});
+            Thread.sleep(200);
+
+            Optional<ParkedUpstreams.Parked> parked = parkedUpstreams.resume(1L, "tab-1", "127.0.0.1", port);
+            assertTrue(parked.isPresent());
+            assertSame(upstream, parked.get().upstream());
+            assertArrayEquals(VERSION_38, parked.get().protocolVersion());
+            assertEquals(0, parkedUpstreams.parked());
+
+            RecordingListener second = new RecordingListener();
+            parked.get().relay().attach(second);
+            server.getOutputStream().write(new byte[]{6});
+            awaitSize(second, 1);
+            assertEquals(3, first.size());
+
+            upstream.write(ByteBuffer.wrap(new byte[]{3, 0}));
+            assertEquals(3, server.getInputStream().read());
+        }
+        assertEquals(1.0, meterRegistry.get("novnc.resume.claims").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void resume_shouldMissForOtherTokenOrTarget() throws Exception {
+        parkedUpstreams = new ParkedUpstreams(meterRegistry, 60_000, 0);
+        int port = vncServer.getLocalPort();
+        UpstreamRelay relay = new UpstreamRelay(new RecordingListener());
+        VncUpstream upstream = engine.connect("127.0.0.1", port, relay);
+
+        try (Socket server = vncServer.accept()) {
+            assertTrue(parkedUpstreams.park(1L, "tab-1", upstream, relay, handshake()));
+
+            assertTrue(parkedUpstreams.resume(1L, "tab-2", "127.0.0.1", port).isEmpty());
+            assertTrue(parkedUpstreams.resume(2L, "tab-1", "127.0.0.1", port).isEmpty());
+            assertEquals(1, parkedUpstreams.parked());
+            // Falsches Ziel verwirft die Verbindung
+            assertTrue(parkedUpstreams.resume(1L, "tab-1", "127.0.0.1", port + 1).isEmpty());
+            assertEquals(-1, server.getInputStream().read());
+        }
+        assertEquals(0, parkedUpstreams.parked());
+        assertEquals(3.0, meterRegistry.get("novnc.resume.claims").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void resume_shouldCloseConnectionWhileServerIsSending() throws Exception {
+        parkedUpstreams = new ParkedUpstreams(meterRegistry, 60_000, 60_000);
+        int port = vncServer.getLocalPort();
+        UpstreamRelay relay = new UpstreamRelay(new RecordingListener());
+        VncUpstream upstream = engine.connect("127.0.0.1", port, relay);
+
+        try (Socket server = vncServer.accept()) {
+            assertTrue(parkedUpstreams.park(1L, "tab-1", upstream, relay, handshake()));
+
+            assertTrue(parkedUpstreams.resume(1L, "tab-1", "127.0.0.1", port).isEmpty());
+            assertEquals(-1, server.getInputStream().read());
+        }
+        assertEquals(1.0, meterRegistry.get("novnc.resume.claims").tag("result", "busy").counter().count());
+    }
+
+    @Test
+    void park_shouldCloseConnectionAfterGracePeriod() throws Exception {
+        parkedUpstreams = new ParkedUpstreams(meterRegistry, 100, 0);
+        UpstreamRelay relay = new UpstreamRelay(new RecordingListener());
+        VncUpstream upstream = engine.connect("127.0.0.1", vncServer.getLocalPort(), relay);
+
+        try (Socket server = vncServer.accept()) {
+            assertTrue(parkedUpstreams.park(1L, "tab-1", upstream, relay, handshake()));
+            assertEquals(-1, server.getInputStream().read());
+        }
+
+        assertEquals(0, parkedUpstreams.parked());
+        assertEquals(1.0, meterRegistry.get("novnc.resume.expired").counter().count());
+    }
+
+    @Test
+    void park_shouldRefuseWithoutRecordedHandshakeOrWhenDisabled() throws Exception {
+        UpstreamRelay relay = new UpstreamRelay(new RecordingListener());
+        VncUpstream upstream = engine.connect("127.0.0.1", vncServer.getLocalPort(), relay);
+
+        Socket server = vncServer.accept();
+        try {
+            parkedUpstreams = new ParkedUpstreams(meterRegistry, 60_000, 0);
+            assertFalse(parkedUpstreams.park(1L, "tab-1", upstream, relay, new RfbHandshakeRecorder()));
+            assertFalse(parkedUpstreams.park(1L, null, upstream, relay, handshake()));
+            parkedUpstreams.shutdown();
+
+            parkedUpstreams = new ParkedUpstreams(new SimpleMeterRegistry(), 0, 0);
+            assertFalse(parkedUpstreams.park(1L, "tab-1", upstream, relay, handshake()));
+            upstream.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void relay_shouldRunCloseCallbackOfDetachedConnection() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        UpstreamRelay relay = new UpstreamRelay(listener);
+        VncUpstream upstream = engine.connect("127.0.0.1", vncServer.getLocalPort(), relay);
+        CountDownLatch callback = new CountDownLatch(1);
+
+        Socket server = vncServer.accept();
+        try {
+            relay.detach(callback::countDown);
+            upstream.close();
+        } finally {
+            server.close();
+        }
+
+        assertTrue(callback.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.closed.getCount());
+    }
+}
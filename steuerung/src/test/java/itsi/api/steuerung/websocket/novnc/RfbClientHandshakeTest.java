@@ -0,0 +1,85 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.VERSION_33;
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.VERSION_38;
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.serverInit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfbClientHandshakeTest {
+
+    private static byte[] array(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void shouldPreferSecurityNoneAndAskForSharedSession() {
+        RfbClientHandshake handshake = new RfbClientHandshake("secret");
+
+        assertArrayEquals(VERSION_38, array(handshake.onServerData(ByteBuffer.wrap(VERSION_38))));
+        assertArrayEquals(new byte[]{1}, array(handshake.onServerData(ByteBuffer.wrap(new byte[]{2, 2, 1}))));
+        assertArrayEquals(new byte[]{1}, array(handshake.onServerData(ByteBuffer.wrap(new byte[]{0, 0, 0, 0}))));
+        assertFalse(handshake.isDone());
+
+        ByteBuffer rest = ByteBuffer.allocate(64).put(serverInit("desktop")).put((byte) 2).flip();
+        assertEquals(0, handshake.onServerData(rest).remaining());
+
+        assertTrue(handshake.isDone());
+        assertEquals(1024, handshake.width());
+        assertEquals(768, handshake.height());
+        assertEquals("desktop", handshake.name());
+        // Bell nach ServerInit bleibt für den Aufrufer
+        assertEquals(1, rest.remaining());
+    }
+
+    @Test
+    void shouldAnswerVncAuthChallenge() {
+        RfbClientHandshake handshake = new RfbClientHandshake("secret");
+        byte[] challenge = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        handshake.onServerData(ByteBuffer.wrap(VERSION_38));
+        assertArrayEquals(new byte[]{2}, array(handshake.onServerData(ByteBuffer.wrap(new byte[]{1, 2}))));
+        byte[] response = array(handshake.onServerData(ByteBuffer.wrap(challenge)));
+
+        assertArrayEquals(RfbClientHandshake.vncAuthResponse("secret", challenge), response);
+        assertEquals(16, response.length);
+        assertFalse(java.util.Arrays.equals(challenge, response));
+        assertArrayEquals(new byte[]{1}, array(handshake.onServerData(ByteBuffer.wrap(new byte[4]))));
+    }
+
+    @Test
+    void shouldSpeakVersion33() {
+        RfbClientHandshake handshake = new RfbClientHandshake(null);
+
+        assertArrayEquals(VERSION_33, array(handshake.onServerData(ByteBuffer.wrap(VERSION_33))));
+        // Server wählt None, ohne SecurityResult folgt direkt ClientInit
+        assertArrayEquals(new byte[]{1}, array(handshake.onServerData(ByteBuffer.wrap(new byte[]{0, 0, 0, 1}))));
+        handshake.onServerData(ByteBuffer.wrap(serverInit("x")));
+
+        assertTrue(handshake.isDone());
+    }
+
+    @Test
+    void shouldFailWhenAuthenticationIsRejected() {
+        RfbClientHandshake handshake = new RfbClientHandshake("wrong");
+        handshake.onServerData(ByteBuffer.wrap(VERSION_38));
+        handshake.onServerData(ByteBuffer.wrap(new byte[]{1, 2}));
+        handshake.onServerData(ByteBuffer.allocate(16));
+
+        assertThrows(IllegalStateException.class, () -> handshake.onServerData(ByteBuffer.wrap(new byte[]{0, 0, 0, 1})));
+    }
+
+    @Test
+    void shouldFailWithoutSupportedSecurityType() {
+        RfbClientHandshake handshake = new RfbClientHandshake("secret");
+        handshake.onServerData(ByteBuffer.wrap(VERSION_38));
+
+        assertThrows(IllegalStateException.class, () -> handshake.onServerData(ByteBuffer.wrap(new byte[]{1, 19})));
+    }
+}
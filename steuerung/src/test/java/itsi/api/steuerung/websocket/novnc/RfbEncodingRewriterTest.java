@@ -0,0 +1,169 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfbEncodingRewriterTest {
+
+    // Wie noVNC: CopyRect, ZRLE vor Tight, Hextile, Raw, Qualität 6, Kompression 2, DesktopSize
+    private static final int[] CLIENT = {1, 16, 7, 5, 0, -26, -254, -223};
+    private static final long MEGABYTE = 1 << 20;
+
+    private final AtomicLong throughput = new AtomicLong();
+    private final AtomicLong rttMicros = new AtomicLong(1_000);
+
+    private RfbEncodingRewriter rewriter(long adaptIntervalMillis) {
+        AdaptiveEncoding policy = new AdaptiveEncoding(new SimpleMeterRegistry(), true, adaptIntervalMillis, 32 * MEGABYTE, 1, 20_000);
+        return new RfbEncodingRewriter(policy, throughput::get, rttMicros::get);
+    }
+
+    private static ByteBuffer concat(ByteBuffer... parts) {
+        ByteBuffer result = ByteBuffer.allocate(1 << 12);
+        for (ByteBuffer part : parts) {
+            result.put(part.duplicate());
+        }
+        return result.flip();
+    }
+
+    private static ByteBuffer pointerEvent() {
+        return ByteBuffer.wrap(new byte[]{5, 0, 0, 10, 0, 20});
+    }
+
+    private static ByteBuffer updateRequest() {
+        return SpectatorSource.framebufferUpdateRequest(true, 640, 480);
+    }
+
+    @Test
+    void onClientData_shouldForwardOtherMessagesWithoutCopying() {
+        RfbEncodingRewriter rewriter = rewriter(2000);
+        ByteBuffer cutText = ByteBuffer.allocate(11).put((byte) 6).put(new byte[3]).putInt(3).put("abc".getBytes()).flip();
+        ByteBuffer data = concat(pointerEvent(), updateRequest(), cutText, ByteBuffer.wrap(new byte[]{4, 1, 0, 0, 0, 0, 0, 65}));
+
+        assertSame(data, rewriter.onClientData(data));
+    }
+
+    @Test
+    void onClientData_shouldPreferTightAndLowerQualityOnASlowLink() {
+        RfbEncodingRewriter rewriter = rewriter(2000);
+        throughput.set(MEGABYTE);
+
+        ByteBuffer result = rewriter.onClientData(concat(pointerEvent(), RfbEncodingRewriter.setEncodings(CLIENT)));
+
+        // 1 MiB/s: fünf Halbierungen unter 32 MiB/s, Qualität 4, Kompression mindestens 9 - 4
+        assertEquals(concat(pointerEvent(), RfbEncodingRewriter.setEncodings(new int[]{1, 7, 16, 5, 0, -28, -251, -223})), result);
+    }
+
+    @Test
+    void onClientData_shouldKeepTheClientsLevelsWithoutEstimate() {
+        RfbEncodingRewriter rewriter = rewriter(2000);
+        rttMicros.set(0);
+
+        ByteBuffer result = rewriter.onClientData(RfbEncodingRewriter.setEncodings(CLIENT));
+
+        assertEquals(RfbEncodingRewriter.setEncodings(new int[]{1, 7, 16, 5, 0, -26, -254, -223}), result);
+    }
+
+    @Test
+    void onClientData_shouldHoldBackASplitSetEncodings() {
+        RfbEncodingRewriter rewriter = rewriter(2000);
+        ByteBuffer stream = concat(pointerEvent(), RfbEncodingRewriter.setEncodings(CLIENT), updateRequest());
+        ByteBuffer forwarded = ByteBuffer.allocate(1 << 12);
+
+        // 6 Bytes PointerEvent, dann SetEncodings in Stücken, die den Header teilen
+        for (int length : new int[]{8, 3, 20, 100}) {
+            ByteBuffer chunk = stream.slice(stream.position(), Math.min(length, stream.remaining()));
+            stream.position(stream.position() + chunk.remaining());
+            forwarded.put(rewriter.onClientData(chunk));
+        }
+
+        assertEquals(concat(pointerEvent(), RfbEncodingRewriter.setEncodings(new int[]{1, 7, 16, 5, 0, -26, -254, -223}), updateRequest()),
+                forwarded.flip());
+    }
+
+    @Test
+    void onClientData_shouldSendNewLevelsBeforeTheNextUpdateRequest() {
+        RfbEncodingRewriter rewriter = rewriter(0);
+        throughput.set(64 * MEGABYTE);
+        rewriter.onClientData(RfbEncodingRewriter.setEncodings(CLIENT));
+        ByteBuffer request = updateRequest();
+        assertSame(request, rewriter.onClientData(request));
+
+        // Verbindung wird langsam: 256 KiB/s und WAN-RTT
+        throughput.set(MEGABYTE / 4);
+        rttMicros.set(50_000);
+        ByteBuffer result = rewriter.onClientData(concat(pointerEvent(), updateRequest()));
+
+        assertEquals(concat(pointerEvent(), RfbEncodingRewriter.setEncodings(new int[]{1, 7, 16, 5, 0, -30, -249, -223}), updateRequest()),
+                result);
+    }
+
+    @Test
+    void onClientData_shouldNotLowerQualityWithoutJpeg() {
+        RfbEncodingRewriter rewriter = rewriter(2000);
+        throughput.set(MEGABYTE);
+        // 16 bpp
+        ByteBuffer pixelFormat = ByteBuffer.allocate(20).put((byte) 0).put(new byte[3])
+                .put(new byte[]{16, 16, 0, 1, 0, 31, 0, 63, 0, 31, 11, 5, 0, 0, 0, 0}).flip();
+
+        ByteBuffer result = rewriter.onClientData(concat(pixelFormat, RfbEncodingRewriter.setEncodings(CLIENT)));
+
+        assertEquals(concat(pixelFormat, RfbEncodingRewriter.setEncodings(new int[]{1, 7, 16, 5, 0, -26, -251, -223})), result);
+    }
+
+    @Test
+    void onClientData_shouldForwardTheRestAfterAnUnknownMessage() {
+        RfbEncodingRewriter rewriter = rewriter(2000);
+        throughput.set(MEGABYTE);
+        ByteBuffer data = concat(ByteBuffer.wrap(new byte[]{(byte) 200, 1, 2}), RfbEncodingRewriter.setEncodings(CLIENT));
+
+        assertSame(data, rewriter.onClientData(data));
+    }
+
+    @Test
+    void setEncodings_shouldReachTheVncServerRewritten() throws Exception {
+        VncProxyEngine engine = new VncProxyEngine(1, 4096, 16, true, 0, 0);
+        try (FakeVncServer vncServer = new FakeVncServer(64, 32, 8)) {
+            RfbClientHandshake handshake = new RfbClientHandshake(null);
+            CountDownLatch ready = new CountDownLatch(1);
+            VncUpstream upstream = engine.connect("127.0.0.1", vncServer.port(), new UpstreamListener() {
+                @Override
+                public void onData(VncUpstream upstream, ByteBuffer data) {
+                    if (!handshake.isDone()) {
+                        ByteBuffer reply = handshake.onServerData(data);
+                        if (reply.hasRemaining()) {
+                            upstream.write(reply);
+                        }
+                        if (handshake.isDone()) {
+                            ready.countDown();
+                        }
+                    }
+                    data.position(data.limit());
+                }
+
+                @Override
+                public void onClosed(VncUpstream upstream, Throwable cause) {
+                }
+            });
+            assertTrue(ready.await(5, TimeUnit.SECONDS));
+            RfbEncodingRewriter rewriter = rewriter(2000);
+            throughput.set(MEGABYTE);
+
+            upstream.write(rewriter.onClientData(RfbEncodingRewriter.setEncodings(CLIENT)));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (vncServer.encodings == null && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertArrayEquals(new int[]{1, 7, 16, 5, 0, -28, -251, -223}, vncServer.encodings);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfbFramebufferTest {
+
+    // BGR233
+    private static final byte RED = 7;
+    private static final byte BLUE = (byte) 0xc0;
+    private static final byte WHITE = (byte) 0xff;
+
+    private static ByteBuffer update(ByteBuffer... rects) {
+        ByteBuffer message = ByteBuffer.allocate(1 << 12);
+        message.put((byte) 0).put((byte) 0).putShort((short) rects.length);
+        for (ByteBuffer rect : rects) {
+            message.put(rect);
+        }
+        return message.flip();
+    }
+
+    private static ByteBuffer raw(int x, int y, int w, int h, byte pixel) {
+        ByteBuffer rect = ByteBuffer.allocate(12 + w * h);
+        rect.putShort((short) x).putShort((short) y).putShort((short) w).putShort((short) h).putInt(RfbServerMessageParser.ENCODING_RAW);
+        while (rect.hasRemaining()) {
+            rect.put(pixel);
+        }
+        return rect.flip();
+    }
+
+    private static ByteBuffer copyRect(int x, int y, int w, int h, int sourceX, int sourceY) {
+        return ByteBuffer.allocate(16)
+                .putShort((short) x).putShort((short) y).putShort((short) w).putShort((short) h).putInt(RfbServerMessageParser.ENCODING_COPY_RECT)
+                .putShort((short) sourceX).putShort((short) sourceY)
+                .flip();
+    }
+
+    private static void feed(RfbServerMessageParser parser, ByteBuffer stream, int readSize) {
+        while (stream.hasRemaining()) {
+            ByteBuffer read = stream.slice(stream.position(), Math.min(readSize, stream.remaining()));
+            stream.position(stream.position() + read.remaining());
+            while (read.hasRemaining()) {
+                parser.advance(read);
+            }
+        }
+    }
+
+    @Test
+    void rawAndCopyRect_shouldUpdateTheFramebufferAcrossSmallReads() {
+        RfbFramebuffer framebuffer = new RfbFramebuffer(8, 4);
+        RfbServerMessageParser parser = new RfbServerMessageParser(1, 8, 4, framebuffer);
+
+        feed(parser, update(raw(0, 0, 2, 2, RED), raw(2, 0, 2, 1, BLUE), copyRect(4, 2, 4, 2, 0, 0)), 3);
+
+        assertTrue(framebuffer.takeChanged());
+        assertFalse(framebuffer.takeChanged());
+        assertEquals(0xff0000, framebuffer.rgb(1, 1));
+        assertEquals(0x0000ff, framebuffer.rgb(3, 0));
+        assertEquals(0x000000, framebuffer.rgb(3, 1));
+        // Kopie von (0,0)-(3,1) nach (4,2)
+        assertEquals(0xff0000, framebuffer.rgb(5, 3));
+        assertEquals(0x0000ff, framebuffer.rgb(6, 2));
+    }
+
+    @Test
+    void desktopSize_shouldResizeTheFramebuffer() {
+        RfbFramebuffer framebuffer = new RfbFramebuffer(8, 4);
+        RfbServerMessageParser parser = new RfbServerMessageParser(1, 8, 4, framebuffer);
+        ByteBuffer resize = ByteBuffer.allocate(12)
+                .putShort((short) 0).putShort((short) 0).putShort((short) 16).putShort((short) 2).putInt(RfbServerMessageParser.ENCODING_DESKTOP_SIZE)
+                .flip();
+
+        feed(parser, update(resize, raw(10, 0, 6, 2, WHITE)), 64);
+
+        assertEquals(16, framebuffer.width());
+        assertEquals(2, framebuffer.height());
+        assertEquals(0xffffff, framebuffer.rgb(15, 1));
+    }
+
+    @Test
+    void thumbnail_shouldAverageThePixelsItCovers() {
+        RfbFramebuffer framebuffer = new RfbFramebuffer(8, 4);
+        RfbServerMessageParser parser = new RfbServerMessageParser(1, 8, 4, framebuffer);
+        feed(parser, update(raw(0, 0, 4, 4, WHITE), raw(4, 0, 4, 4, RED)), 64);
+
+        BufferedImage thumbnail = framebuffer.thumbnail(2);
+
+        assertEquals(2, thumbnail.getWidth());
+        assertEquals(1, thumbnail.getHeight());
+        assertEquals(0xffffff, thumbnail.getRGB(0, 0) & 0xffffff);
+        assertEquals(0xff0000, thumbnail.getRGB(1, 0) & 0xffffff);
+        // Nie größer als der Bildschirm
+        assertEquals(8, framebuffer.thumbnail(240).getWidth());
+    }
+}
@@ -0,0 +1,126 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfbHandshakeRecorderTest {
+
+    static final byte[] VERSION_38 = "RFB 003.008\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] VERSION_33 = "RFB 003.003\n".getBytes(StandardCharsets.US_ASCII);
+
+    static byte[] serverInit(String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer init = ByteBuffer.allocate(24 + nameBytes.length);
+        init.putShort((short) 1024).putShort((short) 768);
+        init.put(new byte[]{32, 24, 0, 1, 0, (byte) 255, 0, (byte) 255, 0, (byte) 255, 16, 8, 0, 0, 0, 0});
+        init.putInt(nameBytes.length).put(nameBytes);
+        return init.array();
+    }
+
+    private static ByteBuffer bytes(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length);
+        for (int value : values) {
+            buffer.put((byte) value);
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void shouldRecordServerInitAfterVncAuthentication() {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+        byte[] init = serverInit("desktop");
+
+        recorder.onServerData(ByteBuffer.wrap(VERSION_38));
+        recorder.onClientData(ByteBuffer.wrap(VERSION_38));
+        recorder.onServerData(bytes(1, 2));
+        recorder.onClientData(bytes(2));
+        recorder.onServerData(ByteBuffer.allocate(16));
+        recorder.onClientData(ByteBuffer.allocate(16));
+        recorder.onServerData(bytes(0, 0, 0, 0));
+        recorder.onClientData(bytes(1));
+        // ServerInit in zwei Teilen
+        recorder.onServerData(ByteBuffer.wrap(init, 0, 10));
+        assertFalse(recorder.isComplete());
+        recorder.onServerData(ByteBuffer.wrap(init, 10, init.length - 10));
+
+        assertTrue(recorder.isComplete());
+        assertArrayEquals(VERSION_38, recorder.protocolVersion());
+        assertArrayEquals(init, recorder.serverInit());
+    }
+
+    @Test
+    void shouldRecordVersion33WithSecurityChosenByServer() {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+        byte[] init = serverInit("x");
+
+        recorder.onServerData(ByteBuffer.wrap(VERSION_38));
+        recorder.onClientData(ByteBuffer.wrap(VERSION_33));
+        recorder.onServerData(bytes(0, 0, 0, 1));
+        recorder.onClientData(bytes(1));
+        recorder.onServerData(ByteBuffer.wrap(init));
+
+        assertTrue(recorder.isComplete());
+        assertArrayEquals(init, recorder.serverInit());
+    }
+
+    @Test
+    void shouldCountServerMessagesInTheReadOfServerInit() {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+        byte[] init = serverInit("x");
+        ByteBuffer read = ByteBuffer.allocate(init.length + 6).put(init).put(bytes(0, 0, 0, 0, 0, 1)).flip();
+
+        recorder.onServerData(ByteBuffer.wrap(VERSION_38));
+        recorder.onClientData(ByteBuffer.wrap(VERSION_33));
+        recorder.onServerData(bytes(0, 0, 0, 1));
+        recorder.onClientData(bytes(1));
+        recorder.onServerData(read);
+
+        assertTrue(recorder.isComplete());
+        assertArrayEquals(init, recorder.serverInit());
+        assertEquals(6, recorder.serverBytesAfterInit());
+    }
+
+    @Test
+    void shouldGiveUpOnUnknownSecurityType() {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+
+        recorder.onServerData(ByteBuffer.wrap(VERSION_38));
+        recorder.onClientData(ByteBuffer.wrap(VERSION_38));
+        recorder.onServerData(bytes(1, 19));
+        recorder.onClientData(bytes(19));
+        recorder.onServerData(ByteBuffer.allocate(64));
+
+        assertFalse(recorder.isComplete());
+        assertNull(recorder.serverInit());
+    }
+
+    @Test
+    void shouldGiveUpOnFailedAuthentication() {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+
+        recorder.onServerData(ByteBuffer.wrap(VERSION_38));
+        recorder.onClientData(ByteBuffer.wrap(VERSION_38));
+        recorder.onServerData(bytes(1, 2));
+        recorder.onClientData(bytes(2));
+        recorder.onServerData(ByteBuffer.allocate(16));
+        recorder.onClientData(ByteBuffer.allocate(16));
+        recorder.onServerData(bytes(0, 0, 0, 1));
+        recorder.onServerData(ByteBuffer.wrap(serverInit("x")));
+
+        assertFalse(recorder.isComplete());
+    }
+
+    @Test
+    void shouldNotConsumeRecordedBuffers() {
+        RfbHandshakeRecorder recorder = new RfbHandshakeRecorder();
+        ByteBuffer data = ByteBuffer.wrap(VERSION_38);
+
+        recorder.onServerData(data);
+
+        assertEquals(VERSION_38.length, data.remaining());
+    }
+}
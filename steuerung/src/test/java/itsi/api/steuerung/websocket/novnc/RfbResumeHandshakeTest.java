@@ -0,0 +1,64 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.VERSION_33;
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.VERSION_38;
+import static itsi.api.steuerung.websocket.novnc.RfbHandshakeRecorderTest.serverInit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfbResumeHandshakeTest {
+
+    private static byte[] array(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void shouldOfferSecurityNoneAndReplayServerInit() {
+        byte[] init = serverInit("desktop");
+        RfbResumeHandshake handshake = new RfbResumeHandshake(VERSION_38, init);
+
+        assertArrayEquals(VERSION_38, array(handshake.start()));
+        assertArrayEquals(new byte[]{1, 1}, array(handshake.onClientData(ByteBuffer.wrap(VERSION_38))));
+        assertArrayEquals(new byte[]{0, 0, 0, 0}, array(handshake.onClientData(ByteBuffer.wrap(new byte[]{1}))));
+        assertFalse(handshake.isDone());
+        assertArrayEquals(init, array(handshake.onClientData(ByteBuffer.wrap(new byte[]{1}))));
+        assertTrue(handshake.isDone());
+    }
+
+    @Test
+    void shouldAnswerVersion33WithoutSecurityResult() {
+        byte[] init = serverInit("x");
+        RfbResumeHandshake handshake = new RfbResumeHandshake(VERSION_38, init);
+
+        assertArrayEquals(new byte[]{0, 0, 0, 1}, array(handshake.onClientData(ByteBuffer.wrap(VERSION_33))));
+        assertArrayEquals(init, array(handshake.onClientData(ByteBuffer.wrap(new byte[]{0}))));
+        assertTrue(handshake.isDone());
+    }
+
+    @Test
+    void shouldLeaveBytesAfterClientInitForTheServer() {
+        RfbResumeHandshake handshake = new RfbResumeHandshake(VERSION_38, serverInit("x"));
+        handshake.onClientData(ByteBuffer.wrap(VERSION_38));
+        // SecurityType, ClientInit und gleich eine FramebufferUpdateRequest in einer Nachricht
+        ByteBuffer message = ByteBuffer.wrap(new byte[]{1, 1, 3, 0, 0, 0, 0, 0, 4, 0, 3, 0});
+
+        handshake.onClientData(message);
+
+        assertTrue(handshake.isDone());
+        assertEquals(10, message.remaining());
+        assertEquals(3, message.get(message.position()));
+    }
+
+    @Test
+    void shouldRejectSecurityTypeThatWasNotOffered() {
+        RfbResumeHandshake handshake = new RfbResumeHandshake(VERSION_38, serverInit("x"));
+        handshake.onClientData(ByteBuffer.wrap(VERSION_38));
+
+        assertThrows(IllegalStateException.class, () -> handshake.onClientData(ByteBuffer.wrap(new byte[]{2})));
+    }
+}
@@ -0,0 +1,90 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RfbServerMessageParserTest {
+
+    private static ByteBuffer update(int[]... rects) {
+        ByteBuffer message = ByteBuffer.allocate(1 << 16);
+        message.put((byte) 0).put((byte) 0).putShort((short) rects.length);
+        for (int[] rect : rects) {
+            // x, y, w, h, encoding
+            message.putShort((short) rect[0]).putShort((short) rect[1]).putShort((short) rect[2]).putShort((short) rect[3]).putInt(rect[4]);
+            int body = switch (rect[4]) {
+                case RfbServerMessageParser.ENCODING_RAW -> rect[2] * rect[3] * 4;
+                case RfbServerMessageParser.ENCODING_COPY_RECT -> 4;
+                default -> 0;
+            };
+            message.put(new byte[body]);
+        }
+        return message.flip();
+    }
+
+    @Test
+    void advance_shouldStopAtTheEndOfAnUpdate() {
+        RfbServerMessageParser parser = new RfbServerMessageParser(4, 640, 480);
+        ByteBuffer first = update(new int[]{0, 0, 10, 10, 0}, new int[]{5, 5, 4, 4, 1});
+        int length = first.remaining();
+        ByteBuffer stream = ByteBuffer.allocate(length + 1).put(first).put((byte) 2).flip();
+
+        assertTrue(parser.advance(stream));
+        assertTrue(parser.updateComplete());
+        assertEquals(length, stream.position());
+        assertTrue(parser.atBoundary());
+
+        // Bell
+        assertTrue(parser.advance(stream));
+        assertFalse(parser.updateComplete());
+        assertFalse(stream.hasRemaining());
+    }
+
+    @Test
+    void advance_shouldFollowAnUpdateSplitIntoSmallReads() {
+        RfbServerMessageParser parser = new RfbServerMessageParser(4, 640, 480);
+        ByteBuffer message = update(new int[]{0, 0, 8, 8, 0});
+        int ends = 0;
+
+        while (message.hasRemaining()) {
+            ByteBuffer read = message.duplicate();
+            read.limit(Math.min(message.position() + 7, message.limit()));
+            if (parser.advance(read)) {
+                ends++;
+            }
+            message.position(read.position());
+        }
+
+        assertEquals(1, ends);
+        assertTrue(parser.atBoundary());
+    }
+
+    @Test
+    void advance_shouldTrackDesktopSize() {
+        RfbServerMessageParser parser = new RfbServerMessageParser(4, 640, 480);
+
+        assertTrue(parser.advance(update(new int[]{0, 0, 1280, 720, RfbServerMessageParser.ENCODING_DESKTOP_SIZE})));
+
+        assertEquals(1280, parser.width());
+        assertEquals(720, parser.height());
+    }
+
+    @Test
+    void advance_shouldSkipCutText() {
+        RfbServerMessageParser parser = new RfbServerMessageParser(4, 640, 480);
+        ByteBuffer cutText = ByteBuffer.allocate(13).put((byte) 3).put(new byte[3]).putInt(5).put("hallo".getBytes()).flip();
+
+        assertTrue(parser.advance(cutText));
+        assertFalse(cutText.hasRemaining());
+    }
+
+    @Test
+    void advance_shouldRejectUnexpectedEncoding() {
+        RfbServerMessageParser parser = new RfbServerMessageParser(4, 640, 480);
+
+        // Tight
+        assertThrows(IllegalStateException.class, () -> parser.advance(update(new int[]{0, 0, 8, 8, 7})));
+    }
+}
@@ -0,0 +1,130 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Cost of recording on the I/O thread: the time from a read of the VNC server to the data being queued
+ * for the browser, with and without a {@link SessionRecording}, for bursts of reads as a framebuffer
+ * update arrives. Reports percentiles per read, the CPU time of the process and what ended up on disk.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class SessionRecorderBenchmark {
+
+    private static final int BURSTS = 2_000;
+    private static final int READS_PER_BURST = 16;
+    private static final int READ_SIZE = 4_096;
+    private static final long PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_ADDED_P99_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordingAddsNegligibleLatency() throws Exception {
+        // Warmup
+        run(false);
+        run(true);
+
+        Result plain = run(false);
+        Result recorded = run(true);
+        plain.print("live path");
+        recorded.print("live path + recording");
+
+        assertTrue(recorded.p99 - plain.p99 < MAX_ADDED_P99_NANOS, "recording adds more than 50 us at p99");
+        assertEquals((long) BURSTS * READS_PER_BURST * READ_SIZE, recorded.payloadOnDisk);
+    }
+
+    private Result run(boolean record) throws Exception {
+        VncProxyEngine engine = new VncProxyEngine(1, 65_536, 64, true, 0, 0);
+        NoVncSendPath sendPath = new NoVncSendPath(engine, new SimpleMeterRegistry(), 2, 1 << 26, 10_000,
+                OverflowPolicy.BACKPRESSURE, true, 16_384, 200, 4_000, 0.1);
+        SessionRecorder recorder = new SessionRecorder(new SimpleMeterRegistry(), true, directory.toString(), 1 << 28, 1000);
+        try {
+            WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+            when(session.getId()).thenReturn("bench");
+            when(session.isOpen()).thenReturn(true);
+            SessionSendQueue queue = sendPath.open(session);
+            SessionRecording recording = record ? recorder.start(1L, "bench").orElseThrow() : null;
+            if (recording != null) {
+                recording.handshake(RfbHandshakeRecorderTest.VERSION_38, RfbHandshakeRecorderTest.serverInit("bench"));
+            }
+
+            ByteBuffer read = ByteBuffer.allocateDirect(READ_SIZE);
+            byte[] pixels = new byte[READ_SIZE];
+            ThreadLocalRandom.current().nextBytes(pixels);
+            read.put(pixels).flip();
+
+            long[] latencies = new long[BURSTS * READS_PER_BURST];
+            long cpuStart = processCpuNanos();
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (int i = 0; i < READS_PER_BURST; i++) {
+                    long start = System.nanoTime();
+                    // Wie SessionForwarder.onData
+                    if (recording != null) {
+                        recording.data(read);
+                    }
+                    queue.enqueue(read);
+                    latencies[burst * READS_PER_BURST + i] = System.nanoTime() - start;
+                    read.rewind();
+                }
+                LockSupport.parkNanos(PAUSE_NANOS);
+            }
+            long cpuNanos = processCpuNanos() - cpuStart;
+
+            long payloadOnDisk = 0;
+            if (recording != null) {
+                recording.close();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                while (recorder.active() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                try (RecordingReader reader = recorder.open(recording.id())) {
+                    RecordingReader.Record next;
+                    while ((next = reader.next()) != null) {
+                        payloadOnDisk += next.payload().remaining();
+                    }
+                }
+                Files.delete(directory.resolve(recording.id() + SessionRecorder.DATA_SUFFIX));
+                Files.delete(directory.resolve(recording.id() + SessionRecorder.INDEX_SUFFIX));
+            }
+            queue.close();
+            Arrays.sort(latencies);
+            return new Result(latencies[latencies.length / 2], latencies[latencies.length * 99 / 100],
+                    latencies[latencies.length - 1], cpuNanos, payloadOnDisk);
+        } finally {
+            recorder.shutdown();
+            sendPath.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private record Result(long p50, long p99, long max, long cpuNanos, long payloadOnDisk) {
+
+        void print(String label) {
+            System.out.printf("%-24s per read p50 %6.2f us, p99 %6.2f us, max %8.1f us, CPU %6.0f ms, on disk %6.1f MB%n",
+                    label, p50 / 1e3, p99 / 1e3, max / 1e3, cpuNanos / 1e6, payloadOnDisk / 1e6);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SessionRecorderTest {
+
+    @TempDir
+    Path directory;
+
+    private SessionRecorder recorder;
+
+    private SessionRecorder recorder(boolean enabled, long indexIntervalMillis) {
+        recorder = new SessionRecorder(new SimpleMeterRegistry(), enabled, directory.toString(), 1 << 20, indexIntervalMillis);
+        return recorder;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (recorder != null) {
+            recorder.shutdown();
+        }
+    }
+
+    private static ByteBuffer text(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String text(ByteBuffer payload) {
+        return StandardCharsets.US_ASCII.decode(payload).toString();
+    }
+
+    private void awaitWritten() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (recorder.active() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, recorder.active());
+    }
+
+    @Test
+    void start_shouldReturnEmptyWhenDisabled() {
+        assertTrue(recorder(false, 1000).start(1L, "s1").isEmpty());
+    }
+
+    @Test
+    void recording_shouldBeReadBackAfterTheHandshake() throws Exception {
+        SessionRecording recording = recorder(true, 1000).start(1L, "s-1").orElseThrow();
+        byte[] serverInit = RfbHandshakeRecorderTest.serverInit("desktop");
+
+        recording.data(text("before handshake"));
+        recording.handshake(RfbHandshakeRecorderTest.VERSION_38, serverInit);
+        ByteBuffer first = text("first");
+        recording.data(first);
+        recording.data(text("second"));
+        recording.close();
+        awaitWritten();
+
+        // Der Puffer des Aufrufers bleibt unverändert
+        assertEquals(5, first.remaining());
+        try (RecordingReader reader = recorder.open(recording.id())) {
+            assertArrayEquals(RfbHandshakeRecorderTest.VERSION_38, reader.protocolVersion());
+            assertArrayEquals(serverInit, reader.serverInit());
+            assertEquals("first", text(reader.next().payload()));
+            assertEquals("second", text(reader.next().payload()));
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void offsetAt_shouldSeekToTheIndexedRecord() throws Exception {
+        SessionRecording recording = recorder(true, 20).start(1L, "s1").orElseThrow();
+        recording.handshake(RfbHandshakeRecorderTest.VERSION_38, RfbHandshakeRecorderTest.serverInit("x"));
+        for (int i = 0; i < 3; i++) {
+            recording.data(text("chunk" + i));
+            Thread.sleep(30);
+        }
+        recording.close();
+        awaitWritten();
+
+        try (RecordingReader reader = recorder.open(recording.id())) {
+            assertTrue(reader.durationMillis() >= 60);
+            reader.seek(reader.offsetAt(Integer.MAX_VALUE));
+            assertEquals("chunk2", text(reader.next().payload()));
+            reader.seek(reader.offsetAt(0));
+            assertEquals("chunk0", text(reader.next().payload()));
+        }
+    }
+
+    @Test
+    void open_shouldRejectRecordingWithoutHandshake() throws Exception {
+        SessionRecording recording = recorder(true, 1000).start(1L, "s1").orElseThrow();
+        recording.data(text("no handshake"));
+        recording.close();
+        awaitWritten();
+
+        assertThrows(IOException.class, () -> recorder.open(recording.id()));
+        assertThrows(IOException.class, () -> recorder.open("../etc/passwd"));
+    }
+
+    @Test
+    void list_shouldReturnTheRecordingsOfOneUser() throws Exception {
+        recorder(true, 1000);
+        for (long userId : new long[]{1, 12}) {
+            SessionRecording recording = recorder.start(userId, "s1").orElseThrow();
+            recording.handshake(RfbHandshakeRecorderTest.VERSION_38, RfbHandshakeRecorderTest.serverInit("x"));
+            recording.close();
+        }
+        awaitWritten();
+
+        List<Map<String, Object>> recordings = recorder.list(1L);
+
+        assertEquals(1, recordings.size());
+        assertTrue(((String) recordings.get(0).get("id")).startsWith("1-"));
+    }
+
+    @Test
+    void ownerOf_shouldParseTheUserOfTheRecording() {
+        assertEquals(12L, SessionRecorder.ownerOf("12-1700000000000-abc").orElseThrow());
+        assertTrue(SessionRecorder.ownerOf("../12-1700000000000-abc").isEmpty());
+        assertTrue(SessionRecorder.ownerOf(null).isEmpty());
+    }
+
+    @Test
+    void play_shouldSendTheRecordingAndEnd() throws Exception {
+        SessionRecording recording = recorder(true, 1000).start(1L, "s1").orElseThrow();
+        recording.handshake(RfbHandshakeRecorderTest.VERSION_38, RfbHandshakeRecorderTest.serverInit("x"));
+        recording.data(text("abc"));
+        recording.data(text("def"));
+        recording.close();
+        awaitWritten();
+
+        VncProxyEngine engine = new VncProxyEngine(1, 4096, 16, true, 0, 0);
+        NoVncSendPath sendPath = new NoVncSendPath(engine, new SimpleMeterRegistry(), 1, 1 << 20, 10_000,
+                OverflowPolicy.BACKPRESSURE, false, 16384, 200, 4000, 0.1);
+        try {
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            WebSocketSession session = mock(WebSocketSession.class);
+            when(session.getId()).thenReturn("replay");
+            when(session.isOpen()).thenReturn(true);
+            doAnswer(invocation -> {
+                ByteBuffer payload = invocation.<BinaryMessage>getArgument(0).getPayload();
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                synchronized (received) {
+                    received.writeBytes(bytes);
+                }
+                return null;
+            }).when(session).sendMessage(any());
+            CountDownLatch ended = new CountDownLatch(1);
+
+            recorder.play(recorder.open(recording.id()), sendPath.open(session), 0, 1, ended::countDown);
+
+            assertTrue(ended.await(5, TimeUnit.SECONDS));
+            synchronized (received) {
+                assertEquals("abcdef", received.toString(StandardCharsets.US_ASCII));
+            }
+        } finally {
+            sendPath.shutdown();
+            engine.shutdown();
+        }
+    }
+}
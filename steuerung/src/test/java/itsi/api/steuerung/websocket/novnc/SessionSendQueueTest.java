@@ -0,0 +1,202 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class SessionSendQueueTest {
+
+    private VncProxyEngine engine;
+    private SimpleMeterRegistry meterRegistry;
+    private WebSocketSession session;
+    private NoVncSendPath sendPath;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(1, 16, 64, true, 0, 0);
+        meterRegistry = new SimpleMeterRegistry();
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        when(session.isOpen()).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (sendPath != null) {
+            sendPath.shutdown();
+        }
+        engine.shutdown();
+    }
+
+    // Ohne Coalescing: jeder volle Pool-Buffer ist ein Frame
+    private NoVncSendPath newSendPath(long bufferLimit, long timeLimitMillis, OverflowPolicy policy) {
+        return new NoVncSendPath(engine, meterRegistry, 1, bufferLimit, timeLimitMillis, policy, false, 16384, 200, 4000, 0.1);
+    }
+
+    private static ByteBuffer bytes(int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) i);
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void enqueue_shouldSendCopiesInOrder() throws Exception {
+        sendPath = newSendPath(1024, 10_000, OverflowPolicy.DISCONNECT);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        CountDownLatch allSent = new CountDownLatch(3);
+        doAnswer(invocation -> {
+            ByteBuffer payload = invocation.<BinaryMessage>getArgument(0).getPayload();
+            byte[] chunk = new byte[payload.remaining()];
+            payload.get(chunk);
+            sent.write(chunk, 0, chunk.length);
+            allSent.countDown();
+            return null;
+        }).when(session).sendMessage(any());
+        SessionSendQueue queue = sendPath.open(session);
+
+        ByteBuffer data = bytes(40);
+        queue.enqueue(data);
+
+        assertTrue(allSent.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(bytes(40).array(), sent.toByteArray());
+        assertFalse(data.hasRemaining());
+        // Die Latenz wird erst nach sendMessage erfasst
+        Timer latency = meterRegistry.get("novnc.send.latency").timer();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (latency.count() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3L, latency.count());
+    }
+
+    @Test
+    void enqueue_shouldDisconnectSlowClientWhenLimitExceeded() throws Exception {
+        sendPath = newSendPath(32, 10_000, OverflowPolicy.DISCONNECT);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+        SessionSendQueue queue = sendPath.open(session);
+
+        queue.enqueue(bytes(16));
+        queue.enqueue(bytes(16));
+        queue.enqueue(bytes(16));
+        release.countDown();
+
+        verify(session).close(argThat((CloseStatus status) -> status.getCode() == CloseStatus.SESSION_NOT_RELIABLE.getCode()));
+        assertEquals(1.0, meterRegistry.get("novnc.send.overflows").counter().count());
+    }
+
+    @Test
+    void enqueue_shouldPauseAndResumeUpstreamUnderBackpressure() throws Exception {
+        sendPath = newSendPath(32, 10_000, OverflowPolicy.BACKPRESSURE);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+        SessionSendQueue queue = sendPath.open(session);
+
+        try (ServerSocket vncServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            VncUpstream upstream = engine.connect("127.0.0.1", vncServer.getLocalPort(), mock(UpstreamListener.class));
+            queue.bind(upstream);
+
+            queue.enqueue(bytes(16));
+            queue.enqueue(bytes(16));
+            queue.enqueue(bytes(16));
+
+            assertTrue(upstream.isReadingPaused());
+            verify(session, never()).close(any());
+
+            release.countDown();
+            verify(session, timeout(5000).times(3)).sendMessage(any());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (upstream.isReadingPaused() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(upstream.isReadingPaused());
+            upstream.close();
+        }
+    }
+
+    @Test
+    void drain_shouldHoldBackFramesBeyondTheShare() throws Exception {
+        sendPath = newSendPath(1024, 10_000, OverflowPolicy.BACKPRESSURE);
+        // 16 Bytes Burst, 160 Bytes/s: der dritte 16-Byte-Frame wartet 100 ms
+        BandwidthShaper shaper = new BandwidthShaper(meterRegistry, true, 160, 0, 16, "", 60_000, 0, 0, 1000);
+        try {
+            SessionSendQueue queue = sendPath.open(session);
+            queue.shape(shaper.admit(session, null).join());
+            CountDownLatch allSent = new CountDownLatch(3);
+            doAnswer(invocation -> {
+                allSent.countDown();
+                return null;
+            }).when(session).sendMessage(any());
+
+            long start = System.nanoTime();
+            queue.enqueue(bytes(48));
+
+            assertTrue(allSent.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+            assertEquals(1.0, meterRegistry.get("novnc.shaping.delayed").counter().count());
+        } finally {
+            shaper.shutdown();
+        }
+    }
+
+    @Test
+    void watchdog_shouldCloseSessionWhenSendExceedsTimeLimit() throws Exception {
+        sendPath = newSendPath(1024, 200, OverflowPolicy.BACKPRESSURE);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+        SessionSendQueue queue = sendPath.open(session);
+
+        queue.enqueue(bytes(8));
+
+        verify(session, timeout(5000)).close(argThat((CloseStatus status) -> status.getCode() == CloseStatus.SESSION_NOT_RELIABLE.getCode()));
+        assertEquals(1.0, meterRegistry.get("novnc.send.timeouts").counter().count());
+        release.countDown();
+    }
+
+    @Test
+    void onClientMessage_shouldCountTrafficAndHandshake() throws Exception {
+        sendPath = newSendPath(1024, 10_000, OverflowPolicy.BACKPRESSURE);
+        SessionSendQueue queue = sendPath.open(session);
+        queue.connected();
+
+        ByteBuffer keyEvent = ByteBuffer.wrap(new byte[]{4, 1, 0, 0, 0, 0, 0, 0x61});
+        queue.onClientMessage(keyEvent);
+        queue.onClientMessage(ByteBuffer.wrap(new byte[]{3, 1, 0, 0, 0, 0, 4, 0, 3, 0}));
+
+        assertEquals(8, keyEvent.remaining());
+        assertEquals(18, queue.stats().bytesIn());
+        assertEquals(2, queue.stats().framesIn());
+        assertEquals(18.0, meterRegistry.get("novnc.traffic.bytes").tag("direction", "in").counter().count());
+        assertEquals(1L, meterRegistry.get("novnc.connect.duration").timer().count());
+        assertEquals(1L, meterRegistry.get("novnc.handshake.duration").timer().count());
+        assertEquals(1, sendPath.stats().get("sessions"));
+    }
+}
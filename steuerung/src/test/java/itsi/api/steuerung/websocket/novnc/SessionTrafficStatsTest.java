@@ -0,0 +1,81 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionTrafficStatsTest {
+
+    @Test
+    void recordSent_shouldCountBytesAndFrames() {
+        SessionTrafficStats stats = new SessionTrafficStats("s1", "/10.0.0.1:5000");
+
+        stats.recordSent(100, 1_000);
+        stats.recordSent(50, 1_000);
+        stats.recordReceived(6);
+
+        assertEquals(150, stats.bytesOut());
+        assertEquals(2, stats.framesOut());
+        assertEquals(6, stats.bytesIn());
+        assertEquals(1, stats.framesIn());
+    }
+
+    @Test
+    void sendLatencyMicros_shouldReturnBucketUpperBounds() {
+        SessionTrafficStats stats = new SessionTrafficStats("s1", null);
+        assertEquals(0, stats.sendLatencyMicros(0.5));
+
+        for (int i = 0; i < 98; i++) {
+            stats.recordSent(1, TimeUnit.MICROSECONDS.toNanos(3));
+        }
+        stats.recordSent(1, TimeUnit.MILLISECONDS.toNanos(5));
+        stats.recordSent(1, TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertEquals(4, stats.sendLatencyMicros(0.5));
+        assertEquals(8192, stats.sendLatencyMicros(0.99));
+        assertEquals(5000L, stats.toMap().get("sendLatencyMaxMicros"));
+    }
+
+    @Test
+    void throughputBytesPerSecond_shouldFollowLargeSends() {
+        SessionTrafficStats stats = new SessionTrafficStats("s1", null);
+        stats.recordSent(100, 1);
+        assertEquals(0, stats.throughputBytesPerSecond());
+
+        // 64 KiB in 64 ms = 1 MB/s
+        stats.recordSent(65_536, TimeUnit.MILLISECONDS.toNanos(64));
+        assertEquals(1_024_000, stats.throughputBytesPerSecond());
+        for (int i = 0; i < 50; i++) {
+            stats.recordSent(65_536, TimeUnit.MILLISECONDS.toNanos(640));
+        }
+        assertTrue(stats.throughputBytesPerSecond() < 110_000);
+    }
+
+    @Test
+    void recordFirstByte_shouldRequireConnectAndRecordOnce() {
+        SessionTrafficStats stats = new SessionTrafficStats("s1", null);
+
+        assertEquals(-1, stats.recordFirstByte());
+        assertTrue(stats.recordConnected() >= 0);
+        assertEquals(-1, stats.recordConnected());
+        assertTrue(stats.recordFirstByte() >= 0);
+        assertEquals(-1, stats.recordFirstByte());
+        assertTrue(stats.recordHandshakeDone() >= 0);
+        assertEquals(-1, stats.recordHandshakeDone());
+    }
+
+    @Test
+    void toMap_shouldReportMissingTimingsAsMinusOne() {
+        SessionTrafficStats stats = new SessionTrafficStats("s1", "/10.0.0.1:5000");
+
+        Map<String, Object> map = stats.toMap();
+
+        assertEquals("s1", map.get("sessionId"));
+        assertEquals(-1.0, map.get("connectMillis"));
+        assertEquals(-1.0, map.get("firstByteMillis"));
+        assertEquals(-1.0, map.get("handshakeMillis"));
+    }
+}
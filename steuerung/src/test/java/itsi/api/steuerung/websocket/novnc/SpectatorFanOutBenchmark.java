@@ -0,0 +1,131 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * One VNC source fanned out to 50 viewers, compared with 50 separate VNC connections (one per viewer, as
+ * without spectator mode), and with one of the 50 viewers stalling. Reports the load on the VNC server,
+ * what the viewers received and the CPU time of the process. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class SpectatorFanOutBenchmark {
+
+    private static final int VIEWERS = 50;
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+    private static final int TILE = 128;
+    private static final long RUN_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    @Test
+    void oneSourceServesFiftyViewers() throws Exception {
+        // Warmup
+        run(true, false);
+
+        Result separate = run(false, false);
+        Result shared = run(true, false);
+        Result stalled = run(true, true);
+        separate.print("50 connections");
+        shared.print("1 source");
+        stalled.print("1 source, 1 stalled viewer");
+
+        // Last des VNC-Servers je an die Zuschauer ausgeliefertem Byte
+        assertTrue(shared.serverBytesPerViewerByte() * 10 < separate.serverBytesPerViewerByte(),
+                "fan-out does not reduce the load on the VNC server");
+        assertTrue(stalled.slowestFastViewer > shared.slowestFastViewer / 2, "a stalled viewer holds back the others");
+        assertEquals(1, stalled.disconnected);
+    }
+
+    private Result run(boolean shared, boolean stallOne) throws Exception {
+        VncProxyEngine engine = new VncProxyEngine(2, 65_536, 256, true, 0, 0);
+        NoVncSendPath sendPath = new NoVncSendPath(engine, new SimpleMeterRegistry(), 4, 4 << 20, 10_000,
+                OverflowPolicy.BACKPRESSURE, true, 16_384, 200, 4_000, 0.1);
+        SpectatorHub hub = new SpectatorHub(engine, new SimpleMeterRegistry(), 20);
+        try (FakeVncServer vncServer = new FakeVncServer(WIDTH, HEIGHT, TILE)) {
+            List<AtomicLong> received = new ArrayList<>();
+            AtomicLong disconnected = new AtomicLong();
+            long cpuStart = processCpuNanos();
+            for (int i = 0; i < VIEWERS; i++) {
+                AtomicLong bytes = new AtomicLong();
+                received.add(bytes);
+                boolean stall = stallOne && i == 0;
+                SessionSendQueue viewer = sendPath.open(session("v" + i, bytes, stall, disconnected), OverflowPolicy.DISCONNECT);
+                // Ohne Fan-out hat jeder Zuschauer eine eigene Verbindung
+                long key = shared ? 1L : i;
+                hub.source(key, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS).join(viewer);
+            }
+            long start = System.nanoTime();
+            TimeUnit.NANOSECONDS.sleep(RUN_NANOS);
+            long wallNanos = System.nanoTime() - start;
+            long cpuNanos = processCpuNanos() - cpuStart;
+
+            long total = received.stream().mapToLong(AtomicLong::get).sum();
+            long slowestFast = received.stream().skip(stallOne ? 1 : 0).mapToLong(AtomicLong::get).min().orElse(0);
+            return new Result(vncServer.connections.get(), vncServer.bytesSent.get(), total, slowestFast,
+                    disconnected.get(), wallNanos, cpuNanos);
+        } finally {
+            hub.shutdown();
+            sendPath.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    private static WebSocketSession session(String id, AtomicLong received, boolean stall, AtomicLong disconnected) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+        AtomicBoolean open = new AtomicBoolean(true);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenAnswer(invocation -> open.get());
+        doAnswer(invocation -> {
+            if (stall) {
+                // Hängender Client: Sendevorgang kommt nicht zurück, bis die Sitzung getrennt wird
+                while (open.get()) {
+                    Thread.sleep(10);
+                }
+            }
+            received.addAndGet(invocation.<BinaryMessage>getArgument(0).getPayloadLength());
+            return null;
+        }).when(session).sendMessage(any());
+        doAnswer(invocation -> {
+            if (open.getAndSet(false)) {
+                disconnected.incrementAndGet();
+            }
+            return null;
+        }).when(session).close(any());
+        return session;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private record Result(int connections, long serverBytes, long viewerBytes, long slowestFastViewer,
+                          long disconnected, long wallNanos, long cpuNanos) {
+
+        double serverBytesPerViewerByte() {
+            return (double) serverBytes / Math.max(1, viewerBytes);
+        }
+
+        void print(String label) {
+            double seconds = wallNanos / 1e9;
+            System.out.printf("%-28s %2d VNC connections, VNC server %7.1f MB/s, viewers %7.1f MB/s (slowest %6.1f MB/s), "
+                            + "%d disconnected, CPU %6.0f ms%n",
+                    label, connections, serverBytes / 1e6 / seconds, viewerBytes / 1e6 / seconds,
+                    slowestFastViewer / 1e6 / seconds, disconnected, cpuNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SpectatorHubTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 32;
+    private static final int TILE = 8;
+    private static final long FULL_UPDATE = 16 + WIDTH * HEIGHT * 4;
+
+    private VncProxyEngine engine;
+    private NoVncSendPath sendPath;
+    private SpectatorHub hub;
+    private FakeVncServer vncServer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(1, 4096, 64, true, 0, 0);
+        sendPath = new NoVncSendPath(engine, new SimpleMeterRegistry(), 2, 1 << 20, 10_000,
+                OverflowPolicy.BACKPRESSURE, false, 16384, 200, 4000, 0.1);
+        hub = new SpectatorHub(engine, new SimpleMeterRegistry(), 50);
+        vncServer = new FakeVncServer(WIDTH, HEIGHT, TILE);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        hub.shutdown();
+        vncServer.close();
+        sendPath.shutdown();
+        engine.shutdown();
+    }
+
+    private SessionSendQueue viewer(String id, AtomicLong received) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            received.addAndGet(invocation.<BinaryMessage>getArgument(0).getPayloadLength());
+            return null;
+        }).when(session).sendMessage(any());
+        return sendPath.open(session, OverflowPolicy.DISCONNECT);
+    }
+
+    private static void await(AtomicLong value, long atLeast) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (value.get() < atLeast && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(value.get() >= atLeast, value.get() + " < " + atLeast);
+    }
+
+    @Test
+    void source_shouldShareOneConnectionBetweenViewers() throws Exception {
+        SpectatorSource source = hub.source(1L, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS);
+        assertSame(source, hub.source(1L, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS));
+
+        AtomicLong first = new AtomicLong();
+        AtomicLong second = new AtomicLong();
+        source.join(viewer("v1", first));
+        source.join(viewer("v2", second));
+
+        // Beide bekommen ein volles Update, danach dieselben inkrementellen
+        await(first, FULL_UPDATE + 3 * (16 + TILE * TILE * 4));
+        await(second, FULL_UPDATE);
+        assertEquals(1, vncServer.connections.get());
+        assertEquals(2, hub.viewers());
+        assertTrue(vncServer.fullRequests.get() >= 1);
+    }
+
+    @Test
+    void serverInit_shouldAnnounceThePixelFormatOfTheConnection() throws Exception {
+        SpectatorSource source = hub.source(1L, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS);
+
+        byte[] serverInit = source.serverInit();
+
+        assertEquals(WIDTH, ((serverInit[0] & 0xff) << 8) | (serverInit[1] & 0xff));
+        assertEquals(32, serverInit[4]);
+        assertEquals("fake", new String(serverInit, 24, serverInit.length - 24));
+    }
+
+    @Test
+    void leave_shouldCloseConnectionAfterLastViewer() throws Exception {
+        SpectatorSource source = hub.source(1L, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS);
+        SessionSendQueue first = viewer("v1", new AtomicLong());
+        SessionSendQueue second = viewer("v2", new AtomicLong());
+        source.join(first);
+        source.join(second);
+
+        hub.leave(source, first);
+        assertEquals(1, hub.sources());
+        hub.leave(source, second);
+
+        assertEquals(0, hub.sources());
+        // Nächster Zuschauer öffnet eine neue Verbindung
+        hub.source(1L, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS);
+        assertEquals(2, vncServer.connections.get());
+    }
+
+    @Test
+    void source_shouldFailWhenVncServerIsUnreachable() throws Exception {
+        int port = vncServer.port();
+        vncServer.close();
+
+        assertThrows(Exception.class, () -> hub.source(1L, "127.0.0.1", port, null).get(5, TimeUnit.SECONDS));
+        assertEquals(0, hub.sources());
+    }
+}
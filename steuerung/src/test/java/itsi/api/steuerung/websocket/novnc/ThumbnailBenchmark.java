@@ -0,0 +1,104 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * A teacher's grid of 30 screens: one thumbnail stream compared with 30 read-only noVNC connections
+ * (spectators), one per screen. Reports what the teacher's browser receives, the load on the VNC servers
+ * and the CPU time of the process, which includes scaling and JPEG encoding for the thumbnails.
+ * Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class ThumbnailBenchmark {
+
+    private static final int SCREENS = 30;
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+    private static final int TILE = 128;
+    private static final long RUN_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    @Test
+    void thumbnailsCutWhatTheTeacherReceives() throws Exception {
+        // Warmup
+        run(true);
+
+        Result spectators = run(false);
+        Result thumbnails = run(true);
+        spectators.print("30 spectator connections");
+        thumbnails.print("1 thumbnail stream");
+
+        assertTrue(thumbnails.clientBytes * 20 < spectators.clientBytes, "thumbnails do not cut the client's bandwidth");
+        assertTrue(thumbnails.clientMessages > 0);
+    }
+
+    private Result run(boolean thumbnails) throws Exception {
+        VncProxyEngine engine = new VncProxyEngine(2, 65_536, 256, true, 0, 0);
+        NoVncSendPath sendPath = new NoVncSendPath(engine, new SimpleMeterRegistry(), 4, 16 << 20, 10_000,
+                OverflowPolicy.BACKPRESSURE, true, 16_384, 200, 4_000, 0.1);
+        SpectatorHub spectatorHub = new SpectatorHub(engine, new SimpleMeterRegistry(), 100);
+        ThumbnailHub thumbnailHub = new ThumbnailHub(engine, new SimpleMeterRegistry(), 1000, 240, 0.6f, 5000, 2);
+        try (FakeVncServer vncServer = new FakeVncServer(WIDTH, HEIGHT, TILE)) {
+            AtomicLong bytes = new AtomicLong();
+            AtomicLong messages = new AtomicLong();
+            long cpuStart = processCpuNanos();
+            if (thumbnails) {
+                ThumbnailViewer viewer = thumbnailHub.open(session("grid", bytes, messages));
+                for (long user = 0; user < SCREENS; user++) {
+                    thumbnailHub.watch(viewer, user, "127.0.0.1", vncServer.port(), null);
+                }
+            } else {
+                for (long user = 0; user < SCREENS; user++) {
+                    SessionSendQueue viewer = sendPath.open(session("screen" + user, bytes, messages), OverflowPolicy.DISCONNECT);
+                    spectatorHub.source(user, "127.0.0.1", vncServer.port(), null).get(5, TimeUnit.SECONDS).join(viewer);
+                }
+            }
+            long start = System.nanoTime();
+            TimeUnit.NANOSECONDS.sleep(RUN_NANOS);
+            long wallNanos = System.nanoTime() - start;
+            long cpuNanos = processCpuNanos() - cpuStart;
+            return new Result(bytes.get(), messages.get(), vncServer.bytesSent.get(), wallNanos, cpuNanos);
+        } finally {
+            thumbnailHub.shutdown();
+            spectatorHub.shutdown();
+            sendPath.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    private static WebSocketSession session(String id, AtomicLong bytes, AtomicLong messages) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class, withSettings().stubOnly());
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            bytes.addAndGet(invocation.<BinaryMessage>getArgument(0).getPayloadLength());
+            messages.incrementAndGet();
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private record Result(long clientBytes, long clientMessages, long serverBytes, long wallNanos, long cpuNanos) {
+
+        void print(String label) {
+            double seconds = wallNanos / 1e9;
+            System.out.printf("%-26s client %8.2f MB/s in %6.0f messages/s, VNC servers %7.1f MB/s, CPU %6.0f ms%n",
+                    label, clientBytes / 1e6 / seconds, clientMessages / seconds, serverBytes / 1e6 / seconds, cpuNanos / 1e6);
+        }
+    }
+}
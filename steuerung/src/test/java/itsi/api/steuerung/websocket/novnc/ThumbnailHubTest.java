@@ -0,0 +1,127 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ThumbnailHubTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 32;
+
+    private VncProxyEngine engine;
+    private ThumbnailHub hub;
+    private FakeVncServer vncServer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(1, 4096, 64, true, 0, 0);
+        hub = new ThumbnailHub(engine, new SimpleMeterRegistry(), 50, 16, 0.6f, 50, 1);
+        vncServer = new FakeVncServer(WIDTH, HEIGHT, 8);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        hub.shutdown();
+        vncServer.close();
+        engine.shutdown();
+    }
+
+    private ThumbnailViewer viewer(String id, List<ByteBuffer> received) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            received.add(invocation.<BinaryMessage>getArgument(0).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return hub.open(session);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void watch_shouldSendScaledJpegsOfEveryUser() throws Exception {
+        List<ByteBuffer> received = new CopyOnWriteArrayList<>();
+        ThumbnailViewer viewer = viewer("grid", received);
+
+        hub.watch(viewer, 1L, "127.0.0.1", vncServer.port(), null);
+        hub.watch(viewer, 2L, "127.0.0.1", vncServer.port(), null);
+
+        await(() -> received.stream().map(frame -> frame.getLong(0)).distinct().count() == 2);
+        ByteBuffer frame = received.get(0);
+        assertEquals(16, frame.getShort(8));
+        assertEquals(8, frame.getShort(10));
+        byte[] jpeg = new byte[frame.remaining() - Thumbnail.HEADER_LENGTH];
+        frame.get(Thumbnail.HEADER_LENGTH, jpeg);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertEquals(16, image.getWidth());
+        assertEquals(8, image.getHeight());
+        // 8 bpp nach SetPixelFormat
+        assertTrue(vncServer.bytesSent.get() < 2L * (16 + WIDTH * HEIGHT * 2));
+    }
+
+    @Test
+    void watch_shouldShareOneConnectionAndSendTheCachedThumbnail() throws Exception {
+        List<ByteBuffer> first = new CopyOnWriteArrayList<>();
+        List<ByteBuffer> second = new CopyOnWriteArrayList<>();
+        ThumbnailViewer firstViewer = viewer("first", first);
+        hub.watch(firstViewer, 1L, "127.0.0.1", vncServer.port(), null);
+        await(() -> !first.isEmpty());
+
+        ThumbnailViewer secondViewer = viewer("second", second);
+        hub.watch(secondViewer, 1L, "127.0.0.1", vncServer.port(), null);
+
+        // Sofort das zwischengespeicherte Bild, ohne neue Verbindung
+        await(() -> !second.isEmpty());
+        assertEquals(1, vncServer.connections.get());
+        assertEquals(1, hub.sources());
+        assertEquals(2, hub.viewers());
+
+        hub.close(firstViewer);
+        assertEquals(1, hub.sources());
+        hub.close(secondViewer);
+        assertEquals(0, hub.sources());
+        assertEquals(0, hub.viewers());
+    }
+
+    @Test
+    void watch_shouldReconnectWhileWatched() throws Exception {
+        List<ByteBuffer> received = new CopyOnWriteArrayList<>();
+        ThumbnailViewer viewer = viewer("grid", received);
+        hub.watch(viewer, 1L, "127.0.0.1", vncServer.port(), null);
+        await(() -> !received.isEmpty());
+
+        vncServer.dropConnections();
+
+        // Neue Verbindung nach der Wartezeit, danach wieder Bilder
+        await(() -> vncServer.connections.get() == 2);
+        assertEquals(2, vncServer.connections.get());
+        int before = received.size();
+        await(() -> received.size() > before);
+        assertTrue(received.size() > before);
+        assertEquals(1, hub.sources());
+    }
+}
@@ -0,0 +1,124 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VncUpstreamTest {
+
+    private VncProxyEngine engine;
+    private ServerSocket vncServer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(2, 16, 8, true, 0, 0);
+        vncServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        vncServer.close();
+        engine.shutdown();
+    }
+
+    @Test
+    void connect_shouldForwardBothDirections() throws Exception {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CompletableFuture<Throwable> closed = new CompletableFuture<>();
+        UpstreamListener listener = new UpstreamListener() {
+            @Override
+            public void onData(VncUpstream upstream, ByteBuffer data) {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                synchronized (received) {
+                    received.write(bytes, 0, bytes.length);
+                }
+            }
+
+            @Override
+            public void onClosed(VncUpstream upstream, Throwable cause) {
+                closed.complete(cause);
+            }
+        };
+
+        VncUpstream upstream = engine.connect("127.0.0.1", vncServer.getLocalPort(), listener);
+        // Vor dem Verbindungsaufbau geschrieben, größer als ein Pool-Buffer
+        upstream.write(ByteBuffer.wrap("client hello, longer than one buffer".getBytes(StandardCharsets.US_ASCII)));
+
+        try (Socket server = vncServer.accept()) {
+            InputStream in = server.getInputStream();
+            byte[] hello = in.readNBytes(36);
+            assertEquals("client hello, longer than one buffer", new String(hello, StandardCharsets.US_ASCII));
+
+            OutputStream out = server.getOutputStream();
+            out.write("RFB 003.008\n".getBytes(StandardCharsets.US_ASCII));
+            out.write("server data after version".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        assertNull(closed.get(5, TimeUnit.SECONDS));
+        synchronized (received) {
+            assertEquals("RFB 003.008\nserver data after version", received.toString(StandardCharsets.US_ASCII));
+        }
+        assertFalse(upstream.isOpen());
+        // Lese- und Schreib-Buffer sind zurück im Pool
+        assertEquals(engine.bufferPool().allocated(), engine.bufferPool().pooled());
+    }
+
+    @Test
+    void write_shouldNotTakePoolBuffersForSmallMessages() throws Exception {
+        VncUpstream upstream = engine.connect("127.0.0.1", vncServer.getLocalPort(), new UpstreamListener() {
+            @Override
+            public void onData(VncUpstream upstream, ByteBuffer data) {
+            }
+
+            @Override
+            public void onClosed(VncUpstream upstream, Throwable cause) {
+            }
+        });
+
+        try (Socket server = vncServer.accept()) {
+            // PointerEvent: Typ 5, Tasten, x, y
+            upstream.write(ByteBuffer.wrap(new byte[]{5, 0, 0, 10, 0, 20}));
+            assertArrayEquals(new byte[]{5, 0, 0, 10, 0, 20}, server.getInputStream().readNBytes(6));
+            upstream.close();
+        }
+
+        // Höchstens der Lese-Buffer kam aus dem Pool (der Connect-Handler holt ihn evtl. erst nach dem Write)
+        assertTrue(engine.bufferPool().acquired() <= 1, engine.bufferPool().acquired() + " pool buffers acquired");
+    }
+
+    @Test
+    void connect_shouldReportRefusedConnection() throws Exception {
+        int port = vncServer.getLocalPort();
+        vncServer.close();
+        CompletableFuture<Throwable> closed = new CompletableFuture<>();
+
+        engine.connect("127.0.0.1", port, new UpstreamListener() {
+            @Override
+            public void onData(VncUpstream upstream, ByteBuffer data) {
+                fail("no data expected");
+            }
+
+            @Override
+            public void onClosed(VncUpstream upstream, Throwable cause) {
+                closed.complete(cause);
+            }
+        });
+
+        assertNotNull(closed.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,158 @@
+package itsi.api.steuerung.websocket.novnc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WarmUpstreamPoolTest {
+
+    private static final byte[] VERSION = "RFB 003.008\n".getBytes(StandardCharsets.US_ASCII);
+
+    private VncProxyEngine engine;
+    private SimpleMeterRegistry meterRegistry;
+    private ServerSocket vncServer;
+    private WarmUpstreamPool pool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new VncProxyEngine(1, 1024, 8, true, 0, 0);
+        meterRegistry = new SimpleMeterRegistry();
+        vncServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        vncServer.close();
+        engine.shutdown();
+    }
+
+    private static class RecordingListener implements UpstreamListener {
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch connected = new CountDownLatch(1);
+
+        @Override
+        public void onConnected(VncUpstream upstream) {
+            connected.countDown();
+        }
+
+        @Override
+        public synchronized void onData(VncUpstream upstream, ByteBuffer data) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            received.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void onClosed(VncUpstream upstream, Throwable cause) {
+        }
+
+        synchronized String text() {
+            return received.toString(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Test
+    void claim_shouldReplayGreetingAndForwardAfterwards() throws Exception {
+        pool = new WarmUpstreamPool(engine, meterRegistry, true, 60_000, 1, 100);
+        int port = vncServer.getLocalPort();
+
+        pool.warm(1L, "127.0.0.1", port);
+        try (Socket server = vncServer.accept()) {
+            server.getOutputStream().write(VERSION);
+            server.getOutputStream().flush();
+            // Begrüßung ist gepuffert, bevor der Browser kommt
+            Thread.sleep(200);
+
+            RecordingListener listener = new RecordingListener();
+            Optional<VncUpstream> upstream = pool.claim(1L, "127.0.0.1", port, listener);
+
+            assertTrue(upstream.isPresent());
+            assertTrue(listener.connected.await(5, TimeUnit.SECONDS));
+            assertEquals("RFB 003.008\n", listener.text());
+            assertEquals(0, pool.pooled());
+
+            upstream.get().write(ByteBuffer.wrap(VERSION));
+            InputStream in = server.getInputStream();
+            assertArrayEquals(VERSION, in.readNBytes(VERSION.length));
+
+            server.getOutputStream().write(new byte[]{0, 0, 0, 1});
+            server.getOutputStream().flush();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (listener.text().length() < 16 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(16, listener.text().length());
+            upstream.get().close();
+        }
+        assertEquals(1.0, meterRegistry.get("novnc.warm.claims").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void claim_shouldMissForOtherTargetOrUser() throws Exception {
+        pool = new WarmUpstreamPool(engine, meterRegistry, true, 60_000, 1, 100);
+        int port = vncServer.getLocalPort();
+
+        pool.warm(1L, "127.0.0.1", port);
+        try (Socket server = vncServer.accept()) {
+            assertTrue(pool.claim(2L, "127.0.0.1", port, new RecordingListener()).isEmpty());
+            assertTrue(pool.claim(1L, "127.0.0.1", port + 1, new RecordingListener()).isEmpty());
+            // Falsches Ziel verwirft die Verbindung
+            assertEquals(-1, server.getInputStream().read());
+        }
+        assertEquals(0, pool.pooled());
+        assertEquals(2.0, meterRegistry.get("novnc.warm.claims").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void warm_shouldCloseUnclaimedConnectionAfterTtl() throws Exception {
+        pool = new WarmUpstreamPool(engine, meterRegistry, true, 100, 1, 100);
+
+        pool.warm(1L, "127.0.0.1", vncServer.getLocalPort());
+        try (Socket server = vncServer.accept()) {
+            assertEquals(-1, server.getInputStream().read());
+        }
+
+        assertEquals(0, pool.pooled());
+        assertTrue(pool.claim(1L, "127.0.0.1", vncServer.getLocalPort(), new RecordingListener()).isEmpty());
+        assertEquals(1.0, meterRegistry.get("novnc.warm.expired").counter().count());
+    }
+
+    @Test
+    void discard_shouldCloseConnection() throws Exception {
+        pool = new WarmUpstreamPool(engine, meterRegistry, true, 60_000, 1, 100);
+
+        pool.warm(1L, "127.0.0.1", vncServer.getLocalPort());
+        try (Socket server = vncServer.accept()) {
+            pool.discard(1L);
+            assertEquals(-1, server.getInputStream().read());
+        }
+        assertEquals(0, pool.pooled());
+    }
+
+    @Test
+    void warm_shouldDoNothingWhenDisabled() {
+        pool = new WarmUpstreamPool(engine, meterRegistry, false, 60_000, 1, 100);
+
+        pool.warm(1L, "127.0.0.1", vncServer.getLocalPort());
+
+        assertEquals(0, pool.pooled());
+    }
+}